@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon;
+
+import java.lang.reflect.Method;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import no.nordicsemi.android.nrfbeacon.config.BeaconConfigCodec;
+import no.nordicsemi.android.nrfbeacon.config.ConfigProtocol;
+import no.nordicsemi.android.nrfbeacon.config.ConnectionMetrics;
+import no.nordicsemi.android.nrfbeacon.config.GattCacheTracker;
+import no.nordicsemi.android.nrfbeacon.config.SettleTimeEstimator;
+import no.nordicsemi.android.nrfbeacon.config.ConfigTransport;
+
+/**
+ * The {@link ConfigTransport} implementation using the Android {@link BluetoothGatt} API. Each instance handles a single connection, so many of them may be used at the same time by the
+ * {@link no.nordicsemi.android.nrfbeacon.provisioning.ProvisioningEngine}.
+ */
+public class GattConfigTransport implements ConfigTransport {
+	private static final String TAG = "GattConfigTransport";
+
+	/**
+	 * Creates transports for devices with given addresses.
+	 */
+	public static class Factory implements ConfigTransport.Factory {
+		private final Context mContext;
+		private final BluetoothAdapter mAdapter;
+		private final ConnectionMetrics mMetrics;
+		private final SettleTimeEstimator mSettleTimeEstimator;
+		private final GattCacheTracker mGattCacheTracker;
+		private final Looper mLooper;
+
+		public Factory(final Context context, final ConnectionMetrics metrics, final SettleTimeEstimator settleTimeEstimator, final GattCacheTracker gattCacheTracker,
+				final Looper looper) {
+			mContext = context.getApplicationContext();
+			final BluetoothManager bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
+			mAdapter = bluetoothManager.getAdapter();
+			mMetrics = metrics;
+			mSettleTimeEstimator = settleTimeEstimator;
+			mGattCacheTracker = gattCacheTracker;
+			mLooper = looper;
+		}
+
+		@Override
+		public ConfigTransport create(final String address) {
+			return new GattConfigTransport(mContext, mAdapter.getRemoteDevice(address), mMetrics, mSettleTimeEstimator, mGattCacheTracker, mLooper);
+		}
+	}
+
+	private final Context mContext;
+	private final BluetoothDevice mDevice;
+	private final Handler mHandler;
+	private final ConnectionMetrics mMetrics;
+	private final SettleTimeEstimator mSettleTimeEstimator;
+	private final GattCacheTracker mGattCacheTracker;
+	private BluetoothGatt mBluetoothGatt;
+	private volatile BluetoothGattService mConfigService;
+	private volatile String mFirmwareId;
+	private Callback mCallback;
+	private volatile boolean mDisconnecting;
+	private boolean mClosed;
+	/** The times at which the current phases have started, see {@link ConnectionMetrics}. */
+	private long mConnectStart, mConnectedTime, mRequestStart, mDisconnectStart;
+
+	/**
+	 * Creates the transport.
+	 * 
+	 * @param context
+	 *            the context
+	 * @param device
+	 *            the device to connect to
+	 * @param metrics
+	 *            the metrics to record the connection phases in, may be <code>null</code>
+	 * @param settleTimeEstimator
+	 *            the estimator of the time after which the disconnection is assumed even if the system has not reported it. If <code>null</code>
+	 *            {@link SettleTimeEstimator#DEFAULT_SETTLE_TIME} is used.
+	 * @param gattCacheTracker
+	 *            the tracker deciding whether the device cache should be cleared after disconnection. If <code>null</code> the cache is always cleared.
+	 * @param looper
+	 *            the looper of the thread the callbacks are delivered on. The transport should also be used only from this thread.
+	 */
+	public GattConfigTransport(final Context context, final BluetoothDevice device, final ConnectionMetrics metrics, final SettleTimeEstimator settleTimeEstimator,
+			final GattCacheTracker gattCacheTracker, final Looper looper) {
+		mContext = context;
+		mDevice = device;
+		mMetrics = metrics;
+		mSettleTimeEstimator = settleTimeEstimator;
+		mGattCacheTracker = gattCacheTracker;
+		mHandler = new Handler(looper);
+	}
+
+	/**
+	 * The system calls these methods on a binder thread. All the work is handed over to the thread of the transport, so the state is only modified there.
+	 */
+	private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+		@Override
+		public void onConnectionStateChange(final BluetoothGatt gatt, final int status, final int newState) {
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					handleConnectionStateChange(gatt, status, newState);
+				}
+			});
+		}
+
+		@Override
+		public void onServicesDiscovered(final BluetoothGatt gatt, final int status) {
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					handleServicesDiscovered(gatt, status);
+				}
+			});
+		}
+
+		@Override
+		public void onCharacteristicRead(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final int status) {
+			// The characteristic object is reused, its value has to be copied before it is overwritten by the next operation
+			final UUID uuid = characteristic.getUuid();
+			final byte[] value = status == BluetoothGatt.GATT_SUCCESS ? copy(characteristic.getValue()) : null;
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (isClosed(gatt))
+						return;
+					if (status == BluetoothGatt.GATT_SUCCESS)
+						record(ConnectionMetrics.PHASE_READ, mRequestStart);
+					mCallback.onCharacteristicRead(uuid, status, value);
+				}
+			});
+		}
+
+		@Override
+		public void onCharacteristicWrite(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final int status) {
+			final UUID uuid = characteristic.getUuid();
+			final byte[] value = status == BluetoothGatt.GATT_SUCCESS ? copy(characteristic.getValue()) : null;
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (isClosed(gatt))
+						return;
+					if (status == BluetoothGatt.GATT_SUCCESS)
+						record(ConnectionMetrics.PHASE_WRITE, mRequestStart);
+					mCallback.onCharacteristicWrite(uuid, status, value);
+				}
+			});
+		}
+	};
+
+	private void handleConnectionStateChange(final BluetoothGatt gatt, final int status, final int newState) {
+		// A requested disconnection may also be reported with an error, f.e. 8 (connection timeout), it's still a sample of the settle time
+		if (newState == BluetoothProfile.STATE_DISCONNECTED && mDisconnecting && !isClosed(gatt))
+			record(ConnectionMetrics.PHASE_DISCONNECT, mDisconnectStart);
+
+		if (status != BluetoothGatt.GATT_SUCCESS) {
+			logw("Connection state change error: " + status);
+			close(gatt, status);
+			return;
+		}
+
+		if (newState == BluetoothProfile.STATE_CONNECTED) {
+			if (isClosed(gatt))
+				return;
+			record(ConnectionMetrics.PHASE_CONNECT, mConnectStart);
+			mConnectedTime = System.nanoTime();
+			// Attempts to discover services after successful connection.
+			gatt.discoverServices();
+		} else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+			close(gatt, BluetoothGatt.GATT_SUCCESS);
+		}
+	}
+
+	private void handleServicesDiscovered(final BluetoothGatt gatt, final int status) {
+		if (status != BluetoothGatt.GATT_SUCCESS) {
+			logw("Service discovery error: " + status);
+			close(gatt, status);
+			return;
+		}
+		if (isClosed(gatt))
+			return;
+
+		record(ConnectionMetrics.PHASE_SERVICE_DISCOVERY, mConnectedTime);
+		final BluetoothGattService configService = gatt.getService(ConfigProtocol.CONFIG_SERVICE_UUID);
+		if (configService == null || configService.getCharacteristic(ConfigProtocol.CONFIG_UUID_CHARACTERISTIC_UUID) == null
+				&& configService.getCharacteristic(ConfigProtocol.CONFIG_MAJOR_MINOR_CHARACTERISTIC_UUID) == null
+				&& configService.getCharacteristic(ConfigProtocol.CONFIG_RSSI_CHARACTERISTIC_UUID) == null) {
+			// Config service is not present
+			gatt.disconnect();
+			close(gatt, ERROR_UNSUPPORTED_DEVICE);
+			return;
+		}
+		mFirmwareId = getFingerprint(gatt);
+		mConfigService = configService;
+		record(ConnectionMetrics.PHASE_SETUP, mConnectStart);
+		mCallback.onConnected();
+	}
+
+	@Override
+	public String getAddress() {
+		return mDevice.getAddress();
+	}
+
+	@Override
+	public String getFirmwareId() {
+		return mFirmwareId;
+	}
+
+	@Override
+	public boolean connect(final Callback callback) {
+		// The transport may be connected again after it has been closed. The lock also publishes the callback to the thread of the transport if connect is called from another one.
+		synchronized (this) {
+			mCallback = callback;
+			mConnectStart = System.nanoTime();
+			mClosed = false;
+			mDisconnecting = false;
+			mBluetoothGatt = mDevice.connectGatt(mContext, false, mGattCallback);
+			return mBluetoothGatt != null;
+		}
+	}
+
+	@Override
+	public void disconnect() {
+		final BluetoothGatt gatt;
+		synchronized (this) {
+			if (mBluetoothGatt == null || mClosed || mDisconnecting)
+				return;
+			mDisconnecting = true;
+			gatt = mBluetoothGatt;
+		}
+		mDisconnectStart = System.nanoTime();
+		gatt.disconnect();
+
+		// Sometimes the connection gets error 129 or 133 and the disconnection is never reported. The callback is notified after a timeout in that case.
+		// The timeout is learned from previous disconnections of the device, so the worst-case time is not always paid.
+		final long timeout = mSettleTimeEstimator != null ? mSettleTimeEstimator.getSettleTime(mDevice.getAddress()) : SettleTimeEstimator.DEFAULT_SETTLE_TIME;
+		mHandler.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				if (!isClosed(gatt))
+					record(ConnectionMetrics.PHASE_FORCED_CLOSE, mDisconnectStart);
+				close(gatt, BluetoothGatt.GATT_SUCCESS);
+			}
+		}, timeout);
+	}
+
+	@Override
+	public void close() {
+		final BluetoothGatt gatt;
+		synchronized (this) {
+			if (mBluetoothGatt == null || mClosed)
+				return;
+			gatt = mBluetoothGatt;
+		}
+		logw("Closing connection that has not been reported as disconnected");
+		if (mDisconnecting)
+			record(ConnectionMetrics.PHASE_FORCED_CLOSE, mDisconnectStart);
+		gatt.disconnect();
+		close(gatt, BluetoothGatt.GATT_SUCCESS);
+	}
+
+	@Override
+	public boolean hasCharacteristic(final UUID characteristicUuid) {
+		final BluetoothGattService service = mConfigService;
+		return service != null && service.getCharacteristic(characteristicUuid) != null;
+	}
+
+	@Override
+	public boolean read(final UUID characteristicUuid) {
+		final BluetoothGattService service = mConfigService;
+		if (service == null)
+			return false;
+		final BluetoothGattCharacteristic characteristic = service.getCharacteristic(characteristicUuid);
+		mRequestStart = System.nanoTime();
+		return characteristic != null && mBluetoothGatt.readCharacteristic(characteristic);
+	}
+
+	@Override
+	public boolean write(final UUID characteristicUuid, final byte[] value) {
+		final BluetoothGattService service = mConfigService;
+		if (service == null)
+			return false;
+		final BluetoothGattCharacteristic characteristic = service.getCharacteristic(characteristicUuid);
+		if (characteristic == null)
+			return false;
+		characteristic.setValue(value);
+		mRequestStart = System.nanoTime();
+		return mBluetoothGatt.writeCharacteristic(characteristic);
+	}
+
+	/**
+	 * Calculates the fingerprint of the GATT database: the CRC32 of all service and characteristic UUIDs and characteristic properties. The Config Mode firmware does not expose its version, so
+	 * the layout of the database is used to tell firmware versions apart.
+	 * 
+	 * @return the fingerprint as a hexadecimal string
+	 */
+	private static String getFingerprint(final BluetoothGatt gatt) {
+		final CRC32 crc = new CRC32();
+		final byte[] buffer = new byte[BeaconConfigCodec.UUID_LENGTH];
+		for (final BluetoothGattService service : gatt.getServices()) {
+			update(crc, buffer, service.getUuid());
+			for (final BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+				update(crc, buffer, characteristic.getUuid());
+				crc.update(characteristic.getProperties());
+			}
+		}
+		return Long.toHexString(crc.getValue());
+	}
+
+	private static void update(final CRC32 crc, final byte[] buffer, final UUID uuid) {
+		BeaconConfigCodec.encodeUuid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), buffer, 0);
+		crc.update(buffer, 0, buffer.length);
+	}
+
+	private static byte[] copy(final byte[] value) {
+		return value != null ? value.clone() : null;
+	}
+
+	private synchronized boolean isClosed(final BluetoothGatt gatt) {
+		return mClosed || gatt != mBluetoothGatt;
+	}
+
+	private void record(final int phase, final long startNanos) {
+		if (mMetrics != null)
+			mMetrics.record(mDevice.getAddress(), phase, startNanos);
+	}
+
+	/**
+	 * Closes the GATT object and notifies the callback. Only the first call has effect.
+	 */
+	private void close(final BluetoothGatt gatt, final int status) {
+		synchronized (this) {
+			// The forced close of the previous connection must not close the new one
+			if (mClosed || gatt != mBluetoothGatt)
+				return;
+			mClosed = true;
+		}
+		// The firmware ID is the fingerprint of the discovered services. It is null if the discovery has not completed or the Config service was not found.
+		final String fingerprint = mFirmwareId;
+		mConfigService = null;
+		mFirmwareId = null;
+		if (mGattCacheTracker == null || mGattCacheTracker.onClose(mDevice.getAddress(), fingerprint))
+			refreshDeviceCache(gatt);
+		gatt.close();
+		mCallback.onDisconnected(status);
+	}
+
+	/**
+	 * Clears the device cache.
+	 * <p>
+	 * CAUTION:<br />
+	 * It is very unsafe to call the refresh() method. First of all it's hidden so it may be removed in the future release of Android. We do it because Nordic Beacon may advertise as a beacon, as
+	 * Beacon Config or DFU. Android does not clear cache then device is disconnected unless manually restarted Bluetooth Adapter. To do this in the code we need to call
+	 * {@link BluetoothGatt#refresh()} method. However is may cause a lot of troubles. Ideally it should be called before connection attempt but we get 'gatt' object by calling connectGatt method so
+	 * when the connection already has been started. Calling refresh() afterwards causes errors 129 and 133 to pop up from time to time when refresh takes place actually during service discovery. It
+	 * seems to be asynchronous method. Therefore we are refreshing the device after disconnecting from it, before closing gatt. Sometimes you may obtain services from cache, not the actual values so
+	 * reconnection is required.
+	 * <p>
+	 * As the following connection has to discover the services again, the cache is cleared only when {@link GattCacheTracker} finds the services may have changed.
+	 * </p>
+	 * 
+	 * @param gatt
+	 *            the Bluetooth GATT object to refresh.
+	 */
+	private boolean refreshDeviceCache(final BluetoothGatt gatt) {
+		/*
+		 * There is a refresh() method in BluetoothGatt class but for now it's hidden. We will call it using reflections.
+		 */
+		try {
+			final Method refresh = gatt.getClass().getMethod("refresh");
+			if (refresh != null) {
+				return (Boolean) refresh.invoke(gatt);
+			}
+		} catch (final Exception e) {
+			loge("An exception occurred while refreshing device");
+		}
+		return false;
+	}
+
+	private void loge(final String message) {
+		if (BuildConfig.DEBUG)
+			Log.e(TAG, message);
+	}
+
+	private void logw(final String message) {
+		if (BuildConfig.DEBUG)
+			Log.w(TAG, message);
+	}
+}
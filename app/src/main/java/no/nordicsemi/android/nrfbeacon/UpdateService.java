@@ -21,30 +21,104 @@
  */
 package no.nordicsemi.android.nrfbeacon;
 
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
+import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.ParcelUuid;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 import android.util.Pair;
 
+import no.nordicsemi.android.nrfbeacon.config.ApplyProfileResult;
+import no.nordicsemi.android.nrfbeacon.config.BeaconConfig;
+import no.nordicsemi.android.nrfbeacon.config.ConfigCache;
+import no.nordicsemi.android.nrfbeacon.config.ConfigClient;
+import no.nordicsemi.android.nrfbeacon.config.ConfigProtocol;
+import no.nordicsemi.android.nrfbeacon.config.ConfigTransport;
+import no.nordicsemi.android.nrfbeacon.config.ConnectionManager;
+import no.nordicsemi.android.nrfbeacon.config.ConnectionMetrics;
+import no.nordicsemi.android.nrfbeacon.config.GattCacheTracker;
+import no.nordicsemi.android.nrfbeacon.config.OperationFuture;
+import no.nordicsemi.android.nrfbeacon.config.OperationQueue;
+import no.nordicsemi.android.nrfbeacon.config.ProfileTransaction;
+import no.nordicsemi.android.nrfbeacon.config.ReconnectPolicy;
+import no.nordicsemi.android.nrfbeacon.config.SettleTimeEstimator;
+import no.nordicsemi.android.nrfbeacon.database.DatabaseHelper;
+import no.nordicsemi.android.nrfbeacon.provisioning.InventorySweep;
+import no.nordicsemi.android.nrfbeacon.provisioning.MajorMinorAllocator;
+import no.nordicsemi.android.nrfbeacon.provisioning.ProvisioningEngine;
+import no.nordicsemi.android.nrfbeacon.provisioning.ProvisioningJournal;
+import no.nordicsemi.android.nrfbeacon.provisioning.ProvisioningPlanImporter;
+import no.nordicsemi.android.nrfbeacon.util.SpscQueue;
+import no.nordicsemi.android.support.v18.scanner.BluetoothLeScannerCompat;
+import no.nordicsemi.android.support.v18.scanner.ScanCallback;
+import no.nordicsemi.android.support.v18.scanner.ScanFilter;
+import no.nordicsemi.android.support.v18.scanner.ScanResult;
+import no.nordicsemi.android.support.v18.scanner.ScanSettings;
+
 public class UpdateService extends Service {
 	private static final String TAG = "UpdateService";
 
+	/**
+	 * The typed alternative to the broadcasts sent by the service. Register it with {@link ServiceBinder#registerListener(ConfigListener, Executor)}.
+	 */
+	public interface ConfigListener {
+		/**
+		 * Called when the connection state has changed.
+		 * 
+		 * @param state
+		 *            one of the STATE_* constants
+		 */
+		public void onStateChanged(final int state);
+
+		/**
+		 * Called when the device is connected and ready to be read.
+		 * 
+		 * @param advancedSupported
+		 *            <code>true</code> if the device supports the advanced settings
+		 */
+		public void onConnected(final boolean advancedSupported);
+
+		/**
+		 * Called when one or more values have been read, written or taken from the cache.
+		 * 
+		 * @param config
+		 *            the snapshot of all values known for the device. Fields not known are <code>null</code>. The snapshot is shared between listeners and must not be modified.
+		 */
+		public void onConfigChanged(final BeaconConfig config);
+
+		/**
+		 * Called when {@link ServiceBinder#applyProfile(BeaconConfig)} has finished.
+		 */
+		public void onProfileApplied(final ApplyProfileResult result);
+
+		/**
+		 * Called when a GATT error occurred.
+		 * 
+		 * @param error
+		 *            the GATT status, {@link UpdateService#ERROR_UNSUPPORTED_DEVICE} or {@link UpdateService#ERROR_MAJOR_MINOR_EXHAUSTED}
+		 */
+		public void onError(final int error);
+	}
+
 	public final static String ACTION_STATE_CHANGED = "no.nordicsemi.android.nrfbeacon.ACTION_STATE_CHANGED";
 	public final static String ACTION_GATT_ERROR = "no.nordicsemi.android.nrfbeacon.ACTION_GATT_ERROR";
 	public final static String ACTION_DONE = "no.nordicsemi.android.nrfbeacon.ACTION_DONE";
@@ -54,14 +128,22 @@ public class UpdateService extends Service {
 	public final static String ACTION_MANUFACTURER_ID_READY = "no.nordicsemi.android.nrfbeacon.ACTION_MANUFACTURER_ID_READY";
 	public final static String ACTION_ADV_INTERVAL_READY = "no.nordicsemi.android.nrfbeacon.ACTION_ADV_INTERVAL_READY";
 	public final static String ACTION_LED_STATUS_READY = "no.nordicsemi.android.nrfbeacon.ACTION_LED_STATUS_READY";
+	/** Broadcast when {@link ServiceBinder#applyProfile(BeaconConfig)} has finished. The {@link ApplyProfileResult} is in the {@link #EXTRA_DATA} field. */
+	public final static String ACTION_PROFILE_APPLIED = "no.nordicsemi.android.nrfbeacon.ACTION_PROFILE_APPLIED";
 
 	public final static String EXTRA_DATA = "no.nordicsemi.android.nrfbeacon.EXTRA_DATA";
 	public final static String EXTRA_MAJOR = "no.nordicsemi.android.nrfbeacon.EXTRA_MAJOR";
 	public final static String EXTRA_MINOR = "no.nordicsemi.android.nrfbeacon.EXTRA_MINOR";
 
-	public final static int ERROR_UNSUPPORTED_DEVICE = -1;
+	public final static int ERROR_UNSUPPORTED_DEVICE = ConfigTransport.ERROR_UNSUPPORTED_DEVICE;
+	/** Reported when {@link ServiceBinder#assignMajorAndMinor(int)} found no free minor number. The connection is kept. */
+	public final static int ERROR_MAJOR_MINOR_EXHAUSTED = -20;
 
-	private int mConnectionState;
+	/** Passed instead of a field number when all known fields have changed. */
+	private final static int FIELD_ALL = -1;
+
+	/** Written only on the GATT thread. */
+	private volatile int mConnectionState;
 	public final static int STATE_DISCONNECTED = 0;
 	public final static int STATE_CONNECTING = 1;
 	public final static int STATE_DISCOVERING_SERVICES = 2;
@@ -72,159 +154,157 @@ public class UpdateService extends Service {
 	public final static int SERVICE_MAJOR_MINOR = 2;
 	public final static int SERVICE_CALIBRATION = 3;
 
-	public static final UUID CONFIG_SERVICE_UUID = new UUID(0x955A15230FE2F5AAl, 0xA09484B8D4F3E8ADl);
-	private static final UUID CONFIG_UUID_CHARACTERISTIC_UUID = new UUID(0x955A15240FE2F5AAl, 0xA09484B8D4F3E8ADl);
-	private static final UUID CONFIG_RSSI_CHARACTERISTIC_UUID = new UUID(0x955A15250FE2F5AAl, 0xA09484B8D4F3E8ADl);
-	private static final UUID CONFIG_MAJOR_MINOR_CHARACTERISTIC_UUID = new UUID(0x955A15260FE2F5AAl, 0xA09484B8D4F3E8ADl);
-	private static final UUID CONFIG_MANUFACTURER_ID_CHARACTERISTIC_UUID = new UUID(0x955A15270FE2F5AAl, 0xA09484B8D4F3E8ADl);
-	private static final UUID CONFIG_ADV_INTERVAL_CHARACTERISTIC_UUID = new UUID(0x955A15280FE2F5AAl, 0xA09484B8D4F3E8ADl);
-	private static final UUID CONFIG_LED_SETTINGS_CHARACTERISTIC_UUID = new UUID(0x955A15290FE2F5AAl, 0xA09484B8D4F3E8ADl);
+	public static final UUID CONFIG_SERVICE_UUID = ConfigProtocol.CONFIG_SERVICE_UUID;
+	/** The service UUID advertised by beacons in the config mode. */
+	public static final UUID BEACON_CONFIG_ADV_UUID = UUID.fromString("955A1523-0FE2-F5AA-0A094-84B8D4F3E8AD");
 
-	private BluetoothAdapter mAdapter;
-	private BluetoothDevice mBluetoothDevice;
-	private BluetoothGatt mBluetoothGatt;
-	private BluetoothGattCharacteristic mUuidCharacteristic;
-	private BluetoothGattCharacteristic mMajorMinorCharacteristic;
-	private BluetoothGattCharacteristic mRssiCharacteristic;
-	private BluetoothGattCharacteristic mManufacturerIdCharacteristic;
-	private BluetoothGattCharacteristic mAdvIntervalCharacteristic;
-	private BluetoothGattCharacteristic mLedSettingsCharacteristic;
+	/** The timings of all config connections made since the application has started. The service is stopped after every connection, so they are kept in a static field. */
+	private final static ConnectionMetrics mConnectionMetrics = new ConnectionMetrics();
+	/** Learns how long each device takes to disconnect from the metrics above. */
+	private final static SettleTimeEstimator mSettleTimeEstimator = new SettleTimeEstimator();
 
-	private Handler mHandler;
+	/** Decides when the GATT cache of a device has to be cleared. Shared with the DFU, which marks updated devices. */
+	private static GattCacheTracker mGattCacheTracker;
+	/** Hands out unique major and minor numbers. Shared by all connections and provisioning workers. */
+	private static MajorMinorAllocator mMajorMinorAllocator;
 
-	private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
-		@Override
-		public void onConnectionStateChange(final BluetoothGatt gatt, final int status, final int newState) {
-			if (status != BluetoothGatt.GATT_SUCCESS) {
-				logw("Connection state change error: " + status);
-				broadcastError(status);
-				return;
-			}
+	/**
+	 * The thread all config connections are driven on. It owns the clients, the connection state and the session configuration: GATT callbacks, timeouts and the requests made through the
+	 * {@link ServiceBinder} are all handed over to it, so they never race with each other. It is shared by all service instances, as a connection may outlive the service that started it.
+	 */
+	private static HandlerThread mGattThread;
 
-			if (newState == BluetoothProfile.STATE_CONNECTED) {
-				setState(STATE_DISCOVERING_SERVICES);
-				// Attempts to discover services after successful connection.
-				gatt.discoverServices();
-			} else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-				setState(STATE_DISCONNECTED);
-				refreshDeviceCache(gatt);
-				gatt.close();
-				mBluetoothGatt = null;
-				stopSelf();
-			}
-		}
+	static {
+		mConnectionMetrics.addListener(mSettleTimeEstimator);
+	}
 
+	private BluetoothAdapter mAdapter;
+	private volatile BluetoothDevice mBluetoothDevice;
+	/** The client of the current connection, <code>null</code> when disconnected. Written only on the GATT thread. */
+	private volatile ConfigClient mClient;
+	/** Reconnects the client when the connection fails with a transient error. Written only on the GATT thread. */
+	private volatile ConnectionManager mConnectionManager;
+	/** The values read from or written to the device during the current connection, or taken from the cache. Replaced, never modified, on the GATT thread. */
+	private volatile BeaconConfig mSessionConfig = new BeaconConfig();
+	private ConfigCache mConfigCache;
+
+	/** The handler of the GATT thread. */
+	private Handler mHandler;
+	private OperationQueue.Scheduler mScheduler;
+	private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
+	private final List<Registration> mListeners = new CopyOnWriteArrayList<>();
+	/** Events for the listeners registered for the main thread. Produced on the GATT thread, consumed on the main thread. */
+	private final SpscQueue<Event> mMainThreadEvents = new SpscQueue<>();
+	private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+	private final Runnable mDrainTask = new Runnable() {
 		@Override
-		public void onServicesDiscovered(final BluetoothGatt gatt, final int status) {
-			if (status != BluetoothGatt.GATT_SUCCESS) {
-				logw("Service discovery error: " + status);
-				broadcastError(status);
-				return;
+		public void run() {
+			// Cleared before draining, so an event offered after the last poll schedules another drain
+			mDrainScheduled.set(false);
+			Event event;
+			while ((event = mMainThreadEvents.poll()) != null) {
+				for (final Registration registration : mListeners) {
+					if (registration.mExecutor == null)
+						event.deliver(registration.mListener);
+				}
 			}
+		}
+	};
+	/** Whether the values and events are also sent as local broadcasts. Disable it when all clients use {@link ConfigListener}. */
+	private volatile boolean mBroadcastsEnabled = true;
+	private ProvisioningEngine mProvisioningEngine;
+	private ProvisioningJournal mProvisioningJournal;
+	private InventorySweep mInventorySweep;
+	private ScanCallback mInventoryScanCallback;
+
+	private final ConnectionManager.Listener mConnectionListener = new ConnectionManager.Listener() {
+		@Override
+		public void onReconnecting(final ConfigClient client, final int status, final int attempt, final long delay) {
+			logw("Connection error: " + status + ", reconnecting in " + delay + " ms (attempt " + attempt + ")");
+			setState(STATE_CONNECTING);
+		}
 
+		@Override
+		public void onConnected(final ConfigClient client) {
 			// We have successfully connected
 			setState(STATE_CONNECTED);
+			notifyConnected(isAdvancedSupported(client));
+		}
 
-			// Search for config service
-			final BluetoothGattService configService = gatt.getService(CONFIG_SERVICE_UUID);
-			if (configService == null) {
-				// Config service is not present
-				broadcastError(ERROR_UNSUPPORTED_DEVICE);
-				setState(STATE_DISCONNECTING);
-				gatt.disconnect();
-				return;
+		@Override
+		public void onDisconnected(final ConfigClient client, final int status) {
+			if (status != OperationQueue.GATT_SUCCESS) {
+				logw("Connection error: " + status);
+				notifyError(status);
 			}
-
-			mUuidCharacteristic = configService.getCharacteristic(CONFIG_UUID_CHARACTERISTIC_UUID);
-			mMajorMinorCharacteristic = configService.getCharacteristic(CONFIG_MAJOR_MINOR_CHARACTERISTIC_UUID);
-			mRssiCharacteristic = configService.getCharacteristic(CONFIG_RSSI_CHARACTERISTIC_UUID);
-			mManufacturerIdCharacteristic = configService.getCharacteristic(CONFIG_MANUFACTURER_ID_CHARACTERISTIC_UUID);
-			mAdvIntervalCharacteristic = configService.getCharacteristic(CONFIG_ADV_INTERVAL_CHARACTERISTIC_UUID);
-			mLedSettingsCharacteristic = configService.getCharacteristic(CONFIG_LED_SETTINGS_CHARACTERISTIC_UUID);
-
-			if (mUuidCharacteristic != null || mMajorMinorCharacteristic != null || mRssiCharacteristic != null)
-				broadcastOperationCompleted(mManufacturerIdCharacteristic != null || mAdvIntervalCharacteristic != null || mLedSettingsCharacteristic != null);
-
-			if (mUuidCharacteristic == null && mMajorMinorCharacteristic == null && mRssiCharacteristic == null) {
-				// Config characteristics is not present
-				broadcastError(ERROR_UNSUPPORTED_DEVICE);
-				setState(STATE_DISCONNECTING);
-				gatt.disconnect();
+			if (mClient == client) {
+				mClient = null;
+				mConnectionManager = null;
 			}
+			logi("Connection metrics:\n" + mConnectionMetrics);
+			setState(STATE_DISCONNECTED);
+			stopSelf();
 		}
+	};
 
+	private final ConfigClient.ValueListener mValueListener = new ConfigClient.ValueListener() {
 		@Override
-		public void onCharacteristicWrite(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final int status) {
-			if (status != BluetoothGatt.GATT_SUCCESS) {
-				logw("Characteristic write error: " + status);
-				broadcastError(status);
+		public void onValueRead(final ConfigClient client, final UUID characteristicUuid, final int status, final byte[] value) {
+			if (status != OperationQueue.GATT_SUCCESS) {
+				logw("Characteristic read error: " + status);
+				notifyError(status);
 				return;
 			}
-
-			if (CONFIG_UUID_CHARACTERISTIC_UUID.equals(characteristic.getUuid())) {
-				final UUID uuid = decodeBeaconUUID(characteristic);
-				broadcastUuid(uuid);
-			} else if (CONFIG_MAJOR_MINOR_CHARACTERISTIC_UUID.equals(characteristic.getUuid())) {
-				final int major = decodeUInt16(characteristic, 0);
-				final int minor = decodeUInt16(characteristic, 2);
-				broadcastMajorAndMinor(major, minor);
-			} else if (CONFIG_RSSI_CHARACTERISTIC_UUID.equals(characteristic.getUuid())) {
-				final int rssi = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_SINT8, 0);
-				broadcastRssi(rssi);
-			} else if (CONFIG_MANUFACTURER_ID_CHARACTERISTIC_UUID.equals(characteristic.getUuid())) {
-				final int id = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16, 0);
-				broadcastManufacturerId(id);
-			} else if (CONFIG_ADV_INTERVAL_CHARACTERISTIC_UUID.equals(characteristic.getUuid())) {
-				final int interval = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16, 0);
-				broadcastAdvInterval(interval);
-			} else if (CONFIG_LED_SETTINGS_CHARACTERISTIC_UUID.equals(characteristic.getUuid())) {
-				final boolean on = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, 0) == 1;
-				broadcastLedStatus(on);
-			}
+			final int field = ConfigProtocol.getField(characteristicUuid);
+			final BeaconConfig config = field != -1 ? updateSessionConfig(field, value) : null;
+			if (config != null)
+				notifyConfigChanged(config, field);
 		}
 
 		@Override
-		public void onCharacteristicRead(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final int status) {
-			if (status != BluetoothGatt.GATT_SUCCESS) {
-				logw("Characteristic read error: " + status);
-				broadcastError(status);
+		public void onValueWritten(final ConfigClient client, final UUID characteristicUuid, final int status, final byte[] value) {
+			if (status != OperationQueue.GATT_SUCCESS) {
+				logw("Characteristic write error: " + status);
+				notifyError(status);
 				return;
 			}
-
-			if (CONFIG_UUID_CHARACTERISTIC_UUID.equals(characteristic.getUuid())) {
-				final UUID uuid = decodeBeaconUUID(characteristic);
-				broadcastUuid(uuid);
-				if (mMajorMinorCharacteristic != null && mMajorMinorCharacteristic.getValue() == null)
-					gatt.readCharacteristic(mMajorMinorCharacteristic);
-			} else if (CONFIG_MAJOR_MINOR_CHARACTERISTIC_UUID.equals(characteristic.getUuid())) {
-				final int major = decodeUInt16(characteristic, 0);
-				final int minor = decodeUInt16(characteristic, 2);
-				broadcastMajorAndMinor(major, minor);
-				if (mRssiCharacteristic != null && mRssiCharacteristic.getValue() == null)
-					gatt.readCharacteristic(mRssiCharacteristic);
-			} else if (CONFIG_RSSI_CHARACTERISTIC_UUID.equals(characteristic.getUuid())) {
-				final int rssi = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_SINT8, 0);
-				broadcastRssi(rssi);
-				if (mManufacturerIdCharacteristic != null && mManufacturerIdCharacteristic.getValue() == null)
-					gatt.readCharacteristic(mManufacturerIdCharacteristic);
-			} else if (CONFIG_MANUFACTURER_ID_CHARACTERISTIC_UUID.equals(characteristic.getUuid())) {
-				final int id = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16, 0);
-				broadcastManufacturerId(id);
-				if (mAdvIntervalCharacteristic != null && mAdvIntervalCharacteristic.getValue() == null)
-					gatt.readCharacteristic(mAdvIntervalCharacteristic);
-			} else if (CONFIG_ADV_INTERVAL_CHARACTERISTIC_UUID.equals(characteristic.getUuid())) {
-				final int interval = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16, 0);
-				broadcastAdvInterval(interval);
-				if (mLedSettingsCharacteristic != null && mLedSettingsCharacteristic.getValue() == null)
-					gatt.readCharacteristic(mLedSettingsCharacteristic);
-			} else if (CONFIG_LED_SETTINGS_CHARACTERISTIC_UUID.equals(characteristic.getUuid())) {
-				final boolean on = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, 0) == 1;
-				broadcastLedStatus(on);
+			final int field = ConfigProtocol.getField(characteristicUuid);
+			final BeaconConfig config = field != -1 ? updateSessionConfig(field, value) : null;
+			if (config != null) {
+				notifyConfigChanged(config, field);
+				saveSessionConfig(client);
 			}
 		}
 	};
 
 	public class ServiceBinder extends Binder {
+		/**
+		 * Registers the listener of the service events.
+		 * 
+		 * @param listener
+		 *            the listener
+		 * @param executor
+		 *            the executor the events are delivered on, or <code>null</code> to deliver them on the main thread
+		 */
+		public void registerListener(final ConfigListener listener, final Executor executor) {
+			unregisterListener(listener);
+			mListeners.add(new Registration(listener, executor));
+		}
+
+		public void unregisterListener(final ConfigListener listener) {
+			for (final Registration registration : mListeners) {
+				if (registration.mListener == listener)
+					mListeners.remove(registration);
+			}
+		}
+
+		/**
+		 * Sets whether the events are also sent as local broadcasts (ACTION_* intents). They are enabled by default for compatibility. Clients using {@link ConfigListener} should
+		 * disable them, as every broadcast allocates an intent.
+		 */
+		public void setBroadcastsEnabled(final boolean enabled) {
+			mBroadcastsEnabled = enabled;
+		}
 		/**
 		 * Connects to the service. The bluetooth device must have been passed during binding to the service in {@link UpdateService#EXTRA_DATA} field.
 		 * 
@@ -236,7 +316,8 @@ public class UpdateService extends Service {
 				return false;
 			}
 
-			if (mBluetoothDevice == null) {
+			final BluetoothDevice device = mBluetoothDevice;
+			if (device == null) {
 				logw("Target device not specified. Start service with the BluetoothDevice set in EXTRA_DATA field.");
 				return false;
 			}
@@ -246,8 +327,24 @@ public class UpdateService extends Service {
 				return true;
 			}
 
-			setState(STATE_CONNECTING);
-			mBluetoothGatt = mBluetoothDevice.connectGatt(UpdateService.this, false, mGattCallback);
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					// Connect may have been called twice before the first request was handled
+					if (mClient != null)
+						return;
+
+					setState(STATE_CONNECTING);
+					mSessionConfig = new BeaconConfig();
+					final ConfigClient client = mClient = new ConfigClient(new GattConfigTransport(UpdateService.this, device, mConnectionMetrics, mSettleTimeEstimator,
+							getGattCacheTracker(UpdateService.this), mHandler.getLooper()), mScheduler);
+					client.setValueListener(mValueListener);
+					final ConnectionManager manager = mConnectionManager = new ConnectionManager(client, new ReconnectPolicy(), mScheduler);
+					manager.setSettleTimeEstimator(mSettleTimeEstimator);
+					if (!manager.connect(mConnectionListener))
+						mConnectionListener.onDisconnected(client, ReconnectPolicy.GATT_ERROR);
+				}
+			});
 			return true;
 		}
 
@@ -255,44 +352,82 @@ public class UpdateService extends Service {
 		 * Disconnects from the device and closes the Bluetooth GATT object afterwards.
 		 */
 		public void disconnectAndClose() {
-			// This sometimes happen when called from UpdateService.ACTION_GATT_ERROR event receiver in UpdateFragment.
-			if (mBluetoothGatt == null)
-				return;
-
-			setState(STATE_DISCONNECTING);
-			mBluetoothGatt.disconnect();
-
-			// Sometimes the connection gets error 129 or 133. Calling disconnect() method does not really disconnect... sometimes the connection is already broken.
-			// Here we have a security check that notifies UI about disconnection even if onConnectionStateChange(...) has not been called. 
-			mHandler.postDelayed(new Runnable() {
+			mHandler.post(new Runnable() {
 				@Override
 				public void run() {
-					if (mConnectionState == STATE_DISCONNECTING)
-						mGattCallback.onConnectionStateChange(mBluetoothGatt, BluetoothGatt.GATT_SUCCESS, BluetoothProfile.STATE_DISCONNECTED);
+					// This sometimes happen when called from the onError(int) event in UpdateFragment.
+					final ConnectionManager manager = mConnectionManager;
+					if (manager == null || mConnectionState == STATE_DISCONNECTING)
+						return;
+
+					// Sometimes the connection gets error 129 or 133. The transport notifies about the disconnection even if the system does not.
+					setState(STATE_DISCONNECTING);
+					manager.disconnect();
 				}
-			}, 1500);
+			});
 		}
 
 		/**
-		 * Reads all the values from the device, one by one.
+		 * Reads all the values from the device, one by one. Values cached from the previous connection are reported immediately. If they are still fresh (see
+		 * {@link ConfigCache#canSkipRead(ConfigCache.Entry)}) they are not read again.
 		 * 
 		 * @return <code>true</code> if at least one required characteristic has been found on the beacon.
 		 */
 		public boolean read() {
-			if (mBluetoothGatt == null)
+			final ConfigClient client = mClient;
+			if (client == null || client.getState() != ConfigClient.STATE_CONNECTED || !isBasicSupported(client))
 				return false;
 
-			if (mUuidCharacteristic != null) {
-				mBluetoothGatt.readCharacteristic(mUuidCharacteristic);
-				return true;
-			} else if (mMajorMinorCharacteristic != null) {
-				mBluetoothGatt.readCharacteristic(mMajorMinorCharacteristic);
-				return true;
-			} else if (mRssiCharacteristic != null) {
-				mBluetoothGatt.readCharacteristic(mRssiCharacteristic);
-				return true;
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					// The client may have been disconnected in the meantime
+					if (client == mClient)
+						readValues(client);
+				}
+			});
+			return true;
+		}
+
+		/**
+		 * Reports the cached values and reads the values that are not cached or not fresh. Called on the GATT thread.
+		 */
+		private void readValues(final ConfigClient client) {
+			final ConfigCache.Entry entry = mConfigCache.get(client.getTransport().getAddress(), client.getFirmwareId());
+			if (entry != null) {
+				final BeaconConfig cached = entry.getConfig();
+				boolean complete = true;
+				for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field) {
+					if (!client.hasCharacteristic(ConfigProtocol.getCharacteristicUuid(field)))
+						continue;
+					if (!cached.has(field))
+						complete = false;
+				}
+				notifyConfigChanged(cached, FIELD_ALL);
+
+				if (complete && mConfigCache.canSkipRead(entry)) {
+					mSessionConfig = cached;
+					return;
+				}
 			}
-			return false;
+
+			OperationFuture last = null;
+			for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field) {
+				final OperationFuture future = client.enqueueRead(ConfigProtocol.getCharacteristicUuid(field));
+				if (future != null)
+					last = future;
+			}
+			if (last != null) {
+				// Operations complete in order, so all values are known when the last one is done
+				last.addListener(new OperationFuture.Listener() {
+					@Override
+					public void onCompleted(final OperationFuture future) {
+						if (future.isSuccessful())
+							saveSessionConfig(client);
+					}
+				});
+			}
+			client.getOperationQueue().flush();
 		}
 
 		/**
@@ -303,17 +438,9 @@ public class UpdateService extends Service {
 		 * @return <code>true</code> if altering UUID is supported (required characteristic exists)
 		 */
 		public boolean setBeaconUuid(final UUID uuid) {
-			if (mUuidCharacteristic == null || uuid == null)
+			if (uuid == null)
 				return false;
-
-			final byte[] data = new byte[16];
-			for (int i = 0; i < 8; ++i)
-				data[i] = (byte) ((uuid.getMostSignificantBits() >>> (56 - i * 8)) & 0xFF);
-			for (int i = 8; i < 16; ++i)
-				data[i] = (byte) ((uuid.getLeastSignificantBits() >>> (56 - i * 8)) & 0xFF);
-			mUuidCharacteristic.setValue(data);
-			mBluetoothGatt.writeCharacteristic(mUuidCharacteristic);
-			return true;
+			return write(new BeaconConfig().setUuid(uuid), BeaconConfig.FIELD_UUID);
 		}
 
 		/**
@@ -322,14 +449,8 @@ public class UpdateService extends Service {
 		 * @return the beacon service UUID
 		 */
 		public UUID getBeaconUuid() {
-			final BluetoothGattCharacteristic characteristic = mUuidCharacteristic;
-			if (characteristic != null) {
-				final byte[] data = characteristic.getValue();
-				if (data == null || data.length != 16)
-					return null;
-				return decodeBeaconUUID(characteristic);
-			}
-			return null;
+			final BeaconConfig config = getCachedValue(BeaconConfig.FIELD_UUID);
+			return config != null ? config.getUuid() : null;
 		}
 
 		/**
@@ -342,20 +463,57 @@ public class UpdateService extends Service {
 		 * @return <code>true</code> if altering major and minor is supported (required characteristic exists)
 		 */
 		public boolean setMajorAndMinor(final int major, final int minor) {
-			if (mMajorMinorCharacteristic == null)
+			if (!BeaconConfig.isValidMajorOrMinor(major))
 				return false;
 
-			if (major < 0 || major > 0xFFFF)
+			if (!BeaconConfig.isValidMajorOrMinor(minor))
 				return false;
 
-			if (minor < 0 || minor > 0xFFFF)
+			// Major and minor are sent in Big Endian
+			return write(new BeaconConfig().setMajorAndMinor(major, minor), BeaconConfig.FIELD_MAJOR_MINOR);
+		}
+
+		/**
+		 * Writes the given major number and the next free minor number from the {@link MajorMinorAllocator}, so the pair is unique among all beacons configured with this application under
+		 * the current UUID. The UUID must have been read with {@link #read()} before. The pair is allocated on the GATT thread, as it may reserve a block of numbers in the database, and
+		 * given back to the allocator if the write fails. {@link #ERROR_MAJOR_MINOR_EXHAUSTED} is reported when all minor numbers of this major have been used.
+		 * 
+		 * @param major
+		 *            the major number of the site (0-65535)
+		 * @return <code>true</code> if the UUID is known, the major number is valid and altering major and minor is supported
+		 */
+		public boolean assignMajorAndMinor(final int major) {
+			final UUID uuid = getBeaconUuid();
+			if (uuid == null || !BeaconConfig.isValidMajorOrMinor(major))
+				return false;
+
+			final ConfigClient client = mClient;
+			final UUID characteristicUuid = ConfigProtocol.getCharacteristicUuid(BeaconConfig.FIELD_MAJOR_MINOR);
+			if (client == null || !client.hasCharacteristic(characteristicUuid))
 				return false;
 
-			final int majorInverted = (major & 0xFF) << 8 | ((major >> 8) & 0xFF);
-			final int minorInverted = (minor & 0xFF) << 8 | ((minor >> 8) & 0xFF);
-			mMajorMinorCharacteristic.setValue(majorInverted, BluetoothGattCharacteristic.FORMAT_UINT16, 0);
-			mMajorMinorCharacteristic.setValue(minorInverted, BluetoothGattCharacteristic.FORMAT_UINT16, 2);
-			mBluetoothGatt.writeCharacteristic(mMajorMinorCharacteristic);
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (client != mClient)
+						return;
+
+					final MajorMinorAllocator allocator = getMajorMinorAllocator(UpdateService.this);
+					final long pair = allocator.allocate(uuid, major);
+					if (pair == MajorMinorAllocator.NONE) {
+						notifyError(ERROR_MAJOR_MINOR_EXHAUSTED);
+						return;
+					}
+					final BeaconConfig config = new BeaconConfig().setMajorAndMinor(MajorMinorAllocator.getMajor(pair), MajorMinorAllocator.getMinor(pair));
+					client.write(characteristicUuid, ConfigProtocol.encodeField(config, BeaconConfig.FIELD_MAJOR_MINOR)).addListener(new OperationFuture.Listener() {
+						@Override
+						public void onCompleted(final OperationFuture future) {
+							if (!future.isSuccessful())
+								allocator.release(uuid, pair);
+						}
+					});
+				}
+			});
 			return true;
 		}
 
@@ -365,16 +523,8 @@ public class UpdateService extends Service {
 		 * @return the pair where the first value is the major number and the second is the minor value
 		 */
 		public Pair<Integer, Integer> getMajorAndMinor() {
-			final BluetoothGattCharacteristic characteristic = mMajorMinorCharacteristic;
-			if (characteristic != null) {
-				final byte[] data = characteristic.getValue();
-				if (data == null || data.length != 4)
-					return null;
-				final int major = decodeUInt16(characteristic, 0);
-				final int minor = decodeUInt16(characteristic, 2);
-				return new Pair<>(major, minor);
-			}
-			return null;
+			final BeaconConfig config = getCachedValue(BeaconConfig.FIELD_MAJOR_MINOR);
+			return config != null ? new Pair<>(config.getMajor(), config.getMinor()) : null;
 		}
 
 		/**
@@ -385,12 +535,7 @@ public class UpdateService extends Service {
 		 * @return <code>true</code> if altering major and minor is supported (required characteristic exists)
 		 */
 		public boolean setCalibratedRssi(final int rssi) {
-			if (mRssiCharacteristic == null)
-				return false;
-
-			mRssiCharacteristic.setValue(rssi, BluetoothGattCharacteristic.FORMAT_SINT8, 0);
-			mBluetoothGatt.writeCharacteristic(mRssiCharacteristic);
-			return true;
+			return write(new BeaconConfig().setCalibratedRssi(rssi), BeaconConfig.FIELD_RSSI);
 		}
 
 		/**
@@ -400,14 +545,8 @@ public class UpdateService extends Service {
 		 * @return the RSSI value or <code>null</code>
 		 */
 		public Integer getCalibratedRssi() {
-			final BluetoothGattCharacteristic characteristic = mRssiCharacteristic;
-			if (characteristic != null) {
-				final byte[] data = characteristic.getValue();
-				if (data == null || data.length < 1)
-					return null;
-				return characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_SINT8, 0);
-			}
-			return null;
+			final BeaconConfig config = getCachedValue(BeaconConfig.FIELD_RSSI);
+			return config != null ? config.getCalibratedRssi() : null;
 		}
 
 		/**
@@ -418,12 +557,7 @@ public class UpdateService extends Service {
 		 * @return <code>true</code> if altering manufacturer id is supported (required characteristic exists)
 		 */
 		public boolean setManufacturerId(final int id) {
-			if (mManufacturerIdCharacteristic == null)
-				return false;
-
-			mManufacturerIdCharacteristic.setValue(id, BluetoothGattCharacteristic.FORMAT_UINT16, 0);
-			mBluetoothGatt.writeCharacteristic(mManufacturerIdCharacteristic);
-			return true;
+			return write(new BeaconConfig().setManufacturerId(id), BeaconConfig.FIELD_MANUFACTURER_ID);
 		}
 
 		/**
@@ -433,14 +567,8 @@ public class UpdateService extends Service {
 		 * @return the Manufacturer ID or <code>null</code>
 		 */
 		public Integer getManufacturerId() {
-			final BluetoothGattCharacteristic characteristic = mManufacturerIdCharacteristic;
-			if (characteristic != null) {
-				final byte[] data = characteristic.getValue();
-				if (data == null || data.length < 2)
-					return null;
-				return characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16, 0);
-			}
-			return null;
+			final BeaconConfig config = getCachedValue(BeaconConfig.FIELD_MANUFACTURER_ID);
+			return config != null ? config.getManufacturerId() : null;
 		}
 
 		/**
@@ -451,15 +579,10 @@ public class UpdateService extends Service {
 		 * @return <code>true</code> if altering advertising interval is supported (required characteristic exists) and given value is valid, <code>false</code> if not
 		 */
 		public boolean setAdvInterval(final int interval) {
-			if (mAdvIntervalCharacteristic == null)
-				return false;
-
-			if (interval < 100 || interval > 10240)
+			if (!BeaconConfig.isValidAdvInterval(interval))
 				return false;
 
-			mAdvIntervalCharacteristic.setValue(interval, BluetoothGattCharacteristic.FORMAT_UINT16, 0);
-			mBluetoothGatt.writeCharacteristic(mAdvIntervalCharacteristic);
-			return true;
+			return write(new BeaconConfig().setAdvInterval(interval), BeaconConfig.FIELD_ADV_INTERVAL);
 		}
 
 		/**
@@ -469,21 +592,16 @@ public class UpdateService extends Service {
 		 * @return the advertising interval or <code>null</code>
 		 */
 		public Integer getAdvInterval() {
-			final BluetoothGattCharacteristic characteristic = mAdvIntervalCharacteristic;
-			if (characteristic != null) {
-				final byte[] data = characteristic.getValue();
-				if (data == null || data.length < 2)
-					return null;
-				return characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16, 0);
-			}
-			return null;
+			final BeaconConfig config = getCachedValue(BeaconConfig.FIELD_ADV_INTERVAL);
+			return config != null ? config.getAdvInterval() : null;
 		}
 
 		/**
 		 * Returns <code>true</code> if the beacon supports the advanced configuration.
 		 */
 		public boolean isAdvancedSupported() {
-			return mManufacturerIdCharacteristic != null || mAdvIntervalCharacteristic != null || mLedSettingsCharacteristic != null;
+			final ConfigClient client = mClient;
+			return client != null && UpdateService.isAdvancedSupported(client);
 		}
 
 		/**
@@ -494,12 +612,7 @@ public class UpdateService extends Service {
 		 * @return <code>true</code> if altering LED status is supported (required characteristic exists)
 		 */
 		public boolean setLedStatus(final boolean on) {
-			if (mLedSettingsCharacteristic == null)
-				return false;
-
-			mLedSettingsCharacteristic.setValue(on ? 1 : 0, BluetoothGattCharacteristic.FORMAT_UINT8, 0);
-			mBluetoothGatt.writeCharacteristic(mLedSettingsCharacteristic);
-			return true;
+			return write(new BeaconConfig().setLedStatus(on), BeaconConfig.FIELD_LED);
 		}
 
 		/**
@@ -509,19 +622,296 @@ public class UpdateService extends Service {
 		 * @return the advertising interval or <code>null</code>
 		 */
 		public Boolean getLedStatus() {
-			final BluetoothGattCharacteristic characteristic = mLedSettingsCharacteristic;
-			if (characteristic != null) {
-				final byte[] data = characteristic.getValue();
-				if (data == null || data.length < 1)
-					return null;
-				return characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, 0) == 1;
-			}
-			return null;
+			final BeaconConfig config = getCachedValue(BeaconConfig.FIELD_LED);
+			return config != null ? config.getLedStatus() : null;
 		}
 
 		public int getState() {
 			return mConnectionState;
 		}
+
+		/**
+		 * Writes all values set in the given profile in a single batch and reads every written value back to verify it. When all operations have completed the
+		 * {@link ConfigListener#onProfileApplied(ApplyProfileResult)} is called and the {@link UpdateService#ACTION_PROFILE_APPLIED} broadcast is sent with the {@link ApplyProfileResult}
+		 * containing the outcome for each field.
+		 * 
+		 * @param config
+		 *            the values to be written, fields set to <code>null</code> are not changed
+		 * @return <code>true</code> if the device is connected and the operations have been queued
+		 */
+		public boolean applyProfile(final BeaconConfig config) {
+			final ConfigClient client = mClient;
+			if (client == null || mConnectionState != STATE_CONNECTED || config == null)
+				return false;
+
+			final BeaconConfig profile = new BeaconConfig(config);
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (client != mClient)
+						return;
+					// Values already set on the device are not written again, they are reported as ApplyProfileResult.RESULT_UNCHANGED
+					client.applyProfile(profile, mSessionConfig, new ProfileTransaction.Listener() {
+						@Override
+						public void onProfileApplied(final ApplyProfileResult result) {
+							notifyProfileApplied(result);
+						}
+					});
+				}
+			});
+			return true;
+		}
+
+		/**
+		 * Returns the cache of device configurations. Use it to change the TTL and the skip-if-fresh behavior of {@link #read()}.
+		 */
+		public ConfigCache getConfigCache() {
+			return mConfigCache;
+		}
+
+		/**
+		 * Returns the engine used to configure many beacons at once. The engine opens its own connections and is independent from the connection made with {@link #connect()}.
+		 * 
+		 * @return the provisioning engine
+		 */
+		public synchronized ProvisioningEngine getProvisioningEngine() {
+			if (mProvisioningEngine == null) {
+				mProvisioningEngine = new ProvisioningEngine(new GattConfigTransport.Factory(UpdateService.this, mConnectionMetrics, mSettleTimeEstimator,
+						getGattCacheTracker(UpdateService.this), mHandler.getLooper()), mScheduler, ProvisioningEngine.DEFAULT_MAX_CONNECTIONS);
+				mProvisioningEngine.setJournal(getProvisioningJournal());
+				mProvisioningEngine.setSettleTimeEstimator(mSettleTimeEstimator);
+			}
+			return mProvisioningEngine;
+		}
+
+		/**
+		 * Returns the journal of the provisioning engine. After the process has been killed in the middle of a batch, submit {@link ProvisioningJournal#getUnfinishedJobs()} to
+		 * the engine to resume it. Jobs already verified are not configured again.
+		 * 
+		 * @return the provisioning journal
+		 */
+		public synchronized ProvisioningJournal getProvisioningJournal() {
+			if (mProvisioningJournal == null) {
+				final DatabaseHelper database = new DatabaseHelper(UpdateService.this);
+				mProvisioningJournal = new ProvisioningJournal(new ProvisioningJournal.Storage() {
+					@Override
+					public void write(final List<ProvisioningJournal.Entry> entries) {
+						database.saveJournalEntries(entries);
+					}
+
+					@Override
+					public List<ProvisioningJournal.Entry> load() {
+						return database.loadJournalEntries();
+					}
+
+					@Override
+					public void clear() {
+						database.clearJournal();
+					}
+				}, mScheduler);
+			}
+			return mProvisioningJournal;
+		}
+
+		/**
+		 * Starts the inventory sweep: scans for beacons in the config mode for the given time and reads the configuration of each one found, over up to
+		 * {@link ProvisioningEngine#DEFAULT_MAX_CONNECTIONS} connections at a time, strongest beacons first. The values read are saved in the {@link #getConfigCache() config cache}. A
+		 * sweep already in progress is cancelled. The location permission must have been granted.
+		 * 
+		 * @param scanDuration
+		 *            the scan duration in milliseconds. Beacons found are audited while scanning.
+		 * @param listener
+		 *            the listener notified about audited beacons, called on the GATT thread. Use {@link InventorySweep#getReport(java.util.Collection, int, int)} when it becomes idle
+		 *            after the scan has finished.
+		 * @return the sweep
+		 */
+		public InventorySweep startInventorySweep(final long scanDuration, final InventorySweep.Listener listener) {
+			stopInventorySweep();
+
+			final InventorySweep sweep = new InventorySweep(new GattConfigTransport.Factory(UpdateService.this, mConnectionMetrics, mSettleTimeEstimator,
+					getGattCacheTracker(UpdateService.this), mHandler.getLooper()), mScheduler, ProvisioningEngine.DEFAULT_MAX_CONNECTIONS);
+			sweep.setConfigCache(mConfigCache);
+			sweep.setListener(listener);
+
+			final ScanCallback callback = new ScanCallback() {
+				@Override
+				public void onScanResult(final int callbackType, final ScanResult result) {
+					// do nothing
+				}
+
+				@Override
+				public void onBatchScanResults(final List<ScanResult> results) {
+					// The sweep is driven on the GATT thread, like all other config connections
+					final List<ScanResult> copy = new ArrayList<>(results);
+					mHandler.post(new Runnable() {
+						@Override
+						public void run() {
+							for (final ScanResult result : copy)
+								sweep.onDeviceFound(result.getDevice().getAddress(), result.getRssi());
+						}
+					});
+				}
+
+				@Override
+				public void onScanFailed(final int errorCode) {
+					Log.w(TAG, "Inventory scan failed with error " + errorCode);
+				}
+			};
+			synchronized (UpdateService.this) {
+				mInventorySweep = sweep;
+				mInventoryScanCallback = callback;
+			}
+
+			final ScanSettings settings = new ScanSettings.Builder().setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY).setReportDelay(1000).setUseHardwareBatchingIfSupported(false)
+					.setUseHardwareFilteringIfSupported(false).build();
+			final List<ScanFilter> filters = new ArrayList<>();
+			filters.add(new ScanFilter.Builder().setServiceUuid(new ParcelUuid(BEACON_CONFIG_ADV_UUID)).build());
+			BluetoothLeScannerCompat.getScanner().startScan(filters, settings, callback);
+			mHandler.postDelayed(new Runnable() {
+				@Override
+				public void run() {
+					stopInventoryScan(callback);
+				}
+			}, scanDuration);
+			return sweep;
+		}
+
+		/**
+		 * Stops the scan and cancels the audit of beacons not read yet. Active connections are allowed to finish.
+		 */
+		public void stopInventorySweep() {
+			final InventorySweep sweep;
+			final ScanCallback callback;
+			synchronized (UpdateService.this) {
+				sweep = mInventorySweep;
+				callback = mInventoryScanCallback;
+				mInventorySweep = null;
+			}
+			if (callback != null)
+				stopInventoryScan(callback);
+			if (sweep != null)
+				sweep.cancel();
+		}
+
+		/**
+		 * Imports the provisioning plan and submits a job for every valid row with a device address to the {@link #getProvisioningEngine() provisioning engine}. The plan is streamed and
+		 * the jobs are submitted in batches while it is being read, so the first beacons are configured before the import is finished. This method blocks until the whole plan has been read
+		 * and must not be called from the main thread.
+		 * 
+		 * @param reader
+		 *            the plan, see {@link ProvisioningPlanImporter} for the columns
+		 * @param format
+		 *            {@link ProvisioningPlanImporter#FORMAT_CSV} or {@link ProvisioningPlanImporter#FORMAT_JSON}
+		 * @param listener
+		 *            an optional listener notified about the validation errors and rows with name patterns
+		 * @return the summary of the import
+		 * @throws IOException
+		 *             if the plan could not be read or is malformed. Jobs from rows read before the error have been submitted.
+		 */
+		public ProvisioningPlanImporter.Result importProvisioningPlan(final Reader reader, final int format, final ProvisioningPlanImporter.Listener listener) throws IOException {
+			// Only the GATT thread may connect, so the jobs are submitted there and not on the thread reading the plan
+			final ProvisioningPlanImporter.EngineSubmitter submitter = new ProvisioningPlanImporter.EngineSubmitter(getProvisioningEngine(), new Executor() {
+				@Override
+				public void execute(final Runnable command) {
+					mHandler.post(command);
+				}
+			}, listener);
+			try {
+				return new ProvisioningPlanImporter(submitter).importPlan(reader, format);
+			} finally {
+				submitter.flush();
+			}
+		}
+
+		/**
+		 * Encodes the field of the given configuration and writes it to the device. If the device is known to have this value already, the write is skipped and the value is reported as if
+		 * it had been written.
+		 * 
+		 * @return <code>true</code> if the device is connected and has the required characteristic
+		 */
+		private boolean write(final BeaconConfig config, final int field) {
+			final ConfigClient client = mClient;
+			if (client == null)
+				return false;
+
+			final UUID characteristicUuid = ConfigProtocol.getCharacteristicUuid(field);
+			if (!client.hasCharacteristic(characteristicUuid))
+				return false;
+
+			final byte[] value = ConfigProtocol.encodeField(config, field);
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (client != mClient)
+						return;
+
+					final BeaconConfig current = mSessionConfig;
+					if (current.has(field) && Arrays.equals(value, ConfigProtocol.encodeField(current, field))) {
+						logi("Value not changed, write skipped: " + characteristicUuid);
+						notifyConfigChanged(current, field);
+						return;
+					}
+					client.write(characteristicUuid, value);
+				}
+			});
+			return true;
+		}
+
+		/**
+		 * Returns the configuration with the last values read from or written to the device.
+		 * 
+		 * @return the configuration or <code>null</code> if the value of the field is not known
+		 */
+		private BeaconConfig getCachedValue(final int field) {
+			if (mClient == null)
+				return null;
+			final BeaconConfig config = mSessionConfig;
+			return config.has(field) ? config : null;
+		}
+	}
+
+	/**
+	 * Returns the durations of connection phases of all config connections. Use {@link ConnectionMetrics#writeCsv(java.io.Writer)} to export them.
+	 */
+	public static ConnectionMetrics getConnectionMetrics() {
+		return mConnectionMetrics;
+	}
+
+	/**
+	 * Returns the allocator of unique major and minor numbers, backed by the database.
+	 */
+	public static synchronized MajorMinorAllocator getMajorMinorAllocator(final Context context) {
+		if (mMajorMinorAllocator == null) {
+			final DatabaseHelper database = new DatabaseHelper(context.getApplicationContext());
+			mMajorMinorAllocator = new MajorMinorAllocator(new MajorMinorAllocator.Storage() {
+				@Override
+				public int reserve(final UUID uuid, final int major, final int count) {
+					return database.reserveMinors(uuid, major, count);
+				}
+			});
+		}
+		return mMajorMinorAllocator;
+	}
+
+	/**
+	 * Returns the tracker of the GATT cache state of all devices, backed by the database.
+	 */
+	public static synchronized GattCacheTracker getGattCacheTracker(final Context context) {
+		if (mGattCacheTracker == null) {
+			final DatabaseHelper database = new DatabaseHelper(context.getApplicationContext());
+			mGattCacheTracker = new GattCacheTracker(new GattCacheTracker.Storage() {
+				@Override
+				public GattCacheTracker.Entry load(final String address) {
+					return database.loadGattCacheEntry(address);
+				}
+
+				@Override
+				public void save(final String address, final GattCacheTracker.Entry entry) {
+					database.saveGattCacheEntry(address, entry);
+				}
+			});
+		}
+		return mGattCacheTracker;
 	}
 
 	@Override
@@ -529,7 +919,35 @@ public class UpdateService extends Service {
 		super.onCreate();
 
 		initialize();
-		mHandler = new Handler();
+		final Handler handler = mHandler = new Handler(getGattLooper());
+		mScheduler = new OperationQueue.Scheduler() {
+			@Override
+			public void schedule(final Runnable task, final long delay) {
+				handler.postDelayed(task, delay);
+			}
+
+			@Override
+			public void cancel(final Runnable task) {
+				handler.removeCallbacks(task);
+			}
+		};
+		final DatabaseHelper database = new DatabaseHelper(this);
+		mConfigCache = new ConfigCache(new ConfigCache.Storage() {
+			@Override
+			public ConfigCache.Entry load(final String address) {
+				return database.loadCachedConfig(address);
+			}
+
+			@Override
+			public void save(final String address, final ConfigCache.Entry entry) {
+				database.saveCachedConfig(address, entry);
+			}
+
+			@Override
+			public void remove(final String address) {
+				database.deleteCachedConfig(address);
+			}
+		});
 		mConnectionState = STATE_DISCONNECTED;
 	}
 
@@ -537,12 +955,41 @@ public class UpdateService extends Service {
 	public void onDestroy() {
 		super.onDestroy();
 
-		if (mBluetoothGatt != null)
-			mBluetoothGatt.disconnect();
-		mHandler = null;
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				final ConfigClient client = mClient;
+				final ConnectionManager manager = mConnectionManager;
+				if (client != null && manager != null) {
+					client.setValueListener(null);
+					manager.disconnect();
+				}
+			}
+		});
+		if (mProvisioningEngine != null)
+			mProvisioningEngine.cancelPending();
+		if (mProvisioningJournal != null)
+			mProvisioningJournal.flush();
+		synchronized (this) {
+			if (mInventoryScanCallback != null)
+				stopInventoryScan(mInventoryScanCallback);
+			if (mInventorySweep != null)
+				mInventorySweep.cancel();
+		}
+		mListeners.clear();
 		mBluetoothDevice = null;
 	}
 
+	/**
+	 * Stops the inventory scan using the given callback, if it has not been stopped yet.
+	 */
+	private synchronized void stopInventoryScan(final ScanCallback callback) {
+		if (mInventoryScanCallback != callback)
+			return;
+		mInventoryScanCallback = null;
+		BluetoothLeScannerCompat.getScanner().stopScan(callback);
+	}
+
 	@Override
 	public IBinder onBind(final Intent intent) {
 		return new ServiceBinder();
@@ -560,6 +1007,14 @@ public class UpdateService extends Service {
 		return START_NOT_STICKY;
 	}
 
+	private static synchronized Looper getGattLooper() {
+		if (mGattThread == null) {
+			mGattThread = new HandlerThread("GattThread");
+			mGattThread.start();
+		}
+		return mGattThread.getLooper();
+	}
+
 	/**
 	 * Initializes a reference to the local Bluetooth adapter.
 	 */
@@ -568,13 +1023,140 @@ public class UpdateService extends Service {
 		mAdapter = bluetoothManager.getAdapter();
 	}
 
+	private static boolean isBasicSupported(final ConfigClient client) {
+		return client.hasCharacteristic(ConfigProtocol.CONFIG_UUID_CHARACTERISTIC_UUID) || client.hasCharacteristic(ConfigProtocol.CONFIG_MAJOR_MINOR_CHARACTERISTIC_UUID)
+				|| client.hasCharacteristic(ConfigProtocol.CONFIG_RSSI_CHARACTERISTIC_UUID);
+	}
+
+	private static boolean isAdvancedSupported(final ConfigClient client) {
+		return client.hasCharacteristic(ConfigProtocol.CONFIG_MANUFACTURER_ID_CHARACTERISTIC_UUID) || client.hasCharacteristic(ConfigProtocol.CONFIG_ADV_INTERVAL_CHARACTERISTIC_UUID)
+				|| client.hasCharacteristic(ConfigProtocol.CONFIG_LED_SETTINGS_CHARACTERISTIC_UUID);
+	}
+
+	/**
+	 * Changes the connection state and notifies the listeners. Called on the GATT thread.
+	 */
 	private void setState(final int state) {
 		mConnectionState = state;
+		dispatch(Event.STATE_CHANGED, state, null);
+		if (!mBroadcastsEnabled)
+			return;
 		final Intent intent = new Intent(ACTION_STATE_CHANGED);
 		intent.putExtra(EXTRA_DATA, state);
 		LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
 	}
 
+	/**
+	 * Decodes the characteristic value into the session configuration.
+	 * 
+	 * @return the new session configuration, or <code>null</code> if the value was not valid
+	 */
+	private BeaconConfig updateSessionConfig(final int field, final byte[] value) {
+		final BeaconConfig config = new BeaconConfig(mSessionConfig);
+		if (!ConfigProtocol.decodeField(config, field, value))
+			return null;
+		mSessionConfig = config;
+		return config;
+	}
+
+	/**
+	 * Stores the values known in this session in the {@link ConfigCache}.
+	 */
+	private void saveSessionConfig(final ConfigClient client) {
+		mConfigCache.put(client.getTransport().getAddress(), mSessionConfig, client.getFirmwareId());
+	}
+
+	/**
+	 * Delivers the event to all listeners. Listeners with an executor get it through the executor. The main thread listeners share a single {@link Event} passed through
+	 * the lock-free queue, and the main thread is woken up only if it is not already going to drain the queue. Called on the GATT thread, the only producer.
+	 */
+	private void dispatch(final int type, final int arg, final Object object) {
+		boolean mainThread = false;
+		for (final Registration registration : mListeners) {
+			if (registration.mExecutor == null) {
+				mainThread = true;
+				continue;
+			}
+			registration.mExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					new Event(type, arg, object).deliver(registration.mListener);
+				}
+			});
+		}
+		if (mainThread) {
+			mMainThreadEvents.offer(new Event(type, arg, object));
+			if (mDrainScheduled.compareAndSet(false, true))
+				mMainThreadHandler.post(mDrainTask);
+		}
+	}
+
+	private void notifyConnected(final boolean advanced) {
+		dispatch(Event.CONNECTED, advanced ? 1 : 0, null);
+		if (mBroadcastsEnabled)
+			broadcastOperationCompleted(advanced);
+	}
+
+	/**
+	 * Notifies the listeners with the configuration snapshot and sends the broadcasts with the changed values.
+	 * 
+	 * @param config
+	 *            the snapshot, it must not be modified afterwards
+	 * @param field
+	 *            the field that has changed, or {@link #FIELD_ALL} to broadcast all known fields
+	 */
+	private void notifyConfigChanged(final BeaconConfig config, final int field) {
+		dispatch(Event.CONFIG_CHANGED, field, config);
+		if (!mBroadcastsEnabled)
+			return;
+		if (field != FIELD_ALL) {
+			broadcastField(config, field);
+			return;
+		}
+		for (int f = 0; f < BeaconConfig.FIELD_COUNT; ++f) {
+			if (config.has(f))
+				broadcastField(config, f);
+		}
+	}
+
+	private void notifyProfileApplied(final ApplyProfileResult result) {
+		dispatch(Event.PROFILE_APPLIED, 0, result);
+		if (mBroadcastsEnabled)
+			broadcastProfileApplied(result);
+	}
+
+	private void notifyError(final int error) {
+		dispatch(Event.ERROR, error, null);
+		if (mBroadcastsEnabled)
+			broadcastError(error);
+	}
+
+	/**
+	 * Sends the broadcast with the value of given field.
+	 */
+	private void broadcastField(final BeaconConfig config, final int field) {
+		switch (field) {
+		case BeaconConfig.FIELD_UUID:
+			broadcastUuid(config.getUuid());
+			break;
+		case BeaconConfig.FIELD_MAJOR_MINOR:
+			broadcastMajorAndMinor(config.getMajor(), config.getMinor());
+			break;
+		case BeaconConfig.FIELD_RSSI:
+			broadcastRssi(config.getCalibratedRssi());
+			break;
+		case BeaconConfig.FIELD_MANUFACTURER_ID:
+			broadcastManufacturerId(config.getManufacturerId());
+			break;
+		case BeaconConfig.FIELD_ADV_INTERVAL:
+			broadcastAdvInterval(config.getAdvInterval());
+			break;
+		case BeaconConfig.FIELD_LED:
+			broadcastLedStatus(config.getLedStatus());
+			break;
+		}
+	}
+
 	private void broadcastUuid(final UUID uuid) {
 		final Intent intent = new Intent(ACTION_UUID_READY);
 		intent.putExtra(EXTRA_DATA, new ParcelUuid(uuid));
@@ -612,6 +1194,12 @@ public class UpdateService extends Service {
 		LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
 	}
 
+	private void broadcastProfileApplied(final ApplyProfileResult result) {
+		final Intent intent = new Intent(ACTION_PROFILE_APPLIED);
+		intent.putExtra(EXTRA_DATA, result);
+		LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+	}
+
 	private void broadcastOperationCompleted(final boolean advanced) {
 		final Intent intent = new Intent(ACTION_DONE);
 		intent.putExtra(EXTRA_DATA, advanced);
@@ -625,69 +1213,63 @@ public class UpdateService extends Service {
 	}
 
 	/**
-	 * Clears the device cache.
-	 * <p>
-	 * CAUTION:<br />
-	 * It is very unsafe to call the refresh() method. First of all it's hidden so it may be removed in the future release of Android. We do it because Nordic Beacon may advertise as a beacon, as
-	 * Beacon Config or DFU. Android does not clear cache then device is disconnected unless manually restarted Bluetooth Adapter. To do this in the code we need to call
-	 * {@link BluetoothGatt#refresh()} method. However is may cause a lot of troubles. Ideally it should be called before connection attempt but we get 'gatt' object by calling connectGatt method so
-	 * when the connection already has been started. Calling refresh() afterwards causes errors 129 and 133 to pop up from time to time when refresh takes place actually during service discovery. It
-	 * seems to be asynchronous method. Therefore we are refreshing the device after disconnecting from it, before closing gatt. Sometimes you may obtain services from cache, not the actual values so
-	 * reconnection is required.
-	 * 
-	 * @param gatt
-	 *            the Bluetooth GATT object to refresh.
+	 * A listener event waiting in the queue to be delivered on the main thread.
 	 */
-	private boolean refreshDeviceCache(final BluetoothGatt gatt) {
-		/*
-		 * There is a refresh() method in BluetoothGatt class but for now it's hidden. We will call it using reflections.
-		 */
-		try {
-			final Method refresh = gatt.getClass().getMethod("refresh");
-			if (refresh != null) {
-				return (Boolean) refresh.invoke(gatt);
+	private static class Event {
+		private final static int STATE_CHANGED = 0;
+		private final static int CONNECTED = 1;
+		private final static int CONFIG_CHANGED = 2;
+		private final static int PROFILE_APPLIED = 3;
+		private final static int ERROR = 4;
+
+		private final int mType;
+		private final int mArg;
+		private final Object mObject;
+
+		private Event(final int type, final int arg, final Object object) {
+			mType = type;
+			mArg = arg;
+			mObject = object;
+		}
+
+		private void deliver(final ConfigListener listener) {
+			switch (mType) {
+			case STATE_CHANGED:
+				listener.onStateChanged(mArg);
+				break;
+			case CONNECTED:
+				listener.onConnected(mArg == 1);
+				break;
+			case CONFIG_CHANGED:
+				listener.onConfigChanged((BeaconConfig) mObject);
+				break;
+			case PROFILE_APPLIED:
+				listener.onProfileApplied((ApplyProfileResult) mObject);
+				break;
+			case ERROR:
+				listener.onError(mArg);
+				break;
 			}
-		} catch (final Exception e) {
-			loge("An exception occurred while refreshing device");
 		}
-		return false;
 	}
 
-	private void loge(final String message) {
+	private static class Registration {
+		private final ConfigListener mListener;
+		private final Executor mExecutor;
+
+		private Registration(final ConfigListener listener, final Executor executor) {
+			mListener = listener;
+			mExecutor = executor;
+		}
+	}
+
+	private void logi(final String message) {
 		if (BuildConfig.DEBUG)
-			Log.e(TAG, message);
+			Log.i(TAG, message);
 	}
 
 	private void logw(final String message) {
 		if (BuildConfig.DEBUG)
 			Log.w(TAG, message);
 	}
-
-	public static int decodeUInt16(final BluetoothGattCharacteristic characteristic, final int offset) {
-		final byte[] data = characteristic.getValue();
-		return (unsignedByteToInt(data[offset]) << 8) | unsignedByteToInt(data[offset + 1]);
-	}
-
-	public static UUID decodeBeaconUUID(final BluetoothGattCharacteristic characteristic) {
-		final byte[] data = characteristic.getValue();
-		final long mostSigBits = (unsignedByteToLong(data[0]) << 56) + (unsignedByteToLong(data[1]) << 48) + (unsignedByteToLong(data[2]) << 40) + (unsignedByteToLong(data[3]) << 32)
-				+ (unsignedByteToLong(data[4]) << 24) + (unsignedByteToLong(data[5]) << 16) + (unsignedByteToLong(data[6]) << 8) + unsignedByteToLong(data[7]);
-		final long leastSigBits = (unsignedByteToLong(data[8]) << 56) + (unsignedByteToLong(data[9]) << 48) + (unsignedByteToLong(data[10]) << 40) + (unsignedByteToLong(data[11]) << 32)
-				+ (unsignedByteToLong(data[12]) << 24) + (unsignedByteToLong(data[13]) << 16) + (unsignedByteToLong(data[14]) << 8) + unsignedByteToLong(data[15]);
-		return new UUID(mostSigBits, leastSigBits);
-	}
-
-	/**
-	 * Convert a signed byte to an unsigned long.
-	 */
-	public static long unsignedByteToLong(byte b) {
-		return b & 0xFF;
-	}
-
-	/**
-	 * Convert a signed byte to an unsigned int.
-	 */
-	public static int unsignedByteToInt(int b) {
-		return b & 0xFF;
-	}
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.beacon;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.ActivityNotFoundException;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.media.AudioManager;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.support.v4.app.NotificationCompat;
+import android.widget.Toast;
+
+import net.dinglisch.android.tasker.TaskerIntent;
+
+import no.nordicsemi.android.nrfbeacon.R;
+import no.nordicsemi.android.nrfbeacon.database.BeaconContract;
+import no.nordicsemi.android.nrfbeacon.rules.RuleEngine;
+import no.nordicsemi.android.nrfbeacon.rules.RuleTable;
+
+/**
+ * Executes the region actions that don't need an activity. The activities and the web pages are started in a new task, so the actions may be executed from a service.
+ * {@link BeaconContract#ACTION_MONA_LISA} shows a dialog and must be handled by the beacon list.
+ */
+public class ActionExecutor {
+	private final Context mContext;
+
+	public ActionExecutor(final Context context) {
+		mContext = context;
+	}
+
+	/**
+	 * Registers the handlers of all actions in the rule engine, replacing the ones set before. {@link BeaconContract#ACTION_MONA_LISA} is left without a handler.
+	 */
+	public void register(final RuleEngine engine) {
+		engine.setActionHandler(BeaconContract.ACTION_MONA_LISA, null);
+		engine.setActionHandler(BeaconContract.ACTION_SILENT, new RuleEngine.ActionHandler() {
+			@Override
+			public void onRuleFired(final RuleTable table, final int rule) {
+				final AudioManager audioManager = (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
+				audioManager.setStreamVolume(AudioManager.STREAM_RING, 0, AudioManager.FLAG_REMOVE_SOUND_AND_VIBRATE | AudioManager.FLAG_SHOW_UI | AudioManager.FLAG_ALLOW_RINGER_MODES);
+				audioManager.setStreamVolume(AudioManager.STREAM_NOTIFICATION, 0, AudioManager.FLAG_REMOVE_SOUND_AND_VIBRATE);
+			}
+		});
+		engine.setActionHandler(BeaconContract.ACTION_ALARM, new RuleEngine.ActionHandler() {
+			@Override
+			public void onRuleFired(final RuleTable table, final int rule) {
+				final Uri alarm = RingtoneManager.getActualDefaultRingtoneUri(mContext, RingtoneManager.TYPE_ALARM);
+				final Notification notification = new NotificationCompat.Builder(mContext).setContentTitle(mContext.getString(R.string.alarm_notification_title))
+						.setContentText(mContext.getString(R.string.alarm_notification_message, table.getName(rule))).setSmallIcon(R.drawable.stat_sys_nrf_beacon).setAutoCancel(true)
+						.setOnlyAlertOnce(true).setSound(alarm, AudioManager.STREAM_ALARM).build();
+				final NotificationManager notificationManager = (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+				notificationManager.notify(2, notification); // ID 1 is used by the BeaconService
+			}
+		});
+		engine.setActionHandler(BeaconContract.ACTION_URL, new RuleEngine.ActionHandler() {
+			@Override
+			public void onRuleFired(final RuleTable table, final int rule) {
+				try {
+					final Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse(table.getActionParam(rule)));
+					intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+					mContext.startActivity(intent);
+				} catch (final ActivityNotFoundException e) {
+					Toast.makeText(mContext, R.string.no_application, Toast.LENGTH_SHORT).show();
+				}
+			}
+		});
+		engine.setActionHandler(BeaconContract.ACTION_APP, new RuleEngine.ActionHandler() {
+			@Override
+			public void onRuleFired(final RuleTable table, final int rule) {
+				try {
+					final Intent intent = new Intent(Intent.ACTION_MAIN);
+					intent.setPackage(table.getActionParam(rule));
+					intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+					mContext.startActivity(intent);
+				} catch (final ActivityNotFoundException e) {
+					Toast.makeText(mContext, R.string.no_given_application, Toast.LENGTH_SHORT).show();
+				}
+			}
+		});
+		engine.setActionHandler(BeaconContract.ACTION_TASKER, new RuleEngine.ActionHandler() {
+			@Override
+			public void onRuleFired(final RuleTable table, final int rule) {
+				switch (TaskerIntent.testStatus(mContext)) {
+				case OK:
+					final TaskerIntent i = new TaskerIntent(table.getActionParam(rule));
+					final BroadcastReceiver br = new BroadcastReceiver() {
+						@Override
+						public void onReceive(final Context context, final Intent recIntent) {
+							if (recIntent.getBooleanExtra(TaskerIntent.EXTRA_SUCCESS_FLAG, false))
+								Toast.makeText(mContext, R.string.tasker_success, Toast.LENGTH_SHORT).show();
+							mContext.unregisterReceiver(this);
+						}
+					};
+					mContext.registerReceiver(br, i.getCompletionFilter());
+					// Start the task
+					mContext.sendBroadcast(i);
+					break;
+				case NotEnabled:
+					Toast.makeText(mContext, R.string.tasker_disabled, Toast.LENGTH_SHORT).show();
+					break;
+				case AccessBlocked:
+					Toast.makeText(mContext, R.string.tasker_external_access_denided, Toast.LENGTH_SHORT).show();
+					break;
+				case NotInstalled:
+					Toast.makeText(mContext, R.string.tasker_not_installed, Toast.LENGTH_SHORT).show();
+					break;
+				default:
+					Toast.makeText(mContext, R.string.tasker_error, Toast.LENGTH_SHORT).show();
+					break;
+				}
+			}
+		});
+	}
+}
@@ -30,18 +30,28 @@ import no.nordicsemi.android.nrfbeacon.R;
 import no.nordicsemi.android.nrfbeacon.common.BaseFragment;
 import no.nordicsemi.android.nrfbeacon.database.BeaconContract;
 import no.nordicsemi.android.nrfbeacon.database.DatabaseHelper;
+import no.nordicsemi.android.nrfbeacon.database.RegionIndex;
+import no.nordicsemi.android.nrfbeacon.rules.RuleEngine;
+import no.nordicsemi.android.nrfbeacon.rules.RuleTable;
 
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.database.Cursor;
+import android.content.ServiceConnection;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.IBinder;
+import android.preference.PreferenceManager;
+import android.support.v4.app.DialogFragment;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentTransaction;
 import android.support.v4.view.ViewPager;
 import android.support.v7.app.AlertDialog;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 
@@ -81,6 +91,33 @@ public class BeaconsFragment extends BaseFragment {
 		}
 	};
 
+	private MonitoringService.ServiceBinder mMonitoringBinder;
+	private boolean mMonitoringBound;
+	/** Whether the list should get the ranging results of the {@link MonitoringService}. */
+	private boolean mScanning;
+	private ServiceConnection mMonitoringConnection = new ServiceConnection() {
+		@Override
+		public void onServiceConnected(final ComponentName name, final IBinder service) {
+			final MonitoringService.ServiceBinder binder = mMonitoringBinder = (MonitoringService.ServiceBinder) service;
+			// Mona Lisa is shown only while the beacons page is visible
+			binder.setActionHandler(BeaconContract.ACTION_MONA_LISA, new RuleEngine.ActionHandler() {
+				@Override
+				public void onRuleFired(final RuleTable table, final int rule) {
+					stopScanning();
+					final DialogFragment dialog = new MonalisaFragment();
+					dialog.show(getChildFragmentManager(), "monalisa");
+				}
+			});
+			if (mScanning)
+				binder.setRangingListener(mBeaconsListFragment);
+		}
+
+		@Override
+		public void onServiceDisconnected(final ComponentName name) {
+			mMonitoringBinder = null;
+		}
+	};
+
 	@Override
 	public void onActivityCreated(final Bundle savedInstanceState) {
 		super.onActivityCreated(savedInstanceState);
@@ -144,6 +181,8 @@ public class BeaconsFragment extends BaseFragment {
 		super.onCreate(savedInstanceState);
 
 		mDatabaseHelper = new DatabaseHelper(getActivity());
+		// The signal strength is only shown while ranging and reset when the service is unbound, so there is no need to write it
+		mDatabaseHelper.setSignalStrengthFlushWindow(DatabaseHelper.FLUSH_NEVER);
 	}
 
 	@Override
@@ -158,6 +197,27 @@ public class BeaconsFragment extends BaseFragment {
 		setHasOptionsMenu(true);
 	}
 
+	@Override
+	public void onCreateOptionsMenu(final Menu menu, final MenuInflater inflater) {
+		inflater.inflate(R.menu.beacons, menu);
+		menu.findItem(R.id.action_background_monitoring).setChecked(MonitoringService.isBackgroundMonitoringEnabled(getActivity()));
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(final MenuItem item) {
+		final int id = item.getItemId();
+		switch (id) {
+		case R.id.action_background_monitoring:
+			final boolean enabled = !item.isChecked();
+			item.setChecked(enabled);
+			PreferenceManager.getDefaultSharedPreferences(getActivity()).edit().putBoolean(MonitoringService.PREF_BACKGROUND_MONITORING, enabled).apply();
+			// The service checks the preference and stops itself if it has been disabled
+			getActivity().startService(new Intent(getActivity(), MonitoringService.class));
+			return true;
+		}
+		return false;
+	}
+
 	@Override
 	protected void onPermissionGranted() {
 		// Now, when the permission is granted, we may start scanning for beacons.
@@ -203,20 +263,16 @@ public class BeaconsFragment extends BaseFragment {
 		mServiceConnection.stopRangingBeaconsInRegion(mScannerFragment);
 		mScannerFragment = null;
 
-		final Cursor cursor = mDatabaseHelper.findRegionByBeacon(beacon);
-		try {
-			long id;
-			if (cursor.moveToNext()) {
-				// Update beacon
-				id = cursor.getLong(0 /* _ID */);
-			} else {
-				// Add new beacon
-				id = mDatabaseHelper.addRegion(beacon, getString(R.string.default_beacon_name), BeaconContract.EVENT_GET_NEAR, BeaconContract.ACTION_MONA_LISA, null);
-			}
-			onEditRegion(id);
-		} finally {
-			cursor.close();
+		final RegionIndex.Region region = mDatabaseHelper.getRegionIndex().find(beacon.getUuid(), beacon.getMajor(), beacon.getMinor());
+		long id;
+		if (region != null) {
+			// Update beacon
+			id = region.getId();
+		} else {
+			// Add new beacon
+			id = mDatabaseHelper.addRegion(beacon, getString(R.string.default_beacon_name), BeaconContract.EVENT_GET_NEAR, BeaconContract.ACTION_MONA_LISA, null);
 		}
+		onEditRegion(id);
 	}
 
 	/**
@@ -230,21 +286,21 @@ public class BeaconsFragment extends BaseFragment {
 	}
 
 	/**
-	 * Starts scanning for added beacons if the service is connected.
+	 * Starts showing the added beacons in the list. The beacons are ranged by the {@link MonitoringService}, which passes the results to the list while it's bound.
 	 */
 	public void startScanning() {
-		if (mServiceConnected) {
-			mBeaconsListFragment.startScanning(mServiceConnection);
-		}
+		mScanning = true;
+		if (mMonitoringBinder != null)
+			mMonitoringBinder.setRangingListener(mBeaconsListFragment);
 	}
 
 	/**
-	 * Stops scanning for added beacons if the service is connected.
+	 * Stops showing the added beacons in the list.
 	 */
 	public void stopScanning() {
-		if (mServiceConnected) {
-			mBeaconsListFragment.stopScanning(mServiceConnection);
-		}
+		mScanning = false;
+		if (mMonitoringBinder != null)
+			mMonitoringBinder.setRangingListener(null);
 	}
 
 	/**
@@ -270,10 +326,27 @@ public class BeaconsFragment extends BaseFragment {
 							getActivity().finish();
 						}
 					}).show();
+			return;
 		}
+
+		// The monitoring service executes the region actions, also in background if enabled
+		final Intent service = new Intent(getActivity(), MonitoringService.class);
+		if (MonitoringService.isBackgroundMonitoringEnabled(getActivity()))
+			getActivity().startService(service);
+		if (!mMonitoringBound)
+			mMonitoringBound = getActivity().bindService(service, mMonitoringConnection, Context.BIND_AUTO_CREATE);
 	}
 
 	private void unbindService() {
+		if (mMonitoringBound) {
+			if (mMonitoringBinder != null) {
+				mMonitoringBinder.setActionHandler(BeaconContract.ACTION_MONA_LISA, null);
+				mMonitoringBinder.setRangingListener(null);
+			}
+			getActivity().unbindService(mMonitoringConnection);
+			mMonitoringBinder = null;
+			mMonitoringBound = false;
+		}
 		if (mServiceConnected) {
 			// Unbinding service will stop all active scanning listeners
 			ServiceProxy.unbindService(getActivity(), mServiceConnection);
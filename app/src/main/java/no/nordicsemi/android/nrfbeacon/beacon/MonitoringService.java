@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.beacon;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.v4.app.NotificationCompat;
+
+import java.util.List;
+
+import no.nordicsemi.android.beacon.Beacon;
+import no.nordicsemi.android.beacon.BeaconServiceConnection;
+import no.nordicsemi.android.beacon.ServiceProxy;
+import no.nordicsemi.android.nrfbeacon.BuildConfig;
+import no.nordicsemi.android.nrfbeacon.MainActivity;
+import no.nordicsemi.android.nrfbeacon.R;
+import no.nordicsemi.android.nrfbeacon.database.BeaconContract;
+import no.nordicsemi.android.nrfbeacon.database.DatabaseHelper;
+import no.nordicsemi.android.nrfbeacon.database.RegionIndex;
+import no.nordicsemi.android.nrfbeacon.ranging.MedianFilter;
+import no.nordicsemi.android.nrfbeacon.ranging.RangingPipeline;
+import no.nordicsemi.android.nrfbeacon.ranging.SignalSmoother;
+import no.nordicsemi.android.nrfbeacon.rules.ProximityFilter;
+import no.nordicsemi.android.nrfbeacon.rules.RuleEngine;
+import no.nordicsemi.android.nrfbeacon.rules.RuleTable;
+import no.nordicsemi.android.nrfbeacon.util.DebugLogger;
+
+/**
+ * Monitors the saved regions and executes their actions, also when the application is not visible. The service is bound by the {@link BeaconsFragment} while the beacons page is shown
+ * and started when background monitoring is enabled in the {@link #PREF_BACKGROUND_MONITORING} preference.
+ * <p>
+ * The beacon service does not allow to set the scan mode, so the duty cycle is made by starting and stopping ranging. While a client is bound ranging is continuous
+ * ({@link #MODE_LOW_LATENCY}). Otherwise the service ranges for {@link #BALANCED_SCAN_WINDOW} every {@link #BALANCED_SCAN_PERIOD} when the screen is on, and for
+ * {@link #LOW_POWER_SCAN_WINDOW} every {@link #LOW_POWER_SCAN_PERIOD} when it's off.
+ * </p>
+ */
+public class MonitoringService extends Service implements RegionDispatcher.Listener {
+	private static final String TAG = "MonitoringService";
+
+	/** The boolean preference telling whether regions are monitored when the application is not visible. */
+	public static final String PREF_BACKGROUND_MONITORING = "background_monitoring";
+
+	/** Continuous ranging, used while the application is visible. */
+	public static final int MODE_LOW_LATENCY = 0;
+	/** Short ranging windows, used when the application is not visible but the screen is on. */
+	public static final int MODE_BALANCED = 1;
+	/** Rare ranging windows, used when the screen is off. */
+	public static final int MODE_LOW_POWER = 2;
+
+	public static final long BALANCED_SCAN_WINDOW = 10000;
+	public static final long BALANCED_SCAN_PERIOD = 30000;
+	public static final long LOW_POWER_SCAN_WINDOW = 6000;
+	public static final long LOW_POWER_SCAN_PERIOD = 60000;
+	/** How often the regions are checked for changes during continuous ranging. */
+	private static final long REFRESH_INTERVAL = 5000;
+
+	/** ID 1 is used by the BeaconService, 2 by the alarm action. */
+	private static final int NOTIFICATION_ID = 3;
+
+	private final ServiceBinder mBinder = new ServiceBinder();
+	private final Handler mHandler = new Handler();
+	/**
+	 * The median ignores single readings far off. The proximity filter debounces the proximity changes, so that an action is not executed over and over when a beacon is at a zone
+	 * border.
+	 */
+	private final RangingPipeline mPipeline = new RangingPipeline(new SignalSmoother(new MedianFilter()), new ProximityFilter(), new RuleEngine());
+	private DatabaseHelper mDatabaseHelper;
+	private RegionIndex mRegionIndex;
+	private RegionDispatcher mRegionDispatcher;
+	/** Records the callbacks in debug builds, <code>null</code> otherwise. */
+	private RangingRecorder mRecorder;
+	/** The listener registered in the beacon service, the dispatcher or the recorder. */
+	private BeaconServiceConnection.BeaconsListener mBeaconsListener;
+	/** The listener of a bound client getting the dispatched ranging results, or <code>null</code>. */
+	private RegionDispatcher.Listener mRangingListener;
+
+	private boolean mServiceConnected;
+	private boolean mRanging;
+	/** The {@link RegionIndex#getModCount()} ranging was started at. */
+	private int mRangingModCount;
+	private boolean mScreenOn;
+	/** Whether a client is bound. Android calls onBind() for the first client and onUnbind() when the last one has unbound. */
+	private boolean mClientBound;
+	private int mScanMode = -1;
+
+	private final BeaconServiceConnection mServiceConnection = new BeaconServiceConnection() {
+		@Override
+		public void onServiceConnected() {
+			mServiceConnected = true;
+			updateScanMode();
+		}
+
+		@Override
+		public void onServiceDisconnected() {
+			mServiceConnected = false;
+			mRanging = false;
+			mScanMode = -1;
+			mHandler.removeCallbacks(mScanTask);
+		}
+	};
+
+	private final BroadcastReceiver mScreenReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(final Context context, final Intent intent) {
+			mScreenOn = Intent.ACTION_SCREEN_ON.equals(intent.getAction());
+			updateScanMode();
+		}
+	};
+
+	/**
+	 * Starts and stops ranging according to the scan mode.
+	 */
+	private final Runnable mScanTask = new Runnable() {
+		@Override
+		public void run() {
+			switch (mScanMode) {
+			case MODE_LOW_LATENCY:
+				// Ranging is continuous, only the regions are checked for changes
+				startRanging();
+				mHandler.postDelayed(this, REFRESH_INTERVAL);
+				break;
+			default:
+				final long window = mScanMode == MODE_BALANCED ? BALANCED_SCAN_WINDOW : LOW_POWER_SCAN_WINDOW;
+				final long period = mScanMode == MODE_BALANCED ? BALANCED_SCAN_PERIOD : LOW_POWER_SCAN_PERIOD;
+				if (mRanging) {
+					stopRanging();
+					mHandler.postDelayed(this, period - window);
+				} else {
+					startRanging();
+					mHandler.postDelayed(this, window);
+				}
+				break;
+			}
+		}
+	};
+
+	public class ServiceBinder extends Binder {
+		/**
+		 * Sets the handler of the given action, replacing the one of the service. The handlers of the service are restored when the client unbinds. Actions that need an activity, like
+		 * {@link BeaconContract#ACTION_MONA_LISA}, are only executed while a client has set a handler for them.
+		 */
+		public void setActionHandler(final int action, final RuleEngine.ActionHandler handler) {
+			mPipeline.getRuleEngine().setActionHandler(action, handler);
+		}
+
+		/**
+		 * Sets the listener getting the ranging results and region events of the service, so that a client does not have to range again. While a client is bound ranging is continuous,
+		 * so results come every second. The listener is removed when the client unbinds.
+		 * 
+		 * @param listener
+		 *            the listener, or <code>null</code> to remove it
+		 */
+		public void setRangingListener(final RegionDispatcher.Listener listener) {
+			mRangingListener = listener;
+		}
+
+		/**
+		 * Returns the current scan mode, one of the MODE_* constants, or -1 if the service is not ranging.
+		 */
+		public int getScanMode() {
+			return mScanMode;
+		}
+	}
+
+	/**
+	 * Returns whether monitoring in background is enabled.
+	 */
+	public static boolean isBackgroundMonitoringEnabled(final Context context) {
+		return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(PREF_BACKGROUND_MONITORING, false);
+	}
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+
+		mDatabaseHelper = new DatabaseHelper(this);
+		mRegionIndex = mDatabaseHelper.getRegionIndex();
+		mRegionDispatcher = new RegionDispatcher(mRegionIndex, this);
+		// Monitoring in the beacon service is not used, enter and exit are derived by the dispatcher
+		if (BuildConfig.DEBUG)
+			mRecorder = RangingRecorder.create(this, mRegionDispatcher, null);
+		mBeaconsListener = mRecorder != null ? mRecorder : mRegionDispatcher;
+		registerActionHandlers();
+
+		final PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+		mScreenOn = powerManager.isScreenOn();
+		final IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+		filter.addAction(Intent.ACTION_SCREEN_OFF);
+		registerReceiver(mScreenReceiver, filter);
+
+		if (!ServiceProxy.bindService(this, mServiceConnection)) {
+			DebugLogger.e(TAG, "Beacon service not found");
+			stopSelf();
+		}
+	}
+
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+
+		unregisterReceiver(mScreenReceiver);
+		mHandler.removeCallbacks(mScanTask);
+		if (mServiceConnected) {
+			// Unbinding service will stop all active scanning listeners
+			ServiceProxy.unbindService(this, mServiceConnection);
+			mServiceConnected = false;
+		}
+		if (mRecorder != null) {
+			mRecorder.close();
+			mRecorder = null;
+		}
+	}
+
+	@Override
+	public int onStartCommand(final Intent intent, final int flags, final int startId) {
+		if (!isBackgroundMonitoringEnabled(this)) {
+			// Background monitoring has been disabled, the service runs until the last client unbinds
+			stopForeground(true);
+			stopSelf(startId);
+			return START_NOT_STICKY;
+		}
+
+		final Intent activity = new Intent(this, MainActivity.class);
+		activity.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+		final PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, activity, PendingIntent.FLAG_UPDATE_CURRENT);
+		final Notification notification = new NotificationCompat.Builder(this).setContentTitle(getString(R.string.monitoring_notification_title))
+				.setContentText(getString(R.string.monitoring_notification_message)).setSmallIcon(R.drawable.stat_sys_nrf_beacon).setContentIntent(pendingIntent)
+				.setPriority(NotificationCompat.PRIORITY_MIN).setOngoing(true).build();
+		startForeground(NOTIFICATION_ID, notification);
+		return START_STICKY;
+	}
+
+	@Override
+	public IBinder onBind(final Intent intent) {
+		mClientBound = true;
+		updateScanMode();
+		return mBinder;
+	}
+
+	@Override
+	public void onRebind(final Intent intent) {
+		mClientBound = true;
+		updateScanMode();
+	}
+
+	@Override
+	public boolean onUnbind(final Intent intent) {
+		mClientBound = false;
+		// The handlers and the listener set by the clients may need an activity
+		registerActionHandlers();
+		mRangingListener = null;
+		updateScanMode();
+		// We want to allow rebinding
+		return true;
+	}
+
+	@Override
+	public void onBeaconsInRegion(final List<Beacon> beacons, final RegionIndex.Region region) {
+		final RangingPipeline pipeline = mPipeline;
+		pipeline.begin(SystemClock.elapsedRealtime());
+		for (final Beacon beacon : beacons)
+			pipeline.add(beacon.getUuid(), beacon.getMajor(), beacon.getMinor(), beacon.getRssi(), beacon.getAccuracy());
+
+		// Check and fire events, getRuleEngine() compiles the rules again if regions have been changed
+		getRuleEngine();
+		pipeline.end();
+
+		if (mRangingListener != null)
+			mRangingListener.onBeaconsInRegion(beacons, region);
+	}
+
+	@Override
+	public void onEnterRegion(final RegionIndex.Region region) {
+		getRuleEngine().onEnter(region.getUuid(), region.getMajor(), region.getMinor());
+		if (mRangingListener != null)
+			mRangingListener.onEnterRegion(region);
+	}
+
+	@Override
+	public void onExitRegion(final RegionIndex.Region region) {
+		getRuleEngine().onExit(region.getUuid(), region.getMajor(), region.getMinor());
+		if (mRangingListener != null)
+			mRangingListener.onExitRegion(region);
+	}
+
+	/**
+	 * Chooses the scan mode from the bound clients and the screen state and restarts the duty cycle if it has changed.
+	 */
+	private void updateScanMode() {
+		if (!mServiceConnected)
+			return;
+
+		final int mode = mClientBound ? MODE_LOW_LATENCY : (mScreenOn ? MODE_BALANCED : MODE_LOW_POWER);
+		if (mode == mScanMode)
+			return;
+		mScanMode = mode;
+		DebugLogger.d(TAG, "Scan mode: " + mode);
+
+		// A region is exited when no beacon has been seen during a whole period
+		switch (mode) {
+		case MODE_LOW_LATENCY:
+			mRegionDispatcher.setExitTimeout(RegionDispatcher.DEFAULT_EXIT_TIMEOUT);
+			break;
+		case MODE_BALANCED:
+			mRegionDispatcher.setExitTimeout(BALANCED_SCAN_PERIOD);
+			break;
+		default:
+			mRegionDispatcher.setExitTimeout(LOW_POWER_SCAN_PERIOD);
+			break;
+		}
+		mHandler.removeCallbacks(mScanTask);
+		stopRanging();
+		mScanTask.run();
+	}
+
+	/**
+	 * Starts ranging for all regions, or restarts it if the regions have been changed since.
+	 */
+	private void startRanging() {
+		final int modCount = mRegionIndex.getModCount();
+		if (mRanging) {
+			if (mRangingModCount == modCount)
+				return;
+			stopRanging();
+		}
+		mRangingModCount = modCount;
+		mRegionDispatcher.start(mServiceConnection, BeaconsFragment.BEACON_COMPANY_ID, mBeaconsListener);
+		mRanging = true;
+	}
+
+	/**
+	 * Stops ranging. Unlike {@link RegionDispatcher#stop(BeaconServiceConnection)} the entered regions are kept, so that they are not entered again in the next window.
+	 */
+	private void stopRanging() {
+		if (mRanging) {
+			mServiceConnection.stopRangingBeaconsInRegion(mBeaconsListener);
+			mRanging = false;
+		}
+	}
+
+	/**
+	 * Returns the rule engine with the current rules. The rules are compiled again only when regions have been changed.
+	 */
+	private RuleEngine getRuleEngine() {
+		final RuleEngine engine = mPipeline.getRuleEngine();
+		final RuleTable table = mDatabaseHelper.getRuleTable();
+		if (engine.getRuleTable() != table)
+			engine.setRuleTable(table);
+		return engine;
+	}
+
+	private void registerActionHandlers() {
+		new ActionExecutor(this).register(mPipeline.getRuleEngine());
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.beacon;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import no.nordicsemi.android.beacon.Beacon;
+import no.nordicsemi.android.beacon.BeaconRegion;
+import no.nordicsemi.android.beacon.BeaconServiceConnection;
+import no.nordicsemi.android.beacon.Proximity;
+import no.nordicsemi.android.nrfbeacon.ranging.TraceReplayer;
+import no.nordicsemi.android.nrfbeacon.ranging.TraceWriter;
+import no.nordicsemi.android.nrfbeacon.rules.RuleTable;
+import no.nordicsemi.android.nrfbeacon.util.DebugLogger;
+
+/**
+ * Records all ranging and monitoring callbacks to a trace file and forwards them to the listeners. Register the recorder in the beacon service instead of the listeners. The traces
+ * are saved in the <code>traces</code> directory of the application files and may be replayed on the JVM with the {@link TraceReplayer}.
+ * <p>
+ * If writing fails, recording stops, but the callbacks are still forwarded.
+ * </p>
+ */
+public class RangingRecorder implements BeaconServiceConnection.BeaconsListener, BeaconServiceConnection.RegionListener {
+	private static final String TAG = "RangingRecorder";
+	private static final String TRACES_DIRECTORY = "traces";
+
+	private final BeaconServiceConnection.BeaconsListener mBeaconsListener;
+	private final BeaconServiceConnection.RegionListener mRegionListener;
+	private TraceWriter mWriter;
+
+	/**
+	 * Creates a recorder writing to a new file in the traces directory.
+	 * 
+	 * @return the recorder, or <code>null</code> if the file could not be created
+	 */
+	public static RangingRecorder create(final Context context, final BeaconServiceConnection.BeaconsListener beaconsListener,
+			final BeaconServiceConnection.RegionListener regionListener) {
+		final File directory = new File(context.getFilesDir(), TRACES_DIRECTORY);
+		if (!directory.isDirectory() && !directory.mkdirs())
+			return null;
+		try {
+			final File file = new File(directory, "ranging-" + System.currentTimeMillis() + ".trace");
+			return new RangingRecorder(new TraceWriter(file), beaconsListener, regionListener);
+		} catch (final IOException e) {
+			DebugLogger.e(TAG, "Creating trace file failed: " + e.getMessage());
+			return null;
+		}
+	}
+
+	public RangingRecorder(final TraceWriter writer, final BeaconServiceConnection.BeaconsListener beaconsListener, final BeaconServiceConnection.RegionListener regionListener) {
+		mWriter = writer;
+		mBeaconsListener = beaconsListener;
+		mRegionListener = regionListener;
+	}
+
+	/**
+	 * Stops recording and closes the trace file.
+	 */
+	public void close() {
+		final TraceWriter writer = mWriter;
+		mWriter = null;
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (final IOException e) {
+				DebugLogger.e(TAG, "Closing trace file failed: " + e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public void onBeaconsInRegion(final Beacon[] beacons, final BeaconRegion region) {
+		final TraceWriter writer = mWriter;
+		if (writer != null) {
+			try {
+				writer.writeBeacons(SystemClock.elapsedRealtime(), region.getUuid(), region.getMajor(), region.getMinor(), beacons.length);
+				for (final Beacon beacon : beacons)
+					writer.writeBeacon(beacon.getUuid(), beacon.getMajor(), beacon.getMinor(), beacon.getRssi(), beacon.getAccuracy(), getProximity(beacon.getProximity()));
+			} catch (final IOException e) {
+				onError(e);
+			}
+		}
+		mBeaconsListener.onBeaconsInRegion(beacons, region);
+	}
+
+	@Override
+	public void onEnterRegion(final BeaconRegion region) {
+		final TraceWriter writer = mWriter;
+		if (writer != null) {
+			try {
+				writer.writeEnter(SystemClock.elapsedRealtime(), region.getUuid(), region.getMajor(), region.getMinor());
+			} catch (final IOException e) {
+				onError(e);
+			}
+		}
+		mRegionListener.onEnterRegion(region);
+	}
+
+	@Override
+	public void onExitRegion(final BeaconRegion region) {
+		final TraceWriter writer = mWriter;
+		if (writer != null) {
+			try {
+				writer.writeExit(SystemClock.elapsedRealtime(), region.getUuid(), region.getMajor(), region.getMinor());
+			} catch (final IOException e) {
+				onError(e);
+			}
+		}
+		mRegionListener.onExitRegion(region);
+	}
+
+	private void onError(final IOException e) {
+		DebugLogger.e(TAG, "Writing trace failed: " + e.getMessage());
+		close();
+	}
+
+	/**
+	 * Converts the proximity to one of the RuleTable.PROXIMITY_* constants.
+	 */
+	private static int getProximity(final Proximity proximity) {
+		return proximity != null ? proximity.ordinal() : RuleTable.PROXIMITY_UNKNOWN;
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.beacon;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import android.os.SystemClock;
+
+import no.nordicsemi.android.beacon.Beacon;
+import no.nordicsemi.android.beacon.BeaconRegion;
+import no.nordicsemi.android.beacon.BeaconServiceConnection;
+import no.nordicsemi.android.nrfbeacon.database.RegionIndex;
+
+/**
+ * Ranges for all saved regions with a single subscription per UUID, or a single {@link BeaconRegion#ANY_UUID} subscription if there are many UUIDs, and dispatches the beacons to the
+ * regions locally using the {@link RegionIndex}. Registering every region separately makes the startup and the callbacks from the beacon service grow with the number of regions.
+ * <p>
+ * Entering and leaving regions is detected from the ranging results as well: a region is entered when the first of its beacons is seen and left when none has been seen for
+ * {@link #setExitTimeout(long)} milliseconds. The beacon service reports ranging results every second, also when no beacon is in range, so the timeout is checked on every callback.
+ * </p>
+ */
+public class RegionDispatcher implements BeaconServiceConnection.BeaconsListener {
+	/** The default time in milliseconds after which a region is left if none of its beacons has been seen. */
+	public final static long DEFAULT_EXIT_TIMEOUT = 10000;
+	/** With more UUIDs than this a single subscription for any UUID is made. */
+	public final static int MAX_UUID_SUBSCRIPTIONS = 4;
+
+	public interface Listener {
+		/**
+		 * Called every second for each saved region with at least one beacon in range.
+		 */
+		public void onBeaconsInRegion(final List<Beacon> beacons, final RegionIndex.Region region);
+
+		/**
+		 * Called when the first beacon of the region has been seen.
+		 */
+		public void onEnterRegion(final RegionIndex.Region region);
+
+		/**
+		 * Called when no beacon of the region has been seen for the exit timeout.
+		 */
+		public void onExitRegion(final RegionIndex.Region region);
+	}
+
+	private final RegionIndex mRegionIndex;
+	private final Listener mListener;
+	/** The beacons of each region in the current callback. The lists are reused until the regions change. */
+	private final Map<RegionIndex.Region, List<Beacon>> mBeaconsByRegion = new HashMap<>();
+	/** The regions with beacons in the current callback, in the order they were found. */
+	private final List<RegionIndex.Region> mFound = new ArrayList<>();
+	/** The regions that have been entered, with the time the last beacon was seen. */
+	private final Map<RegionIndex.Region, Long> mLastSeen = new HashMap<>();
+	private long mExitTimeout = DEFAULT_EXIT_TIMEOUT;
+	/** The {@link RegionIndex#getModCount()} of the regions in the maps. */
+	private int mModCount;
+
+	public RegionDispatcher(final RegionIndex index, final Listener listener) {
+		mRegionIndex = index;
+		mListener = listener;
+	}
+
+	public void setExitTimeout(final long timeout) {
+		mExitTimeout = timeout;
+	}
+
+	/**
+	 * Starts ranging for all regions in the index.
+	 * 
+	 * @param serviceConnection
+	 *            the connection to the beacon service
+	 * @param companyId
+	 *            the beacon company identifier
+	 */
+	public void start(final BeaconServiceConnection serviceConnection, final int companyId) {
+		start(serviceConnection, companyId, this);
+	}
+
+	/**
+	 * Starts ranging for all regions in the index, registering the given listener instead of the dispatcher.
+	 * 
+	 * @param serviceConnection
+	 *            the connection to the beacon service
+	 * @param companyId
+	 *            the beacon company identifier
+	 * @param listener
+	 *            a listener forwarding the callbacks to this dispatcher, f.e. the {@link RangingRecorder}. The caller must stop ranging for it.
+	 */
+	public void start(final BeaconServiceConnection serviceConnection, final int companyId, final BeaconServiceConnection.BeaconsListener listener) {
+		final Set<UUID> uuids = new HashSet<>();
+		for (final RegionIndex.Region region : mRegionIndex.getAll())
+			uuids.add(region.getUuid());
+
+		if (uuids.size() > MAX_UUID_SUBSCRIPTIONS) {
+			serviceConnection.startRangingBeaconsInRegion(companyId, BeaconRegion.ANY_UUID, listener);
+		} else {
+			for (final UUID uuid : uuids)
+				serviceConnection.startRangingBeaconsInRegion(companyId, uuid, listener);
+		}
+	}
+
+	/**
+	 * Stops ranging. Regions entered are forgotten without being notified.
+	 */
+	public void stop(final BeaconServiceConnection serviceConnection) {
+		serviceConnection.stopRangingBeaconsInRegion(this);
+		mLastSeen.clear();
+		mBeaconsByRegion.clear();
+	}
+
+	@Override
+	public void onBeaconsInRegion(final Beacon[] beacons, final BeaconRegion subscription) {
+		final long now = SystemClock.elapsedRealtime();
+		final int modCount = mRegionIndex.getModCount();
+		if (modCount != mModCount) {
+			mModCount = modCount;
+			pruneRegions();
+		}
+
+		// Group the beacons by the saved region
+		final List<RegionIndex.Region> found = mFound;
+		found.clear();
+		for (final Beacon beacon : beacons) {
+			final RegionIndex.Region region = mRegionIndex.find(beacon.getUuid(), beacon.getMajor(), beacon.getMinor());
+			if (region == null)
+				continue;
+			List<Beacon> list = mBeaconsByRegion.get(region);
+			if (list == null) {
+				list = new ArrayList<>(1);
+				mBeaconsByRegion.put(region, list);
+			}
+			if (list.isEmpty())
+				found.add(region);
+			list.add(beacon);
+		}
+
+		for (final RegionIndex.Region region : found) {
+			if (mLastSeen.put(region, now) == null)
+				mListener.onEnterRegion(region);
+			final List<Beacon> list = mBeaconsByRegion.get(region);
+			mListener.onBeaconsInRegion(list, region);
+			list.clear();
+		}
+
+		// With a subscription per UUID only regions with this UUID have been looked for
+		final UUID uuid = subscription.getUuid();
+		for (final Iterator<Map.Entry<RegionIndex.Region, Long>> it = mLastSeen.entrySet().iterator(); it.hasNext();) {
+			final Map.Entry<RegionIndex.Region, Long> entry = it.next();
+			final RegionIndex.Region region = entry.getKey();
+			if ((uuid == null || uuid.equals(region.getUuid())) && now - entry.getValue() >= mExitTimeout) {
+				it.remove();
+				mListener.onExitRegion(region);
+			}
+		}
+	}
+
+	/**
+	 * Forgets the regions that have been removed from the index. Entered regions that have been removed are not notified, as they have no actions any more.
+	 */
+	private void pruneRegions() {
+		// The lists are empty between callbacks
+		mBeaconsByRegion.clear();
+		for (final Iterator<RegionIndex.Region> it = mLastSeen.keySet().iterator(); it.hasNext();) {
+			final RegionIndex.Region region = it.next();
+			if (mRegionIndex.get(region.getId()) != region)
+				it.remove();
+		}
+	}
+}
@@ -21,85 +21,209 @@
  */
 package no.nordicsemi.android.nrfbeacon.beacon.adapter;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import no.nordicsemi.android.nrfbeacon.R;
 import no.nordicsemi.android.nrfbeacon.database.BeaconContract;
+import no.nordicsemi.android.nrfbeacon.database.RegionIndex;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
-import android.database.Cursor;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
+import android.widget.BaseAdapter;
 import android.widget.ImageView;
+import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
 /**
- * Provides the list of all saved regions.
+ * Provides the list of all saved regions. The rows are taken from the {@link RegionIndex}.
+ * <p>
+ * While ranging only the signal strength changes. Instead of rebinding the whole list, {@link #onSignalStrengthChanged()} schedules an update of the progress bars of the visible rows
+ * whose value differs from the one shown. Updates are made at most once per {@link #setUpdateInterval(long) update interval}.
+ * </p>
  */
-public class BeaconAdapter extends CursorAdapter {
+public class BeaconAdapter extends BaseAdapter {
+	/** The default minimum time between two updates of the signal strength, in milliseconds. */
+	public final static long DEFAULT_UPDATE_INTERVAL = 100;
+
 	private final PackageManager mPackageManager;
 	private final LayoutInflater mInflater;
+	private final RegionIndex mRegionIndex;
+	private final List<RegionIndex.Region> mRegions = new ArrayList<>();
+	/** Application icons by package name. <code>null</code> is stored if the package has no single launcher activity. */
+	private final Map<String, Drawable> mApplicationIcons = new HashMap<>();
+	private ListView mListView;
+	private long mUpdateInterval = DEFAULT_UPDATE_INTERVAL;
+	private long mLastUpdate;
+	private boolean mUpdateScheduled;
 
-	public BeaconAdapter(final Context context, final Cursor c) {
-		super(context, c, 0);
+	private final Runnable mUpdateTask = new Runnable() {
+		@Override
+		public void run() {
+			mUpdateScheduled = false;
+			mLastUpdate = SystemClock.uptimeMillis();
+			updateSignalStrength();
+		}
+	};
 
+	private final static Comparator<RegionIndex.Region> ID_COMPARATOR = new Comparator<RegionIndex.Region>() {
+		@Override
+		public int compare(final RegionIndex.Region lhs, final RegionIndex.Region rhs) {
+			return lhs.getId() < rhs.getId() ? -1 : (lhs.getId() == rhs.getId() ? 0 : 1);
+		}
+	};
+
+	public BeaconAdapter(final Context context, final RegionIndex index) {
 		mPackageManager = context.getPackageManager();
 		mInflater = LayoutInflater.from(context);
+		mRegionIndex = index;
+		reload();
+	}
+
+	/**
+	 * Sets the list view the adapter is shown in. It's used to update the visible rows when the signal strength changes.
+	 */
+	public void setListView(final ListView listView) {
+		if (mListView != null)
+			mListView.removeCallbacks(mUpdateTask);
+		mListView = listView;
+		mUpdateScheduled = false;
+	}
+
+	/**
+	 * Sets the minimum time between two updates of the signal strength, in milliseconds.
+	 */
+	public void setUpdateInterval(final long interval) {
+		mUpdateInterval = interval;
+	}
+
+	/**
+	 * Reloads the regions from the index. Call it when regions have been added, removed or edited.
+	 */
+	public void reload() {
+		mRegions.clear();
+		mRegions.addAll(mRegionIndex.getAll());
+		// The order of rows in the table
+		Collections.sort(mRegions, ID_COMPARATOR);
+		mApplicationIcons.clear();
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * Schedules an update of the signal strength shown in the visible rows. Must be called on the UI thread.
+	 */
+	public void onSignalStrengthChanged() {
+		if (mListView == null || mUpdateScheduled)
+			return;
+		mUpdateScheduled = true;
+		final long delay = mLastUpdate + mUpdateInterval - SystemClock.uptimeMillis();
+		mListView.postDelayed(mUpdateTask, Math.max(0, delay));
 	}
 
 	@Override
-	public View newView(final Context context, final Cursor cursor, final ViewGroup parent) {
-		final View view = mInflater.inflate(R.layout.fragment_beacons_item, parent, false);
-
-		final ViewHolder holder = new ViewHolder();
-		holder.name = (TextView) view.findViewById(R.id.name);
-		holder.signal = (ProgressBar) view.findViewById(R.id.progress);
-		holder.event = (ImageView) view.findViewById(R.id.event);
-		holder.action = (ImageView) view.findViewById(R.id.action);
-		view.setTag(holder);
-		return view;
+	public int getCount() {
+		return mRegions.size();
 	}
 
 	@Override
-	public void bindView(final View view, final Context context, final Cursor cursor) {
-		final boolean enabled = cursor.getInt(9 /* ENABLED */) == 1;
+	public RegionIndex.Region getItem(final int position) {
+		return mRegions.get(position);
+	}
+
+	@Override
+	public long getItemId(final int position) {
+		return mRegions.get(position).getId();
+	}
+
+	@Override
+	public boolean hasStableIds() {
+		return true;
+	}
+
+	@Override
+	public View getView(final int position, final View convertView, final ViewGroup parent) {
+		View view = convertView;
+		if (view == null) {
+			view = mInflater.inflate(R.layout.fragment_beacons_item, parent, false);
+
+			final ViewHolder holder = new ViewHolder();
+			holder.name = (TextView) view.findViewById(R.id.name);
+			holder.signal = (ProgressBar) view.findViewById(R.id.progress);
+			holder.event = (ImageView) view.findViewById(R.id.event);
+			holder.action = (ImageView) view.findViewById(R.id.action);
+			view.setTag(holder);
+		}
+
+		final RegionIndex.Region region = mRegions.get(position);
+		final boolean enabled = region.isEnabled();
 
 		final ViewHolder holder = (ViewHolder) view.getTag();
-		holder.name.setText(cursor.getString(1 /* NAME */));
-		holder.signal.setProgress(cursor.getInt(5 /* SIGNAL_STRENGTH */));
-		holder.event.setImageLevel(cursor.getInt(6 /* EVENT */));
-
-		final int action = cursor.getInt(7 /* ACTION */);
-		switch (action) {
-		case BeaconContract.ACTION_APP:
-			final String application = cursor.getString(8 /* ACTION_PARAM */);
-
-			final PackageManager pm = mPackageManager;
-			final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
-			mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
-			mainIntent.setPackage(application);
-			final List<ResolveInfo> applications = pm.queryIntentActivities(mainIntent, 0);
-			if (applications.size() == 1) {
-				final ResolveInfo info = applications.get(0);
-				holder.action.setImageDrawable(info.loadIcon(pm));
-			} else {
-				holder.action.setImageResource(R.drawable.ic_action);
-				holder.action.setImageLevel(action);
-			}
-			break;
-		default:
+		holder.region = region;
+		holder.name.setText(region.getName());
+		holder.signalStrength = region.getSignalStrength();
+		holder.signal.setProgress(holder.signalStrength);
+		holder.event.setImageLevel(region.getEvent());
+
+		final int action = region.getAction();
+		final Drawable icon = action == BeaconContract.ACTION_APP ? getApplicationIcon(region.getActionParam()) : null;
+		if (icon != null) {
+			holder.action.setImageDrawable(icon);
+		} else {
 			holder.action.setImageResource(R.drawable.ic_action);
 			holder.action.setImageLevel(action);
-			break;
 		}
 		holder.name.setAlpha(enabled ? 1.0f : 0.5f);
 		holder.event.setAlpha(enabled ? 1.0f : 0.5f);
 		holder.action.setAlpha(enabled ? 1.0f : 0.5f);
+		return view;
+	}
+
+	/**
+	 * Updates the progress bars of the visible rows whose signal strength has changed since they were bound.
+	 */
+	private void updateSignalStrength() {
+		final ListView listView = mListView;
+		if (listView == null)
+			return;
+		for (int i = 0; i < listView.getChildCount(); ++i) {
+			final Object tag = listView.getChildAt(i).getTag();
+			if (!(tag instanceof ViewHolder))
+				continue;
+			final ViewHolder holder = (ViewHolder) tag;
+			final int signalStrength = holder.region.getSignalStrength();
+			if (holder.signalStrength != signalStrength) {
+				holder.signalStrength = signalStrength;
+				holder.signal.setProgress(signalStrength);
+			}
+		}
+	}
+
+	/**
+	 * Returns the icon of the application with the given package name, if it has a single launcher activity. Icons are cached until the next {@link #reload()}.
+	 */
+	private Drawable getApplicationIcon(final String application) {
+		if (mApplicationIcons.containsKey(application))
+			return mApplicationIcons.get(application);
+
+		final PackageManager pm = mPackageManager;
+		final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
+		mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+		mainIntent.setPackage(application);
+		final List<ResolveInfo> applications = pm.queryIntentActivities(mainIntent, 0);
+		final Drawable icon = applications.size() == 1 ? applications.get(0).loadIcon(pm) : null;
+		mApplicationIcons.put(application, icon);
+		return icon;
 	}
 
 	private class ViewHolder {
@@ -107,6 +231,9 @@ public class BeaconAdapter extends CursorAdapter {
 		private ProgressBar signal;
 		private ImageView event;
 		private ImageView action;
+		private RegionIndex.Region region;
+		/** The signal strength shown in the progress bar. */
+		private int signalStrength;
 	}
 
 }
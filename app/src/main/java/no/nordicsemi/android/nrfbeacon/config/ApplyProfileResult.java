@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.config;
+
+import java.io.Serializable;
+
+/**
+ * The result of applying a {@link BeaconConfig} profile to a beacon. For every field it contains the outcome of the write and of the verifying read.
+ */
+public class ApplyProfileResult implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/** The field was not set in the profile. */
+	public final static int RESULT_NOT_REQUESTED = 0;
+	/** The value has been written and the read back value matches. */
+	public final static int RESULT_VERIFIED = 1;
+	/** The characteristic has not been found on the beacon. */
+	public final static int RESULT_NOT_SUPPORTED = 2;
+	/** The value is out of range and has not been written. */
+	public final static int RESULT_INVALID_VALUE = 3;
+	/** The write request failed. See {@link #getStatus(int)} for the GATT status. */
+	public final static int RESULT_WRITE_FAILED = 4;
+	/** The verifying read request failed. See {@link #getStatus(int)} for the GATT status. */
+	public final static int RESULT_READ_FAILED = 5;
+	/** The value read back differs from the value written. */
+	public final static int RESULT_MISMATCH = 6;
+	/** The beacon already had the requested value, the write has been skipped. */
+	public final static int RESULT_UNCHANGED = 7;
+
+	private final int[] mResults = new int[BeaconConfig.FIELD_COUNT];
+	private final int[] mStatuses = new int[BeaconConfig.FIELD_COUNT];
+	private final BeaconConfig mRequested;
+	private final BeaconConfig mActual;
+
+	public ApplyProfileResult(final BeaconConfig requested, final BeaconConfig actual) {
+		mRequested = requested;
+		mActual = actual;
+	}
+
+	public void setResult(final int field, final int result, final int status) {
+		mResults[field] = result;
+		mStatuses[field] = status;
+	}
+
+	/**
+	 * Returns the outcome for the given field.
+	 * 
+	 * @param field
+	 *            one of the BeaconConfig.FIELD_* constants
+	 * @return one of the RESULT_* constants
+	 */
+	public int getResult(final int field) {
+		return mResults[field];
+	}
+
+	/**
+	 * Returns the GATT status of the failed operation for the given field, or {@link OperationQueue#GATT_SUCCESS}.
+	 */
+	public int getStatus(final int field) {
+		return mStatuses[field];
+	}
+
+	/**
+	 * Returns the number of fields with the given outcome.
+	 * 
+	 * @param result
+	 *            one of the RESULT_* constants
+	 */
+	public int getCount(final int result) {
+		int count = 0;
+		for (final int r : mResults)
+			if (r == result)
+				count++;
+		return count;
+	}
+
+	/**
+	 * Returns <code>true</code> if every requested field has been written and verified, or already had the requested value.
+	 */
+	public boolean isSuccessful() {
+		for (final int result : mResults)
+			if (result != RESULT_NOT_REQUESTED && result != RESULT_VERIFIED && result != RESULT_UNCHANGED)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns the profile that has been applied.
+	 */
+	public BeaconConfig getRequestedConfig() {
+		return mRequested;
+	}
+
+	/**
+	 * Returns the values read back from the beacon. Fields that could not be read are <code>null</code>.
+	 */
+	public BeaconConfig getActualConfig() {
+		return mActual;
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.config;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * The set of values that may be configured on a beacon in Config Mode. Every value is optional, <code>null</code> means that the value is unknown or should not be changed.
+ */
+public class BeaconConfig implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public final static int FIELD_UUID = 0;
+	public final static int FIELD_MAJOR_MINOR = 1;
+	public final static int FIELD_RSSI = 2;
+	public final static int FIELD_MANUFACTURER_ID = 3;
+	public final static int FIELD_ADV_INTERVAL = 4;
+	public final static int FIELD_LED = 5;
+	public final static int FIELD_COUNT = 6;
+
+	public final static int MAX_UINT16 = 0xFFFF;
+	public final static int MIN_RSSI = -128;
+	public final static int MAX_RSSI = 127;
+	/** The minimum advertising interval in milliseconds. */
+	public final static int MIN_ADV_INTERVAL = 100;
+	/** The maximum advertising interval in milliseconds. */
+	public final static int MAX_ADV_INTERVAL = 10240;
+
+	private UUID mUuid;
+	private Integer mMajor;
+	private Integer mMinor;
+	private Integer mCalibratedRssi;
+	private Integer mManufacturerId;
+	private Integer mAdvInterval;
+	private Boolean mLedOn;
+
+	public BeaconConfig() {
+		// empty
+	}
+
+	public BeaconConfig(final BeaconConfig other) {
+		mUuid = other.mUuid;
+		mMajor = other.mMajor;
+		mMinor = other.mMinor;
+		mCalibratedRssi = other.mCalibratedRssi;
+		mManufacturerId = other.mManufacturerId;
+		mAdvInterval = other.mAdvInterval;
+		mLedOn = other.mLedOn;
+	}
+
+	public UUID getUuid() {
+		return mUuid;
+	}
+
+	public BeaconConfig setUuid(final UUID uuid) {
+		mUuid = uuid;
+		return this;
+	}
+
+	public Integer getMajor() {
+		return mMajor;
+	}
+
+	public Integer getMinor() {
+		return mMinor;
+	}
+
+	/**
+	 * Sets the major and minor numbers. Both are written in a single characteristic, therefore they may only be set together.
+	 */
+	public BeaconConfig setMajorAndMinor(final Integer major, final Integer minor) {
+		mMajor = major;
+		mMinor = minor;
+		return this;
+	}
+
+	public Integer getCalibratedRssi() {
+		return mCalibratedRssi;
+	}
+
+	public BeaconConfig setCalibratedRssi(final Integer rssi) {
+		mCalibratedRssi = rssi;
+		return this;
+	}
+
+	public Integer getManufacturerId() {
+		return mManufacturerId;
+	}
+
+	public BeaconConfig setManufacturerId(final Integer id) {
+		mManufacturerId = id;
+		return this;
+	}
+
+	public Integer getAdvInterval() {
+		return mAdvInterval;
+	}
+
+	public BeaconConfig setAdvInterval(final Integer interval) {
+		mAdvInterval = interval;
+		return this;
+	}
+
+	public Boolean getLedStatus() {
+		return mLedOn;
+	}
+
+	public BeaconConfig setLedStatus(final Boolean on) {
+		mLedOn = on;
+		return this;
+	}
+
+	/**
+	 * Returns <code>true</code> if the value of the given field has been set.
+	 * 
+	 * @param field
+	 *            one of the FIELD_* constants
+	 */
+	public boolean has(final int field) {
+		switch (field) {
+		case FIELD_UUID:
+			return mUuid != null;
+		case FIELD_MAJOR_MINOR:
+			return mMajor != null && mMinor != null;
+		case FIELD_RSSI:
+			return mCalibratedRssi != null;
+		case FIELD_MANUFACTURER_ID:
+			return mManufacturerId != null;
+		case FIELD_ADV_INTERVAL:
+			return mAdvInterval != null;
+		case FIELD_LED:
+			return mLedOn != null;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Copies all values set in the other configuration into this one.
+	 * 
+	 * @return this configuration
+	 */
+	public BeaconConfig merge(final BeaconConfig other) {
+		if (other.mUuid != null)
+			mUuid = other.mUuid;
+		if (other.mMajor != null && other.mMinor != null) {
+			mMajor = other.mMajor;
+			mMinor = other.mMinor;
+		}
+		if (other.mCalibratedRssi != null)
+			mCalibratedRssi = other.mCalibratedRssi;
+		if (other.mManufacturerId != null)
+			mManufacturerId = other.mManufacturerId;
+		if (other.mAdvInterval != null)
+			mAdvInterval = other.mAdvInterval;
+		if (other.mLedOn != null)
+			mLedOn = other.mLedOn;
+		return this;
+	}
+
+	/**
+	 * Validates the value of the given field. The field must be set.
+	 * 
+	 * @param field
+	 *            one of the FIELD_* constants
+	 * @return <code>true</code> if the value may be written to the beacon
+	 */
+	public boolean isValid(final int field) {
+		switch (field) {
+		case FIELD_MAJOR_MINOR:
+			return isValidMajorOrMinor(mMajor) && isValidMajorOrMinor(mMinor);
+		case FIELD_RSSI:
+			return mCalibratedRssi >= MIN_RSSI && mCalibratedRssi <= MAX_RSSI;
+		case FIELD_MANUFACTURER_ID:
+			return mManufacturerId >= 0 && mManufacturerId <= MAX_UINT16;
+		case FIELD_ADV_INTERVAL:
+			return isValidAdvInterval(mAdvInterval);
+		default:
+			return has(field);
+		}
+	}
+
+	public static boolean isValidMajorOrMinor(final int value) {
+		return value >= 0 && value <= MAX_UINT16;
+	}
+
+	public static boolean isValidAdvInterval(final int interval) {
+		return interval >= MIN_ADV_INTERVAL && interval <= MAX_ADV_INTERVAL;
+	}
+
+	@Override
+	public String toString() {
+		return "uuid: " + mUuid + " major: " + mMajor + " minor: " + mMinor + " rssi: " + mCalibratedRssi + " manufacturer id: " + mManufacturerId + " interval: " + mAdvInterval + " led: "
+				+ mLedOn;
+	}
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.config;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Encodes and decodes the values of the config characteristics. The primitive methods read from and write to buffers supplied by the caller and do not allocate, so they may be used in loops
+ * handling many devices. The methods taking a {@link BeaconConfig} allocate only the objects the configuration holds (the UUID and boxed numbers).
+ * <p>
+ * Formats of the characteristics:
+ * <ul>
+ * <li>Beacon UUID - 16 bytes, Big Endian,</li>
+ * <li>Major and minor - 2 x UINT16, Big Endian,</li>
+ * <li>Calibrated RSSI - SINT8,</li>
+ * <li>Manufacturer ID and advertising interval - UINT16, Little Endian,</li>
+ * <li>LED settings - UINT8, 1 if enabled.</li>
+ * </ul>
+ * </p>
+ */
+public class BeaconConfigCodec {
+	/** The length of the UUID value in bytes. */
+	public final static int UUID_LENGTH = 16;
+	/** The length of the major and minor value in bytes. */
+	public final static int MAJOR_MINOR_LENGTH = 4;
+	/** The maximum length of a value of any field. */
+	public final static int MAX_LENGTH = UUID_LENGTH;
+
+	private static final int[] FIELD_LENGTHS = new int[] { UUID_LENGTH, MAJOR_MINOR_LENGTH, 1, 2, 2, 1 };
+
+	private BeaconConfigCodec() {
+		// empty
+	}
+
+	/**
+	 * Returns the length of the value of the given field.
+	 * 
+	 * @param field
+	 *            one of the BeaconConfig.FIELD_* constants
+	 * @return the length in bytes
+	 */
+	public static int getLength(final int field) {
+		return FIELD_LENGTHS[field];
+	}
+
+	/**
+	 * Encodes the value of the given field into the buffer.
+	 * 
+	 * @param config
+	 *            the configuration with the field set
+	 * @param field
+	 *            one of the BeaconConfig.FIELD_* constants
+	 * @param data
+	 *            the destination buffer, at least {@link #getLength(int)} bytes from the offset
+	 * @param offset
+	 *            the offset of the value in the buffer
+	 * @return the number of bytes written, or -1 if the field is unknown
+	 */
+	public static int encodeField(final BeaconConfig config, final int field, final byte[] data, final int offset) {
+		switch (field) {
+		case BeaconConfig.FIELD_UUID: {
+			final UUID uuid = config.getUuid();
+			return encodeUuid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), data, offset);
+		}
+		case BeaconConfig.FIELD_MAJOR_MINOR:
+			return encodeMajorAndMinor(config.getMajor(), config.getMinor(), data, offset);
+		case BeaconConfig.FIELD_RSSI:
+			data[offset] = (byte) (int) config.getCalibratedRssi();
+			return 1;
+		case BeaconConfig.FIELD_MANUFACTURER_ID:
+			return encodeUInt16(config.getManufacturerId(), data, offset);
+		case BeaconConfig.FIELD_ADV_INTERVAL:
+			return encodeUInt16(config.getAdvInterval(), data, offset);
+		case BeaconConfig.FIELD_LED:
+			data[offset] = (byte) (config.getLedStatus() ? 1 : 0);
+			return 1;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Encodes the value of the given field at the position of the buffer and advances the position.
+	 * 
+	 * @return the number of bytes written, or -1 if the field is unknown
+	 * @see #encodeField(BeaconConfig, int, byte[], int)
+	 */
+	public static int encodeField(final BeaconConfig config, final int field, final ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			final int length = encodeField(config, field, buffer.array(), buffer.arrayOffset() + buffer.position());
+			if (length > 0)
+				buffer.position(buffer.position() + length);
+			return length;
+		}
+
+		switch (field) {
+		case BeaconConfig.FIELD_UUID: {
+			final UUID uuid = config.getUuid();
+			buffer.putLong(uuid.getMostSignificantBits());
+			buffer.putLong(uuid.getLeastSignificantBits());
+			return UUID_LENGTH;
+		}
+		case BeaconConfig.FIELD_MAJOR_MINOR:
+			buffer.put((byte) (config.getMajor() >> 8)).put((byte) (int) config.getMajor());
+			buffer.put((byte) (config.getMinor() >> 8)).put((byte) (int) config.getMinor());
+			return MAJOR_MINOR_LENGTH;
+		case BeaconConfig.FIELD_RSSI:
+			buffer.put((byte) (int) config.getCalibratedRssi());
+			return 1;
+		case BeaconConfig.FIELD_MANUFACTURER_ID:
+			buffer.put((byte) (int) config.getManufacturerId()).put((byte) (config.getManufacturerId() >> 8));
+			return 2;
+		case BeaconConfig.FIELD_ADV_INTERVAL:
+			buffer.put((byte) (int) config.getAdvInterval()).put((byte) (config.getAdvInterval() >> 8));
+			return 2;
+		case BeaconConfig.FIELD_LED:
+			buffer.put((byte) (config.getLedStatus() ? 1 : 0));
+			return 1;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Decodes the value and sets it as the given field of the configuration.
+	 * 
+	 * @param config
+	 *            the configuration to be updated
+	 * @param field
+	 *            one of the BeaconConfig.FIELD_* constants
+	 * @param data
+	 *            the buffer with the value
+	 * @param offset
+	 *            the offset of the value
+	 * @param length
+	 *            the length of the value. The UUID and the major and minor must have the exact length, other values at least the length of the field.
+	 * @return <code>true</code> if the value had a valid length and has been decoded
+	 */
+	public static boolean decodeField(final BeaconConfig config, final int field, final byte[] data, final int offset, final int length) {
+		if (field < 0 || field >= FIELD_LENGTHS.length || !isValidLength(field, length))
+			return false;
+
+		switch (field) {
+		case BeaconConfig.FIELD_UUID:
+			config.setUuid(new UUID(decodeUInt64(data, offset), decodeUInt64(data, offset + 8)));
+			return true;
+		case BeaconConfig.FIELD_MAJOR_MINOR:
+			config.setMajorAndMinor(decodeUInt16BigEndian(data, offset), decodeUInt16BigEndian(data, offset + 2));
+			return true;
+		case BeaconConfig.FIELD_RSSI:
+			config.setCalibratedRssi((int) data[offset]);
+			return true;
+		case BeaconConfig.FIELD_MANUFACTURER_ID:
+			config.setManufacturerId(decodeUInt16(data, offset));
+			return true;
+		case BeaconConfig.FIELD_ADV_INTERVAL:
+			config.setAdvInterval(decodeUInt16(data, offset));
+			return true;
+		default: // BeaconConfig.FIELD_LED
+			config.setLedStatus(data[offset] == 1);
+			return true;
+		}
+	}
+
+	/**
+	 * Decodes the value between the position and the limit of the buffer. The position is not changed.
+	 * 
+	 * @see #decodeField(BeaconConfig, int, byte[], int, int)
+	 */
+	public static boolean decodeField(final BeaconConfig config, final int field, final ByteBuffer buffer) {
+		if (buffer.hasArray())
+			return decodeField(config, field, buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+
+		if (field < 0 || field >= FIELD_LENGTHS.length || !isValidLength(field, buffer.remaining()))
+			return false;
+
+		final int position = buffer.position();
+		switch (field) {
+		case BeaconConfig.FIELD_UUID:
+			config.setUuid(new UUID(buffer.getLong(position), buffer.getLong(position + 8)));
+			return true;
+		case BeaconConfig.FIELD_MAJOR_MINOR:
+			config.setMajorAndMinor(buffer.getShort(position) & 0xFFFF, buffer.getShort(position + 2) & 0xFFFF);
+			return true;
+		case BeaconConfig.FIELD_RSSI:
+			config.setCalibratedRssi((int) buffer.get(position));
+			return true;
+		case BeaconConfig.FIELD_MANUFACTURER_ID:
+			config.setManufacturerId((buffer.get(position) & 0xFF) | ((buffer.get(position + 1) & 0xFF) << 8));
+			return true;
+		case BeaconConfig.FIELD_ADV_INTERVAL:
+			config.setAdvInterval((buffer.get(position) & 0xFF) | ((buffer.get(position + 1) & 0xFF) << 8));
+			return true;
+		default: // BeaconConfig.FIELD_LED
+			config.setLedStatus(buffer.get(position) == 1);
+			return true;
+		}
+	}
+
+	/**
+	 * Encodes the UUID as 16 bytes in Big Endian.
+	 * 
+	 * @return the number of bytes written
+	 */
+	public static int encodeUuid(final long mostSignificantBits, final long leastSignificantBits, final byte[] data, final int offset) {
+		encodeUInt64(mostSignificantBits, data, offset);
+		encodeUInt64(leastSignificantBits, data, offset + 8);
+		return UUID_LENGTH;
+	}
+
+	/**
+	 * Encodes major and minor as two UINT16 in Big Endian.
+	 * 
+	 * @return the number of bytes written
+	 */
+	public static int encodeMajorAndMinor(final int major, final int minor, final byte[] data, final int offset) {
+		data[offset] = (byte) (major >> 8);
+		data[offset + 1] = (byte) major;
+		data[offset + 2] = (byte) (minor >> 8);
+		data[offset + 3] = (byte) minor;
+		return MAJOR_MINOR_LENGTH;
+	}
+
+	/**
+	 * Encodes the value as UINT16 in Little Endian.
+	 * 
+	 * @return the number of bytes written
+	 */
+	public static int encodeUInt16(final int value, final byte[] data, final int offset) {
+		data[offset] = (byte) value;
+		data[offset + 1] = (byte) (value >> 8);
+		return 2;
+	}
+
+	/**
+	 * Decodes UINT16 in Little Endian.
+	 */
+	public static int decodeUInt16(final byte[] data, final int offset) {
+		return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+	}
+
+	/**
+	 * Decodes UINT16 in Big Endian.
+	 */
+	public static int decodeUInt16BigEndian(final byte[] data, final int offset) {
+		return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+	}
+
+	/**
+	 * Decodes 8 bytes in Big Endian, f.e. a half of the UUID.
+	 */
+	public static long decodeUInt64(final byte[] data, final int offset) {
+		long value = 0;
+		for (int i = 0; i < 8; ++i)
+			value = (value << 8) | (data[offset + i] & 0xFF);
+		return value;
+	}
+
+	private static void encodeUInt64(final long value, final byte[] data, final int offset) {
+		for (int i = 0; i < 8; ++i)
+			data[offset + i] = (byte) (value >>> (56 - i * 8));
+	}
+
+	private static boolean isValidLength(final int field, final int length) {
+		switch (field) {
+		case BeaconConfig.FIELD_UUID:
+		case BeaconConfig.FIELD_MAJOR_MINOR:
+			return length == FIELD_LENGTHS[field];
+		default:
+			return length >= FIELD_LENGTHS[field];
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the last known configuration of every beacon, so the values may be shown as soon as the device is connected and reading them again may be skipped when they are fresh. Entries are kept in
+ * memory and written through to the {@link Storage}.
+ * <p>
+ * An entry is valid only for the firmware it was read from. When the device reports a different firmware identifier the entry is removed.
+ * </p>
+ */
+public class ConfigCache {
+	/** The default time in milliseconds for which the cached values are considered fresh. */
+	public final static long DEFAULT_TTL = 60000;
+
+	public interface Storage {
+		/**
+		 * Returns the entry saved for the given device.
+		 * 
+		 * @return the entry or <code>null</code> if not found
+		 */
+		public Entry load(final String address);
+
+		public void save(final String address, final Entry entry);
+
+		public void remove(final String address);
+	}
+
+	/**
+	 * The cached configuration of a single device.
+	 */
+	public static class Entry {
+		private final BeaconConfig mConfig;
+		private final String mFirmwareId;
+		private final long mTimestamp;
+
+		/**
+		 * @param config
+		 *            the configuration, fields not known are set to <code>null</code>
+		 * @param firmwareId
+		 *            the firmware identifier, see {@link ConfigTransport#getFirmwareId()}
+		 * @param timestamp
+		 *            the time the values were obtained, in milliseconds since epoch
+		 */
+		public Entry(final BeaconConfig config, final String firmwareId, final long timestamp) {
+			mConfig = new BeaconConfig(config);
+			mFirmwareId = firmwareId;
+			mTimestamp = timestamp;
+		}
+
+		/**
+		 * Returns a copy of the cached configuration.
+		 */
+		public BeaconConfig getConfig() {
+			return new BeaconConfig(mConfig);
+		}
+
+		public String getFirmwareId() {
+			return mFirmwareId;
+		}
+
+		public long getTimestamp() {
+			return mTimestamp;
+		}
+
+		/**
+		 * Returns <code>true</code> if the value of the given field is known.
+		 */
+		public boolean has(final int field) {
+			return mConfig.has(field);
+		}
+	}
+
+	private final Storage mStorage;
+	private final Map<String, Entry> mEntries = new HashMap<>();
+	private long mTtl = DEFAULT_TTL;
+	private boolean mSkipIfFresh = true;
+
+	public ConfigCache(final Storage storage) {
+		mStorage = storage;
+	}
+
+	/**
+	 * Sets the time for which the cached values are considered fresh.
+	 * 
+	 * @param ttl
+	 *            the time in milliseconds, 0 to always read the values from the device
+	 */
+	public synchronized void setTtl(final long ttl) {
+		mTtl = ttl;
+	}
+
+	public synchronized long getTtl() {
+		return mTtl;
+	}
+
+	/**
+	 * Sets whether reading values from the device should be skipped when the cached entry is fresh. When disabled, cached values are only used to show something before the read completes.
+	 */
+	public synchronized void setSkipIfFresh(final boolean skip) {
+		mSkipIfFresh = skip;
+	}
+
+	public synchronized boolean isSkipIfFresh() {
+		return mSkipIfFresh;
+	}
+
+	/**
+	 * Returns the cached entry for the device.
+	 * 
+	 * @param address
+	 *            the device address
+	 * @param firmwareId
+	 *            the identifier of the firmware currently running on the device. If the cached entry was obtained from a different firmware it is removed.
+	 * @return the entry or <code>null</code>
+	 */
+	public synchronized Entry get(final String address, final String firmwareId) {
+		Entry entry = mEntries.get(address);
+		if (entry == null) {
+			entry = mStorage.load(address);
+			if (entry == null)
+				return null;
+			mEntries.put(address, entry);
+		}
+
+		if (firmwareId != null && !firmwareId.equals(entry.getFirmwareId())) {
+			invalidate(address);
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Returns <code>true</code> if the entry is younger than the TTL.
+	 */
+	public synchronized boolean isFresh(final Entry entry) {
+		final long age = System.currentTimeMillis() - entry.getTimestamp();
+		return age >= 0 && age < mTtl;
+	}
+
+	/**
+	 * Returns <code>true</code> if the entry is fresh and reading the cached values from the device may be skipped.
+	 */
+	public synchronized boolean canSkipRead(final Entry entry) {
+		return mSkipIfFresh && entry != null && isFresh(entry);
+	}
+
+	/**
+	 * Saves the configuration of the device with the current time.
+	 */
+	public synchronized Entry put(final String address, final BeaconConfig config, final String firmwareId) {
+		final Entry entry = new Entry(config, firmwareId, System.currentTimeMillis());
+		mEntries.put(address, entry);
+		mStorage.save(address, entry);
+		return entry;
+	}
+
+	/**
+	 * Removes the entry of the device.
+	 */
+	public synchronized void invalidate(final String address) {
+		mEntries.remove(address);
+		mStorage.remove(address);
+	}
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.config;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Configures a single beacon over a {@link ConfigTransport}. The client owns the {@link OperationQueue} of the connection and keeps track of the connection state.
+ */
+public class ConfigClient implements ConfigTransport.Callback {
+	public final static int STATE_DISCONNECTED = 0;
+	public final static int STATE_CONNECTING = 1;
+	public final static int STATE_CONNECTED = 3;
+	public final static int STATE_DISCONNECTING = 4;
+
+	public interface ConnectionListener {
+		/**
+		 * Called when the device is connected and the config service is ready to use.
+		 */
+		public void onConnected(final ConfigClient client);
+
+		/**
+		 * Called when the device has disconnected or the connection could not be established. All pending operations have been cancelled.
+		 * 
+		 * @param status
+		 *            {@link OperationQueue#GATT_SUCCESS} if the disconnection was requested, {@link OperationQueue#ERROR_TIMEOUT} if the connection was closed because an operation
+		 *            has timed out, the error code otherwise
+		 */
+		public void onDisconnected(final ConfigClient client, final int status);
+	}
+
+	public interface ValueListener {
+		/**
+		 * Called when a characteristic has been read, before the next queued operation is started.
+		 * 
+		 * @param value
+		 *            the value or <code>null</code> if the operation failed
+		 */
+		public void onValueRead(final ConfigClient client, final UUID characteristicUuid, final int status, final byte[] value);
+
+		/**
+		 * Called when a characteristic has been written, before the next queued operation is started.
+		 * 
+		 * @param value
+		 *            the value or <code>null</code> if the operation failed
+		 */
+		public void onValueWritten(final ConfigClient client, final UUID characteristicUuid, final int status, final byte[] value);
+	}
+
+	private final ConfigTransport mTransport;
+	private final OperationQueue mQueue;
+	private final OperationQueue.Scheduler mScheduler;
+	private final Map<UUID, byte[]> mValues = new HashMap<>();
+	private ConnectionListener mListener;
+	private ValueListener mValueListener;
+	private volatile int mState = STATE_DISCONNECTED;
+	/** Set when the connection is being closed because an operation has timed out. */
+	private volatile boolean mTimedOut;
+
+	/** Closes the connection if the disconnection has not been reported in time. */
+	private final Runnable mCloseTask = new Runnable() {
+		@Override
+		public void run() {
+			close();
+		}
+	};
+
+	private final ProfileTransaction.OperationFactory mOperationFactory = new ProfileTransaction.OperationFactory() {
+		@Override
+		public boolean isSupported(final int field) {
+			return mTransport.hasCharacteristic(ConfigProtocol.getCharacteristicUuid(field));
+		}
+
+		@Override
+		public OperationQueue.Operation createRead(final int field) {
+			return new ReadOperation(ConfigProtocol.getCharacteristicUuid(field));
+		}
+
+		@Override
+		public OperationQueue.Operation createWrite(final int field, final byte[] value) {
+			return new WriteOperation(ConfigProtocol.getCharacteristicUuid(field), value);
+		}
+	};
+
+	public ConfigClient(final ConfigTransport transport, final OperationQueue.Scheduler scheduler) {
+		mTransport = transport;
+		mScheduler = scheduler;
+		mQueue = new OperationQueue(scheduler);
+		mQueue.setTimeoutListener(new OperationQueue.TimeoutListener() {
+			@Override
+			public void onOperationTimeout(final OperationQueue queue, final OperationQueue.Operation operation) {
+				// The request may still be pending in the system, no other can be sent on this connection
+				if (mState == STATE_DISCONNECTED || mState == STATE_DISCONNECTING)
+					return;
+				mTimedOut = true;
+				disconnect();
+			}
+		});
+	}
+
+	public ConfigTransport getTransport() {
+		return mTransport;
+	}
+
+	public OperationQueue getOperationQueue() {
+		return mQueue;
+	}
+
+	public int getState() {
+		return mState;
+	}
+
+	public void setValueListener(final ValueListener listener) {
+		mValueListener = listener;
+	}
+
+	/**
+	 * Returns the identifier of the firmware running on the connected device.
+	 * 
+	 * @see ConfigTransport#getFirmwareId()
+	 */
+	public String getFirmwareId() {
+		return mTransport.getFirmwareId();
+	}
+
+	/**
+	 * Returns <code>true</code> if the connected device has the characteristic with given UUID.
+	 */
+	public boolean hasCharacteristic(final UUID characteristicUuid) {
+		return mTransport.hasCharacteristic(characteristicUuid);
+	}
+
+	/**
+	 * Returns the last value read from or written to the characteristic during this connection.
+	 * 
+	 * @return the value or <code>null</code> if not known
+	 */
+	public byte[] getValue(final UUID characteristicUuid) {
+		synchronized (mValues) {
+			return mValues.get(characteristicUuid);
+		}
+	}
+
+	/**
+	 * Adds the read request to the queue. The queue must be flushed with {@link OperationQueue#flush()} afterwards.
+	 * 
+	 * @return the operation future or <code>null</code> if the characteristic is not supported by the device
+	 */
+	public OperationFuture enqueueRead(final UUID characteristicUuid) {
+		if (!mTransport.hasCharacteristic(characteristicUuid))
+			return null;
+		return mQueue.enqueue(new ReadOperation(characteristicUuid));
+	}
+
+	/**
+	 * Writes the value to the characteristic. The request is sent when all previously queued operations have completed.
+	 * 
+	 * @return the operation future or <code>null</code> if the characteristic is not supported by the device
+	 */
+	public OperationFuture write(final UUID characteristicUuid, final byte[] value) {
+		if (!mTransport.hasCharacteristic(characteristicUuid))
+			return null;
+		return mQueue.submit(new WriteOperation(characteristicUuid, value));
+	}
+
+	/**
+	 * Connects to the device.
+	 * 
+	 * @param listener
+	 *            the listener notified about connection state changes
+	 * @return <code>true</code> if the connection process has been initiated
+	 */
+	public boolean connect(final ConnectionListener listener) {
+		mListener = listener;
+		mTimedOut = false;
+		mState = STATE_CONNECTING;
+		if (!mTransport.connect(this)) {
+			mState = STATE_DISCONNECTED;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Disconnects from the device. Pending operations are cancelled when the disconnection completes.
+	 */
+	public void disconnect() {
+		if (mState == STATE_DISCONNECTED)
+			return;
+		mState = STATE_DISCONNECTING;
+		mTransport.disconnect();
+	}
+
+	/**
+	 * Disconnects from the device and closes the connection if the disconnection has not been reported within the given time. Until the disconnection is reported the device may still be
+	 * connected, so it must not be connected again.
+	 * 
+	 * @param closeTimeout
+	 *            the time in milliseconds after which the connection is closed
+	 */
+	public void disconnect(final long closeTimeout) {
+		if (mState == STATE_DISCONNECTED)
+			return;
+		if (mState != STATE_DISCONNECTING)
+			disconnect();
+		mScheduler.schedule(mCloseTask, closeTimeout);
+	}
+
+	/**
+	 * Closes the connection without waiting for the device to report the disconnection. {@link ConnectionListener#onDisconnected(ConfigClient, int)} is called before this method returns,
+	 * unless it has been called already.
+	 */
+	public void close() {
+		if (mState == STATE_DISCONNECTED)
+			return;
+		mState = STATE_DISCONNECTING;
+		mTransport.close();
+	}
+
+	/**
+	 * Returns the configuration with the values read from or written to the device during this connection.
+	 */
+	public BeaconConfig getKnownConfig() {
+		final BeaconConfig config = new BeaconConfig();
+		synchronized (mValues) {
+			for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field)
+				ConfigProtocol.decodeField(config, field, mValues.get(ConfigProtocol.getCharacteristicUuid(field)));
+		}
+		return config;
+	}
+
+	/**
+	 * Writes and verifies all values set in the profile. Values already read from or written to the device during this connection are not written again if they have not changed.
+	 * 
+	 * @see ProfileTransaction#apply(OperationQueue, ProfileTransaction.OperationFactory, BeaconConfig, BeaconConfig, ProfileTransaction.Listener)
+	 */
+	public void applyProfile(final BeaconConfig config, final ProfileTransaction.Listener listener) {
+		applyProfile(config, null, listener);
+	}
+
+	/**
+	 * Writes and verifies all values set in the profile that differ from the known values.
+	 * 
+	 * @param known
+	 *            the values believed to be set on the device, f.e. from the {@link ConfigCache}. Values read during this connection take precedence. May be <code>null</code>.
+	 * @see ProfileTransaction#apply(OperationQueue, ProfileTransaction.OperationFactory, BeaconConfig, BeaconConfig, ProfileTransaction.Listener)
+	 */
+	public void applyProfile(final BeaconConfig config, final BeaconConfig known, final ProfileTransaction.Listener listener) {
+		final BeaconConfig values = known != null ? new BeaconConfig(known) : new BeaconConfig();
+		values.merge(getKnownConfig());
+		ProfileTransaction.apply(mQueue, mOperationFactory, config, values, listener);
+	}
+
+	@Override
+	public void onConnected() {
+		mState = STATE_CONNECTED;
+		final ConnectionListener listener = mListener;
+		if (listener != null)
+			listener.onConnected(this);
+	}
+
+	@Override
+	public void onDisconnected(final int status) {
+		// A disconnection after a timeout was not requested by the user
+		final int reason = mTimedOut && status == OperationQueue.GATT_SUCCESS ? OperationQueue.ERROR_TIMEOUT : status;
+		mTimedOut = false;
+		mScheduler.cancel(mCloseTask);
+		mQueue.cancelAll();
+		synchronized (mValues) {
+			mValues.clear();
+		}
+		mState = STATE_DISCONNECTED;
+		final ConnectionListener listener = mListener;
+		if (listener != null)
+			listener.onDisconnected(this, reason);
+	}
+
+	@Override
+	public void onCharacteristicRead(final UUID characteristicUuid, final int status, final byte[] value) {
+		// A late response to an operation that has already timed out or been cancelled is ignored
+		if (!mQueue.onOperationCompleted(characteristicUuid, status, value))
+			return;
+		final ValueListener listener = mValueListener;
+		if (listener != null)
+			listener.onValueRead(this, characteristicUuid, status, value);
+	}
+
+	@Override
+	public void onCharacteristicWrite(final UUID characteristicUuid, final int status, final byte[] value) {
+		// A late response to an operation that has already timed out or been cancelled is ignored
+		if (!mQueue.onOperationCompleted(characteristicUuid, status, value))
+			return;
+		final ValueListener listener = mValueListener;
+		if (listener != null)
+			listener.onValueWritten(this, characteristicUuid, status, value);
+	}
+
+	private void putValue(final UUID characteristicUuid, final byte[] value) {
+		synchronized (mValues) {
+			mValues.put(characteristicUuid, value);
+		}
+	}
+
+	private class ReadOperation extends OperationQueue.Operation {
+		public ReadOperation(final UUID characteristicUuid) {
+			super(TYPE_READ, characteristicUuid);
+		}
+
+		@Override
+		protected boolean start() {
+			return mTransport.read(getCharacteristicUuid());
+		}
+
+		@Override
+		protected void onCompleted(final int status, final byte[] value) {
+			if (status == OperationQueue.GATT_SUCCESS)
+				putValue(getCharacteristicUuid(), value);
+		}
+	}
+
+	private class WriteOperation extends OperationQueue.Operation {
+		private final byte[] mValue;
+
+		public WriteOperation(final UUID characteristicUuid, final byte[] value) {
+			super(TYPE_WRITE, characteristicUuid);
+			mValue = value;
+		}
+
+		@Override
+		protected boolean start() {
+			return mTransport.write(getCharacteristicUuid(), mValue);
+		}
+
+		@Override
+		protected void onCompleted(final int status, final byte[] value) {
+			if (status == OperationQueue.GATT_SUCCESS)
+				putValue(getCharacteristicUuid(), value);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.config;
+
+import java.util.UUID;
+
+/**
+ * The Beacon Config service definition and the format of its characteristics. The service is exposed by the nRF Beacon when it is in Config Mode.
+ */
+public class ConfigProtocol {
+	public static final UUID CONFIG_SERVICE_UUID = new UUID(0x955A15230FE2F5AAl, 0xA09484B8D4F3E8ADl);
+	public static final UUID CONFIG_UUID_CHARACTERISTIC_UUID = new UUID(0x955A15240FE2F5AAl, 0xA09484B8D4F3E8ADl);
+	public static final UUID CONFIG_RSSI_CHARACTERISTIC_UUID = new UUID(0x955A15250FE2F5AAl, 0xA09484B8D4F3E8ADl);
+	public static final UUID CONFIG_MAJOR_MINOR_CHARACTERISTIC_UUID = new UUID(0x955A15260FE2F5AAl, 0xA09484B8D4F3E8ADl);
+	public static final UUID CONFIG_MANUFACTURER_ID_CHARACTERISTIC_UUID = new UUID(0x955A15270FE2F5AAl, 0xA09484B8D4F3E8ADl);
+	public static final UUID CONFIG_ADV_INTERVAL_CHARACTERISTIC_UUID = new UUID(0x955A15280FE2F5AAl, 0xA09484B8D4F3E8ADl);
+	public static final UUID CONFIG_LED_SETTINGS_CHARACTERISTIC_UUID = new UUID(0x955A15290FE2F5AAl, 0xA09484B8D4F3E8ADl);
+
+	private static final UUID[] FIELD_CHARACTERISTICS = new UUID[] { CONFIG_UUID_CHARACTERISTIC_UUID, CONFIG_MAJOR_MINOR_CHARACTERISTIC_UUID, CONFIG_RSSI_CHARACTERISTIC_UUID,
+			CONFIG_MANUFACTURER_ID_CHARACTERISTIC_UUID, CONFIG_ADV_INTERVAL_CHARACTERISTIC_UUID, CONFIG_LED_SETTINGS_CHARACTERISTIC_UUID };
+
+	private ConfigProtocol() {
+		// empty
+	}
+
+	/**
+	 * Returns the UUID of the characteristic that holds the given field.
+	 * 
+	 * @param field
+	 *            one of the BeaconConfig.FIELD_* constants
+	 */
+	public static UUID getCharacteristicUuid(final int field) {
+		return FIELD_CHARACTERISTICS[field];
+	}
+
+	/**
+	 * Returns the field stored in the characteristic with given UUID.
+	 * 
+	 * @param characteristicUuid
+	 *            the characteristic UUID
+	 * @return one of the BeaconConfig.FIELD_* constants or -1 if the characteristic does not belong to the config service
+	 */
+	public static int getField(final UUID characteristicUuid) {
+		for (int field = 0; field < FIELD_CHARACTERISTICS.length; ++field)
+			if (FIELD_CHARACTERISTICS[field].equals(characteristicUuid))
+				return field;
+		return -1;
+	}
+
+	/**
+	 * Encodes the value of the given field in the format used by the config characteristic.
+	 * 
+	 * @param config
+	 *            the configuration with the field set
+	 * @param field
+	 *            one of the BeaconConfig.FIELD_* constants
+	 * @return the characteristic value
+	 * @see BeaconConfigCodec#encodeField(BeaconConfig, int, byte[], int) for encoding into an existing buffer
+	 */
+	public static byte[] encodeField(final BeaconConfig config, final int field) {
+		if (field < 0 || field >= BeaconConfig.FIELD_COUNT)
+			return null;
+		final byte[] data = new byte[BeaconConfigCodec.getLength(field)];
+		BeaconConfigCodec.encodeField(config, field, data, 0);
+		return data;
+	}
+
+	/**
+	 * Decodes the characteristic value and sets it as the given field of the configuration.
+	 * 
+	 * @param config
+	 *            the configuration to be updated
+	 * @param field
+	 *            one of the BeaconConfig.FIELD_* constants
+	 * @param data
+	 *            the characteristic value
+	 * @return <code>true</code> if the value had a valid length and has been decoded
+	 */
+	public static boolean decodeField(final BeaconConfig config, final int field, final byte[] data) {
+		if (data == null)
+			return false;
+		return BeaconConfigCodec.decodeField(config, field, data, 0, data.length);
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.config;
+
+import java.util.UUID;
+
+/**
+ * The link to a single beacon in Config Mode. Implementations issue at most one request at a time and report the result through the {@link Callback}; requests are serialized by the
+ * {@link OperationQueue} owned by {@link ConfigClient}.
+ */
+public interface ConfigTransport {
+	/** The device does not have the Beacon Config service or any of the required characteristics. */
+	public final static int ERROR_UNSUPPORTED_DEVICE = -1;
+
+	public interface Callback {
+		/**
+		 * Called when the connection has been established and the config service has been discovered.
+		 */
+		public void onConnected();
+
+		/**
+		 * Called when the connection has been closed or could not be established.
+		 * 
+		 * @param status
+		 *            {@link OperationQueue#GATT_SUCCESS} if the disconnection was requested, the error code otherwise
+		 */
+		public void onDisconnected(final int status);
+
+		/**
+		 * Called when a characteristic read request has completed.
+		 */
+		public void onCharacteristicRead(final UUID characteristicUuid, final int status, final byte[] value);
+
+		/**
+		 * Called when a characteristic write request has completed.
+		 */
+		public void onCharacteristicWrite(final UUID characteristicUuid, final int status, final byte[] value);
+	}
+
+	/**
+	 * Creates transports for the given device addresses.
+	 */
+	public interface Factory {
+		public ConfigTransport create(final String address);
+	}
+
+	/**
+	 * Returns the device address.
+	 */
+	public String getAddress();
+
+	/**
+	 * Returns the identifier of the firmware running on the device. Cached values are valid only for the same firmware.
+	 * 
+	 * @return the identifier or <code>null</code> if the device is not connected
+	 */
+	public String getFirmwareId();
+
+	/**
+	 * Starts connecting to the device. The callback is notified when the config service is ready or the connection has failed.
+	 * 
+	 * @return <code>true</code> if the connection process has been initiated
+	 */
+	public boolean connect(final Callback callback);
+
+	/**
+	 * Disconnects from the device and releases the resources. {@link Callback#onDisconnected(int)} is called when done.
+	 */
+	public void disconnect();
+
+	/**
+	 * Closes the connection at once, without waiting for the device to report the disconnection. Used when {@link #disconnect()} has not completed in time.
+	 * {@link Callback#onDisconnected(int)} is called before this method returns, unless it has been called already.
+	 */
+	public void close();
+
+	/**
+	 * Returns <code>true</code> if the connected device has the characteristic with given UUID.
+	 */
+	public boolean hasCharacteristic(final UUID characteristicUuid);
+
+	/**
+	 * Sends the read request.
+	 * 
+	 * @return <code>true</code> if the request has been sent
+	 */
+	public boolean read(final UUID characteristicUuid);
+
+	/**
+	 * Sends the write request.
+	 * 
+	 * @return <code>true</code> if the request has been sent
+	 */
+	public boolean write(final UUID characteristicUuid, final byte[] value);
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.config;
+
+/**
+ * Keeps a {@link ConfigClient} connected. Failed connection attempts and lost links are retried according to the {@link ReconnectPolicy}. The listener is notified about the disconnection only
+ * when it has been requested or when the policy gives up.
+ */
+public class ConnectionManager implements ConfigClient.ConnectionListener {
+
+	public interface Listener extends ConfigClient.ConnectionListener {
+		/**
+		 * Called when the connection has failed and will be retried.
+		 * 
+		 * @param status
+		 *            the error
+		 * @param attempt
+		 *            the number of failed attempts so far
+		 * @param delay
+		 *            the time in milliseconds after which the next attempt will be made
+		 */
+		public void onReconnecting(final ConfigClient client, final int status, final int attempt, final long delay);
+	}
+
+	private final ConfigClient mClient;
+	private final ReconnectPolicy mPolicy;
+	private final OperationQueue.Scheduler mScheduler;
+	private SettleTimeEstimator mSettleTimeEstimator;
+	private Listener mListener;
+	private boolean mDisconnectRequested;
+	private boolean mConnected;
+	private boolean mReconnectPending;
+	private int mAttempt;
+	private long mFirstAttemptTime;
+
+	private final Runnable mReconnectTask = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (ConnectionManager.this) {
+				if (mDisconnectRequested)
+					return;
+				mReconnectPending = false;
+			}
+			if (!mClient.connect(ConnectionManager.this))
+				onDisconnected(mClient, ReconnectPolicy.GATT_ERROR);
+		}
+	};
+
+	public ConnectionManager(final ConfigClient client, final ReconnectPolicy policy, final OperationQueue.Scheduler scheduler) {
+		mClient = client;
+		mPolicy = policy;
+		mScheduler = scheduler;
+	}
+
+	/**
+	 * Sets the estimator of the time the device needs after a disconnection. It is the minimum delay before the next attempt.
+	 * 
+	 * @param estimator
+	 *            the estimator or <code>null</code>
+	 */
+	public synchronized void setSettleTimeEstimator(final SettleTimeEstimator estimator) {
+		mSettleTimeEstimator = estimator;
+	}
+
+	public ConfigClient getClient() {
+		return mClient;
+	}
+
+	/**
+	 * Connects to the device.
+	 * 
+	 * @return <code>true</code> if the connection process has been initiated
+	 */
+	public boolean connect(final Listener listener) {
+		synchronized (this) {
+			mListener = listener;
+			mDisconnectRequested = false;
+			mConnected = false;
+			mAttempt = 0;
+			mFirstAttemptTime = System.nanoTime();
+		}
+		return mClient.connect(this);
+	}
+
+	/**
+	 * Disconnects from the device and cancels pending reconnection.
+	 */
+	public void disconnect() {
+		final boolean reconnectPending;
+		synchronized (this) {
+			mDisconnectRequested = true;
+			reconnectPending = mReconnectPending;
+			mReconnectPending = false;
+		}
+		mScheduler.cancel(mReconnectTask);
+		if (!reconnectPending) {
+			mClient.disconnect();
+			return;
+		}
+		// The client is already disconnected and waiting for the next attempt, so it would not report the disconnection
+		final Listener listener = mListener;
+		if (listener != null)
+			listener.onDisconnected(mClient, OperationQueue.GATT_SUCCESS);
+	}
+
+	@Override
+	public void onConnected(final ConfigClient client) {
+		synchronized (this) {
+			mConnected = true;
+			mAttempt = 0;
+		}
+		final Listener listener = mListener;
+		if (listener != null)
+			listener.onConnected(client);
+	}
+
+	@Override
+	public void onDisconnected(final ConfigClient client, final int status) {
+		final long delay;
+		final int attempt;
+		synchronized (this) {
+			if (mDisconnectRequested || status == OperationQueue.GATT_SUCCESS) {
+				delay = -1;
+			} else {
+				// A link lost after connecting gets the full budget again
+				if (mConnected) {
+					mConnected = false;
+					mFirstAttemptTime = System.nanoTime();
+				}
+				final long settleTime = mSettleTimeEstimator != null ? mSettleTimeEstimator.getSettleTime(client.getTransport().getAddress()) : 0;
+				delay = mPolicy.getRetryDelay(status, ++mAttempt, (System.nanoTime() - mFirstAttemptTime) / 1000000L, settleTime);
+				mReconnectPending = delay >= 0;
+			}
+			attempt = mAttempt;
+		}
+
+		final Listener listener = mListener;
+		if (delay < 0) {
+			if (listener != null)
+				listener.onDisconnected(client, status);
+			return;
+		}
+		if (listener != null)
+			listener.onReconnecting(client, status, attempt, delay);
+		mScheduler.schedule(mReconnectTask, delay);
+	}
+}
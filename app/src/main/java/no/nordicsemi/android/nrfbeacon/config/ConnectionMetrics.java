@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.config;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Collects the durations of the phases of config connections in {@link LatencyHistogram}s. The transport reports every phase when it ends, with the time since the phase has started.
+ */
+public class ConnectionMetrics {
+	/** From the connection request to the link being established. */
+	public final static int PHASE_CONNECT = 0;
+	/** From the link being established to the services being discovered. */
+	public final static int PHASE_SERVICE_DISCOVERY = 1;
+	/** From the connection request to the device being ready for configuration. */
+	public final static int PHASE_SETUP = 2;
+	/** From sending the read request to receiving the value. */
+	public final static int PHASE_READ = 3;
+	/** From sending the write request to receiving the response. */
+	public final static int PHASE_WRITE = 4;
+	/** From the disconnection request to the disconnection being reported by the system. */
+	public final static int PHASE_DISCONNECT = 5;
+	/** From the disconnection request to the forced close, when the system has not reported the disconnection in time. */
+	public final static int PHASE_FORCED_CLOSE = 6;
+	public final static int PHASE_COUNT = 7;
+
+	private final static String[] PHASE_NAMES = { "connect", "service_discovery", "setup", "read", "write", "disconnect", "forced_close" };
+
+	public interface Listener {
+		/**
+		 * Called for every sample recorded.
+		 * 
+		 * @param address
+		 *            the device address
+		 * @param phase
+		 *            one of the PHASE_* constants
+		 * @param micros
+		 *            the duration in microseconds
+		 */
+		public void onPhaseCompleted(final String address, final int phase, final long micros);
+	}
+
+	private final LatencyHistogram[] mHistograms = new LatencyHistogram[PHASE_COUNT];
+	private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+	public ConnectionMetrics() {
+		for (int phase = 0; phase < PHASE_COUNT; ++phase)
+			mHistograms[phase] = new LatencyHistogram();
+	}
+
+	public static String getPhaseName(final int phase) {
+		return PHASE_NAMES[phase];
+	}
+
+	public void addListener(final Listener listener) {
+		mListeners.add(listener);
+	}
+
+	public void removeListener(final Listener listener) {
+		mListeners.remove(listener);
+	}
+
+	/**
+	 * Records the duration of the phase.
+	 * 
+	 * @param address
+	 *            the device address
+	 * @param phase
+	 *            one of the PHASE_* constants
+	 * @param startNanos
+	 *            the time the phase has started, as returned by {@link System#nanoTime()}
+	 */
+	public void record(final String address, final int phase, final long startNanos) {
+		final long micros = (System.nanoTime() - startNanos) / 1000;
+		mHistograms[phase].record(micros);
+		for (final Listener listener : mListeners)
+			listener.onPhaseCompleted(address, phase, micros);
+	}
+
+	/**
+	 * Returns a copy of the histogram of the given phase.
+	 */
+	public LatencyHistogram getHistogram(final int phase) {
+		return new LatencyHistogram(mHistograms[phase]);
+	}
+
+	public void reset() {
+		for (final LatencyHistogram histogram : mHistograms)
+			histogram.reset();
+	}
+
+	/**
+	 * Writes the summary of every phase as CSV, one row per phase. Durations are in milliseconds.
+	 */
+	public void writeCsv(final Writer writer) throws IOException {
+		writer.write("phase,count,min_ms,mean_ms,p50_ms,p90_ms,p99_ms,max_ms\n");
+		for (int phase = 0; phase < PHASE_COUNT; ++phase) {
+			final LatencyHistogram h = getHistogram(phase);
+			writer.write(String.format(Locale.US, "%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f\n", PHASE_NAMES[phase], h.getCount(), h.getMin() / 1000.0, h.getMean() / 1000.0,
+					h.getPercentile(50) / 1000.0, h.getPercentile(90) / 1000.0, h.getPercentile(99) / 1000.0, h.getMax() / 1000.0));
+		}
+	}
+
+	/**
+	 * Writes all non-empty buckets of every phase as CSV. Bounds are in microseconds.
+	 */
+	public void writeHistogramsCsv(final Writer writer) throws IOException {
+		writer.write("phase,lower_us,upper_us,count\n");
+		for (int phase = 0; phase < PHASE_COUNT; ++phase) {
+			final LatencyHistogram h = getHistogram(phase);
+			for (int bucket = 0; bucket < LatencyHistogram.getBucketCount(); ++bucket) {
+				final long count = h.getBucketCount(bucket);
+				if (count > 0)
+					writer.write(PHASE_NAMES[phase] + "," + LatencyHistogram.getLowerBound(bucket) + "," + LatencyHistogram.getUpperBound(bucket) + "," + count + "\n");
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder();
+		for (int phase = 0; phase < PHASE_COUNT; ++phase) {
+			final LatencyHistogram h = getHistogram(phase);
+			if (h.getCount() == 0)
+				continue;
+			builder.append(String.format(Locale.US, "%s: n=%d p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms\n", PHASE_NAMES[phase], h.getCount(), h.getPercentile(50) / 1000.0,
+					h.getPercentile(90) / 1000.0, h.getPercentile(99) / 1000.0, h.getMax() / 1000.0));
+		}
+		return builder.toString();
+	}
+}
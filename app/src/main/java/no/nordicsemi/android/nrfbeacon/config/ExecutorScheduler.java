@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.config;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link OperationQueue.Scheduler} backed by a {@link ScheduledExecutorService}. Used where no {@link android.os.Handler} is available, f.e. when running on a plain JVM.
+ */
+public class ExecutorScheduler implements OperationQueue.Scheduler {
+	private final ScheduledExecutorService mExecutor;
+	private final Map<Runnable, ScheduledFuture<?>> mTasks = new HashMap<>();
+
+	public ExecutorScheduler(final ScheduledExecutorService executor) {
+		mExecutor = executor;
+	}
+
+	@Override
+	public void schedule(final Runnable task, final long delay) {
+		final Runnable wrapper = new Runnable() {
+			@Override
+			public void run() {
+				synchronized (mTasks) {
+					mTasks.remove(task);
+				}
+				task.run();
+			}
+		};
+		synchronized (mTasks) {
+			final ScheduledFuture<?> previous = mTasks.put(task, mExecutor.schedule(wrapper, delay, TimeUnit.MILLISECONDS));
+			if (previous != null)
+				previous.cancel(false);
+		}
+	}
+
+	@Override
+	public void cancel(final Runnable task) {
+		final ScheduledFuture<?> future;
+		synchronized (mTasks) {
+			future = mTasks.remove(task);
+		}
+		if (future != null)
+			future.cancel(false);
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides whether the Android GATT cache of a device has to be cleared after disconnection. Clearing it forces a full service discovery on the next connection, which is the most expensive phase
+ * of the connection setup, so it is only done when the cached services may be out of date:
+ * <ul>
+ * <li>the services have not been discovered, f.e. the connection failed or the Config service was not found,</li>
+ * <li>the fingerprint of the discovered services differs from the one seen before,</li>
+ * <li>a DFU has been started on the device since the last connection.</li>
+ * </ul>
+ * Entries are kept in memory and written through to the {@link Storage}.
+ */
+public class GattCacheTracker {
+
+	public interface Storage {
+		/**
+		 * Returns the entry saved for the given device.
+		 * 
+		 * @return the entry or <code>null</code> if not found
+		 */
+		public Entry load(final String address);
+
+		public void save(final String address, final Entry entry);
+	}
+
+	/**
+	 * The state of the GATT cache of a single device.
+	 */
+	public static class Entry {
+		private final String mFingerprint;
+		private final boolean mDfuPending;
+
+		/**
+		 * @param fingerprint
+		 *            the fingerprint of the last discovered services, or <code>null</code> if not known
+		 * @param dfuPending
+		 *            <code>true</code> if a DFU has been started on the device since the services were discovered
+		 */
+		public Entry(final String fingerprint, final boolean dfuPending) {
+			mFingerprint = fingerprint;
+			mDfuPending = dfuPending;
+		}
+
+		public String getFingerprint() {
+			return mFingerprint;
+		}
+
+		public boolean isDfuPending() {
+			return mDfuPending;
+		}
+	}
+
+	private final Storage mStorage;
+	private final Map<String, Entry> mEntries = new HashMap<>();
+
+	public GattCacheTracker(final Storage storage) {
+		mStorage = storage;
+	}
+
+	/**
+	 * Marks that a DFU has been started on the device. The GATT cache will be cleared after the next connection to it.
+	 */
+	public synchronized void onDfuStarted(final String address) {
+		final Entry entry = get(address);
+		put(address, new Entry(entry != null ? entry.getFingerprint() : null, true));
+	}
+
+	/**
+	 * Called when the connection is being closed. Saves the fingerprint of the discovered services.
+	 * 
+	 * @param address
+	 *            the device address
+	 * @param fingerprint
+	 *            the fingerprint of the services discovered during the connection, or <code>null</code> if the services have not been discovered
+	 * @return <code>true</code> if the GATT cache of the device should be cleared
+	 */
+	public synchronized boolean onClose(final String address, final String fingerprint) {
+		final Entry entry = get(address);
+		final boolean refresh = fingerprint == null || entry == null || entry.isDfuPending() || !fingerprint.equals(entry.getFingerprint());
+		if (entry == null || entry.isDfuPending() || fingerprint != null && !fingerprint.equals(entry.getFingerprint()))
+			put(address, new Entry(fingerprint, false));
+		return refresh;
+	}
+
+	private Entry get(final String address) {
+		Entry entry = mEntries.get(address);
+		if (entry == null) {
+			entry = mStorage.load(address);
+			if (entry != null)
+				mEntries.put(address, entry);
+		}
+		return entry;
+	}
+
+	private void put(final String address, final Entry entry) {
+		mEntries.put(address, entry);
+		mStorage.save(address, entry);
+	}
+}
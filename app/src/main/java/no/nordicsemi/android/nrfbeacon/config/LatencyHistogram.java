@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.config;
+
+/**
+ * A histogram of latencies in microseconds with fixed, log-linear buckets: every power of two is divided into 8 buckets, so the relative error of the reported values is at most 12.5%. Recording
+ * a sample does not allocate.
+ */
+public class LatencyHistogram {
+	/** The number of linear sub-buckets per power of two, as a power of two. */
+	private final static int SUB_BUCKET_BITS = 3;
+	private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** Values up to 2^40 us (~12 days) are recorded in separate buckets, larger values are added to the last one. */
+	private final static int MAX_EXPONENT = 40;
+	private final static int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final long[] mCounts = new long[BUCKET_COUNT];
+	private long mCount;
+	private long mSum;
+	private long mMin = Long.MAX_VALUE;
+	private long mMax;
+
+	public LatencyHistogram() {
+		// empty
+	}
+
+	public LatencyHistogram(final LatencyHistogram other) {
+		synchronized (other) {
+			System.arraycopy(other.mCounts, 0, mCounts, 0, BUCKET_COUNT);
+			mCount = other.mCount;
+			mSum = other.mSum;
+			mMin = other.mMin;
+			mMax = other.mMax;
+		}
+	}
+
+	/**
+	 * Adds the sample.
+	 * 
+	 * @param micros
+	 *            the latency in microseconds
+	 */
+	public synchronized void record(final long micros) {
+		final long value = Math.max(0, micros);
+		mCounts[getBucket(value)]++;
+		mCount++;
+		mSum += value;
+		if (value < mMin)
+			mMin = value;
+		if (value > mMax)
+			mMax = value;
+	}
+
+	public synchronized void reset() {
+		for (int i = 0; i < BUCKET_COUNT; ++i)
+			mCounts[i] = 0;
+		mCount = mSum = mMax = 0;
+		mMin = Long.MAX_VALUE;
+	}
+
+	public synchronized long getCount() {
+		return mCount;
+	}
+
+	public synchronized long getMin() {
+		return mCount > 0 ? mMin : 0;
+	}
+
+	public synchronized long getMax() {
+		return mMax;
+	}
+
+	public synchronized long getMean() {
+		return mCount > 0 ? mSum / mCount : 0;
+	}
+
+	/**
+	 * Returns the value below which the given percent of samples fall. The upper bound of the bucket is returned, but never more than the maximum recorded value.
+	 * 
+	 * @param percentile
+	 *            the percentile, 0-100
+	 * @return the latency in microseconds
+	 */
+	public synchronized long getPercentile(final double percentile) {
+		if (mCount == 0)
+			return 0;
+		final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * mCount));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; ++i) {
+			seen += mCounts[i];
+			if (seen >= rank)
+				return Math.min(mMax, getUpperBound(i));
+		}
+		return mMax;
+	}
+
+	/**
+	 * Returns the number of buckets.
+	 */
+	public static int getBucketCount() {
+		return BUCKET_COUNT;
+	}
+
+	/**
+	 * Returns the number of samples in the bucket.
+	 */
+	public synchronized long getBucketCount(final int bucket) {
+		return mCounts[bucket];
+	}
+
+	/**
+	 * Returns the smallest value recorded in the bucket.
+	 */
+	public static long getLowerBound(final int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		final int sub = bucket % SUB_BUCKETS;
+		return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	/**
+	 * Returns the largest value recorded in the bucket.
+	 */
+	public static long getUpperBound(final int bucket) {
+		if (bucket == BUCKET_COUNT - 1)
+			return Long.MAX_VALUE;
+		return getLowerBound(bucket + 1) - 1;
+	}
+
+	private static int getBucket(final long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT)
+			return BUCKET_COUNT - 1;
+		final int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The future returned for every operation added to the {@link OperationQueue}. It is completed with the GATT status and the characteristic value when the operation finishes, fails or times out.
+ * Listeners are notified on the thread that completed the operation, usually the Bluetooth GATT callback thread, so they must not block.
+ */
+public class OperationFuture implements Future<byte[]> {
+	public interface Listener {
+		/**
+		 * Called when the operation has been completed.
+		 * 
+		 * @param future
+		 *            the completed future
+		 */
+		public void onCompleted(final OperationFuture future);
+	}
+
+	private final List<Listener> mListeners = new ArrayList<>(1);
+	private boolean mDone;
+	private int mStatus;
+	private byte[] mValue;
+
+	/**
+	 * Adds a listener that will be notified when the operation completes. If it has already completed, the listener is called immediately.
+	 * 
+	 * @param listener
+	 *            the listener
+	 * @return this future
+	 */
+	public OperationFuture addListener(final Listener listener) {
+		synchronized (this) {
+			if (!mDone) {
+				mListeners.add(listener);
+				return this;
+			}
+		}
+		listener.onCompleted(this);
+		return this;
+	}
+
+	/**
+	 * Completes the future. Only the first call has any effect.
+	 * 
+	 * @param status
+	 *            the GATT status, {@link OperationQueue#GATT_SUCCESS} or an error code
+	 * @param value
+	 *            the characteristic value read or written, may be <code>null</code>
+	 * @return <code>true</code> if the future has been completed by this call
+	 */
+	/* package */boolean complete(final int status, final byte[] value) {
+		final Listener[] listeners;
+		synchronized (this) {
+			if (mDone)
+				return false;
+			mDone = true;
+			mStatus = status;
+			mValue = value;
+			listeners = mListeners.toArray(new Listener[mListeners.size()]);
+			mListeners.clear();
+			notifyAll();
+		}
+		for (final Listener listener : listeners)
+			listener.onCompleted(this);
+		return true;
+	}
+
+	/**
+	 * Returns the GATT status of the completed operation. The value is only valid when {@link #isDone()} returns <code>true</code>.
+	 */
+	public synchronized int getStatus() {
+		return mStatus;
+	}
+
+	/**
+	 * Returns <code>true</code> if the operation has completed with {@link OperationQueue#GATT_SUCCESS}.
+	 */
+	public synchronized boolean isSuccessful() {
+		return mDone && mStatus == OperationQueue.GATT_SUCCESS;
+	}
+
+	/**
+	 * Returns the value without blocking, or <code>null</code> if the operation has not completed yet.
+	 */
+	public synchronized byte[] getValue() {
+		return mValue;
+	}
+
+	@Override
+	public boolean cancel(final boolean mayInterruptIfRunning) {
+		return complete(OperationQueue.ERROR_CANCELLED, null);
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return mDone && mStatus == OperationQueue.ERROR_CANCELLED;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return mDone;
+	}
+
+	/**
+	 * Waits for the operation to complete. This method must not be called from the UI thread or from the Bluetooth GATT callback thread.
+	 */
+	@Override
+	public synchronized byte[] get() throws InterruptedException, ExecutionException {
+		while (!mDone)
+			wait();
+		return result();
+	}
+
+	@Override
+	public synchronized byte[] get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!mDone) {
+			final long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				throw new TimeoutException();
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return result();
+	}
+
+	private byte[] result() throws ExecutionException {
+		if (mStatus == OperationQueue.ERROR_CANCELLED)
+			throw new CancellationException();
+		if (mStatus != OperationQueue.GATT_SUCCESS)
+			throw new ExecutionException(new GattException(mStatus));
+		return mValue;
+	}
+
+	/**
+	 * The exception reported by {@link OperationFuture#get()} when the operation has failed.
+	 */
+	public static class GattException extends Exception {
+		private static final long serialVersionUID = 1L;
+		private final int mStatus;
+
+		public GattException(final int status) {
+			super("GATT operation failed with status " + status);
+			mStatus = status;
+		}
+
+		public int getStatus() {
+			return mStatus;
+		}
+	}
+}
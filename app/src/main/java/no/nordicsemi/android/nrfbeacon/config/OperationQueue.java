@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.config;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Serializes GATT operations so that exactly one request is in flight at a time. Android silently drops a characteristic read or write that is issued while another one is pending, so every
+ * request has to go through this queue.
+ * <p>
+ * Operations may be added with {@link #enqueue(Operation)}, which only buffers them, and released with {@link #flush()}, or with {@link #submit(Operation)} which does both. The next operation is
+ * started directly from {@link #onOperationCompleted(UUID, int, byte[])}, that is on the GATT callback thread, so consecutive requests go out in back-to-back connection events. Each operation has
+ * its own timeout after which it is completed with {@link #ERROR_TIMEOUT}.
+ * </p>
+ * <p>
+ * A request that has timed out may still be pending in the system, which would reject the next request as busy or deliver its late result to it. Therefore, after a timeout the queue fails:
+ * the waiting operations are cancelled, nothing more is started and the {@link TimeoutListener} should disconnect the device. The queue works again after {@link #cancelAll()}, which is called
+ * when the device has disconnected.
+ * </p>
+ */
+public class OperationQueue {
+	/** Same value as <code>BluetoothGatt.GATT_SUCCESS</code>. */
+	public final static int GATT_SUCCESS = 0;
+	/** The operation has not been completed within its timeout. */
+	public final static int ERROR_TIMEOUT = -2;
+	/** The GATT request could not be started, f.e. the characteristic does not exist or the device is not connected. */
+	public final static int ERROR_REQUEST_FAILED = -3;
+	/** The operation has been cancelled, f.e. because the device disconnected. */
+	public final static int ERROR_CANCELLED = -4;
+
+	/** The default operation timeout in milliseconds. */
+	public final static long DEFAULT_TIMEOUT = 3000;
+
+	/**
+	 * Schedules the timeout tasks. On Android this is backed by a {@link android.os.Handler}.
+	 */
+	public interface Scheduler {
+		public void schedule(final Runnable task, final long delay);
+
+		public void cancel(final Runnable task);
+	}
+
+	/**
+	 * Notified when an operation has timed out and the queue has failed.
+	 */
+	public interface TimeoutListener {
+		public void onOperationTimeout(final OperationQueue queue, final Operation operation);
+	}
+
+	/**
+	 * A single GATT request.
+	 */
+	public static abstract class Operation {
+		public final static int TYPE_READ = 0;
+		public final static int TYPE_WRITE = 1;
+
+		private final int mType;
+		private final UUID mCharacteristicUuid;
+		private final long mTimeout;
+		private final OperationFuture mFuture = new OperationFuture();
+		private OperationQueue mQueue;
+		private final Runnable mTimeoutTask = new Runnable() {
+			@Override
+			public void run() {
+				mQueue.onOperationTimeout(Operation.this);
+			}
+		};
+
+		protected Operation(final int type, final UUID characteristicUuid, final long timeout) {
+			mType = type;
+			mCharacteristicUuid = characteristicUuid;
+			mTimeout = timeout;
+		}
+
+		protected Operation(final int type, final UUID characteristicUuid) {
+			this(type, characteristicUuid, DEFAULT_TIMEOUT);
+		}
+
+		/**
+		 * Issues the GATT request.
+		 * 
+		 * @return <code>true</code> if the request has been started, <code>false</code> otherwise
+		 */
+		protected abstract boolean start();
+
+		/**
+		 * Called when the operation has completed, before its future is completed, so that the result may be stored where the future's listeners can see it.
+		 * The default implementation does nothing.
+		 */
+		protected void onCompleted(final int status, final byte[] value) {
+			// empty default implementation
+		}
+
+		public int getType() {
+			return mType;
+		}
+
+		public UUID getCharacteristicUuid() {
+			return mCharacteristicUuid;
+		}
+
+		public OperationFuture getFuture() {
+			return mFuture;
+		}
+	}
+
+	private final Scheduler mScheduler;
+	/** Operations released with {@link #flush()}, waiting to be started. */
+	private final ArrayDeque<Operation> mQueue = new ArrayDeque<>();
+	/** Operations added with {@link #enqueue(Operation)} but not flushed yet. */
+	private final List<Operation> mPending = new ArrayList<>();
+	private Operation mCurrent;
+	private TimeoutListener mTimeoutListener;
+	/** Set when an operation has timed out. No operation is started until {@link #cancelAll()}. */
+	private boolean mFailed;
+
+	public OperationQueue(final Scheduler scheduler) {
+		mScheduler = scheduler;
+	}
+
+	public void setTimeoutListener(final TimeoutListener listener) {
+		mTimeoutListener = listener;
+	}
+
+	/**
+	 * Adds the operation to the queue without starting it. Call {@link #flush()} to start the enqueued operations.
+	 * 
+	 * @param operation
+	 *            the operation
+	 * @return the future that will be completed when the operation finishes
+	 */
+	public OperationFuture enqueue(final Operation operation) {
+		synchronized (this) {
+			operation.mQueue = this;
+			mPending.add(operation);
+		}
+		return operation.getFuture();
+	}
+
+	/**
+	 * Releases all enqueued operations. The first one is started immediately if no other operation is in progress.
+	 */
+	public void flush() {
+		final List<Operation> cancelled;
+		synchronized (this) {
+			mQueue.addAll(mPending);
+			mPending.clear();
+			cancelled = mFailed ? drain() : null;
+		}
+		if (cancelled != null) {
+			// The connection is being closed after a timeout
+			for (final Operation operation : cancelled)
+				finish(operation, ERROR_CANCELLED, null);
+			return;
+		}
+		dispatchNext();
+	}
+
+	/**
+	 * Enqueues the operation and flushes the queue.
+	 * 
+	 * @param operation
+	 *            the operation
+	 * @return the future that will be completed when the operation finishes
+	 */
+	public OperationFuture submit(final Operation operation) {
+		final OperationFuture future = enqueue(operation);
+		flush();
+		return future;
+	}
+
+	/**
+	 * Returns <code>true</code> if there is no operation in progress and no operation waiting to be started.
+	 */
+	public synchronized boolean isIdle() {
+		return mCurrent == null && mQueue.isEmpty() && mPending.isEmpty();
+	}
+
+	/**
+	 * Returns <code>true</code> if an operation has timed out since the last {@link #cancelAll()}.
+	 */
+	public synchronized boolean isFailed() {
+		return mFailed;
+	}
+
+	/**
+	 * Must be called from the GATT callback when a characteristic read or write has completed. Completes the current operation and starts the next one.
+	 * 
+	 * @param characteristicUuid
+	 *            the UUID of the characteristic that has been read or written
+	 * @param status
+	 *            the GATT status
+	 * @param value
+	 *            the characteristic value
+	 * @return <code>true</code> if the result matched the operation in progress. A late result of an operation that has timed out is ignored.
+	 */
+	public boolean onOperationCompleted(final UUID characteristicUuid, final int status, final byte[] value) {
+		final Operation operation;
+		synchronized (this) {
+			operation = mCurrent;
+			if (operation == null || !operation.mCharacteristicUuid.equals(characteristicUuid))
+				return false;
+			mCurrent = null;
+		}
+		finish(operation, status, value);
+		dispatchNext();
+		return true;
+	}
+
+	/**
+	 * Cancels the operation in progress and all waiting operations. Should be called when the device has disconnected. Clears the failed state.
+	 */
+	public void cancelAll() {
+		final List<Operation> operations = new ArrayList<>();
+		synchronized (this) {
+			if (mCurrent != null)
+				operations.add(mCurrent);
+			mCurrent = null;
+			mFailed = false;
+			operations.addAll(drain());
+		}
+		for (final Operation operation : operations)
+			finish(operation, ERROR_CANCELLED, null);
+	}
+
+	private void onOperationTimeout(final Operation operation) {
+		final List<Operation> cancelled;
+		synchronized (this) {
+			if (mCurrent != operation)
+				return;
+			mCurrent = null;
+			mFailed = true;
+			cancelled = drain();
+		}
+		finish(operation, ERROR_TIMEOUT, null);
+		for (final Operation waiting : cancelled)
+			finish(waiting, ERROR_CANCELLED, null);
+
+		final TimeoutListener listener = mTimeoutListener;
+		if (listener != null)
+			listener.onOperationTimeout(this, operation);
+	}
+
+	/**
+	 * Removes all waiting operations. Must be called with the lock held.
+	 */
+	private List<Operation> drain() {
+		final List<Operation> operations = new ArrayList<>(mQueue.size() + mPending.size());
+		operations.addAll(mQueue);
+		operations.addAll(mPending);
+		mQueue.clear();
+		mPending.clear();
+		return operations;
+	}
+
+	private void finish(final Operation operation, final int status, final byte[] value) {
+		mScheduler.cancel(operation.mTimeoutTask);
+		operation.onCompleted(status, value);
+		operation.mFuture.complete(status, value);
+	}
+
+	/**
+	 * Starts the next operation if none is in progress. Operations that fail to start are completed with {@link #ERROR_REQUEST_FAILED} and skipped.
+	 */
+	private void dispatchNext() {
+		while (true) {
+			final Operation operation;
+			synchronized (this) {
+				if (mCurrent != null || mFailed || mQueue.isEmpty())
+					return;
+				operation = mCurrent = mQueue.poll();
+			}
+
+			// An operation cancelled by the user is skipped
+			if (operation.mFuture.isDone()) {
+				synchronized (this) {
+					mCurrent = null;
+				}
+				continue;
+			}
+
+			mScheduler.schedule(operation.mTimeoutTask, operation.mTimeout);
+			if (operation.start())
+				return;
+
+			synchronized (this) {
+				if (mCurrent != operation)
+					return; // already completed, f.e. by a synchronous callback
+				mCurrent = null;
+			}
+			finish(operation, ERROR_REQUEST_FAILED, null);
+		}
+	}
+}
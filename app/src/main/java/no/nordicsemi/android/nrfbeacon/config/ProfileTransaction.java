@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.config;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies a {@link BeaconConfig} profile using an {@link OperationQueue}. All values are written in a single batch and then read back to verify them. Values that are known to be already set on
+ * the device are not written at all.
+ */
+public class ProfileTransaction {
+	/**
+	 * Creates the GATT operations for the fields of the profile.
+	 */
+	public interface OperationFactory {
+		/**
+		 * Returns <code>true</code> if the device has the characteristic holding the given field.
+		 */
+		public boolean isSupported(final int field);
+
+		public OperationQueue.Operation createRead(final int field);
+
+		public OperationQueue.Operation createWrite(final int field, final byte[] value);
+	}
+
+	public interface Listener {
+		/**
+		 * Called when all operations of the transaction have completed.
+		 * 
+		 * @param result
+		 *            the outcome for every field
+		 */
+		public void onProfileApplied(final ApplyProfileResult result);
+	}
+
+	private ProfileTransaction() {
+		// empty
+	}
+
+	/**
+	 * Enqueues the writes of all fields set in the profile, followed by the reads of all written characteristics, and flushes the queue.
+	 * 
+	 * @param queue
+	 *            the operation queue of the connected device
+	 * @param factory
+	 *            the operation factory
+	 * @param config
+	 *            the values to be written, fields set to <code>null</code> are not changed
+	 * @param listener
+	 *            the listener notified when the transaction has completed
+	 */
+	public static void apply(final OperationQueue queue, final OperationFactory factory, final BeaconConfig config, final Listener listener) {
+		apply(queue, factory, config, null, listener);
+	}
+
+	/**
+	 * Enqueues the writes of all fields set in the profile that differ from the known values, followed by the reads of all written characteristics, and flushes the queue. Fields with the
+	 * same value are reported as {@link ApplyProfileResult#RESULT_UNCHANGED}.
+	 * 
+	 * @param queue
+	 *            the operation queue of the connected device
+	 * @param factory
+	 *            the operation factory
+	 * @param config
+	 *            the values to be written, fields set to <code>null</code> are not changed
+	 * @param known
+	 *            the values currently set on the device, <code>null</code> or fields set to <code>null</code> if unknown
+	 * @param listener
+	 *            the listener notified when the transaction has completed
+	 */
+	public static void apply(final OperationQueue queue, final OperationFactory factory, final BeaconConfig config, final BeaconConfig known, final Listener listener) {
+		final ApplyProfileResult result = new ApplyProfileResult(new BeaconConfig(config), new BeaconConfig());
+		final byte[][] values = new byte[BeaconConfig.FIELD_COUNT][];
+		final OperationFuture[] writes = new OperationFuture[BeaconConfig.FIELD_COUNT];
+		final OperationFuture[] reads = new OperationFuture[BeaconConfig.FIELD_COUNT];
+
+		// First, all values are written one after another...
+		int count = 0;
+		for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field) {
+			if (!config.has(field))
+				continue;
+
+			if (!factory.isSupported(field)) {
+				result.setResult(field, ApplyProfileResult.RESULT_NOT_SUPPORTED, OperationQueue.GATT_SUCCESS);
+			} else if (!config.isValid(field)) {
+				result.setResult(field, ApplyProfileResult.RESULT_INVALID_VALUE, OperationQueue.GATT_SUCCESS);
+			} else {
+				values[field] = ConfigProtocol.encodeField(config, field);
+				if (known != null && known.has(field) && Arrays.equals(values[field], ConfigProtocol.encodeField(known, field))) {
+					ConfigProtocol.decodeField(result.getActualConfig(), field, values[field]);
+					result.setResult(field, ApplyProfileResult.RESULT_UNCHANGED, OperationQueue.GATT_SUCCESS);
+					continue;
+				}
+				writes[field] = queue.enqueue(factory.createWrite(field, values[field]));
+				count++;
+			}
+		}
+
+		// ...and then read back
+		for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field) {
+			if (writes[field] != null)
+				reads[field] = queue.enqueue(factory.createRead(field));
+		}
+
+		if (count == 0) {
+			listener.onProfileApplied(result);
+			return;
+		}
+
+		final AtomicInteger remaining = new AtomicInteger(2 * count);
+		final OperationFuture.Listener futureListener = new OperationFuture.Listener() {
+			@Override
+			public void onCompleted(final OperationFuture future) {
+				if (remaining.decrementAndGet() > 0)
+					return;
+
+				for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field) {
+					if (writes[field] == null)
+						continue;
+
+					if (!writes[field].isSuccessful()) {
+						result.setResult(field, ApplyProfileResult.RESULT_WRITE_FAILED, writes[field].getStatus());
+					} else if (!reads[field].isSuccessful()) {
+						result.setResult(field, ApplyProfileResult.RESULT_READ_FAILED, reads[field].getStatus());
+					} else {
+						final byte[] value = reads[field].getValue();
+						ConfigProtocol.decodeField(result.getActualConfig(), field, value);
+						result.setResult(field, Arrays.equals(values[field], value) ? ApplyProfileResult.RESULT_VERIFIED : ApplyProfileResult.RESULT_MISMATCH,
+								OperationQueue.GATT_SUCCESS);
+					}
+				}
+				listener.onProfileApplied(result);
+			}
+		};
+		for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field) {
+			if (writes[field] != null) {
+				writes[field].addListener(futureListener);
+				reads[field].addListener(futureListener);
+			}
+		}
+		queue.flush();
+	}
+}
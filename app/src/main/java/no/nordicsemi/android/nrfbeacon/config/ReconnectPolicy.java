@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.config;
+
+import java.util.Random;
+
+/**
+ * Decides whether and when a failed connection should be retried. Errors are classified and retryable ones are retried with jittered exponential backoff as long as the time budget allows.
+ */
+public class ReconnectPolicy {
+	/** The connection supervision timeout has expired. */
+	public final static int GATT_CONN_TIMEOUT = 0x08;
+	/** The remote device has terminated the connection. */
+	public final static int GATT_CONN_TERMINATE_PEER_USER = 0x13;
+	/** The connection has been terminated by the local host, often after an internal error. */
+	public final static int GATT_CONN_TERMINATE_LOCAL_HOST = 0x16;
+	/** The connection could not be established. */
+	public final static int GATT_CONN_FAIL_ESTABLISH = 0x3E;
+	public final static int GATT_INTERNAL_ERROR = 0x81;
+	/** The generic error, most often reported when the device is out of range or the Bluetooth stack is busy. */
+	public final static int GATT_ERROR = 0x85;
+
+	/** No error. */
+	public final static int ERROR_CLASS_NONE = 0;
+	/** A temporary failure of the stack or the link (129, 133, failed to establish), usually gone after a short while. */
+	public final static int ERROR_CLASS_TRANSIENT = 1;
+	/** The link has been lost or a request has timed out. The device may be out of range. */
+	public final static int ERROR_CLASS_LINK_LOSS = 2;
+	/** Retrying will not help, f.e. the device does not support the config service. */
+	public final static int ERROR_CLASS_FATAL = 3;
+
+	public final static long DEFAULT_BASE_DELAY = 250;
+	public final static long DEFAULT_MAX_DELAY = 4000;
+	/** The default time in milliseconds in which all attempts must be made. */
+	public final static long DEFAULT_BUDGET = 20000;
+
+	private final Random mRandom;
+	private long mBaseDelay = DEFAULT_BASE_DELAY;
+	private long mMaxDelay = DEFAULT_MAX_DELAY;
+	private long mBudget = DEFAULT_BUDGET;
+
+	public ReconnectPolicy() {
+		this(new Random());
+	}
+
+	public ReconnectPolicy(final Random random) {
+		mRandom = random;
+	}
+
+	/**
+	 * Sets the delays of the exponential backoff.
+	 * 
+	 * @param baseDelay
+	 *            the delay before the first retry, in milliseconds
+	 * @param maxDelay
+	 *            the maximum delay, in milliseconds
+	 */
+	public synchronized ReconnectPolicy setDelays(final long baseDelay, final long maxDelay) {
+		mBaseDelay = baseDelay;
+		mMaxDelay = maxDelay;
+		return this;
+	}
+
+	/**
+	 * Sets the time, counted from the first attempt, after which no more attempts are made.
+	 */
+	public synchronized ReconnectPolicy setBudget(final long budget) {
+		mBudget = budget;
+		return this;
+	}
+
+	public synchronized long getBudget() {
+		return mBudget;
+	}
+
+	/**
+	 * Returns the class of the given error.
+	 * 
+	 * @param status
+	 *            the GATT status or one of the error codes of the config package
+	 * @return one of the ERROR_CLASS_* constants
+	 */
+	public static int classify(final int status) {
+		switch (status) {
+		case OperationQueue.GATT_SUCCESS:
+			return ERROR_CLASS_NONE;
+		case GATT_ERROR:
+		case GATT_INTERNAL_ERROR:
+		case GATT_CONN_FAIL_ESTABLISH:
+		case GATT_CONN_TERMINATE_LOCAL_HOST:
+			return ERROR_CLASS_TRANSIENT;
+		case GATT_CONN_TIMEOUT:
+		case GATT_CONN_TERMINATE_PEER_USER:
+		case OperationQueue.ERROR_TIMEOUT:
+			return ERROR_CLASS_LINK_LOSS;
+		default:
+			return ERROR_CLASS_FATAL;
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if a connection that failed with the given error may succeed when retried.
+	 */
+	public static boolean isRetryable(final int status) {
+		final int errorClass = classify(status);
+		return errorClass == ERROR_CLASS_TRANSIENT || errorClass == ERROR_CLASS_LINK_LOSS;
+	}
+
+	/**
+	 * Returns the delay before the next attempt.
+	 * 
+	 * @param status
+	 *            the error of the last attempt
+	 * @param attempt
+	 *            the number of failed attempts so far, starting from 1
+	 * @param elapsed
+	 *            the time since the first attempt, in milliseconds
+	 * @param minDelay
+	 *            the minimum delay, f.e. the time the device needs to settle after a disconnection
+	 * @return the delay in milliseconds, or -1 if the connection should not be retried
+	 */
+	public synchronized long getRetryDelay(final int status, final int attempt, final long elapsed, final long minDelay) {
+		if (!isRetryable(status))
+			return -1;
+
+		// "Equal jitter": half of the exponential delay is fixed, the other half is random, so retries of many devices are spread in time
+		final long exponential = Math.min(mMaxDelay, mBaseDelay << Math.min(attempt - 1, 16));
+		final long delay = Math.max(minDelay, exponential / 2 + (long) (mRandom.nextDouble() * (exponential / 2)));
+		if (elapsed + delay >= mBudget)
+			return -1;
+		return delay;
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Learns how long each device takes to report the disconnection, from the samples recorded in {@link ConnectionMetrics}. The transport waits that long, with some margin, before it closes the
+ * connection on its own, instead of always waiting the worst-case time. The same time is the minimum delay before the device is connected again.
+ * <p>
+ * Disconnections that were not reported in time are sampled too, with the time after which the connection was closed. Otherwise only the fast disconnections would be learned and the
+ * estimate could only shrink.
+ * </p>
+ */
+public class SettleTimeEstimator implements ConnectionMetrics.Listener {
+	/** The time used when nothing is known about the device, in milliseconds. */
+	public final static long DEFAULT_SETTLE_TIME = 1500;
+	/** The learned time is never shorter than this, in milliseconds. */
+	public final static long MIN_SETTLE_TIME = 300;
+	private final static int SAMPLES_PER_DEVICE = 8;
+	private final static int MAX_DEVICES = 256;
+
+	/**
+	 * The last disconnection times of a device, in milliseconds.
+	 */
+	private static class Samples {
+		private final long[] mValues = new long[SAMPLES_PER_DEVICE];
+		private int mCount;
+
+		private void add(final long value) {
+			mValues[mCount++ % SAMPLES_PER_DEVICE] = value;
+		}
+
+		private long getMax() {
+			long max = 0;
+			for (int i = 0; i < Math.min(mCount, SAMPLES_PER_DEVICE); ++i)
+				max = Math.max(max, mValues[i]);
+			return max;
+		}
+	}
+
+	/** The samples of every device. The least recently used devices are removed. */
+	private final Map<String, Samples> mSamples = new LinkedHashMap<String, Samples>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, Samples> eldest) {
+			return size() > MAX_DEVICES;
+		}
+	};
+
+	@Override
+	public void onPhaseCompleted(final String address, final int phase, final long micros) {
+		if (phase != ConnectionMetrics.PHASE_DISCONNECT && phase != ConnectionMetrics.PHASE_FORCED_CLOSE)
+			return;
+
+		synchronized (this) {
+			Samples samples = mSamples.get(address);
+			if (samples == null) {
+				samples = new Samples();
+				mSamples.put(address, samples);
+			}
+			samples.add(micros / 1000);
+		}
+	}
+
+	/**
+	 * Returns the time after which the disconnection of the device should be assumed even if it has not been reported: twice the longest of the recent disconnection times, but not less than
+	 * {@link #MIN_SETTLE_TIME} and not more than {@link #DEFAULT_SETTLE_TIME}.
+	 * 
+	 * @param address
+	 *            the device address
+	 * @return the time in milliseconds
+	 */
+	public synchronized long getSettleTime(final String address) {
+		final Samples samples = mSamples.get(address);
+		if (samples == null)
+			return DEFAULT_SETTLE_TIME;
+		return Math.max(MIN_SETTLE_TIME, Math.min(DEFAULT_SETTLE_TIME, 2 * samples.getMax()));
+	}
+}
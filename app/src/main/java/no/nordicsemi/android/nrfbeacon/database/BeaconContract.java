@@ -57,9 +57,101 @@ public class BeaconContract {
 		public final static String ENABLED = "enabled";
 	}
 
+	protected interface CachedConfigColumns {
+		/** The device address */
+		public final static String ADDRESS = "address";
+		/** The beacon service uuid */
+		public final static String UUID = "uuid";
+		/** The beacon major number */
+		public final static String MAJOR = "major";
+		/** The beacon minor */
+		public final static String MINOR = "minor";
+		/** The calibrated RSSI at 1m */
+		public final static String CALIBRATED_RSSI = "calibrated_rssi";
+		/** The manufacturer ID (Company Identifier) */
+		public final static String MANUFACTURER_ID = "manufacturer_id";
+		/** The advertising interval in milliseconds */
+		public final static String ADV_INTERVAL = "adv_interval";
+		/** 1 if the LED is enabled, 0 if disabled */
+		public final static String LED = "led";
+		/** The identifier of the firmware the values were read from */
+		public final static String FIRMWARE_ID = "firmware_id";
+		/** The time the values were obtained, in milliseconds since epoch */
+		public final static String TIMESTAMP = "timestamp";
+	}
+
+	protected interface JournalColumns {
+		/** The address of the beacon to be configured */
+		public final static String ADDRESS = "address";
+		/** The requested beacon service uuid */
+		public final static String UUID = "uuid";
+		/** The requested major number */
+		public final static String MAJOR = "major";
+		/** The requested minor number */
+		public final static String MINOR = "minor";
+		/** The requested calibrated RSSI at 1m */
+		public final static String CALIBRATED_RSSI = "calibrated_rssi";
+		/** The requested manufacturer ID (Company Identifier) */
+		public final static String MANUFACTURER_ID = "manufacturer_id";
+		/** The requested advertising interval in milliseconds */
+		public final static String ADV_INTERVAL = "adv_interval";
+		/** The requested LED state, 1 if enabled, 0 if disabled */
+		public final static String LED = "led";
+		/** The job state, see ProvisioningJob.STATE_* */
+		public final static String STATE = "state";
+		/** The number of connection attempts */
+		public final static String ATTEMPTS = "attempts";
+		/** The error of the last failed attempt */
+		public final static String LAST_ERROR = "last_error";
+		/** The time the values have been verified, in milliseconds since epoch, or 0 */
+		public final static String VERIFIED_TIME = "verified_time";
+	}
+
+	protected interface AllocationColumns {
+		/** The beacon service uuid */
+		public final static String UUID = "uuid";
+		/** The major number */
+		public final static String MAJOR = "major";
+		/** The lowest minor number that has never been reserved, 65536 if all have been */
+		public final static String NEXT_MINOR = "next_minor";
+	}
+
+	protected interface GattCacheColumns {
+		/** The device address */
+		public final static String ADDRESS = "address";
+		/** The fingerprint of the last discovered services */
+		public final static String FINGERPRINT = "fingerprint";
+		/** 1 if a DFU has been started on the device since the services were discovered, 0 otherwise */
+		public final static String DFU_PENDING = "dfu_pending";
+	}
+
 	public final class Beacon implements BaseColumns, BeaconColumns {
 		private Beacon() {
 			// empty
 		}
 	}
+
+	public final class CachedConfig implements BaseColumns, CachedConfigColumns {
+		private CachedConfig() {
+			// empty
+		}
+	}
+
+	public final class Journal implements BaseColumns, JournalColumns {
+		private Journal() {
+			// empty
+		}
+	}
+
+	public final class Allocation implements BaseColumns, AllocationColumns {
+		private Allocation() {
+			// empty
+		}
+	}
+
+	public final class GattCache implements BaseColumns, GattCacheColumns {
+		private GattCache() {
+			// empty
+		}
+	}
 }
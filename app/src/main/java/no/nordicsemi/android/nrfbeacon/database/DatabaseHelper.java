@@ -21,17 +21,35 @@
  */
 package no.nordicsemi.android.nrfbeacon.database;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
 import no.nordicsemi.android.beacon.Beacon;
 import no.nordicsemi.android.beacon.BeaconRegion;
+import no.nordicsemi.android.nrfbeacon.config.BeaconConfig;
+import no.nordicsemi.android.nrfbeacon.config.ConfigCache;
+import no.nordicsemi.android.nrfbeacon.config.GattCacheTracker;
+import no.nordicsemi.android.nrfbeacon.provisioning.ProvisioningJournal;
+import no.nordicsemi.android.nrfbeacon.rules.RuleTable;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.HandlerThread;
 
 public class DatabaseHelper {
 	/** Database version */
-	private static final int DATABASE_VERSION = 2;
+	private static final int DATABASE_VERSION = 6;
+
+	/** The signal strength is kept in memory only. */
+	public static final long FLUSH_NEVER = -1;
+	/** The default time in milliseconds in which changes of the signal strength are collected before being written. */
+	public static final long DEFAULT_SIGNAL_STRENGTH_FLUSH_WINDOW = 5000;
 
 	/** Database file name */
 	private static final String DATABASE_NAME = "beacons.db";
@@ -39,6 +57,14 @@ public class DatabaseHelper {
 	private interface Tables {
 		/** Sensors table. See {@link BeaconContract.Beacon} for column names */
 		public static final String REGIONS = "beacons";
+		/** Config cache table. See {@link BeaconContract.CachedConfig} for column names */
+		public static final String CONFIG_CACHE = "config_cache";
+		/** GATT cache table. See {@link BeaconContract.GattCache} for column names */
+		public static final String GATT_CACHE = "gatt_cache";
+		/** Provisioning journal table. See {@link BeaconContract.Journal} for column names */
+		public static final String JOURNAL = "provisioning_journal";
+		/** Major and minor allocations table. See {@link BeaconContract.Allocation} for column names */
+		public static final String ALLOCATIONS = "allocations";
 	}
 
 	private static final String ID_SELECTION = BeaconContract.Beacon._ID + "=?";
@@ -47,8 +73,44 @@ public class DatabaseHelper {
 			BeaconContract.Beacon.MINOR, BeaconContract.Beacon.SIGNAL_STRENGTH, BeaconContract.Beacon.EVENT, BeaconContract.Beacon.ACTION, BeaconContract.Beacon.ACTION_PARAM,
 			BeaconContract.Beacon.ENABLED };
 
+	private static final String ADDRESS_SELECTION = BeaconContract.CachedConfig.ADDRESS + "=?";
+	private static final String[] CACHED_CONFIG_PROJECTION = new String[] { BeaconContract.CachedConfig.UUID, BeaconContract.CachedConfig.MAJOR, BeaconContract.CachedConfig.MINOR,
+			BeaconContract.CachedConfig.CALIBRATED_RSSI, BeaconContract.CachedConfig.MANUFACTURER_ID, BeaconContract.CachedConfig.ADV_INTERVAL, BeaconContract.CachedConfig.LED,
+			BeaconContract.CachedConfig.FIRMWARE_ID, BeaconContract.CachedConfig.TIMESTAMP };
+
+	private static final String GATT_CACHE_ADDRESS_SELECTION = BeaconContract.GattCache.ADDRESS + "=?";
+	private static final String[] GATT_CACHE_PROJECTION = new String[] { BeaconContract.GattCache.FINGERPRINT, BeaconContract.GattCache.DFU_PENDING };
+
+	private static final String[] JOURNAL_PROJECTION = new String[] { BeaconContract.Journal.ADDRESS, BeaconContract.Journal.UUID, BeaconContract.Journal.MAJOR,
+			BeaconContract.Journal.MINOR, BeaconContract.Journal.CALIBRATED_RSSI, BeaconContract.Journal.MANUFACTURER_ID, BeaconContract.Journal.ADV_INTERVAL, BeaconContract.Journal.LED,
+			BeaconContract.Journal.STATE, BeaconContract.Journal.ATTEMPTS, BeaconContract.Journal.LAST_ERROR, BeaconContract.Journal.VERIFIED_TIME };
+	private static final String UPDATE_SIGNAL_STRENGTH = "UPDATE " + Tables.REGIONS + " SET " + BeaconContract.Beacon.SIGNAL_STRENGTH + "=? WHERE " + BeaconContract.Beacon._ID + "=?";
+	private static final String[] ALLOCATION_PROJECTION = new String[] { BeaconContract.Allocation.NEXT_MINOR };
+	private static final String ALLOCATION_SELECTION = BeaconContract.Allocation.UUID + "=? AND " + BeaconContract.Allocation.MAJOR + "=?";
+
+	/** Updates the entry, keeping its row ID, so the entries are loaded in the order they were first written. The address is the last argument. */
+	private static final String UPDATE_JOURNAL = "UPDATE " + Tables.JOURNAL + " SET " + BeaconContract.Journal.UUID + "=?, " + BeaconContract.Journal.MAJOR + "=?, "
+			+ BeaconContract.Journal.MINOR + "=?, " + BeaconContract.Journal.CALIBRATED_RSSI + "=?, " + BeaconContract.Journal.MANUFACTURER_ID + "=?, " + BeaconContract.Journal.ADV_INTERVAL
+			+ "=?, " + BeaconContract.Journal.LED + "=?, " + BeaconContract.Journal.STATE + "=?, " + BeaconContract.Journal.ATTEMPTS + "=?, " + BeaconContract.Journal.LAST_ERROR + "=?, "
+			+ BeaconContract.Journal.VERIFIED_TIME + "=? WHERE " + BeaconContract.Journal.ADDRESS + "=?";
+	/** Inserts the entry with the same arguments as {@link #UPDATE_JOURNAL}. */
+	private static final String INSERT_JOURNAL = "INSERT INTO " + Tables.JOURNAL + "(" + BeaconContract.Journal.UUID + ", " + BeaconContract.Journal.MAJOR + ", "
+			+ BeaconContract.Journal.MINOR + ", " + BeaconContract.Journal.CALIBRATED_RSSI + ", " + BeaconContract.Journal.MANUFACTURER_ID + ", " + BeaconContract.Journal.ADV_INTERVAL + ", "
+			+ BeaconContract.Journal.LED + ", " + BeaconContract.Journal.STATE + ", " + BeaconContract.Journal.ATTEMPTS + ", " + BeaconContract.Journal.LAST_ERROR + ", "
+			+ BeaconContract.Journal.VERIFIED_TIME + ", " + BeaconContract.Journal.ADDRESS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
 	private static SQLiteHelper mDatabaseHelper;
 	private static SQLiteDatabase mDatabase;
+	/** The copy of the regions table, loaded on first use. */
+	private static RegionIndex mRegionIndex;
+	private static RuleTable mRuleTable;
+	/** The {@link RegionIndex#getModCount()} the rule table was compiled at. */
+	private static int mRuleTableModCount;
+	private static long mSignalStrengthFlushWindow = DEFAULT_SIGNAL_STRENGTH_FLUSH_WINDOW;
+	private static boolean mSignalStrengthFlushScheduled;
+	/** The thread the signal strength is written on, started on the first flush. */
+	private static HandlerThread mWriterThread;
+	private static Handler mWriterHandler;
 	private String[] mSingleArg = new String[1];
 	private String[] mParamsArg = new String[3];
 
@@ -84,7 +146,10 @@ public class DatabaseHelper {
 		values.put(BeaconContract.Beacon.ACTION, action);
 		values.put(BeaconContract.Beacon.ACTION_PARAM, actionParam);
 
-		return mDatabase.insert(Tables.REGIONS, null, values);
+		final long id = mDatabase.insert(Tables.REGIONS, null, values);
+		if (id != -1 && mRegionIndex != null)
+			mRegionIndex.put(new RegionIndex.Region(id, name, beacon.getUuid(), beacon.getMajor(), beacon.getMinor(), 0, event, action, actionParam, true));
+		return id;
 	}
 
 	/**
@@ -97,36 +162,89 @@ public class DatabaseHelper {
 		mSingleArg[0] = String.valueOf(id);
 
 		mDatabase.delete(Tables.REGIONS, ID_SELECTION, mSingleArg);
+		if (mRegionIndex != null)
+			mRegionIndex.remove(id);
 	}
 
 	/**
-	 * Sets the signal strength to 0 for all beacons. Use when exiting from application.
-	 * 
-	 * @return the number of rows affected
+	 * Sets the signal strength to 0 for all beacons. Use when exiting from application. Like {@link #updateRegionSignalStrength(long, int)}, it only changes the values in the
+	 * {@link RegionIndex}, the database is updated with the next flush.
 	 */
-	public int resetSignalStrength() {
-		final ContentValues values = new ContentValues();
-		values.put(BeaconContract.Beacon.SIGNAL_STRENGTH, 0);
-
-		return mDatabase.update(Tables.REGIONS, values, null, null);
+	public void resetSignalStrength() {
+		getRegionIndex().resetSignalStrength();
+		scheduleSignalStrengthFlush();
 	}
 
 	/**
-	 * Updates the signal strength of a most recent beacon in the region
+	 * Updates the signal strength of a most recent beacon in the region. The signal strength changes every second while ranging, so the value is kept in the {@link RegionIndex} and
+	 * written to the database at most once per {@link #setSignalStrengthFlushWindow(long) flush window}, together with all other changes made in the meantime.
 	 * 
 	 * @param id
 	 *            the region id in the database
 	 * @param accuracy
 	 *            the signal strength as a accuracy (distance in meters)
-	 * @return number of rows affected
 	 */
-	public int updateRegionSignalStrength(final long id, final int accuracy) {
-		mSingleArg[0] = String.valueOf(id);
+	public void updateRegionSignalStrength(final long id, final int accuracy) {
+		getRegionIndex().setSignalStrength(id, accuracy);
+		scheduleSignalStrengthFlush();
+	}
 
-		final ContentValues values = new ContentValues();
-		values.put(BeaconContract.Beacon.SIGNAL_STRENGTH, accuracy);
+	/**
+	 * Sets the time in which changes of the signal strength are collected before being written to the database in a single transaction. The write is done on a background thread.
+	 * 
+	 * @param window
+	 *            the time in milliseconds, or {@link #FLUSH_NEVER} if the signal strength does not have to be persisted
+	 */
+	public void setSignalStrengthFlushWindow(final long window) {
+		synchronized (DatabaseHelper.class) {
+			mSignalStrengthFlushWindow = window;
+		}
+	}
 
-		return mDatabase.update(Tables.REGIONS, values, ID_SELECTION, mSingleArg);
+	/**
+	 * Writes the changed signal strengths to the database now, in a single transaction.
+	 */
+	public void flushSignalStrength() {
+		final Map<Long, Integer> changes = getRegionIndex().takeSignalStrengthChanges();
+		if (changes.isEmpty())
+			return;
+
+		final SQLiteStatement update = mDatabase.compileStatement(UPDATE_SIGNAL_STRENGTH);
+		mDatabase.beginTransaction();
+		try {
+			for (final Map.Entry<Long, Integer> change : changes.entrySet()) {
+				update.bindLong(1, change.getValue());
+				update.bindLong(2, change.getKey());
+				update.executeUpdateDelete();
+			}
+			mDatabase.setTransactionSuccessful();
+		} finally {
+			mDatabase.endTransaction();
+			update.close();
+		}
+	}
+
+	private void scheduleSignalStrengthFlush() {
+		synchronized (DatabaseHelper.class) {
+			if (mSignalStrengthFlushWindow < 0 || mSignalStrengthFlushScheduled)
+				return;
+			mSignalStrengthFlushScheduled = true;
+
+			if (mWriterHandler == null) {
+				mWriterThread = new HandlerThread("DatabaseWriter");
+				mWriterThread.start();
+				mWriterHandler = new Handler(mWriterThread.getLooper());
+			}
+			mWriterHandler.postDelayed(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (DatabaseHelper.class) {
+						mSignalStrengthFlushScheduled = false;
+					}
+					flushSignalStrength();
+				}
+			}, mSignalStrengthFlushWindow);
+		}
 	}
 
 	public int updateRegionName(final long id, final String name) {
@@ -135,6 +253,8 @@ public class DatabaseHelper {
 		final ContentValues values = new ContentValues();
 		values.put(BeaconContract.Beacon.NAME, name);
 
+		if (mRegionIndex != null)
+			mRegionIndex.setName(id, name);
 		return mDatabase.update(Tables.REGIONS, values, ID_SELECTION, mSingleArg);
 	}
 
@@ -144,6 +264,8 @@ public class DatabaseHelper {
 		final ContentValues values = new ContentValues();
 		values.put(BeaconContract.Beacon.EVENT, event);
 
+		if (mRegionIndex != null)
+			mRegionIndex.setEvent(id, event);
 		return mDatabase.update(Tables.REGIONS, values, ID_SELECTION, mSingleArg);
 	}
 
@@ -153,6 +275,8 @@ public class DatabaseHelper {
 		final ContentValues values = new ContentValues();
 		values.put(BeaconContract.Beacon.ACTION, action);
 
+		if (mRegionIndex != null)
+			mRegionIndex.setAction(id, action);
 		return mDatabase.update(Tables.REGIONS, values, ID_SELECTION, mSingleArg);
 	}
 
@@ -162,6 +286,8 @@ public class DatabaseHelper {
 		final ContentValues values = new ContentValues();
 		values.put(BeaconContract.Beacon.ACTION_PARAM, param);
 
+		if (mRegionIndex != null)
+			mRegionIndex.setActionParam(id, param);
 		return mDatabase.update(Tables.REGIONS, values, ID_SELECTION, mSingleArg);
 	}
 
@@ -171,6 +297,8 @@ public class DatabaseHelper {
 		final ContentValues values = new ContentValues();
 		values.put(BeaconContract.Beacon.ENABLED, enabled ? 1 : 0);
 
+		if (mRegionIndex != null)
+			mRegionIndex.setEnabled(id, enabled);
 		return mDatabase.update(Tables.REGIONS, values, ID_SELECTION, mSingleArg);
 	}
 
@@ -221,6 +349,292 @@ public class DatabaseHelper {
 		return mDatabase.query(Tables.REGIONS, BEACON_PROJECTION, null, null, null, null, null);
 	}
 
+	/**
+	 * Returns the in-memory index of all regions. The regions table is read once, on the first call. Use it instead of {@link #findRegion(BeaconRegion)} on hot paths, f.e. in ranging
+	 * callbacks. The index is updated by all methods of this class that change the regions table.
+	 * 
+	 * @return the region index
+	 */
+	public RegionIndex getRegionIndex() {
+		synchronized (DatabaseHelper.class) {
+			if (mRegionIndex == null) {
+				final RegionIndex index = new RegionIndex();
+				final Cursor cursor = getAllRegions();
+				try {
+					while (cursor.moveToNext()) {
+						index.put(new RegionIndex.Region(cursor.getLong(0 /* _ID */), cursor.getString(1 /* NAME */), UUID.fromString(cursor.getString(2 /* UUID */)),
+								cursor.getInt(3 /* MAJOR */), cursor.getInt(4 /* MINOR */), cursor.getInt(5 /* SIGNAL_STRENGTH */), cursor.getInt(6 /* EVENT */), cursor.getInt(7 /* ACTION */),
+								cursor.getString(8 /* ACTION_PARAM */), cursor.getInt(9 /* ENABLED */) == 1));
+					}
+				} finally {
+					cursor.close();
+				}
+				mRegionIndex = index;
+			}
+			return mRegionIndex;
+		}
+	}
+
+	/**
+	 * Returns the rules of all enabled regions, compiled from the {@link RegionIndex}. The table is compiled again only if the regions have changed since the last call. Each region
+	 * gives one rule. If the same beacon has been saved in more than one region, all their rules apply.
+	 * 
+	 * @return the rule table
+	 */
+	public RuleTable getRuleTable() {
+		final RegionIndex index = getRegionIndex();
+		synchronized (DatabaseHelper.class) {
+			// Read the counter before the regions, so that a concurrent change causes another compilation on the next call
+			final int modCount = index.getModCount();
+			if (mRuleTable == null || mRuleTableModCount != modCount) {
+				final RuleTable.Builder builder = new RuleTable.Builder();
+				for (final RegionIndex.Region region : index.getAll()) {
+					if (region.isEnabled())
+						builder.addRule(region.getId(), region.getName(), region.getUuid(), region.getMajor(), region.getMinor(), region.getEvent(), region.getAction(),
+								region.getActionParam());
+				}
+				mRuleTable = builder.build();
+				mRuleTableModCount = modCount;
+			}
+			return mRuleTable;
+		}
+	}
+
+	/**
+	 * Returns the cached configuration of the device with given address.
+	 * 
+	 * @param address
+	 *            the device address
+	 * @return the cache entry or <code>null</code> if not found
+	 */
+	public ConfigCache.Entry loadCachedConfig(final String address) {
+		final String[] args = new String[] { address };
+		final Cursor cursor = mDatabase.query(Tables.CONFIG_CACHE, CACHED_CONFIG_PROJECTION, ADDRESS_SELECTION, args, null, null, null);
+		try {
+			if (!cursor.moveToFirst())
+				return null;
+
+			final BeaconConfig config = new BeaconConfig();
+			if (!cursor.isNull(0))
+				config.setUuid(UUID.fromString(cursor.getString(0)));
+			if (!cursor.isNull(1) && !cursor.isNull(2))
+				config.setMajorAndMinor(cursor.getInt(1), cursor.getInt(2));
+			if (!cursor.isNull(3))
+				config.setCalibratedRssi(cursor.getInt(3));
+			if (!cursor.isNull(4))
+				config.setManufacturerId(cursor.getInt(4));
+			if (!cursor.isNull(5))
+				config.setAdvInterval(cursor.getInt(5));
+			if (!cursor.isNull(6))
+				config.setLedStatus(cursor.getInt(6) == 1);
+			return new ConfigCache.Entry(config, cursor.getString(7), cursor.getLong(8));
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Saves or replaces the cached configuration of the device.
+	 * 
+	 * @param address
+	 *            the device address
+	 * @param entry
+	 *            the cache entry
+	 * @return the row ID of the newly inserted row, or -1 if an error occurred
+	 */
+	public long saveCachedConfig(final String address, final ConfigCache.Entry entry) {
+		final BeaconConfig config = entry.getConfig();
+		final ContentValues values = new ContentValues();
+		values.put(BeaconContract.CachedConfig.ADDRESS, address);
+		values.put(BeaconContract.CachedConfig.UUID, config.getUuid() != null ? config.getUuid().toString() : null);
+		values.put(BeaconContract.CachedConfig.MAJOR, config.getMajor());
+		values.put(BeaconContract.CachedConfig.MINOR, config.getMinor());
+		values.put(BeaconContract.CachedConfig.CALIBRATED_RSSI, config.getCalibratedRssi());
+		values.put(BeaconContract.CachedConfig.MANUFACTURER_ID, config.getManufacturerId());
+		values.put(BeaconContract.CachedConfig.ADV_INTERVAL, config.getAdvInterval());
+		values.put(BeaconContract.CachedConfig.LED, config.getLedStatus() != null ? (config.getLedStatus() ? 1 : 0) : null);
+		values.put(BeaconContract.CachedConfig.FIRMWARE_ID, entry.getFirmwareId());
+		values.put(BeaconContract.CachedConfig.TIMESTAMP, entry.getTimestamp());
+
+		return mDatabase.insertWithOnConflict(Tables.CONFIG_CACHE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+	}
+
+	/**
+	 * Removes the cached configuration of the device.
+	 * 
+	 * @param address
+	 *            the device address
+	 */
+	public void deleteCachedConfig(final String address) {
+		mDatabase.delete(Tables.CONFIG_CACHE, ADDRESS_SELECTION, new String[] { address });
+	}
+
+	/**
+	 * Returns the state of the GATT cache of the device with given address.
+	 * 
+	 * @param address
+	 *            the device address
+	 * @return the entry or <code>null</code> if not found
+	 */
+	public GattCacheTracker.Entry loadGattCacheEntry(final String address) {
+		final String[] args = new String[] { address };
+		final Cursor cursor = mDatabase.query(Tables.GATT_CACHE, GATT_CACHE_PROJECTION, GATT_CACHE_ADDRESS_SELECTION, args, null, null, null);
+		try {
+			if (!cursor.moveToFirst())
+				return null;
+			return new GattCacheTracker.Entry(cursor.getString(0), cursor.getInt(1) == 1);
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Saves or replaces the state of the GATT cache of the device.
+	 * 
+	 * @param address
+	 *            the device address
+	 * @param entry
+	 *            the entry
+	 * @return the row ID of the newly inserted row, or -1 if an error occurred
+	 */
+	public long saveGattCacheEntry(final String address, final GattCacheTracker.Entry entry) {
+		final ContentValues values = new ContentValues();
+		values.put(BeaconContract.GattCache.ADDRESS, address);
+		values.put(BeaconContract.GattCache.FINGERPRINT, entry.getFingerprint());
+		values.put(BeaconContract.GattCache.DFU_PENDING, entry.isDfuPending() ? 1 : 0);
+
+		return mDatabase.insertWithOnConflict(Tables.GATT_CACHE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+	}
+
+	/**
+	 * Saves or replaces the journal entries in a single transaction.
+	 * 
+	 * @param entries
+	 *            the entries to be saved
+	 */
+	public void saveJournalEntries(final List<ProvisioningJournal.Entry> entries) {
+		final SQLiteStatement update = mDatabase.compileStatement(UPDATE_JOURNAL);
+		final SQLiteStatement insert = mDatabase.compileStatement(INSERT_JOURNAL);
+		mDatabase.beginTransaction();
+		try {
+			for (final ProvisioningJournal.Entry entry : entries) {
+				bindJournalEntry(update, entry);
+				if (update.executeUpdateDelete() == 0) {
+					bindJournalEntry(insert, entry);
+					insert.executeInsert();
+				}
+			}
+			mDatabase.setTransactionSuccessful();
+		} finally {
+			mDatabase.endTransaction();
+			update.close();
+			insert.close();
+		}
+	}
+
+	/**
+	 * Returns all journal entries in the order they were first saved.
+	 */
+	public List<ProvisioningJournal.Entry> loadJournalEntries() {
+		final List<ProvisioningJournal.Entry> entries = new ArrayList<>();
+		final Cursor cursor = mDatabase.query(Tables.JOURNAL, JOURNAL_PROJECTION, null, null, null, null, BeaconContract.Journal._ID);
+		try {
+			while (cursor.moveToNext()) {
+				final BeaconConfig config = new BeaconConfig();
+				if (!cursor.isNull(1))
+					config.setUuid(UUID.fromString(cursor.getString(1)));
+				if (!cursor.isNull(2) && !cursor.isNull(3))
+					config.setMajorAndMinor(cursor.getInt(2), cursor.getInt(3));
+				if (!cursor.isNull(4))
+					config.setCalibratedRssi(cursor.getInt(4));
+				if (!cursor.isNull(5))
+					config.setManufacturerId(cursor.getInt(5));
+				if (!cursor.isNull(6))
+					config.setAdvInterval(cursor.getInt(6));
+				if (!cursor.isNull(7))
+					config.setLedStatus(cursor.getInt(7) == 1);
+				entries.add(new ProvisioningJournal.Entry(cursor.getString(0), config, cursor.getInt(8), cursor.getInt(9), cursor.getInt(10), cursor.getLong(11)));
+			}
+		} finally {
+			cursor.close();
+		}
+		return entries;
+	}
+
+	/**
+	 * Removes all journal entries.
+	 */
+	public void clearJournal() {
+		mDatabase.delete(Tables.JOURNAL, null, null);
+	}
+
+	/**
+	 * Reserves a block of consecutive minor numbers under the given UUID and major number in a single transaction.
+	 * 
+	 * @param uuid
+	 *            the beacon service UUID
+	 * @param major
+	 *            the major number
+	 * @param count
+	 *            the number of minor numbers to reserve
+	 * @return the first reserved minor number, or -1 if all have been reserved before
+	 */
+	public int reserveMinors(final UUID uuid, final int major, final int count) {
+		final String[] args = new String[] { uuid.toString(), String.valueOf(major) };
+		mDatabase.beginTransaction();
+		try {
+			final Cursor cursor = mDatabase.query(Tables.ALLOCATIONS, ALLOCATION_PROJECTION, ALLOCATION_SELECTION, args, null, null, null);
+			final boolean exists;
+			final int first;
+			try {
+				exists = cursor.moveToNext();
+				first = exists ? cursor.getInt(0) : 0;
+			} finally {
+				cursor.close();
+			}
+			if (first > BeaconConfig.MAX_UINT16)
+				return -1;
+
+			final ContentValues values = new ContentValues();
+			values.put(BeaconContract.Allocation.NEXT_MINOR, Math.min(first + count, BeaconConfig.MAX_UINT16 + 1));
+			if (exists) {
+				mDatabase.update(Tables.ALLOCATIONS, values, ALLOCATION_SELECTION, args);
+			} else {
+				values.put(BeaconContract.Allocation.UUID, uuid.toString());
+				values.put(BeaconContract.Allocation.MAJOR, major);
+				mDatabase.insert(Tables.ALLOCATIONS, null, values);
+			}
+			mDatabase.setTransactionSuccessful();
+			return first;
+		} finally {
+			mDatabase.endTransaction();
+		}
+	}
+
+	private static void bindJournalEntry(final SQLiteStatement statement, final ProvisioningJournal.Entry entry) {
+		final BeaconConfig config = entry.getConfig();
+		statement.clearBindings();
+		if (config.getUuid() != null)
+			statement.bindString(1, config.getUuid().toString());
+		if (config.getMajor() != null && config.getMinor() != null) {
+			statement.bindLong(2, config.getMajor());
+			statement.bindLong(3, config.getMinor());
+		}
+		if (config.getCalibratedRssi() != null)
+			statement.bindLong(4, config.getCalibratedRssi());
+		if (config.getManufacturerId() != null)
+			statement.bindLong(5, config.getManufacturerId());
+		if (config.getAdvInterval() != null)
+			statement.bindLong(6, config.getAdvInterval());
+		if (config.getLedStatus() != null)
+			statement.bindLong(7, config.getLedStatus() ? 1 : 0);
+		statement.bindLong(8, entry.getState());
+		statement.bindLong(9, entry.getAttempts());
+		statement.bindLong(10, entry.getLastError());
+		statement.bindLong(11, entry.getVerifiedTime());
+		statement.bindString(12, entry.getAddress());
+	}
+
 	private class SQLiteHelper extends SQLiteOpenHelper {
 		/**
 		 * The SQL code that creates the beacons table:
@@ -238,6 +652,72 @@ public class DatabaseHelper {
 				+ BeaconContract.Beacon.SIGNAL_STRENGTH + " INTEGER, " + BeaconContract.Beacon.EVENT + " INTEGER NOT NULL, " + BeaconContract.Beacon.ACTION + " INTEGER NOT NULL, "
 				+ BeaconContract.Beacon.ACTION_PARAM + " TEXT, " + BeaconContract.Beacon.ENABLED + " INTEGER NOT NULL DEFAULT(1));";
 
+		/**
+		 * The SQL code that creates the config cache table:
+		 * 
+		 * <pre>
+		 * -----------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+		 * |                                                                                   config_cache                                                                                                    |
+		 * -----------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+		 * | _id (int, pk, auto increment) | address (text, unique) | uuid (text) | major (int) | minor (int) | calibrated_rssi (int) | manufacturer_id (int) | adv_interval (int) | led (int) | firmware_id (text) | timestamp (int) |
+		 * -----------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+		 * </pre>
+		 */
+		private static final String CREATE_CONFIG_CACHE = "CREATE TABLE " + Tables.CONFIG_CACHE + "(" + BeaconContract.CachedConfig._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+				+ BeaconContract.CachedConfig.ADDRESS + " TEXT NOT NULL UNIQUE, " + BeaconContract.CachedConfig.UUID + " TEXT, " + BeaconContract.CachedConfig.MAJOR + " INTEGER, "
+				+ BeaconContract.CachedConfig.MINOR + " INTEGER, " + BeaconContract.CachedConfig.CALIBRATED_RSSI + " INTEGER, " + BeaconContract.CachedConfig.MANUFACTURER_ID + " INTEGER, "
+				+ BeaconContract.CachedConfig.ADV_INTERVAL + " INTEGER, " + BeaconContract.CachedConfig.LED + " INTEGER, " + BeaconContract.CachedConfig.FIRMWARE_ID + " TEXT, "
+				+ BeaconContract.CachedConfig.TIMESTAMP + " INTEGER NOT NULL);";
+
+		/**
+		 * The SQL code that creates the GATT cache table:
+		 * 
+		 * <pre>
+		 * ------------------------------------------------------------------------------------------------
+		 * |                                        gatt_cache                                            |
+		 * ------------------------------------------------------------------------------------------------
+		 * | _id (int, pk, auto increment) | address (text, unique) | fingerprint (text) | dfu_pending (int) |
+		 * ------------------------------------------------------------------------------------------------
+		 * </pre>
+		 */
+		private static final String CREATE_GATT_CACHE = "CREATE TABLE " + Tables.GATT_CACHE + "(" + BeaconContract.GattCache._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+				+ BeaconContract.GattCache.ADDRESS + " TEXT NOT NULL UNIQUE, " + BeaconContract.GattCache.FINGERPRINT + " TEXT, " + BeaconContract.GattCache.DFU_PENDING
+				+ " INTEGER NOT NULL DEFAULT(0));";
+
+		/**
+		 * The SQL code that creates the provisioning journal table:
+		 * 
+		 * <pre>
+		 * -----------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+		 * |                                                                                provisioning_journal                                                                                         |
+		 * -----------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+		 * | _id (int, pk, auto increment) | address (text, unique) | uuid (text) | major (int) | minor (int) | calibrated_rssi (int) | manufacturer_id (int) | adv_interval (int) | led (int) |       |
+		 * | state (int) | attempts (int) | last_error (int) | verified_time (int) |                                                                                                                    |
+		 * -----------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+		 * </pre>
+		 */
+		private static final String CREATE_JOURNAL = "CREATE TABLE " + Tables.JOURNAL + "(" + BeaconContract.Journal._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+				+ BeaconContract.Journal.ADDRESS + " TEXT NOT NULL UNIQUE, " + BeaconContract.Journal.UUID + " TEXT, " + BeaconContract.Journal.MAJOR + " INTEGER, "
+				+ BeaconContract.Journal.MINOR + " INTEGER, " + BeaconContract.Journal.CALIBRATED_RSSI + " INTEGER, " + BeaconContract.Journal.MANUFACTURER_ID + " INTEGER, "
+				+ BeaconContract.Journal.ADV_INTERVAL + " INTEGER, " + BeaconContract.Journal.LED + " INTEGER, " + BeaconContract.Journal.STATE + " INTEGER NOT NULL, "
+				+ BeaconContract.Journal.ATTEMPTS + " INTEGER NOT NULL, " + BeaconContract.Journal.LAST_ERROR + " INTEGER NOT NULL, " + BeaconContract.Journal.VERIFIED_TIME
+				+ " INTEGER NOT NULL);";
+
+		/**
+		 * The SQL code that creates the major and minor allocations table:
+		 * 
+		 * <pre>
+		 * ----------------------------------------------------------------------------------------------------
+		 * |                                          allocations                                             |
+		 * ----------------------------------------------------------------------------------------------------
+		 * | _id (int, pk, auto increment) | uuid (text) | major (int) | next_minor (int) | unique(uuid, major) |
+		 * ----------------------------------------------------------------------------------------------------
+		 * </pre>
+		 */
+		private static final String CREATE_ALLOCATIONS = "CREATE TABLE " + Tables.ALLOCATIONS + "(" + BeaconContract.Allocation._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+				+ BeaconContract.Allocation.UUID + " TEXT NOT NULL, " + BeaconContract.Allocation.MAJOR + " INTEGER NOT NULL, " + BeaconContract.Allocation.NEXT_MINOR
+				+ " INTEGER NOT NULL, UNIQUE(" + BeaconContract.Allocation.UUID + ", " + BeaconContract.Allocation.MAJOR + "));";
+
 		public SQLiteHelper(Context context) {
 			super(context, DATABASE_NAME, null, DATABASE_VERSION);
 		}
@@ -245,6 +725,10 @@ public class DatabaseHelper {
 		@Override
 		public void onCreate(final SQLiteDatabase db) {
 			db.execSQL(CREATE_BEACONS);
+			db.execSQL(CREATE_CONFIG_CACHE);
+			db.execSQL(CREATE_GATT_CACHE);
+			db.execSQL(CREATE_JOURNAL);
+			db.execSQL(CREATE_ALLOCATIONS);
 		}
 
 		private static final String ALTER_REGIONS_ADD_ENABLED = "ALTER TABLE " + Tables.REGIONS + " ADD COLUMN " + BeaconContract.Beacon.ENABLED + " INTEGER NOT NULL DEFAULT(1)";
@@ -254,6 +738,18 @@ public class DatabaseHelper {
 			switch (oldVersion) {
 			case 1:
 				db.execSQL(ALTER_REGIONS_ADD_ENABLED);
+				// fall through
+			case 2:
+				db.execSQL(CREATE_CONFIG_CACHE);
+				// fall through
+			case 3:
+				db.execSQL(CREATE_GATT_CACHE);
+				// fall through
+			case 4:
+				db.execSQL(CREATE_JOURNAL);
+				// fall through
+			case 5:
+				db.execSQL(CREATE_ALLOCATIONS);
 				break;
 			}
 			//			db.execSQL("DROP TABLE IF EXISTS " + Tables.REGIONS);
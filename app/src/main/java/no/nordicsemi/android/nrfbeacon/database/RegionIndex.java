@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import no.nordicsemi.android.nrfbeacon.rules.BeaconKeyTable;
+
+/**
+ * An in-memory copy of the regions table, indexed by the UUID, major and minor numbers. Ranging callbacks come every second for each region, so they look the region up here instead of
+ * querying the database. The index is kept in sync by the {@link DatabaseHelper} on every change of the table.
+ * <p>
+ * The keys are kept in a {@link BeaconKeyTable}, so a lookup does not allocate.
+ * </p>
+ */
+public class RegionIndex {
+	/**
+	 * A single row of the regions table.
+	 */
+	public static class Region {
+		private final long mId;
+		private final UUID mUuid;
+		private final int mMajor;
+		private final int mMinor;
+		private String mName;
+		private int mSignalStrength;
+		/** The value last written to the database. */
+		private int mStoredSignalStrength;
+		private int mEvent;
+		private int mAction;
+		private String mActionParam;
+		private boolean mEnabled;
+
+		/* package */Region(final long id, final String name, final UUID uuid, final int major, final int minor, final int signalStrength, final int event, final int action,
+				final String actionParam, final boolean enabled) {
+			mId = id;
+			mName = name;
+			mUuid = uuid;
+			mMajor = major;
+			mMinor = minor;
+			mSignalStrength = mStoredSignalStrength = signalStrength;
+			mEvent = event;
+			mAction = action;
+			mActionParam = actionParam;
+			mEnabled = enabled;
+		}
+
+		public long getId() {
+			return mId;
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		public UUID getUuid() {
+			return mUuid;
+		}
+
+		public int getMajor() {
+			return mMajor;
+		}
+
+		public int getMinor() {
+			return mMinor;
+		}
+
+		public int getSignalStrength() {
+			return mSignalStrength;
+		}
+
+		/**
+		 * Returns one of the BeaconContract.EVENT_* constants.
+		 */
+		public int getEvent() {
+			return mEvent;
+		}
+
+		/**
+		 * Returns one of the BeaconContract.ACTION_* constants.
+		 */
+		public int getAction() {
+			return mAction;
+		}
+
+		public String getActionParam() {
+			return mActionParam;
+		}
+
+		public boolean isEnabled() {
+			return mEnabled;
+		}
+	}
+
+	private final Map<Long, Region> mRegionsById = new HashMap<>();
+	private final BeaconKeyTable mKeys = new BeaconKeyTable();
+	/** The region of each key, by the index in {@link #mKeys}. */
+	private Region[] mRegions = new Region[mKeys.getIndexCapacity()];
+	private int mModCount;
+
+	/**
+	 * Returns the region with the given UUID, major and minor numbers.
+	 * 
+	 * @return the region or <code>null</code> if no such region has been saved
+	 */
+	public synchronized Region find(final UUID uuid, final int major, final int minor) {
+		// Wildcards (BeaconRegion.ANY) never match a saved region
+		if (uuid == null || (major & ~0xFFFF) != 0 || (minor & ~0xFFFF) != 0)
+			return null;
+		final int index = mKeys.find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), BeaconKeyTable.pack(major, minor));
+		return index != BeaconKeyTable.NONE ? mRegions[index] : null;
+	}
+
+	/**
+	 * Returns the region with the given row ID, or <code>null</code>.
+	 */
+	public synchronized Region get(final long id) {
+		return mRegionsById.get(id);
+	}
+
+	/**
+	 * Returns all regions. The list is a copy.
+	 */
+	public synchronized List<Region> getAll() {
+		return new ArrayList<>(mRegionsById.values());
+	}
+
+	public synchronized int size() {
+		return mRegionsById.size();
+	}
+
+	/**
+	 * Returns a number that changes whenever a region is added, removed or edited. Changes of the signal strength are not counted.
+	 */
+	public synchronized int getModCount() {
+		return mModCount;
+	}
+
+	/* package */synchronized void put(final Region region) {
+		mModCount++;
+		final Region old = mRegionsById.put(region.mId, region);
+		if (old != null)
+			removeKey(old);
+
+		final int index = mKeys.add(region.mUuid.getMostSignificantBits(), region.mUuid.getLeastSignificantBits(), BeaconKeyTable.pack(region.mMajor, region.mMinor));
+		if (mKeys.getIndexCapacity() > mRegions.length)
+			mRegions = Arrays.copyOf(mRegions, mKeys.getIndexCapacity());
+		// Like the SQL query, the region with the lowest ID wins if the same beacon has been saved twice
+		if (mRegions[index] == null || mRegions[index].mId > region.mId)
+			mRegions[index] = region;
+	}
+
+	/* package */synchronized void remove(final long id) {
+		final Region region = mRegionsById.remove(id);
+		if (region != null) {
+			removeKey(region);
+			mModCount++;
+		}
+	}
+
+	/* package */synchronized void clear() {
+		mRegionsById.clear();
+		mKeys.clear();
+		Arrays.fill(mRegions, null);
+		mModCount++;
+	}
+
+	/* package */synchronized void setName(final long id, final String name) {
+		final Region region = mRegionsById.get(id);
+		if (region != null) {
+			region.mName = name;
+			mModCount++;
+		}
+	}
+
+	/* package */synchronized void setSignalStrength(final long id, final int signalStrength) {
+		final Region region = mRegionsById.get(id);
+		if (region != null)
+			region.mSignalStrength = signalStrength;
+	}
+
+	/* package */synchronized void resetSignalStrength() {
+		for (final Region region : mRegionsById.values())
+			region.mSignalStrength = 0;
+	}
+
+	/**
+	 * Returns the signal strengths that differ from the values in the database, and treats them as written.
+	 * 
+	 * @return the map of region IDs to the signal strength, empty if nothing has changed
+	 */
+	/* package */synchronized Map<Long, Integer> takeSignalStrengthChanges() {
+		final Map<Long, Integer> changes = new HashMap<>();
+		for (final Region region : mRegionsById.values()) {
+			if (region.mSignalStrength != region.mStoredSignalStrength) {
+				changes.put(region.mId, region.mSignalStrength);
+				region.mStoredSignalStrength = region.mSignalStrength;
+			}
+		}
+		return changes;
+	}
+
+	/* package */synchronized void setEvent(final long id, final int event) {
+		final Region region = mRegionsById.get(id);
+		if (region != null) {
+			region.mEvent = event;
+			mModCount++;
+		}
+	}
+
+	/* package */synchronized void setAction(final long id, final int action) {
+		final Region region = mRegionsById.get(id);
+		if (region != null) {
+			region.mAction = action;
+			mModCount++;
+		}
+	}
+
+	/* package */synchronized void setActionParam(final long id, final String actionParam) {
+		final Region region = mRegionsById.get(id);
+		if (region != null) {
+			region.mActionParam = actionParam;
+			mModCount++;
+		}
+	}
+
+	/* package */synchronized void setEnabled(final long id, final boolean enabled) {
+		final Region region = mRegionsById.get(id);
+		if (region != null) {
+			region.mEnabled = enabled;
+			mModCount++;
+		}
+	}
+
+	/**
+	 * Removes the key of the region from the key table, if it points to this region. Another region saved with the same key takes its place.
+	 */
+	private void removeKey(final Region region) {
+		final long msb = region.mUuid.getMostSignificantBits();
+		final long lsb = region.mUuid.getLeastSignificantBits();
+		final int majorMinor = BeaconKeyTable.pack(region.mMajor, region.mMinor);
+		final int index = mKeys.find(msb, lsb, majorMinor);
+		if (index == BeaconKeyTable.NONE || mRegions[index] != region)
+			return;
+
+		Region duplicate = null;
+		for (final Region other : mRegionsById.values())
+			if (other.mMajor == region.mMajor && other.mMinor == region.mMinor && other.mUuid.equals(region.mUuid) && (duplicate == null || other.mId < duplicate.mId))
+				duplicate = other;
+		if (duplicate != null) {
+			mRegions[index] = duplicate;
+			return;
+		}
+		mKeys.remove(msb, lsb, majorMinor);
+		mRegions[index] = null;
+	}
+}
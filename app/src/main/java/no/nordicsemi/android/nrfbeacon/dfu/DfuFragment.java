@@ -66,6 +66,7 @@ import no.nordicsemi.android.dfu.DfuProgressListenerAdapter;
 import no.nordicsemi.android.dfu.DfuServiceInitiator;
 import no.nordicsemi.android.dfu.DfuServiceListenerHelper;
 import no.nordicsemi.android.nrfbeacon.R;
+import no.nordicsemi.android.nrfbeacon.UpdateService;
 import no.nordicsemi.android.nrfbeacon.common.BoardHelpFragment;
 import no.nordicsemi.android.nrfbeacon.dfu.adapter.FileBrowserAppsAdapter;
 import no.nordicsemi.android.nrfbeacon.dfu.service.DfuService;
@@ -654,6 +655,8 @@ public class DfuFragment extends Fragment implements LoaderManager.LoaderCallbac
 		else {
 			starter.setBinOrHex(mFileType, mFileStreamUri, mFilePath).setInitFile(mInitFileStreamUri, mInitFilePath);
 		}
+		// The services will change, so the GATT cache of the device has to be cleared after the next config connection
+		UpdateService.getGattCacheTracker(getActivity()).onDfuStarted(mSelectedDevice.getAddress());
 		starter.start(getActivity(), DfuService.class);
 	}
 
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.provisioning;
+
+import no.nordicsemi.android.nrfbeacon.config.BeaconConfig;
+import no.nordicsemi.android.nrfbeacon.config.OperationQueue;
+
+/**
+ * The configuration read from a single beacon by the {@link InventorySweep}.
+ */
+public class InventoryRecord {
+	private final String mAddress;
+	private final int mRssi;
+	private final BeaconConfig mConfig;
+	private final String mFirmwareId;
+	private final int mError;
+	private final int mAttempts;
+
+	/* package */InventoryRecord(final String address, final int rssi, final BeaconConfig config, final String firmwareId, final int error, final int attempts) {
+		mAddress = address;
+		mRssi = rssi;
+		mConfig = config;
+		mFirmwareId = firmwareId;
+		mError = error;
+		mAttempts = attempts;
+	}
+
+	public String getAddress() {
+		return mAddress;
+	}
+
+	/**
+	 * Returns the strongest RSSI the beacon was seen with during the scan.
+	 */
+	public int getRssi() {
+		return mRssi;
+	}
+
+	/**
+	 * Returns the values read from the beacon. Fields that could not be read are not set. The config is empty if the beacon could not be audited.
+	 */
+	public BeaconConfig getConfig() {
+		return mConfig;
+	}
+
+	/**
+	 * Returns the firmware identification read from the Device Information service, or <code>null</code>.
+	 */
+	public String getFirmwareId() {
+		return mFirmwareId;
+	}
+
+	/**
+	 * Returns {@link OperationQueue#GATT_SUCCESS} if the values have been read, the error of the last attempt otherwise.
+	 */
+	public int getError() {
+		return mError;
+	}
+
+	public int getAttempts() {
+		return mAttempts;
+	}
+
+	public boolean isSuccessful() {
+		return mError == OperationQueue.GATT_SUCCESS;
+	}
+
+	@Override
+	public String toString() {
+		return mAddress + " rssi: " + mRssi + " error: " + mError + " " + mConfig;
+	}
+}
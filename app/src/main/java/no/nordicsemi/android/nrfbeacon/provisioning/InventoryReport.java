@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.provisioning;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import no.nordicsemi.android.nrfbeacon.config.BeaconConfig;
+
+/**
+ * The result of an {@link InventorySweep}: the configuration of every audited beacon with the problems found. Beacons are flagged when they could not be read, advertise a UUID other than
+ * the expected ones, share the UUID, major and minor with another beacon or advertise with an interval out of the expected range.
+ */
+public class InventoryReport {
+	public final static int ISSUE_UNREACHABLE = 1;
+	public final static int ISSUE_WRONG_UUID = 1 << 1;
+	public final static int ISSUE_DUPLICATE_MAJOR_MINOR = 1 << 2;
+	public final static int ISSUE_INTERVAL_OFF_SPEC = 1 << 3;
+
+	private final List<InventoryRecord> mRecords;
+	private final int[] mIssues;
+
+	/**
+	 * Creates the report.
+	 * 
+	 * @param records
+	 *            the audited beacons
+	 * @param expectedUuids
+	 *            the UUIDs the beacons should advertise, <code>null</code> or empty to not check the UUID
+	 * @param minInterval
+	 *            the lowest expected advertising interval in milliseconds
+	 * @param maxInterval
+	 *            the highest expected advertising interval in milliseconds
+	 */
+	public InventoryReport(final List<InventoryRecord> records, final Collection<UUID> expectedUuids, final int minInterval, final int maxInterval) {
+		mRecords = Collections.unmodifiableList(new ArrayList<>(records));
+		mIssues = new int[records.size()];
+
+		final Set<UUID> uuids = expectedUuids != null ? new HashSet<>(expectedUuids) : Collections.<UUID> emptySet();
+		// The index of the first beacon with each major and minor pair, per UUID
+		final Map<UUID, Map<Integer, Integer>> pairs = new HashMap<>();
+		for (int i = 0; i < mIssues.length; ++i) {
+			final InventoryRecord record = mRecords.get(i);
+			if (!record.isSuccessful()) {
+				mIssues[i] = ISSUE_UNREACHABLE;
+				continue;
+			}
+
+			final BeaconConfig config = record.getConfig();
+			final UUID uuid = config.getUuid();
+			if (uuid != null && !uuids.isEmpty() && !uuids.contains(uuid))
+				mIssues[i] |= ISSUE_WRONG_UUID;
+
+			final Integer interval = config.getAdvInterval();
+			if (interval != null && (interval < minInterval || interval > maxInterval))
+				mIssues[i] |= ISSUE_INTERVAL_OFF_SPEC;
+
+			if (uuid != null && config.getMajor() != null && config.getMinor() != null) {
+				Map<Integer, Integer> uuidPairs = pairs.get(uuid);
+				if (uuidPairs == null) {
+					uuidPairs = new HashMap<>();
+					pairs.put(uuid, uuidPairs);
+				}
+				final Integer first = uuidPairs.put(config.getMajor() << 16 | config.getMinor(), i);
+				if (first != null) {
+					mIssues[first] |= ISSUE_DUPLICATE_MAJOR_MINOR;
+					mIssues[i] |= ISSUE_DUPLICATE_MAJOR_MINOR;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the audited beacons in the order they have been audited.
+	 */
+	public List<InventoryRecord> getRecords() {
+		return mRecords;
+	}
+
+	/**
+	 * Returns the problems found with the beacon at the given position in {@link #getRecords()}.
+	 * 
+	 * @return a bit mask of ISSUE_* flags, 0 if the beacon is configured as expected
+	 */
+	public int getIssues(final int index) {
+		return mIssues[index];
+	}
+
+	/**
+	 * Returns the number of beacons with the given problem, or with any problem if <code>issue</code> is 0.
+	 */
+	public int getFlaggedCount(final int issue) {
+		int count = 0;
+		for (final int issues : mIssues)
+			if (issue == 0 ? issues != 0 : (issues & issue) != 0)
+				count++;
+		return count;
+	}
+
+	/**
+	 * Writes the report as CSV, one beacon in a row. Values that could not be read are left empty.
+	 */
+	public void writeCsv(final Writer writer) throws IOException {
+		writer.write("address,rssi,uuid,major,minor,calibrated_rssi,manufacturer_id,interval,led,firmware,error,issues\n");
+		for (int i = 0; i < mIssues.length; ++i) {
+			final InventoryRecord record = mRecords.get(i);
+			final BeaconConfig config = record.getConfig();
+			writer.write(record.getAddress() + "," + record.getRssi() + "," + toString(config.getUuid()) + "," + toString(config.getMajor()) + "," + toString(config.getMinor()) + ","
+					+ toString(config.getCalibratedRssi()) + "," + toString(config.getManufacturerId()) + "," + toString(config.getAdvInterval()) + "," + toString(config.getLedStatus()) + ","
+					+ toString(record.getFirmwareId()).replace(',', ' ') + "," + record.getError() + "," + getIssueNames(mIssues[i]) + "\n");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "beacons: " + mRecords.size() + ", unreachable: " + getFlaggedCount(ISSUE_UNREACHABLE) + ", wrong UUID: " + getFlaggedCount(ISSUE_WRONG_UUID) + ", duplicate major/minor: "
+				+ getFlaggedCount(ISSUE_DUPLICATE_MAJOR_MINOR) + ", interval off spec: " + getFlaggedCount(ISSUE_INTERVAL_OFF_SPEC);
+	}
+
+	private static String getIssueNames(final int issues) {
+		final StringBuilder builder = new StringBuilder();
+		if ((issues & ISSUE_UNREACHABLE) != 0)
+			builder.append("unreachable ");
+		if ((issues & ISSUE_WRONG_UUID) != 0)
+			builder.append("wrong_uuid ");
+		if ((issues & ISSUE_DUPLICATE_MAJOR_MINOR) != 0)
+			builder.append("duplicate_major_minor ");
+		if ((issues & ISSUE_INTERVAL_OFF_SPEC) != 0)
+			builder.append("interval_off_spec ");
+		return builder.toString().trim();
+	}
+
+	private static String toString(final Object value) {
+		return value != null ? value.toString() : "";
+	}
+}
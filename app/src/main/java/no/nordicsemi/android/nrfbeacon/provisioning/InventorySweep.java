@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.provisioning;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+import no.nordicsemi.android.nrfbeacon.config.BeaconConfig;
+import no.nordicsemi.android.nrfbeacon.config.ConfigCache;
+import no.nordicsemi.android.nrfbeacon.config.ConfigClient;
+import no.nordicsemi.android.nrfbeacon.config.ConfigProtocol;
+import no.nordicsemi.android.nrfbeacon.config.ConfigTransport;
+import no.nordicsemi.android.nrfbeacon.config.OperationFuture;
+import no.nordicsemi.android.nrfbeacon.config.OperationQueue;
+
+/**
+ * Reads the configuration of every beacon found by a scan, without changing anything. Devices are reported with {@link #onDeviceFound(String, int)} while scanning and audited in parallel
+ * over up to the given number of connections: connect, read all config characteristics the device has, disconnect. The strongest devices are audited first, as they are the most likely
+ * to connect at the first attempt. Devices that failed are retried after all others.
+ * <p>
+ * Like the {@link ProvisioningEngine} the sweep does not depend on Android and may be run against simulated beacons. Use {@link #getReport(Collection, int, int)} to get the results.
+ * </p>
+ */
+public class InventorySweep {
+	public final static int DEFAULT_MAX_ATTEMPTS = 2;
+	/** The default time in milliseconds in which the connection must be established and all values read. */
+	public final static long DEFAULT_DEVICE_TIMEOUT = 15000;
+
+	public interface Listener {
+		/**
+		 * Called when the device has been audited, or all attempts have failed.
+		 */
+		public void onDeviceAudited(final InventoryRecord record);
+
+		/**
+		 * Called when there are no more devices to be audited. More devices may still be found.
+		 */
+		public void onIdle();
+	}
+
+	/**
+	 * A found device waiting to be audited.
+	 */
+	private static class Candidate implements Comparable<Candidate> {
+		private final String mAddress;
+		private int mRssi;
+		private int mAttempts;
+		private int mLastError;
+		private boolean mFinished;
+
+		private Candidate(final String address, final int rssi) {
+			mAddress = address;
+			mRssi = rssi;
+		}
+
+		@Override
+		public int compareTo(final Candidate other) {
+			// Devices that have not been tried yet go first, then the strongest ones
+			if (mAttempts != other.mAttempts)
+				return mAttempts < other.mAttempts ? -1 : 1;
+			return mRssi > other.mRssi ? -1 : (mRssi == other.mRssi ? 0 : 1);
+		}
+	}
+
+	private final ConfigTransport.Factory mTransportFactory;
+	private final OperationQueue.Scheduler mScheduler;
+	private final int mMaxConnections;
+	private final PriorityQueue<Candidate> mQueue = new PriorityQueue<>();
+	private final Map<String, Candidate> mCandidates = new HashMap<>();
+	private final List<Worker> mWorkers = new ArrayList<>();
+	private final List<InventoryRecord> mRecords = new ArrayList<>();
+	private Listener mListener;
+	private ConfigCache mConfigCache;
+	private int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+	private long mDeviceTimeout = DEFAULT_DEVICE_TIMEOUT;
+	private boolean mCancelled;
+
+	public InventorySweep(final ConfigTransport.Factory transportFactory, final OperationQueue.Scheduler scheduler, final int maxConnections) {
+		mTransportFactory = transportFactory;
+		mScheduler = scheduler;
+		mMaxConnections = maxConnections;
+	}
+
+	public void setListener(final Listener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Sets the cache the values read are saved to, so later connections to the audited beacons may skip reading them.
+	 */
+	public synchronized void setConfigCache(final ConfigCache cache) {
+		mConfigCache = cache;
+	}
+
+	public synchronized void setMaxAttempts(final int maxAttempts) {
+		mMaxAttempts = maxAttempts;
+	}
+
+	public synchronized void setDeviceTimeout(final long timeout) {
+		mDeviceTimeout = timeout;
+	}
+
+	/**
+	 * Adds the device to the sweep. A device already audited is ignored. Reporting a device again with a stronger RSSI moves it forward in the queue.
+	 * 
+	 * @param address
+	 *            the device address
+	 * @param rssi
+	 *            the RSSI of the advertising packet
+	 */
+	public void onDeviceFound(final String address, final int rssi) {
+		synchronized (this) {
+			if (mCancelled)
+				return;
+			final Candidate candidate = mCandidates.get(address);
+			if (candidate == null) {
+				final Candidate added = new Candidate(address, rssi);
+				mCandidates.put(address, added);
+				mQueue.add(added);
+			} else if (rssi > candidate.mRssi) {
+				// The queue has to be told about the new priority. It holds a few hundred devices at most.
+				final boolean queued = mQueue.remove(candidate);
+				candidate.mRssi = rssi;
+				if (queued)
+					mQueue.add(candidate);
+			}
+		}
+		startWorkers();
+	}
+
+	/**
+	 * Removes all devices that have not been audited yet and ignores devices found later. Active connections are allowed to finish.
+	 */
+	public synchronized void cancel() {
+		mCancelled = true;
+		mQueue.clear();
+	}
+
+	public synchronized boolean isIdle() {
+		return mQueue.isEmpty() && mWorkers.isEmpty();
+	}
+
+	/**
+	 * Returns the records of the devices audited so far.
+	 */
+	public synchronized List<InventoryRecord> getRecords() {
+		return new ArrayList<>(mRecords);
+	}
+
+	/**
+	 * Returns the report of the devices audited so far.
+	 * 
+	 * @see InventoryReport#InventoryReport(List, Collection, int, int)
+	 */
+	public InventoryReport getReport(final Collection<UUID> expectedUuids, final int minInterval, final int maxInterval) {
+		return new InventoryReport(getRecords(), expectedUuids, minInterval, maxInterval);
+	}
+
+	private void startWorkers() {
+		while (true) {
+			final Worker worker;
+			synchronized (this) {
+				if (mWorkers.size() >= mMaxConnections || mQueue.isEmpty())
+					return;
+				worker = new Worker(mQueue.poll(), mDeviceTimeout);
+				mWorkers.add(worker);
+			}
+			worker.start();
+		}
+	}
+
+	private void onWorkerFinished(final Worker worker, final int error, final BeaconConfig config, final String firmwareId) {
+		final Candidate candidate = worker.mCandidate;
+		InventoryRecord record = null;
+		final boolean idle;
+		synchronized (this) {
+			if (!mWorkers.remove(worker))
+				return;
+
+			candidate.mLastError = error;
+			if (error == OperationQueue.GATT_SUCCESS || candidate.mAttempts >= mMaxAttempts || mCancelled) {
+				candidate.mFinished = true;
+				record = new InventoryRecord(candidate.mAddress, candidate.mRssi, config, firmwareId, error, candidate.mAttempts);
+				mRecords.add(record);
+				if (error == OperationQueue.GATT_SUCCESS && mConfigCache != null)
+					mConfigCache.put(candidate.mAddress, config, firmwareId);
+			} else {
+				mQueue.add(candidate);
+			}
+			idle = mQueue.isEmpty() && mWorkers.isEmpty();
+		}
+
+		final Listener listener = mListener;
+		if (record != null && listener != null)
+			listener.onDeviceAudited(record);
+		startWorkers();
+		if (idle && listener != null)
+			listener.onIdle();
+	}
+
+	/**
+	 * The state machine of a single audit attempt.
+	 */
+	private class Worker implements ConfigClient.ConnectionListener {
+		private final Candidate mCandidate;
+		private final long mTimeout;
+		private ConfigClient mClient;
+		private BeaconConfig mConfig;
+		private int mError = ConfigTransport.ERROR_UNSUPPORTED_DEVICE;
+		private boolean mConnected;
+		private boolean mTimedOut;
+		private boolean mDone;
+
+		private final Runnable mTimeoutTask = new Runnable() {
+			@Override
+			public void run() {
+				synchronized (Worker.this) {
+					if (mDone)
+						return;
+					mTimedOut = true;
+				}
+				// The device is retried only when the connection has been closed
+				mClient.disconnect(ProvisioningEngine.CLOSE_TIMEOUT);
+			}
+		};
+
+		private Worker(final Candidate candidate, final long timeout) {
+			mCandidate = candidate;
+			mTimeout = timeout;
+		}
+
+		private void start() {
+			synchronized (InventorySweep.this) {
+				mCandidate.mAttempts++;
+			}
+			mClient = new ConfigClient(mTransportFactory.create(mCandidate.mAddress), mScheduler);
+			mScheduler.schedule(mTimeoutTask, mTimeout);
+			if (!mClient.connect(this))
+				finish(ProvisioningEngine.ERROR_CONNECTION_FAILED);
+		}
+
+		@Override
+		public void onConnected(final ConfigClient client) {
+			synchronized (this) {
+				mConnected = true;
+			}
+			// The same reads ServiceBinder.read() does, all in a single connection event train
+			OperationFuture last = null;
+			for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field) {
+				final OperationFuture future = client.enqueueRead(ConfigProtocol.getCharacteristicUuid(field));
+				if (future != null)
+					last = future;
+			}
+			if (last == null) {
+				// Not a beacon, or the config service has not been found
+				client.disconnect();
+				return;
+			}
+			last.addListener(new OperationFuture.Listener() {
+				@Override
+				public void onCompleted(final OperationFuture future) {
+					if (future.getStatus() != OperationQueue.ERROR_CANCELLED)
+						readDone(client.getKnownConfig());
+				}
+			});
+			client.getOperationQueue().flush();
+		}
+
+		private void readDone(final BeaconConfig config) {
+			synchronized (this) {
+				mConfig = config;
+				mError = OperationQueue.GATT_SUCCESS;
+			}
+			mClient.disconnect();
+		}
+
+		@Override
+		public void onDisconnected(final ConfigClient client, final int status) {
+			final boolean connected;
+			final boolean timedOut;
+			synchronized (this) {
+				connected = mConnected;
+				timedOut = mTimedOut;
+			}
+			if (timedOut)
+				finish(ProvisioningEngine.ERROR_JOB_TIMEOUT);
+			else
+				finish(status != OperationQueue.GATT_SUCCESS ? status : (connected ? mError : ProvisioningEngine.ERROR_CONNECTION_FAILED));
+		}
+
+		private void finish(int error) {
+			final BeaconConfig config;
+			synchronized (this) {
+				if (mDone)
+					return;
+				mDone = true;
+				// The values may have been read before the disconnection failed or timed out
+				if (mConfig != null)
+					error = OperationQueue.GATT_SUCCESS;
+				config = mConfig != null ? mConfig : new BeaconConfig();
+			}
+			mScheduler.cancel(mTimeoutTask);
+			onWorkerFinished(this, error, config, mClient.getFirmwareId());
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.provisioning;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import no.nordicsemi.android.nrfbeacon.config.BeaconConfig;
+
+/**
+ * Hands out unique (major, minor) pairs under a beacon UUID. The major number identifies the site and the minor number the slot within it. A site may also span a range of majors, see
+ * {@link #allocate(UUID, int, int)}.
+ * <p>
+ * Minor numbers are reserved from the {@link Storage} in blocks of {@link #setBlockSize(int)} and handed out from memory, so an allocation does not touch the database, except once per
+ * block. Numbers of a block that were not used before the process ended are never given out again. A pair that could not be written to the beacon may be given back
+ * with {@link #release(UUID, long)} and is handed out again before the rest of the block. Uniqueness is guaranteed as long as all workers share the same storage. All methods are
+ * thread safe.
+ * </p>
+ */
+public class MajorMinorAllocator {
+	public final static int DEFAULT_BLOCK_SIZE = 64;
+	/** The value returned when all pairs of the site have been used. */
+	public final static long NONE = -1;
+
+	public interface Storage {
+		/**
+		 * Reserves up to <code>count</code> consecutive minor numbers under the given UUID and major number, starting from the lowest never reserved one. Must be atomic, i.e. done in a
+		 * single transaction.
+		 * 
+		 * @return the first reserved minor number, or -1 if all 65536 minor numbers have already been reserved. The block ends at <code>min(first + count, 65536)</code>.
+		 */
+		public int reserve(final UUID uuid, final int major, final int count);
+	}
+
+	private static class Block {
+		private int mNext;
+		private int mEnd;
+		/** Minor numbers given back with {@link MajorMinorAllocator#release(UUID, long)}, used as a stack. */
+		private int[] mReleased;
+		private int mReleasedCount;
+	}
+
+	private static class Key {
+		private final UUID mUuid;
+		private final int mFirst;
+		private final int mLast;
+
+		private Key(final UUID uuid, final int major) {
+			this(uuid, major, major);
+		}
+
+		private Key(final UUID uuid, final int first, final int last) {
+			mUuid = uuid;
+			mFirst = first;
+			mLast = last;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Key))
+				return false;
+			final Key other = (Key) o;
+			return mFirst == other.mFirst && mLast == other.mLast && mUuid.equals(other.mUuid);
+		}
+
+		@Override
+		public int hashCode() {
+			return mUuid.hashCode() * 31 + (mFirst << 16 | mLast);
+		}
+	}
+
+	private final Storage mStorage;
+	private final Map<Key, Block> mBlocks = new HashMap<>();
+	/** The first major number of each site spanning a range that may still have free numbers. */
+	private final Map<Key, Integer> mRangeCursors = new HashMap<>();
+	private int mBlockSize = DEFAULT_BLOCK_SIZE;
+
+	public MajorMinorAllocator(final Storage storage) {
+		mStorage = storage;
+	}
+
+	/**
+	 * Sets the number of minor numbers reserved from the storage at once. Larger blocks make fewer database transactions but waste more numbers when the process ends.
+	 */
+	public synchronized void setBlockSize(final int blockSize) {
+		if (blockSize < 1 || blockSize > BeaconConfig.MAX_UINT16 + 1)
+			throw new IllegalArgumentException("Block size must be in range 1-65536");
+		mBlockSize = blockSize;
+	}
+
+	/**
+	 * Returns a new minor number in the site identified by the major number.
+	 * 
+	 * @return the pair packed into a long, see {@link #getMajor(long)} and {@link #getMinor(long)}, or {@link #NONE} if all minor numbers of this major have been used
+	 */
+	public synchronized long allocate(final UUID uuid, final int major) {
+		if (uuid == null)
+			throw new NullPointerException("UUID must not be null");
+		if (!BeaconConfig.isValidMajorOrMinor(major))
+			throw new IllegalArgumentException("Major must be in range 0-65535");
+
+		final Key key = new Key(uuid, major);
+		Block block = mBlocks.get(key);
+		if (block == null) {
+			block = new Block();
+			mBlocks.put(key, block);
+		}
+		if (block.mReleasedCount > 0)
+			return pack(major, block.mReleased[--block.mReleasedCount]);
+		if (block.mNext == block.mEnd) {
+			final int first = mStorage.reserve(uuid, major, mBlockSize);
+			if (first < 0)
+				return NONE;
+			block.mNext = first;
+			block.mEnd = Math.min(first + mBlockSize, BeaconConfig.MAX_UINT16 + 1);
+		}
+		return pack(major, block.mNext++);
+	}
+
+	/**
+	 * Returns a new pair in a site spanning the major numbers from <code>firstMajor</code> to <code>lastMajor</code>. The next major is used when all minor numbers of the previous one have
+	 * been used.
+	 * 
+	 * @return the pair packed into a long, see {@link #getMajor(long)} and {@link #getMinor(long)}, or {@link #NONE} if all pairs in the range have been used
+	 */
+	public synchronized long allocate(final UUID uuid, final int firstMajor, final int lastMajor) {
+		if (!BeaconConfig.isValidMajorOrMinor(firstMajor) || !BeaconConfig.isValidMajorOrMinor(lastMajor) || firstMajor > lastMajor)
+			throw new IllegalArgumentException("Invalid major range: " + firstMajor + "-" + lastMajor);
+
+		// The cursor makes the allocation O(1) once the first majors of the range are full
+		final Key key = new Key(uuid, firstMajor, lastMajor);
+		final Integer cursor = mRangeCursors.get(key);
+		for (int major = cursor != null ? cursor : firstMajor; major <= lastMajor; ++major) {
+			final long pair = allocate(uuid, major);
+			if (pair != NONE) {
+				if (cursor == null || cursor != major)
+					mRangeCursors.put(key, major);
+				return pair;
+			}
+		}
+		mRangeCursors.put(key, lastMajor + 1);
+		return NONE;
+	}
+
+	/**
+	 * Gives back a pair returned by one of the <code>allocate</code> methods that has not been used, e.g. because writing it to the beacon failed. The pair is handed out again by the next
+	 * allocation in its major number. Releasing a pair that is in use breaks the uniqueness.
+	 */
+	public synchronized void release(final UUID uuid, final long pair) {
+		if (pair == NONE)
+			return;
+
+		final Block block = mBlocks.get(new Key(uuid, getMajor(pair)));
+		if (block == null)
+			throw new IllegalArgumentException("Pair has not been allocated: " + pair);
+		if (block.mReleased == null)
+			block.mReleased = new int[4];
+		else if (block.mReleasedCount == block.mReleased.length)
+			block.mReleased = Arrays.copyOf(block.mReleased, block.mReleasedCount * 2);
+		block.mReleased[block.mReleasedCount++] = getMinor(pair);
+
+		// A range that was full has a free number again
+		final int major = getMajor(pair);
+		for (final Map.Entry<Key, Integer> entry : mRangeCursors.entrySet()) {
+			final Key range = entry.getKey();
+			if (range.mUuid.equals(uuid) && range.mFirst <= major && major <= range.mLast && entry.getValue() > major)
+				entry.setValue(major);
+		}
+	}
+
+	public static int getMajor(final long pair) {
+		return (int) (pair >>> 16) & BeaconConfig.MAX_UINT16;
+	}
+
+	public static int getMinor(final long pair) {
+		return (int) pair & BeaconConfig.MAX_UINT16;
+	}
+
+	private static long pack(final int major, final int minor) {
+		return ((long) major << 16) | minor;
+	}
+}
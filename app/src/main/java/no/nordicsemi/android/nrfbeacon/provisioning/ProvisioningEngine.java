@@ -0,0 +1,517 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.provisioning;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import no.nordicsemi.android.nrfbeacon.config.ApplyProfileResult;
+import no.nordicsemi.android.nrfbeacon.config.BeaconConfig;
+import no.nordicsemi.android.nrfbeacon.config.ConfigCache;
+import no.nordicsemi.android.nrfbeacon.config.ConfigClient;
+import no.nordicsemi.android.nrfbeacon.config.ConfigProtocol;
+import no.nordicsemi.android.nrfbeacon.config.ConfigTransport;
+import no.nordicsemi.android.nrfbeacon.config.OperationFuture;
+import no.nordicsemi.android.nrfbeacon.config.OperationQueue;
+import no.nordicsemi.android.nrfbeacon.config.ProfileTransaction;
+import no.nordicsemi.android.nrfbeacon.config.ReconnectPolicy;
+import no.nordicsemi.android.nrfbeacon.config.SettleTimeEstimator;
+
+/**
+ * Configures many beacons in parallel. The engine takes {@link ProvisioningJob}s from its queue and keeps up to the given number of connections open at the same time. Each connection is driven by
+ * its own state machine: connect, apply and verify the profile, disconnect. Failed jobs are retried until the maximum number of attempts is reached.
+ * <p>
+ * Only values that differ from the values known to be on the device are written. They are known from the {@link ConfigCache}, if set, or read before writing when
+ * {@link #setReadBeforeWrite(boolean)} is enabled. Reading first pays off when most of the profile is already set on the beacons, f.e. when only major and minor change.
+ * </p>
+ * <p>
+ * The engine does not depend on Android. Connections are created by the {@link ConfigTransport.Factory} and timeouts are scheduled with the {@link OperationQueue.Scheduler}, so it may be run on
+ * a plain JVM against simulated beacons.
+ * </p>
+ */
+public class ProvisioningEngine {
+	/** The default number of concurrent connections. Most Android phones support up to 4-7 simultaneous LE connections. */
+	public final static int DEFAULT_MAX_CONNECTIONS = 4;
+	public final static int DEFAULT_MAX_ATTEMPTS = 3;
+	/** The default time in milliseconds in which the connection must be established and the profile applied. */
+	public final static long DEFAULT_JOB_TIMEOUT = 20000;
+	/**
+	 * The time in milliseconds in which the disconnection must be reported after a timeout. After that the connection is closed. The slot and the device are kept busy until then, so the
+	 * device is never connected twice.
+	 */
+	public final static long CLOSE_TIMEOUT = 3000;
+
+	/** The job has not finished in time. */
+	public final static int ERROR_JOB_TIMEOUT = -10;
+	/** The profile has been written but not all values have been verified. */
+	public final static int ERROR_VERIFICATION_FAILED = -11;
+	/** The connection could not be initiated. */
+	public final static int ERROR_CONNECTION_FAILED = -12;
+
+	public interface Listener {
+		/**
+		 * Called when a job has completed successfully or failed after the last attempt.
+		 */
+		public void onJobFinished(final ProvisioningJob job);
+
+		/**
+		 * Called when the queue is empty and there are no active connections.
+		 */
+		public void onIdle();
+	}
+
+	private final ConfigTransport.Factory mTransportFactory;
+	private final OperationQueue.Scheduler mScheduler;
+	private final int mMaxConnections;
+	private final ArrayDeque<ProvisioningJob> mQueue = new ArrayDeque<>();
+	/** Jobs waiting for the retry delay to pass. They do not hold a connection slot. */
+	private final List<ProvisioningJob> mDelayed = new ArrayList<>();
+	private final List<Worker> mWorkers = new ArrayList<>();
+	private final ProvisioningStats mStats = new ProvisioningStats();
+	private int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+	private long mJobTimeout = DEFAULT_JOB_TIMEOUT;
+	private boolean mReadBeforeWrite;
+	private ConfigCache mConfigCache;
+	private ReconnectPolicy mReconnectPolicy = new ReconnectPolicy();
+	private SettleTimeEstimator mSettleTimeEstimator;
+	private ProvisioningJournal mJournal;
+	private Listener mListener;
+
+	public ProvisioningEngine(final ConfigTransport.Factory transportFactory, final OperationQueue.Scheduler scheduler, final int maxConnections) {
+		if (maxConnections < 1)
+			throw new IllegalArgumentException("At least one connection is required");
+		mTransportFactory = transportFactory;
+		mScheduler = scheduler;
+		mMaxConnections = maxConnections;
+	}
+
+	public void setListener(final Listener listener) {
+		mListener = listener;
+	}
+
+	public synchronized void setMaxAttempts(final int maxAttempts) {
+		mMaxAttempts = maxAttempts;
+	}
+
+	/**
+	 * Sets the time in which a single attempt must complete. After that time the connection is closed and the attempt is counted as failed.
+	 * 
+	 * @param timeout
+	 *            the timeout in milliseconds
+	 */
+	public synchronized void setJobTimeout(final long timeout) {
+		mJobTimeout = timeout;
+	}
+
+	/**
+	 * Sets whether the requested values should be read before writing, so only the values that differ are written.
+	 */
+	public synchronized void setReadBeforeWrite(final boolean readBeforeWrite) {
+		mReadBeforeWrite = readBeforeWrite;
+	}
+
+	/**
+	 * Sets the cache used to obtain the values known to be on the device. Fresh entries are used to skip writes of unchanged values and verified values are stored in the cache.
+	 * 
+	 * @param cache
+	 *            the cache or <code>null</code>
+	 */
+	public synchronized void setConfigCache(final ConfigCache cache) {
+		mConfigCache = cache;
+	}
+
+	/**
+	 * Sets the policy deciding whether and when a failed job is retried. The budget of the policy is counted from the first attempt of the job.
+	 */
+	public synchronized void setReconnectPolicy(final ReconnectPolicy policy) {
+		mReconnectPolicy = policy;
+	}
+
+	/**
+	 * Sets the estimator of the time a device needs after a disconnection. It is the minimum delay before a failed job is retried.
+	 * 
+	 * @param estimator
+	 *            the estimator or <code>null</code>
+	 */
+	public synchronized void setSettleTimeEstimator(final SettleTimeEstimator estimator) {
+		mSettleTimeEstimator = estimator;
+	}
+
+	/**
+	 * Sets the journal the state of every job is recorded in. Use {@link ProvisioningJournal#getUnfinishedJobs()} to resume an interrupted batch.
+	 * 
+	 * @param journal
+	 *            the journal or <code>null</code>
+	 */
+	public synchronized void setJournal(final ProvisioningJournal journal) {
+		mJournal = journal;
+	}
+
+	public int getMaxConnections() {
+		return mMaxConnections;
+	}
+
+	/**
+	 * Adds the job to the queue and starts it if there is a free connection slot.
+	 */
+	public void submit(final ProvisioningJob job) {
+		submitAll(Collections.singletonList(job));
+	}
+
+	/**
+	 * Adds all jobs to the queue and starts as many as possible.
+	 */
+	public void submitAll(final Collection<ProvisioningJob> jobs) {
+		final ProvisioningJournal journal;
+		synchronized (this) {
+			for (final ProvisioningJob job : jobs)
+				job.setState(ProvisioningJob.STATE_QUEUED);
+			journal = mJournal;
+		}
+		// The jobs are recorded before they are started, so none is lost if the process is killed
+		if (journal != null)
+			journal.onJobsSubmitted(jobs);
+		synchronized (this) {
+			mQueue.addAll(jobs);
+		}
+		startJobs();
+	}
+
+	/**
+	 * Removes all jobs that have not been started yet. Active connections are allowed to finish.
+	 * 
+	 * @return the removed jobs
+	 */
+	public synchronized List<ProvisioningJob> cancelPending() {
+		final List<ProvisioningJob> jobs = new ArrayList<>(mQueue);
+		jobs.addAll(mDelayed);
+		mQueue.clear();
+		mDelayed.clear();
+		return jobs;
+	}
+
+	/**
+	 * Returns the number of jobs waiting for a free connection or for a retry.
+	 */
+	public synchronized int getPendingCount() {
+		return mQueue.size() + mDelayed.size();
+	}
+
+	/**
+	 * Returns the number of open connections.
+	 */
+	public synchronized int getActiveCount() {
+		return mWorkers.size();
+	}
+
+	public synchronized boolean isIdle() {
+		return mQueue.isEmpty() && mDelayed.isEmpty() && mWorkers.isEmpty();
+	}
+
+	/**
+	 * Returns a snapshot of the statistics.
+	 */
+	public synchronized ProvisioningStats getStats() {
+		return new ProvisioningStats(mStats);
+	}
+
+	/**
+	 * Starts queued jobs while there are free connection slots. The workers are started outside of the lock, as the transport may call back synchronously.
+	 */
+	private void startJobs() {
+		while (true) {
+			final Worker worker;
+			synchronized (this) {
+				if (mWorkers.size() >= mMaxConnections)
+					return;
+				final ProvisioningJob job = pollStartableJob();
+				if (job == null)
+					return;
+				worker = new Worker(job, mJobTimeout, mReadBeforeWrite, mConfigCache);
+				mWorkers.add(worker);
+				mStats.onAttemptStarted(System.nanoTime());
+			}
+			worker.start();
+		}
+	}
+
+	/**
+	 * Removes and returns the first queued job whose device is not connected by another worker, f.e. with an earlier job for the same device. Must be called with the lock held.
+	 */
+	private ProvisioningJob pollStartableJob() {
+		for (final Iterator<ProvisioningJob> it = mQueue.iterator(); it.hasNext();) {
+			final ProvisioningJob job = it.next();
+			if (!isDeviceBusy(job.getAddress())) {
+				it.remove();
+				return job;
+			}
+		}
+		return null;
+	}
+
+	private boolean isDeviceBusy(final String address) {
+		for (final Worker worker : mWorkers)
+			if (worker.mJob.getAddress().equals(address))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Called by the worker when the attempt is over and the connection has been closed. Releases the connection slot and either retries, completes or fails the job.
+	 */
+	private void onWorkerFinished(final Worker worker, final int error) {
+		final ProvisioningJob job = worker.mJob;
+		final long now = System.nanoTime();
+		boolean finished = true;
+		long retryDelay = -1;
+		boolean idle;
+		final ProvisioningJournal journal;
+		synchronized (this) {
+			if (!mWorkers.remove(worker))
+				return;
+
+			if (error == OperationQueue.GATT_SUCCESS) {
+				job.setLastError(error);
+				job.setEndTime(now);
+				job.setState(ProvisioningJob.STATE_COMPLETED);
+				mStats.onJobCompleted(job, now);
+			} else {
+				job.setLastError(error);
+				mStats.onAttemptFailed(error);
+				if (job.getAttempts() < mMaxAttempts) {
+					final long settleTime = mSettleTimeEstimator != null ? mSettleTimeEstimator.getSettleTime(job.getAddress()) : 0;
+					retryDelay = mReconnectPolicy.getRetryDelay(getRetryStatus(error), job.getAttempts(), (now - job.getStartTime()) / 1000000L, settleTime);
+				}
+				if (retryDelay >= 0) {
+					// Retry at the end of the queue after the backoff delay, so other beacons are not blocked by this one
+					job.setState(ProvisioningJob.STATE_QUEUED);
+					mDelayed.add(job);
+					finished = false;
+				} else {
+					job.setEndTime(now);
+					job.setState(ProvisioningJob.STATE_FAILED);
+					mStats.onJobFailed(now);
+				}
+			}
+			idle = mQueue.isEmpty() && mDelayed.isEmpty() && mWorkers.isEmpty();
+			journal = mJournal;
+		}
+
+		if (journal != null) {
+			journal.onJobUpdated(job);
+			if (idle)
+				journal.flush();
+		}
+		if (retryDelay >= 0) {
+			mScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (ProvisioningEngine.this) {
+						// The job may have been cancelled in the meantime
+						if (!mDelayed.remove(job))
+							return;
+						mQueue.add(job);
+					}
+					startJobs();
+				}
+			}, retryDelay);
+		}
+
+		final Listener listener = mListener;
+		if (finished && listener != null)
+			listener.onJobFinished(job);
+		startJobs();
+		if (idle && listener != null)
+			listener.onIdle();
+	}
+
+	/**
+	 * Maps the errors of the engine to the errors known to the {@link ReconnectPolicy}.
+	 */
+	private static int getRetryStatus(final int error) {
+		switch (error) {
+		case ERROR_JOB_TIMEOUT:
+			return OperationQueue.ERROR_TIMEOUT;
+		case ERROR_CONNECTION_FAILED:
+			return ReconnectPolicy.GATT_ERROR;
+		default:
+			// Other errors, f.e. ERROR_VERIFICATION_FAILED or ERROR_UNSUPPORTED_DEVICE, will not be fixed by retrying
+			return error;
+		}
+	}
+
+	/**
+	 * Returns the error of a failed profile. The status of the first failed request is returned, so that failures of the link or the stack are retried. Requests cancelled because the
+	 * connection has been lost give {@link OperationQueue#ERROR_CANCELLED}, in which case the disconnection reason is the error. Missing characteristics fail with
+	 * {@link ConfigTransport#ERROR_UNSUPPORTED_DEVICE}, and only values read back different or out of range with {@link #ERROR_VERIFICATION_FAILED}.
+	 */
+	private static int getApplyError(final ApplyProfileResult result) {
+		if (result.isSuccessful())
+			return OperationQueue.GATT_SUCCESS;
+
+		boolean cancelled = false;
+		boolean unsupported = false;
+		for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field) {
+			switch (result.getResult(field)) {
+			case ApplyProfileResult.RESULT_WRITE_FAILED:
+			case ApplyProfileResult.RESULT_READ_FAILED:
+				final int status = result.getStatus(field);
+				if (status != OperationQueue.ERROR_CANCELLED)
+					return status;
+				cancelled = true;
+				break;
+			case ApplyProfileResult.RESULT_NOT_SUPPORTED:
+				unsupported = true;
+				break;
+			}
+		}
+		if (cancelled)
+			return OperationQueue.ERROR_CANCELLED;
+		if (unsupported)
+			return ConfigTransport.ERROR_UNSUPPORTED_DEVICE;
+		return ERROR_VERIFICATION_FAILED;
+	}
+
+	/**
+	 * The state machine of a single connection attempt.
+	 */
+	private class Worker implements ConfigClient.ConnectionListener, ProfileTransaction.Listener {
+		private final ProvisioningJob mJob;
+		private final long mTimeout;
+		private final boolean mReadBeforeWrite;
+		private final ConfigCache mCache;
+		private BeaconConfig mKnown;
+		private ConfigClient mClient;
+		private int mError = OperationQueue.GATT_SUCCESS;
+		private boolean mTimedOut;
+		private boolean mDone;
+
+		private final Runnable mTimeoutTask = new Runnable() {
+			@Override
+			public void run() {
+				synchronized (Worker.this) {
+					if (mDone)
+						return;
+					mTimedOut = true;
+				}
+				// The slot is released when the disconnection is reported. The device may not report it at all (f.e. after error 133), so the connection is closed after a while.
+				mClient.disconnect(CLOSE_TIMEOUT);
+			}
+		};
+
+		private Worker(final ProvisioningJob job, final long timeout, final boolean readBeforeWrite, final ConfigCache cache) {
+			mJob = job;
+			mTimeout = timeout;
+			mReadBeforeWrite = readBeforeWrite;
+			mCache = cache;
+		}
+
+		private void start() {
+			mJob.onAttemptStarted(System.nanoTime());
+			mJob.setState(ProvisioningJob.STATE_CONNECTING);
+			mClient = new ConfigClient(mTransportFactory.create(mJob.getAddress()), mScheduler);
+			mScheduler.schedule(mTimeoutTask, mTimeout);
+			if (!mClient.connect(this))
+				finish(ERROR_CONNECTION_FAILED);
+		}
+
+		@Override
+		public void onConnected(final ConfigClient client) {
+			mJob.setState(ProvisioningJob.STATE_CONFIGURING);
+
+			final BeaconConfig known = new BeaconConfig();
+			if (mCache != null) {
+				final ConfigCache.Entry entry = mCache.get(mJob.getAddress(), client.getFirmwareId());
+				if (entry != null && mCache.isFresh(entry))
+					known.merge(entry.getConfig());
+			}
+			mKnown = known;
+
+			if (!mReadBeforeWrite) {
+				client.applyProfile(mJob.getConfig(), known, this);
+				return;
+			}
+
+			OperationFuture last = null;
+			for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field) {
+				if (!mJob.getConfig().has(field) || known.has(field))
+					continue;
+				final OperationFuture future = client.enqueueRead(ConfigProtocol.getCharacteristicUuid(field));
+				if (future != null)
+					last = future;
+			}
+			if (last == null) {
+				client.applyProfile(mJob.getConfig(), known, this);
+				return;
+			}
+			// The values read are known to the client, the failed reads are simply written
+			last.addListener(new OperationFuture.Listener() {
+				@Override
+				public void onCompleted(final OperationFuture future) {
+					if (future.getStatus() != OperationQueue.ERROR_CANCELLED)
+						client.applyProfile(mJob.getConfig(), known, Worker.this);
+				}
+			});
+			client.getOperationQueue().flush();
+		}
+
+		@Override
+		public void onProfileApplied(final ApplyProfileResult result) {
+			mJob.setResult(result);
+			if (mCache != null && result.isSuccessful())
+				mCache.put(mJob.getAddress(), mKnown.merge(mClient.getKnownConfig()).merge(result.getActualConfig()), mClient.getFirmwareId());
+			synchronized (this) {
+				mError = getApplyError(result);
+			}
+			mJob.setState(ProvisioningJob.STATE_DISCONNECTING);
+			mClient.disconnect();
+		}
+
+		@Override
+		public void onDisconnected(final ConfigClient client, final int status) {
+			final int error;
+			synchronized (this) {
+				if (mTimedOut)
+					error = ERROR_JOB_TIMEOUT;
+				else if (mJob.getState() == ProvisioningJob.STATE_DISCONNECTING && mError != OperationQueue.ERROR_CANCELLED)
+					error = mError;
+				else
+					error = status != OperationQueue.GATT_SUCCESS ? status : ERROR_CONNECTION_FAILED;
+			}
+			finish(error);
+		}
+
+		private void finish(final int error) {
+			synchronized (this) {
+				if (mDone)
+					return;
+				mDone = true;
+			}
+			mScheduler.cancel(mTimeoutTask);
+			onWorkerFinished(this, error);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.provisioning;
+
+import no.nordicsemi.android.nrfbeacon.config.ApplyProfileResult;
+import no.nordicsemi.android.nrfbeacon.config.BeaconConfig;
+
+/**
+ * A single unit of work for the {@link ProvisioningEngine}: the configuration to be applied to the beacon with given address.
+ */
+public class ProvisioningJob {
+	public final static int STATE_QUEUED = 0;
+	public final static int STATE_CONNECTING = 1;
+	public final static int STATE_CONFIGURING = 2;
+	public final static int STATE_DISCONNECTING = 3;
+	public final static int STATE_COMPLETED = 4;
+	public final static int STATE_FAILED = 5;
+
+	private final String mAddress;
+	private final BeaconConfig mConfig;
+	private volatile int mState = STATE_QUEUED;
+	private int mAttempts;
+	private int mLastError;
+	/** The time of the first connection attempt, in nanoseconds */
+	private long mStartTime;
+	/** The time when the job has completed or finally failed, in nanoseconds */
+	private long mEndTime;
+	private ApplyProfileResult mResult;
+
+	public ProvisioningJob(final String address, final BeaconConfig config) {
+		mAddress = address;
+		mConfig = config;
+	}
+
+	public String getAddress() {
+		return mAddress;
+	}
+
+	public BeaconConfig getConfig() {
+		return mConfig;
+	}
+
+	public int getState() {
+		return mState;
+	}
+
+	/* package */void setState(final int state) {
+		mState = state;
+	}
+
+	/**
+	 * Returns the number of connection attempts made so far.
+	 */
+	public int getAttempts() {
+		return mAttempts;
+	}
+
+	/* package */void onAttemptStarted(final long now) {
+		// A job restored from the journal has attempts, but has not started in this process
+		if (mAttempts++ == 0 || mStartTime == 0)
+			mStartTime = now;
+	}
+
+	/**
+	 * Restores the progress of a job recorded in the {@link ProvisioningJournal}.
+	 */
+	/* package */void restore(final int attempts, final int lastError) {
+		mAttempts = attempts;
+		mLastError = lastError;
+	}
+
+	/* package */long getStartTime() {
+		return mStartTime;
+	}
+
+	/**
+	 * Returns the error of the last failed attempt, or {@link no.nordicsemi.android.nrfbeacon.config.OperationQueue#GATT_SUCCESS}.
+	 */
+	public int getLastError() {
+		return mLastError;
+	}
+
+	/* package */void setLastError(final int error) {
+		mLastError = error;
+	}
+
+	/* package */void setEndTime(final long now) {
+		mEndTime = now;
+	}
+
+	/**
+	 * Returns the time between the first connection attempt and the completion of the job, in milliseconds, or 0 if the job has not finished.
+	 */
+	public long getDuration() {
+		if (mEndTime == 0)
+			return 0;
+		return (mEndTime - mStartTime) / 1000000L;
+	}
+
+	/**
+	 * Returns the result of the last profile transaction, or <code>null</code> if the device has never been configured.
+	 */
+	public ApplyProfileResult getResult() {
+		return mResult;
+	}
+
+	/* package */void setResult(final ApplyProfileResult result) {
+		mResult = result;
+	}
+
+	@Override
+	public String toString() {
+		return mAddress + " state: " + mState + " attempts: " + mAttempts + " error: " + mLastError;
+	}
+}
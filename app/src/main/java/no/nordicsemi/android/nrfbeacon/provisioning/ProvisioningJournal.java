@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.provisioning;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import no.nordicsemi.android.nrfbeacon.config.BeaconConfig;
+import no.nordicsemi.android.nrfbeacon.config.OperationQueue;
+
+/**
+ * Records the state of every provisioning job, so a batch interrupted by the process being killed may be resumed with {@link #getUnfinishedJobs()}.
+ * <p>
+ * Submitted jobs are written immediately, in a single batch. Later changes are collected in memory and written in batches of {@link #setBatchSize(int)} changes, or after
+ * {@link #setFlushDelay(long)} milliseconds, whichever comes first. Several changes of the same job are written once. A change lost this way only makes the job run again, which is harmless
+ * as values already set on the beacon are not written again.
+ * </p>
+ */
+public class ProvisioningJournal {
+	public final static int DEFAULT_BATCH_SIZE = 32;
+	public final static long DEFAULT_FLUSH_DELAY = 1000;
+
+	public interface Storage {
+		/**
+		 * Saves or replaces the entries. All entries should be written in a single transaction.
+		 */
+		public void write(final List<Entry> entries);
+
+		/**
+		 * Returns all saved entries in the order they were first written.
+		 */
+		public List<Entry> load();
+
+		/**
+		 * Removes all entries.
+		 */
+		public void clear();
+	}
+
+	/**
+	 * The recorded state of a single job. Jobs are identified by the address of the beacon.
+	 */
+	public static class Entry {
+		private final String mAddress;
+		private final BeaconConfig mConfig;
+		private final int mState;
+		private final int mAttempts;
+		private final int mLastError;
+		private final long mVerifiedTime;
+
+		/**
+		 * @param address
+		 *            the beacon address
+		 * @param config
+		 *            the values to be applied
+		 * @param state
+		 *            one of the ProvisioningJob.STATE_* constants
+		 * @param attempts
+		 *            the number of connection attempts made
+		 * @param lastError
+		 *            the error of the last failed attempt
+		 * @param verifiedTime
+		 *            the time the values have been verified, in milliseconds since epoch, or 0 if the job has not completed
+		 */
+		public Entry(final String address, final BeaconConfig config, final int state, final int attempts, final int lastError, final long verifiedTime) {
+			mAddress = address;
+			mConfig = new BeaconConfig(config);
+			mState = state;
+			mAttempts = attempts;
+			mLastError = lastError;
+			mVerifiedTime = verifiedTime;
+		}
+
+		public String getAddress() {
+			return mAddress;
+		}
+
+		/**
+		 * Returns a copy of the values to be applied.
+		 */
+		public BeaconConfig getConfig() {
+			return new BeaconConfig(mConfig);
+		}
+
+		public int getState() {
+			return mState;
+		}
+
+		public int getAttempts() {
+			return mAttempts;
+		}
+
+		public int getLastError() {
+			return mLastError;
+		}
+
+		public long getVerifiedTime() {
+			return mVerifiedTime;
+		}
+
+		/**
+		 * Returns <code>true</code> if the job has completed or finally failed.
+		 */
+		public boolean isFinished() {
+			return mState == ProvisioningJob.STATE_COMPLETED || mState == ProvisioningJob.STATE_FAILED;
+		}
+	}
+
+	private final Storage mStorage;
+	private final OperationQueue.Scheduler mScheduler;
+	/** Changes not written yet, by address. */
+	private final Map<String, Entry> mPending = new LinkedHashMap<>();
+	private int mBatchSize = DEFAULT_BATCH_SIZE;
+	private long mFlushDelay = DEFAULT_FLUSH_DELAY;
+	private boolean mFlushScheduled;
+
+	private final Runnable mFlushTask = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (ProvisioningJournal.this) {
+				mFlushScheduled = false;
+			}
+			flush();
+		}
+	};
+
+	public ProvisioningJournal(final Storage storage, final OperationQueue.Scheduler scheduler) {
+		mStorage = storage;
+		mScheduler = scheduler;
+	}
+
+	/**
+	 * Sets the number of changes after which they are written without waiting for the flush delay.
+	 */
+	public synchronized void setBatchSize(final int batchSize) {
+		mBatchSize = batchSize;
+	}
+
+	/**
+	 * Sets the maximum time a change is kept in memory.
+	 * 
+	 * @param delay
+	 *            the delay in milliseconds
+	 */
+	public synchronized void setFlushDelay(final long delay) {
+		mFlushDelay = delay;
+	}
+
+	/**
+	 * Records the submitted jobs. They are written immediately, together with the pending changes.
+	 */
+	public void onJobsSubmitted(final Collection<ProvisioningJob> jobs) {
+		synchronized (this) {
+			for (final ProvisioningJob job : jobs)
+				put(job);
+		}
+		flush();
+	}
+
+	/**
+	 * Records the change of the job state. The change is written with the next batch.
+	 */
+	public void onJobUpdated(final ProvisioningJob job) {
+		final boolean full;
+		synchronized (this) {
+			put(job);
+			full = mPending.size() >= mBatchSize;
+			if (!full && !mFlushScheduled) {
+				mFlushScheduled = true;
+				mScheduler.schedule(mFlushTask, mFlushDelay);
+			}
+		}
+		if (full)
+			flush();
+	}
+
+	/**
+	 * Writes all pending changes in a single batch.
+	 */
+	public void flush() {
+		final List<Entry> entries;
+		synchronized (this) {
+			if (mPending.isEmpty())
+				return;
+			entries = new ArrayList<>(mPending.values());
+			mPending.clear();
+		}
+		// Batches are written one at a time, so an older one can not overwrite a newer one
+		synchronized (mStorage) {
+			mStorage.write(entries);
+		}
+	}
+
+	/**
+	 * Returns all recorded entries, including the changes not written yet.
+	 */
+	public List<Entry> getEntries() {
+		flush();
+		synchronized (mStorage) {
+			return mStorage.load();
+		}
+	}
+
+	/**
+	 * Returns new jobs for all recorded jobs that have not finished, in the order they were submitted. The number of attempts and the last error are restored.
+	 */
+	public List<ProvisioningJob> getUnfinishedJobs() {
+		final List<ProvisioningJob> jobs = new ArrayList<>();
+		for (final Entry entry : getEntries()) {
+			if (entry.isFinished())
+				continue;
+			final ProvisioningJob job = new ProvisioningJob(entry.getAddress(), entry.getConfig());
+			job.restore(entry.getAttempts(), entry.getLastError());
+			jobs.add(job);
+		}
+		return jobs;
+	}
+
+	/**
+	 * Removes all entries, f.e. when the batch has been completed.
+	 */
+	public void clear() {
+		synchronized (this) {
+			mPending.clear();
+		}
+		synchronized (mStorage) {
+			mStorage.clear();
+		}
+	}
+
+	private void put(final ProvisioningJob job) {
+		final int state = job.getState();
+		final long verifiedTime = state == ProvisioningJob.STATE_COMPLETED ? System.currentTimeMillis() : 0;
+		mPending.put(job.getAddress(), new Entry(job.getAddress(), job.getConfig(), state, job.getAttempts(), job.getLastError(), verifiedTime));
+	}
+}
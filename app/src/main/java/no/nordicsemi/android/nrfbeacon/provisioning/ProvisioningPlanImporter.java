@@ -0,0 +1,733 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.provisioning;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import no.nordicsemi.android.nrfbeacon.config.BeaconConfig;
+
+/**
+ * Reads a provisioning plan from a CSV file or a JSON array and turns every valid row into a {@link ProvisioningJob}. The plan is streamed, only the current row is kept in memory.
+ * <p>
+ * The CSV file must start with a header row. JSON plans are an array of flat objects, with the same names used as keys. Recognized columns are: <code>address</code> (or <code>mac</code>),
+ * <code>name</code> (a device name pattern, <code>*</code> and <code>?</code> are supported), <code>uuid</code>, <code>major</code>, <code>minor</code>, <code>rssi</code> (or
+ * <code>tx_power</code>), <code>manufacturer_id</code>, <code>interval</code> and <code>led</code>. Unknown columns are ignored. Each row must have either an address or a name pattern.
+ * Values are validated with the same range checks as the UpdateService setters.
+ * </p>
+ * <p>
+ * Invalid rows are reported to {@link Listener#onError(int, String, String)} with their row number and skipped; the rest of the plan is still imported. Rows are numbered from 1: in a CSV
+ * file the number is the line the row starts at (the header is line 1), in a JSON plan it is the position of the object in the array. A malformed file stops the import with an
+ * {@link IOException}.
+ * </p>
+ */
+public class ProvisioningPlanImporter {
+	public final static int FORMAT_CSV = 0;
+	public final static int FORMAT_JSON = 1;
+
+	public final static String COLUMN_ADDRESS = "address";
+	public final static String COLUMN_NAME = "name";
+	public final static String COLUMN_UUID = "uuid";
+	public final static String COLUMN_MAJOR = "major";
+	public final static String COLUMN_MINOR = "minor";
+	public final static String COLUMN_RSSI = "rssi";
+	public final static String COLUMN_MANUFACTURER_ID = "manufacturer_id";
+	public final static String COLUMN_INTERVAL = "interval";
+	public final static String COLUMN_LED = "led";
+
+	private final static int ADDRESS = 0;
+	private final static int NAME = 1;
+	private final static int UUID_VALUE = 2;
+	private final static int MAJOR = 3;
+	private final static int MINOR = 4;
+	private final static int RSSI = 5;
+	private final static int MANUFACTURER_ID = 6;
+	private final static int INTERVAL = 7;
+	private final static int LED = 8;
+	private final static int COLUMN_COUNT = 9;
+	private final static int UNKNOWN = -1;
+
+	private final static String[] COLUMN_NAMES = { COLUMN_ADDRESS, COLUMN_NAME, COLUMN_UUID, COLUMN_MAJOR, COLUMN_MINOR, COLUMN_RSSI, COLUMN_MANUFACTURER_ID, COLUMN_INTERVAL, COLUMN_LED };
+	/** Column names as they may appear in the header, lower case with spaces, dashes and underscores removed. */
+	private final static Map<String, Integer> mColumnAliases = new HashMap<>();
+
+	static {
+		mColumnAliases.put("address", ADDRESS);
+		mColumnAliases.put("mac", ADDRESS);
+		mColumnAliases.put("macaddress", ADDRESS);
+		mColumnAliases.put("deviceaddress", ADDRESS);
+		mColumnAliases.put("name", NAME);
+		mColumnAliases.put("namepattern", NAME);
+		mColumnAliases.put("pattern", NAME);
+		mColumnAliases.put("devicename", NAME);
+		mColumnAliases.put("uuid", UUID_VALUE);
+		mColumnAliases.put("major", MAJOR);
+		mColumnAliases.put("minor", MINOR);
+		mColumnAliases.put("rssi", RSSI);
+		mColumnAliases.put("calibratedrssi", RSSI);
+		mColumnAliases.put("txpower", RSSI);
+		mColumnAliases.put("measuredpower", RSSI);
+		mColumnAliases.put("manufacturerid", MANUFACTURER_ID);
+		mColumnAliases.put("companyid", MANUFACTURER_ID);
+		mColumnAliases.put("interval", INTERVAL);
+		mColumnAliases.put("advinterval", INTERVAL);
+		mColumnAliases.put("advertisinginterval", INTERVAL);
+		mColumnAliases.put("led", LED);
+	}
+
+	public interface Listener {
+		/**
+		 * Called for every valid row with a device address.
+		 */
+		public void onJob(final int row, final ProvisioningJob job);
+
+		/**
+		 * Called for every valid row with a device name pattern instead of an address. Such rows can't be configured until a matching device is found, see
+		 * {@link ProvisioningPlanImporter#matchesName(String, String)}.
+		 */
+		public void onPattern(final int row, final String namePattern, final BeaconConfig config);
+
+		/**
+		 * Called for every invalid value. A row may have more than one. The row is skipped.
+		 * 
+		 * @param row
+		 *            the row number
+		 * @param column
+		 *            one of the COLUMN_* names, or <code>null</code> if the error concerns the whole row
+		 * @param message
+		 *            the description of the error
+		 */
+		public void onError(final int row, final String column, final String message);
+	}
+
+	/**
+	 * Feeds the imported jobs to the {@link ProvisioningEngine} in batches. Call {@link #flush()} when the import is done.
+	 * <p>
+	 * Submitting jobs starts connections, so on Android the jobs have to be submitted on the thread the engine is driven on, not on the thread reading the plan. Give the executor of that
+	 * thread to {@link #EngineSubmitter(ProvisioningEngine, Executor, Listener)}.
+	 * </p>
+	 */
+	public static class EngineSubmitter implements Listener {
+		public final static int DEFAULT_BATCH_SIZE = 256;
+
+		private final ProvisioningEngine mEngine;
+		private final Executor mExecutor;
+		private final Listener mDelegate;
+		private final List<ProvisioningJob> mBatch = new ArrayList<>(DEFAULT_BATCH_SIZE);
+
+		/**
+		 * @param engine
+		 *            the engine the jobs are submitted to
+		 * @param delegate
+		 *            an optional listener that also gets all events
+		 */
+		public EngineSubmitter(final ProvisioningEngine engine, final Listener delegate) {
+			this(engine, null, delegate);
+		}
+
+		/**
+		 * @param engine
+		 *            the engine the jobs are submitted to
+		 * @param executor
+		 *            the executor the jobs are submitted on, or <code>null</code> to submit them on the calling thread
+		 * @param delegate
+		 *            an optional listener that also gets all events
+		 */
+		public EngineSubmitter(final ProvisioningEngine engine, final Executor executor, final Listener delegate) {
+			mEngine = engine;
+			mExecutor = executor;
+			mDelegate = delegate;
+		}
+
+		@Override
+		public void onJob(final int row, final ProvisioningJob job) {
+			if (mDelegate != null)
+				mDelegate.onJob(row, job);
+			mBatch.add(job);
+			if (mBatch.size() == DEFAULT_BATCH_SIZE)
+				flush();
+		}
+
+		@Override
+		public void onPattern(final int row, final String namePattern, final BeaconConfig config) {
+			if (mDelegate != null)
+				mDelegate.onPattern(row, namePattern, config);
+		}
+
+		@Override
+		public void onError(final int row, final String column, final String message) {
+			if (mDelegate != null)
+				mDelegate.onError(row, column, message);
+		}
+
+		/**
+		 * Submits the remaining jobs.
+		 */
+		public void flush() {
+			if (mBatch.isEmpty())
+				return;
+			// submitAll() keeps the collection, so a copy is given
+			final List<ProvisioningJob> jobs = new ArrayList<>(mBatch);
+			mBatch.clear();
+			if (mExecutor == null) {
+				mEngine.submitAll(jobs);
+				return;
+			}
+			mExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					mEngine.submitAll(jobs);
+				}
+			});
+		}
+	}
+
+	public static class Result {
+		private int mRows;
+		private int mJobs;
+		private int mPatterns;
+		private int mInvalidRows;
+		private int mErrors;
+
+		/**
+		 * Returns the number of rows read, not counting the CSV header.
+		 */
+		public int getRowCount() {
+			return mRows;
+		}
+
+		/**
+		 * Returns the number of jobs created from rows with an address.
+		 */
+		public int getJobCount() {
+			return mJobs;
+		}
+
+		/**
+		 * Returns the number of valid rows with a name pattern.
+		 */
+		public int getPatternCount() {
+			return mPatterns;
+		}
+
+		/**
+		 * Returns the number of skipped rows.
+		 */
+		public int getInvalidRowCount() {
+			return mInvalidRows;
+		}
+
+		/**
+		 * Returns the number of reported errors. A row may have more than one.
+		 */
+		public int getErrorCount() {
+			return mErrors;
+		}
+
+		@Override
+		public String toString() {
+			return "rows: " + mRows + ", jobs: " + mJobs + ", patterns: " + mPatterns + ", invalid rows: " + mInvalidRows + ", errors: " + mErrors;
+		}
+	}
+
+	private final Listener mListener;
+	/** The row number of each imported address, used to report duplicates. */
+	private final Map<String, Integer> mAddresses = new HashMap<>();
+	private final String[] mValues = new String[COLUMN_COUNT];
+	private final StringBuilder mToken = new StringBuilder();
+	private final char[] mBuffer = new char[8192];
+	private Reader mReader;
+	private int mPosition;
+	private int mLimit;
+	private int mLine;
+	private Result mResult;
+	private int mRow;
+	private boolean mRowValid;
+
+	public ProvisioningPlanImporter(final Listener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Imports the plan in the given format. The reader is not closed.
+	 * 
+	 * @param reader
+	 *            the plan, buffering is not required
+	 * @param format
+	 *            {@link #FORMAT_CSV} or {@link #FORMAT_JSON}
+	 * @return the summary of the import
+	 * @throws IOException
+	 *             if the plan could not be read or is malformed
+	 */
+	public Result importPlan(final Reader reader, final int format) throws IOException {
+		mReader = reader;
+		mPosition = mLimit = 0;
+		mLine = 1;
+		mResult = new Result();
+		mAddresses.clear();
+		try {
+			if (format == FORMAT_JSON)
+				readJson();
+			else
+				readCsv();
+			return mResult;
+		} finally {
+			mReader = null;
+		}
+	}
+
+	/**
+	 * Returns the format of the file with the given name, based on its extension. Files other than <code>.json</code> are treated as CSV.
+	 */
+	public static int getFormat(final String fileName) {
+		return fileName != null && fileName.toLowerCase(Locale.US).endsWith(".json") ? FORMAT_JSON : FORMAT_CSV;
+	}
+
+	/**
+	 * Returns <code>true</code> if the device name matches the pattern. <code>*</code> matches any sequence of characters, <code>?</code> any single character.
+	 */
+	public static boolean matchesName(final String pattern, final String name) {
+		if (name == null)
+			return false;
+		int p = 0, n = 0, star = -1, mark = 0;
+		while (n < name.length()) {
+			if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == name.charAt(n))) {
+				p++;
+				n++;
+			} else if (p < pattern.length() && pattern.charAt(p) == '*') {
+				star = p++;
+				mark = n;
+			} else if (star != -1) {
+				p = star + 1;
+				n = ++mark;
+			} else {
+				return false;
+			}
+		}
+		while (p < pattern.length() && pattern.charAt(p) == '*')
+			p++;
+		return p == pattern.length();
+	}
+
+	private void readCsv() throws IOException {
+		final List<String> fields = new ArrayList<>(COLUMN_COUNT);
+		// The header row
+		if (!readCsvRecord(fields))
+			return;
+		final int[] columns = new int[fields.size()];
+		for (int i = 0; i < columns.length; ++i)
+			columns[i] = getColumn(fields.get(i));
+		if (indexOf(columns, ADDRESS) == -1 && indexOf(columns, NAME) == -1)
+			throw new IOException("Line 1: the header has neither an address nor a name column");
+
+		int row = mLine;
+		while (readCsvRecord(fields)) {
+			// Empty lines are skipped
+			if (fields.size() > 1 || !fields.get(0).isEmpty()) {
+				Arrays.fill(mValues, null);
+				for (int i = 0; i < columns.length && i < fields.size(); ++i)
+					if (columns[i] != UNKNOWN)
+						mValues[columns[i]] = fields.get(i);
+				onRow(row);
+			}
+			row = mLine;
+		}
+	}
+
+	/**
+	 * Reads a single CSV record. Quoted fields may contain commas, line breaks and doubled quotes.
+	 * 
+	 * @return <code>false</code> if the end of the file has been reached
+	 */
+	private boolean readCsvRecord(final List<String> fields) throws IOException {
+		fields.clear();
+		int c = read();
+		if (c == -1)
+			return false;
+		final StringBuilder token = mToken;
+		token.setLength(0);
+		boolean quoted = false;
+		while (true) {
+			if (quoted) {
+				if (c == -1)
+					throw new IOException("Line " + mLine + ": unterminated quoted field");
+				if (c == '"') {
+					c = read();
+					if (c != '"') {
+						quoted = false;
+						continue;
+					}
+				}
+				token.append((char) c);
+			} else if (c == '"' && token.length() == 0) {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(token.toString().trim());
+				token.setLength(0);
+			} else if (c == '\n' || c == '\r' || c == -1) {
+				if (c == '\r' && peek() == '\n')
+					read();
+				fields.add(token.toString().trim());
+				return true;
+			} else {
+				token.append((char) c);
+			}
+			c = read();
+		}
+	}
+
+	private void readJson() throws IOException {
+		expect('[');
+		int c = skipWhitespace();
+		if (c == ']') {
+			read();
+			return;
+		}
+		int row = 0;
+		while (true) {
+			Arrays.fill(mValues, null);
+			readJsonObject(++row);
+			onRow(row);
+			c = skipWhitespace();
+			read();
+			if (c == ']')
+				break;
+			if (c != ',')
+				throw syntaxError("',' or ']'", c);
+		}
+	}
+
+	private void readJsonObject(final int row) throws IOException {
+		expect('{');
+		int c = skipWhitespace();
+		if (c == '}') {
+			read();
+			return;
+		}
+		while (true) {
+			final int column = getColumn(readJsonString());
+			expect(':');
+			final String value = readJsonValue(row);
+			if (column != UNKNOWN)
+				mValues[column] = value;
+			c = skipWhitespace();
+			read();
+			if (c == '}')
+				return;
+			if (c != ',')
+				throw syntaxError("',' or '}'", c);
+			skipWhitespace();
+		}
+	}
+
+	/**
+	 * Reads a string, number or literal and returns it as text. <code>null</code> is returned for the null literal.
+	 */
+	private String readJsonValue(final int row) throws IOException {
+		int c = skipWhitespace();
+		if (c == '"')
+			return readJsonString();
+		if (c == '{' || c == '[')
+			throw new IOException("Line " + mLine + ": row " + row + " has a nested value");
+
+		final StringBuilder token = mToken;
+		token.setLength(0);
+		while (c != -1 && c != ',' && c != '}' && c != ']' && c > ' ') {
+			token.append((char) read());
+			c = peek();
+		}
+		if (token.length() == 0)
+			throw syntaxError("a value", c);
+		final String value = token.toString();
+		return "null".equals(value) ? null : value;
+	}
+
+	private String readJsonString() throws IOException {
+		expect('"');
+		final StringBuilder token = mToken;
+		token.setLength(0);
+		while (true) {
+			int c = read();
+			if (c == -1 || c == '\n')
+				throw new IOException("Line " + mLine + ": unterminated string");
+			if (c == '"')
+				return token.toString();
+			if (c == '\\') {
+				c = read();
+				switch (c) {
+				case 'b':
+					c = '\b';
+					break;
+				case 'f':
+					c = '\f';
+					break;
+				case 'n':
+					c = '\n';
+					break;
+				case 'r':
+					c = '\r';
+					break;
+				case 't':
+					c = '\t';
+					break;
+				case 'u':
+					int code = 0;
+					for (int i = 0; i < 4; ++i) {
+						final int digit = Character.digit(read(), 16);
+						if (digit == -1)
+							throw new IOException("Line " + mLine + ": invalid escape sequence");
+						code = (code << 4) | digit;
+					}
+					c = code;
+					break;
+				case '"':
+				case '\\':
+				case '/':
+					break;
+				default:
+					throw new IOException("Line " + mLine + ": invalid escape sequence");
+				}
+			}
+			token.append((char) c);
+		}
+	}
+
+	private void expect(final char expected) throws IOException {
+		final int c = skipWhitespace();
+		if (c != expected)
+			throw syntaxError("'" + expected + "'", c);
+		read();
+	}
+
+	private int skipWhitespace() throws IOException {
+		int c = peek();
+		while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+			read();
+			c = peek();
+		}
+		return c;
+	}
+
+	private IOException syntaxError(final String expected, final int found) {
+		return new IOException("Line " + mLine + ": expected " + expected + " but found " + (found == -1 ? "end of file" : "'" + (char) found + "'"));
+	}
+
+	private int peek() throws IOException {
+		if (mPosition == mLimit && !fill())
+			return -1;
+		return mBuffer[mPosition];
+	}
+
+	private int read() throws IOException {
+		if (mPosition == mLimit && !fill())
+			return -1;
+		final char c = mBuffer[mPosition++];
+		if (c == '\n')
+			mLine++;
+		return c;
+	}
+
+	private boolean fill() throws IOException {
+		final int count = mReader.read(mBuffer, 0, mBuffer.length);
+		if (count <= 0)
+			return false;
+		mPosition = 0;
+		mLimit = count;
+		return true;
+	}
+
+	/**
+	 * Validates the values of the current row and reports the job, the pattern or the errors.
+	 */
+	private void onRow(final int row) {
+		final Result result = mResult;
+		result.mRows++;
+		mRow = row;
+		mRowValid = true;
+
+		final String address = emptyToNull(mValues[ADDRESS]);
+		final String name = emptyToNull(mValues[NAME]);
+		String normalizedAddress = null;
+		if (address == null && name == null) {
+			error(null, "either the address or the name pattern is required");
+		} else if (address != null && name != null) {
+			error(null, "both the address and the name pattern are set");
+		} else if (address != null) {
+			normalizedAddress = address.toUpperCase(Locale.US);
+			if (!isValidAddress(normalizedAddress)) {
+				error(COLUMN_ADDRESS, "invalid address: " + address);
+			} else {
+				final Integer first = mAddresses.get(normalizedAddress);
+				if (first != null)
+					error(COLUMN_ADDRESS, "duplicate address, first used in row " + first);
+			}
+		}
+
+		final BeaconConfig config = new BeaconConfig();
+		final String uuid = emptyToNull(mValues[UUID_VALUE]);
+		if (uuid != null) {
+			try {
+				// UUID.fromString() accepts values like "1-2-3-4-5", only the canonical form is allowed
+				if (uuid.length() != 36)
+					throw new IllegalArgumentException();
+				config.setUuid(UUID.fromString(uuid));
+			} catch (final IllegalArgumentException e) {
+				error(COLUMN_UUID, "invalid UUID: " + uuid);
+			}
+		}
+		final Integer major = parseInt(MAJOR);
+		final Integer minor = parseInt(MINOR);
+		if (major != null || minor != null) {
+			if (major == null || minor == null)
+				error(major == null ? COLUMN_MAJOR : COLUMN_MINOR, "major and minor must be set together");
+			else if (!BeaconConfig.isValidMajorOrMinor(major))
+				error(COLUMN_MAJOR, "major out of range (0-" + BeaconConfig.MAX_UINT16 + "): " + major);
+			else if (!BeaconConfig.isValidMajorOrMinor(minor))
+				error(COLUMN_MINOR, "minor out of range (0-" + BeaconConfig.MAX_UINT16 + "): " + minor);
+			else
+				config.setMajorAndMinor(major, minor);
+		}
+		final Integer rssi = parseInt(RSSI);
+		if (rssi != null) {
+			config.setCalibratedRssi(rssi);
+			if (!config.isValid(BeaconConfig.FIELD_RSSI))
+				error(COLUMN_RSSI, "RSSI out of range (" + BeaconConfig.MIN_RSSI + "-" + BeaconConfig.MAX_RSSI + "): " + rssi);
+		}
+		final Integer manufacturerId = parseInt(MANUFACTURER_ID);
+		if (manufacturerId != null) {
+			config.setManufacturerId(manufacturerId);
+			if (!config.isValid(BeaconConfig.FIELD_MANUFACTURER_ID))
+				error(COLUMN_MANUFACTURER_ID, "manufacturer ID out of range (0-" + BeaconConfig.MAX_UINT16 + "): " + manufacturerId);
+		}
+		final Integer interval = parseInt(INTERVAL);
+		if (interval != null) {
+			config.setAdvInterval(interval);
+			if (!BeaconConfig.isValidAdvInterval(interval))
+				error(COLUMN_INTERVAL, "interval out of range (" + BeaconConfig.MIN_ADV_INTERVAL + "-" + BeaconConfig.MAX_ADV_INTERVAL + "): " + interval);
+		}
+		final String led = emptyToNull(mValues[LED]);
+		if (led != null) {
+			final String value = led.toLowerCase(Locale.US);
+			if (value.equals("1") || value.equals("true") || value.equals("on"))
+				config.setLedStatus(true);
+			else if (value.equals("0") || value.equals("false") || value.equals("off"))
+				config.setLedStatus(false);
+			else
+				error(COLUMN_LED, "invalid LED state: " + led);
+		}
+		if (mRowValid && !hasAnyField(config))
+			error(null, "no values to be written");
+
+		if (!mRowValid) {
+			result.mInvalidRows++;
+			return;
+		}
+		if (normalizedAddress != null) {
+			mAddresses.put(normalizedAddress, row);
+			result.mJobs++;
+			mListener.onJob(row, new ProvisioningJob(normalizedAddress, config));
+		} else {
+			result.mPatterns++;
+			mListener.onPattern(row, name, config);
+		}
+	}
+
+	private Integer parseInt(final int column) {
+		final String value = emptyToNull(mValues[column]);
+		if (value == null)
+			return null;
+		try {
+			// Hexadecimal values are common for company identifiers
+			if (value.startsWith("0x") || value.startsWith("0X"))
+				return Integer.parseInt(value.substring(2), 16);
+			return Integer.parseInt(value);
+		} catch (final NumberFormatException e) {
+			error(COLUMN_NAMES[column], "not a number: " + value);
+			return null;
+		}
+	}
+
+	private void error(final String column, final String message) {
+		mRowValid = false;
+		mResult.mErrors++;
+		mListener.onError(mRow, column, message);
+	}
+
+	private static boolean hasAnyField(final BeaconConfig config) {
+		for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field)
+			if (config.has(field))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Checks the address in the same way as BluetoothAdapter.checkBluetoothAddress(String): 6 bytes in upper case hex separated with colons.
+	 */
+	private static boolean isValidAddress(final String address) {
+		if (address.length() != 17)
+			return false;
+		for (int i = 0; i < 17; ++i) {
+			final char c = address.charAt(i);
+			if (i % 3 == 2) {
+				if (c != ':')
+					return false;
+			} else if (!(c >= '0' && c <= '9') && !(c >= 'A' && c <= 'F')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int getColumn(final String name) {
+		final StringBuilder key = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); ++i) {
+			final char c = name.charAt(i);
+			// Spreadsheets often start the file with a byte order mark
+			if (c != ' ' && c != '_' && c != '-' && c != '\uFEFF')
+				key.append(Character.toLowerCase(c));
+		}
+		final Integer column = mColumnAliases.get(key.toString());
+		return column != null ? column : UNKNOWN;
+	}
+
+	private static int indexOf(final int[] array, final int value) {
+		for (int i = 0; i < array.length; ++i)
+			if (array[i] == value)
+				return i;
+		return -1;
+	}
+
+	private static String emptyToNull(final String value) {
+		if (value == null)
+			return null;
+		final String trimmed = value.trim();
+		return trimmed.isEmpty() ? null : trimmed;
+	}
+}
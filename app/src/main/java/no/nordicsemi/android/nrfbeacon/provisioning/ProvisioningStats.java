@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.provisioning;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The statistics of the {@link ProvisioningEngine}: the throughput, the distribution of per-device latency and the failure counts.
+ */
+public class ProvisioningStats {
+	private int mCompleted;
+	private int mFailed;
+	private int mAttempts;
+	private long mFirstStart;
+	private long mLastEnd;
+	private long[] mLatencies = new long[64];
+	private final Map<Integer, Integer> mErrors = new TreeMap<>();
+
+	/* package */ProvisioningStats() {
+		// empty
+	}
+
+	/* package */ProvisioningStats(final ProvisioningStats other) {
+		mCompleted = other.mCompleted;
+		mFailed = other.mFailed;
+		mAttempts = other.mAttempts;
+		mFirstStart = other.mFirstStart;
+		mLastEnd = other.mLastEnd;
+		mLatencies = Arrays.copyOf(other.mLatencies, other.mCompleted);
+		mErrors.putAll(other.mErrors);
+	}
+
+	/* package */void onAttemptStarted(final long now) {
+		if (mAttempts++ == 0)
+			mFirstStart = now;
+	}
+
+	/* package */void onAttemptFailed(final int error) {
+		final Integer count = mErrors.get(error);
+		mErrors.put(error, count == null ? 1 : count + 1);
+	}
+
+	/* package */void onJobCompleted(final ProvisioningJob job, final long now) {
+		if (mCompleted == mLatencies.length)
+			mLatencies = Arrays.copyOf(mLatencies, mCompleted * 2);
+		mLatencies[mCompleted++] = job.getDuration();
+		mLastEnd = now;
+	}
+
+	/* package */void onJobFailed(final long now) {
+		mFailed++;
+		mLastEnd = now;
+	}
+
+	/**
+	 * Returns the number of successfully configured and verified beacons.
+	 */
+	public int getCompletedCount() {
+		return mCompleted;
+	}
+
+	/**
+	 * Returns the number of jobs that have failed after all attempts.
+	 */
+	public int getFailedCount() {
+		return mFailed;
+	}
+
+	/**
+	 * Returns the total number of connection attempts, including retries.
+	 */
+	public int getAttemptCount() {
+		return mAttempts;
+	}
+
+	/**
+	 * Returns the number of failed attempts for each error code.
+	 */
+	public Map<Integer, Integer> getErrorCounts() {
+		return mErrors;
+	}
+
+	/**
+	 * Returns the number of beacons configured per minute, measured from the first connection attempt to the last finished job.
+	 */
+	public double getThroughput() {
+		final long elapsed = mLastEnd - mFirstStart;
+		if (mCompleted == 0 || elapsed <= 0)
+			return 0;
+		return mCompleted * 60000000000.0 / elapsed;
+	}
+
+	/**
+	 * Returns the given percentile of the time needed to configure a single beacon, in milliseconds.
+	 * 
+	 * @param percentile
+	 *            the percentile, 0-100
+	 */
+	public long getLatencyPercentile(final int percentile) {
+		if (mCompleted == 0)
+			return 0;
+		final long[] sorted = Arrays.copyOf(mLatencies, mCompleted);
+		Arrays.sort(sorted);
+		final int index = Math.min(mCompleted - 1, Math.max(0, (int) Math.ceil(percentile / 100.0 * mCompleted) - 1));
+		return sorted[index];
+	}
+
+	/**
+	 * Returns the average time needed to configure a single beacon, in milliseconds.
+	 */
+	public long getAverageLatency() {
+		if (mCompleted == 0)
+			return 0;
+		long sum = 0;
+		for (int i = 0; i < mCompleted; ++i)
+			sum += mLatencies[i];
+		return sum / mCompleted;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("completed: %d, failed: %d, attempts: %d, throughput: %.1f beacons/min, latency avg: %d ms, p50: %d ms, p95: %d ms, max: %d ms, errors: %s", mCompleted, mFailed,
+				mAttempts, getThroughput(), getAverageLatency(), getLatencyPercentile(50), getLatencyPercentile(95), getLatencyPercentile(100), mErrors);
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.ranging;
+
+import java.util.Arrays;
+
+/**
+ * Exponentially weighted moving average. The cheapest filter, with one float of state per beacon, but a single outlier moves the value by <code>alpha</code> of its distance.
+ */
+public class EwmaFilter extends SmoothingFilter {
+	public final static float DEFAULT_ALPHA = 0.3f;
+
+	private final float mAlpha;
+	/** The filtered value of each beacon, NaN if there are no samples yet. */
+	private float[] mValue = new float[0];
+
+	public EwmaFilter() {
+		this(DEFAULT_ALPHA);
+	}
+
+	/**
+	 * Creates the filter.
+	 * 
+	 * @param alpha
+	 *            the weight of a new sample, from 0 (exclusive) to 1
+	 */
+	public EwmaFilter(final float alpha) {
+		if (!(alpha > 0 && alpha <= 1))
+			throw new IllegalArgumentException("Alpha must be in (0, 1]");
+		mAlpha = alpha;
+	}
+
+	@Override
+	protected void ensureCapacity(final int capacity) {
+		if (capacity <= mValue.length)
+			return;
+		final int length = mValue.length;
+		mValue = Arrays.copyOf(mValue, capacity);
+		Arrays.fill(mValue, length, capacity, Float.NaN);
+	}
+
+	@Override
+	protected void reset(final int index) {
+		mValue[index] = Float.NaN;
+	}
+
+	@Override
+	protected float filter(final int index, final float sample) {
+		final float value = mValue[index];
+		return mValue[index] = Float.isNaN(value) ? sample : value + mAlpha * (sample - value);
+	}
+}
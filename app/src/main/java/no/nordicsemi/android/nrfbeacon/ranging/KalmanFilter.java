@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.ranging;
+
+import java.util.Arrays;
+
+/**
+ * One-dimensional Kalman filter assuming the value stays constant between samples, except for the process noise. It weights each sample by the current uncertainty of the estimate,
+ * so it settles quickly on a new beacon and then smooths strongly.
+ */
+public class KalmanFilter extends SmoothingFilter {
+	/** The default variance added to the estimate between two samples, in square dB. */
+	public final static float DEFAULT_PROCESS_NOISE = 0.5f;
+	/** The default variance of a sample, in square dB. The RSSI of a still beacon varies by about 3 dB. */
+	public final static float DEFAULT_MEASUREMENT_NOISE = 9.0f;
+
+	private final float mProcessNoise;
+	private final float mMeasurementNoise;
+	/** The estimate of each beacon. */
+	private float[] mEstimate = new float[0];
+	/** The variance of the estimate of each beacon, NaN if there are no samples yet. */
+	private float[] mVariance = new float[0];
+
+	public KalmanFilter() {
+		this(DEFAULT_PROCESS_NOISE, DEFAULT_MEASUREMENT_NOISE);
+	}
+
+	public KalmanFilter(final float processNoise, final float measurementNoise) {
+		if (processNoise < 0 || measurementNoise <= 0)
+			throw new IllegalArgumentException("Invalid noise");
+		mProcessNoise = processNoise;
+		mMeasurementNoise = measurementNoise;
+	}
+
+	@Override
+	protected void ensureCapacity(final int capacity) {
+		if (capacity <= mEstimate.length)
+			return;
+		final int length = mVariance.length;
+		mEstimate = Arrays.copyOf(mEstimate, capacity);
+		mVariance = Arrays.copyOf(mVariance, capacity);
+		Arrays.fill(mVariance, length, capacity, Float.NaN);
+	}
+
+	@Override
+	protected void reset(final int index) {
+		mVariance[index] = Float.NaN;
+	}
+
+	@Override
+	protected float filter(final int index, final float sample) {
+		final float variance = mVariance[index];
+		if (Float.isNaN(variance)) {
+			mEstimate[index] = sample;
+			mVariance[index] = mMeasurementNoise;
+			return sample;
+		}
+		final float predicted = variance + mProcessNoise;
+		final float gain = predicted / (predicted + mMeasurementNoise);
+		mVariance[index] = (1 - gain) * predicted;
+		return mEstimate[index] += gain * (sample - mEstimate[index]);
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.ranging;
+
+import java.util.Arrays;
+
+/**
+ * Returns the median of the last samples of each beacon. It ignores single outliers completely, but follows real changes with a delay of half the window.
+ * <p>
+ * The samples are kept in a ring buffer per beacon, all in one float array.
+ * </p>
+ */
+public class MedianFilter extends SmoothingFilter {
+	public final static int DEFAULT_WINDOW = 5;
+
+	private final int mWindow;
+	private final float[] mSorted;
+	private float[] mSamples = new float[0];
+	/** The number of samples in the ring buffer of each beacon. */
+	private int[] mCount = new int[0];
+	/** The position of the next sample in the ring buffer of each beacon. */
+	private int[] mNext = new int[0];
+
+	public MedianFilter() {
+		this(DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Creates the filter.
+	 * 
+	 * @param window
+	 *            the number of samples the median is taken from
+	 */
+	public MedianFilter(final int window) {
+		if (window < 1)
+			throw new IllegalArgumentException("Window must be at least 1");
+		mWindow = window;
+		mSorted = new float[window];
+	}
+
+	@Override
+	protected void ensureCapacity(final int capacity) {
+		if (capacity <= mCount.length)
+			return;
+		mSamples = Arrays.copyOf(mSamples, capacity * mWindow);
+		mCount = Arrays.copyOf(mCount, capacity);
+		mNext = Arrays.copyOf(mNext, capacity);
+	}
+
+	@Override
+	protected void reset(final int index) {
+		mCount[index] = 0;
+		mNext[index] = 0;
+	}
+
+	@Override
+	protected float filter(final int index, final float sample) {
+		final int window = mWindow;
+		final int offset = index * window;
+		mSamples[offset + mNext[index]] = sample;
+		mNext[index] = (mNext[index] + 1) % window;
+		final int count = mCount[index] < window ? ++mCount[index] : window;
+
+		// Insertion sort of a few samples is cheaper than anything smarter
+		final float[] sorted = mSorted;
+		for (int i = 0; i < count; ++i) {
+			final float value = mSamples[offset + i];
+			int j = i - 1;
+			while (j >= 0 && sorted[j] > value) {
+				sorted[j + 1] = sorted[j];
+				j--;
+			}
+			sorted[j + 1] = value;
+		}
+		final int middle = count / 2;
+		return (count & 1) == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.ranging;
+
+import java.util.UUID;
+
+import no.nordicsemi.android.nrfbeacon.rules.BeaconBatch;
+import no.nordicsemi.android.nrfbeacon.rules.ProximityFilter;
+import no.nordicsemi.android.nrfbeacon.rules.RuleEngine;
+
+/**
+ * The path of a ranging callback from the beacon service to the actions: the RSSI values are smoothed and turned into distances by the {@link SignalSmoother}, turned into proximity transitions by the
+ * {@link ProximityFilter} and matched against the rules by the {@link RuleEngine}. It has no Android dependencies, so the same pipeline runs in the application and in the trace
+ * replay on the JVM.
+ * <p>
+ * A ranging callback is processed by {@link #begin(long)}, {@link #add(long, long, int, int, int, float)} for each beacon and {@link #end()}. The pipeline is not thread safe.
+ * </p>
+ */
+public class RangingPipeline {
+	private final SignalSmoother mSignalSmoother;
+	private final ProximityFilter mProximityFilter;
+	private final RuleEngine mRuleEngine;
+	private final BeaconBatch mBatch = new BeaconBatch();
+	private long mTime;
+
+	public RangingPipeline(final SignalSmoother smoother, final ProximityFilter filter, final RuleEngine engine) {
+		mSignalSmoother = smoother;
+		mProximityFilter = filter;
+		mRuleEngine = engine;
+	}
+
+	public RuleEngine getRuleEngine() {
+		return mRuleEngine;
+	}
+
+	/**
+	 * Starts processing of a ranging callback.
+	 * 
+	 * @param now
+	 *            the time of the callback in milliseconds
+	 */
+	public void begin(final long now) {
+		mTime = now;
+		mBatch.clear();
+	}
+
+	/**
+	 * Adds a beacon from the ranging callback.
+	 * 
+	 * @param rssi
+	 *            the RSSI of the beacon in dBm, 0 if unknown
+	 * @param accuracy
+	 *            the distance in meters reported with the RSSI, or a negative value if unknown
+	 * @return the smoothed distance of the beacon in meters, or a negative value if unknown
+	 */
+	public float add(final UUID uuid, final int major, final int minor, final int rssi, final float accuracy) {
+		return add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), major, minor, rssi, accuracy);
+	}
+
+	/**
+	 * Adds a beacon with the UUID given as its two 64-bit halves.
+	 * 
+	 * @see #add(UUID, int, int, int, float)
+	 */
+	public float add(final long msb, final long lsb, final int major, final int minor, final int rssi, final float accuracy) {
+		final float distance = mSignalSmoother.update(msb, lsb, major, minor, rssi, accuracy, mTime);
+		mProximityFilter.add(mBatch, msb, lsb, major, minor, distance, mTime);
+		return distance;
+	}
+
+	/**
+	 * Matches the beacons added since {@link #begin(long)} against the rules and executes the actions.
+	 * 
+	 * @return the number of rules fired
+	 */
+	public int end() {
+		return mRuleEngine.process(mBatch);
+	}
+
+	/**
+	 * Fires the rules for entering the region of the beacon.
+	 * 
+	 * @return the number of rules fired
+	 */
+	public int onEnterRegion(final long msb, final long lsb, final int major, final int minor) {
+		return mRuleEngine.onEnter(msb, lsb, major, minor);
+	}
+
+	/**
+	 * Fires the rules for leaving the region of the beacon.
+	 * 
+	 * @return the number of rules fired
+	 */
+	public int onExitRegion(final long msb, final long lsb, final int major, final int minor) {
+		return mRuleEngine.onExit(msb, lsb, major, minor);
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.ranging;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import no.nordicsemi.android.nrfbeacon.rules.BeaconKeyTable;
+
+/**
+ * Smooths the RSSI reported for each beacon with a {@link SmoothingFilter}: {@link MedianFilter}, {@link EwmaFilter} or {@link KalmanFilter}, and turns the smoothed RSSI into a
+ * distance. The distance the library reports is calculated from the last RSSI and grows with its 5.5th power, so the noise of the RSSI makes it jump by meters between two ranging
+ * callbacks. Filtering the RSSI instead keeps the noise linear.
+ * <p>
+ * The distance is calculated the way the library does it: <code>(rssi / rssiAt1m)^5.5</code>. The calibrated RSSI at 1 meter is not passed to the application, so it is recovered
+ * from the first RSSI and distance reported for the beacon.
+ * </p>
+ * <p>
+ * Each beacon gets an index in a {@link BeaconKeyTable} when it's first seen. The filters keep their state in plain arrays indexed by it. The samples of a beacon not seen for the
+ * {@link #setMaxAge(long) maximum age} are forgotten, and such beacons are removed from the table, so their indexes are given to new beacons. Adding a sample does not allocate,
+ * except when the arrays grow. The smoother is not thread safe.
+ * </p>
+ */
+public class SignalSmoother {
+	/** The default time in milliseconds after which the samples of a beacon that has not been seen are forgotten. */
+	public final static long DEFAULT_MAX_AGE = 10000;
+
+	/** The exponent and offset of the distance formula used by the beacon library. */
+	private final static double EXPONENT = 5.5;
+	private final static float OFFSET = 0.0005f;
+	/** The last seen time of indexes not in use. */
+	private final static long FREE = Long.MIN_VALUE;
+
+	private final SmoothingFilter mFilter;
+	private final BeaconKeyTable mBeacons = new BeaconKeyTable();
+	// The state of the beacons, by the index in mBeacons
+	/** The time the beacon has been seen last. */
+	private long[] mLastSeen = new long[0];
+	/** The calibrated RSSI at 1 meter, NaN if not known yet. */
+	private float[] mRssiAt1m = new float[0];
+	private long mMaxAge = DEFAULT_MAX_AGE;
+	private long mLastEviction;
+
+	public SignalSmoother(final SmoothingFilter filter) {
+		mFilter = filter;
+		ensureCapacity(mBeacons.getIndexCapacity());
+	}
+
+	/**
+	 * Sets the time in milliseconds after which the samples of a beacon that has not been seen are forgotten. 0 keeps them forever.
+	 */
+	public void setMaxAge(final long maxAge) {
+		if (maxAge < 0)
+			throw new IllegalArgumentException("Maximum age must not be negative");
+		mMaxAge = maxAge;
+	}
+
+	/**
+	 * Adds a sample of the beacon and returns the smoothed distance.
+	 * 
+	 * @param uuid
+	 *            the beacon UUID
+	 * @param major
+	 *            the major number
+	 * @param minor
+	 *            the minor number
+	 * @param rssi
+	 *            the RSSI in dBm, 0 if unknown
+	 * @param accuracy
+	 *            the distance in meters reported with the RSSI, or a negative value if unknown. Unknown values are not filtered and returned as they are
+	 * @param now
+	 *            the time of the sample in milliseconds
+	 * @return the smoothed distance in meters, or a negative value if unknown
+	 */
+	public float update(final UUID uuid, final int major, final int minor, final int rssi, final float accuracy, final long now) {
+		return update(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), major, minor, rssi, accuracy, now);
+	}
+
+	/**
+	 * Adds a sample of the beacon with the UUID given as its two 64-bit halves.
+	 * 
+	 * @see #update(UUID, int, int, int, float, long)
+	 */
+	public float update(final long msb, final long lsb, final int major, final int minor, final int rssi, final float accuracy, final long now) {
+		if (mMaxAge > 0 && now - mLastEviction >= mMaxAge)
+			evict(now);
+		if (accuracy < 0 || rssi >= 0)
+			return accuracy;
+
+		final int index = getIndex(msb, lsb, BeaconKeyTable.pack(major, minor), now);
+		if (mMaxAge > 0 && now - mLastSeen[index] > mMaxAge)
+			mFilter.reset(index);
+		mLastSeen[index] = now;
+
+		float rssiAt1m = mRssiAt1m[index];
+		if (Float.isNaN(rssiAt1m)) {
+			// At 0 m the RSSI can't be calibrated
+			if (accuracy == 0)
+				return accuracy;
+			rssiAt1m = mRssiAt1m[index] = (float) (rssi / Math.pow(accuracy + OFFSET, 1 / EXPONENT));
+		}
+		final float smoothed = mFilter.filter(index, rssi);
+		return Math.max((float) Math.pow(smoothed / rssiAt1m, EXPONENT) - OFFSET, 0.0f);
+	}
+
+	/**
+	 * Forgets the samples of the beacon, f.e. when it has been out of range for a long time.
+	 */
+	public void reset(final UUID uuid, final int major, final int minor) {
+		final int index = mBeacons.find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), BeaconKeyTable.pack(major, minor));
+		if (index != BeaconKeyTable.NONE)
+			mFilter.reset(index);
+	}
+
+	/**
+	 * Removes the beacons that have not been seen for longer than the maximum age. This is done by {@link #update(long, long, int, int, int, float, long)} once per maximum age.
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return the number of beacons removed
+	 */
+	public int evict(final long now) {
+		mLastEviction = now;
+		if (mMaxAge == 0)
+			return 0;
+
+		final BeaconKeyTable beacons = mBeacons;
+		int count = 0;
+		for (int index = 0; index < mLastSeen.length; ++index) {
+			if (mLastSeen[index] == FREE || now - mLastSeen[index] <= mMaxAge)
+				continue;
+			beacons.remove(beacons.getMostSignificantBits(index), beacons.getLeastSignificantBits(index), BeaconKeyTable.pack(beacons.getMajor(index), beacons.getMinor(index)));
+			mLastSeen[index] = FREE;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of tracked beacons.
+	 */
+	public int size() {
+		return mBeacons.size();
+	}
+
+	/**
+	 * Forgets all beacons.
+	 */
+	public void clear() {
+		mBeacons.clear();
+		Arrays.fill(mLastSeen, FREE);
+	}
+
+	private int getIndex(final long msb, final long lsb, final int majorMinor, final long now) {
+		final int size = mBeacons.size();
+		final int index = mBeacons.add(msb, lsb, majorMinor);
+		if (mBeacons.size() != size) {
+			ensureCapacity(mBeacons.getIndexCapacity());
+			mFilter.reset(index);
+			mLastSeen[index] = now;
+			mRssiAt1m[index] = Float.NaN;
+		}
+		return index;
+	}
+
+	private void ensureCapacity(final int capacity) {
+		final int length = mLastSeen.length;
+		if (capacity <= length)
+			return;
+		mFilter.ensureCapacity(capacity);
+		mLastSeen = Arrays.copyOf(mLastSeen, capacity);
+		Arrays.fill(mLastSeen, length, capacity, FREE);
+		mRssiAt1m = Arrays.copyOf(mRssiAt1m, capacity);
+	}
+}
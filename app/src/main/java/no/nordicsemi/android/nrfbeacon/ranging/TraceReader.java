@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.ranging;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Reads a trace written by the {@link TraceWriter} record by record, like a cursor: {@link #moveToNext()} reads the next record and the getters return its values. The beacons are
+ * read into arrays reused for all records, so reading does not allocate once the largest record has been seen.
+ */
+public class TraceReader implements Closeable {
+	private final DataInputStream mInput;
+
+	private int mType;
+	private long mTime;
+	private boolean mHasRegionUuid;
+	private long mRegionMsb;
+	private long mRegionLsb;
+	private int mRegionMajor;
+	private int mRegionMinor;
+	private int mCount;
+	private long[] mMsb = new long[16];
+	private long[] mLsb = new long[16];
+	private int[] mMajor = new int[16];
+	private int[] mMinor = new int[16];
+	private int[] mRssi = new int[16];
+	private float[] mAccuracy = new float[16];
+	private int[] mProximity = new int[16];
+
+	public TraceReader(final File file) throws IOException {
+		this(new FileInputStream(file));
+	}
+
+	/**
+	 * Creates the reader and reads the header.
+	 * 
+	 * @throws IOException
+	 *             if the stream does not contain a trace of a supported version
+	 */
+	public TraceReader(final InputStream input) throws IOException {
+		mInput = new DataInputStream(new BufferedInputStream(input));
+		try {
+			if (mInput.readInt() != TraceWriter.MAGIC)
+				throw new IOException("Not a ranging trace");
+			final int version = mInput.readUnsignedShort();
+			if (version != TraceWriter.VERSION)
+				throw new IOException("Unsupported trace version: " + version);
+		} catch (final IOException e) {
+			mInput.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the next record.
+	 * 
+	 * @return <code>false</code> at the end of the trace
+	 * @throws IOException
+	 *             if reading failed or the record type is unknown
+	 */
+	public boolean moveToNext() throws IOException {
+		final DataInputStream input = mInput;
+		try {
+			final int type = input.read();
+			if (type == -1)
+				return false;
+			if (type != TraceWriter.RECORD_BEACONS && type != TraceWriter.RECORD_ENTER && type != TraceWriter.RECORD_EXIT)
+				throw new IOException("Unknown record type: " + type);
+			mType = type;
+			mTime = input.readLong();
+			mHasRegionUuid = input.readBoolean();
+			if (mHasRegionUuid) {
+				mRegionMsb = input.readLong();
+				mRegionLsb = input.readLong();
+			}
+			mRegionMajor = input.readInt();
+			mRegionMinor = input.readInt();
+
+			mCount = 0;
+			if (type == TraceWriter.RECORD_BEACONS) {
+				final int count = input.readUnsignedShort();
+				if (count > mMsb.length)
+					grow(count);
+				for (int i = 0; i < count; ++i) {
+					mMsb[i] = input.readLong();
+					mLsb[i] = input.readLong();
+					mMajor[i] = input.readUnsignedShort();
+					mMinor[i] = input.readUnsignedShort();
+					mRssi[i] = input.readByte();
+					mAccuracy[i] = input.readFloat();
+					mProximity[i] = input.readUnsignedByte();
+				}
+				mCount = count;
+			}
+			return true;
+		} catch (final EOFException e) {
+			// The last record has been cut off
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the record type, one of the TraceWriter.RECORD_* constants.
+	 */
+	public int getType() {
+		return mType;
+	}
+
+	public long getTime() {
+		return mTime;
+	}
+
+	/**
+	 * Returns whether the region has a UUID. Regions matching any UUID have none.
+	 */
+	public boolean hasRegionUuid() {
+		return mHasRegionUuid;
+	}
+
+	/**
+	 * Returns the region UUID, or <code>null</code> if the region matches any UUID. A new object is returned on every call.
+	 */
+	public UUID getRegionUuid() {
+		return mHasRegionUuid ? new UUID(mRegionMsb, mRegionLsb) : null;
+	}
+
+	public int getRegionMajor() {
+		return mRegionMajor;
+	}
+
+	public int getRegionMinor() {
+		return mRegionMinor;
+	}
+
+	/**
+	 * Returns the most significant bits of the region UUID. Only valid if {@link #hasRegionUuid()}.
+	 */
+	public long getRegionMostSignificantBits() {
+		return mRegionMsb;
+	}
+
+	public long getRegionLeastSignificantBits() {
+		return mRegionLsb;
+	}
+
+	/**
+	 * Returns the number of beacons in a {@link TraceWriter#RECORD_BEACONS} record, 0 for other records.
+	 */
+	public int getBeaconCount() {
+		return mCount;
+	}
+
+	public long getMostSignificantBits(final int index) {
+		return mMsb[index];
+	}
+
+	public long getLeastSignificantBits(final int index) {
+		return mLsb[index];
+	}
+
+	public int getMajor(final int index) {
+		return mMajor[index];
+	}
+
+	public int getMinor(final int index) {
+		return mMinor[index];
+	}
+
+	public int getRssi(final int index) {
+		return mRssi[index];
+	}
+
+	public float getAccuracy(final int index) {
+		return mAccuracy[index];
+	}
+
+	/**
+	 * Returns the proximity reported by the library, one of the RuleTable.PROXIMITY_* constants.
+	 */
+	public int getProximity(final int index) {
+		return mProximity[index];
+	}
+
+	@Override
+	public void close() throws IOException {
+		mInput.close();
+	}
+
+	private void grow(final int capacity) {
+		mMsb = Arrays.copyOf(mMsb, capacity);
+		mLsb = Arrays.copyOf(mLsb, capacity);
+		mMajor = Arrays.copyOf(mMajor, capacity);
+		mMinor = Arrays.copyOf(mMinor, capacity);
+		mRssi = Arrays.copyOf(mRssi, capacity);
+		mAccuracy = Arrays.copyOf(mAccuracy, capacity);
+		mProximity = Arrays.copyOf(mProximity, capacity);
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.ranging;
+
+import java.io.IOException;
+
+/**
+ * Feeds a recorded trace to a {@link Listener}, in real time or as fast as possible. The listener gets the {@link TraceReader} positioned at the record.
+ * {@link #replay(TraceReader, RangingPipeline)} drives a {@link RangingPipeline} the way the beacon list does.
+ */
+public class TraceReplayer {
+	public interface Listener {
+		public void onBeaconsInRegion(final TraceReader record);
+
+		public void onEnterRegion(final TraceReader record);
+
+		public void onExitRegion(final TraceReader record);
+	}
+
+	private final double mSpeed;
+
+	/**
+	 * Creates the replayer.
+	 * 
+	 * @param speed
+	 *            the replay speed, 1 for real time, 2 for twice as fast etc. 0 replays as fast as possible
+	 */
+	public TraceReplayer(final double speed) {
+		if (speed < 0)
+			throw new IllegalArgumentException("Speed must not be negative");
+		mSpeed = speed;
+	}
+
+	/**
+	 * Replays all records from the reader. The reader is not closed.
+	 * 
+	 * @return the number of records replayed
+	 * @throws InterruptedException
+	 *             if the thread has been interrupted while waiting for the next record
+	 */
+	public int replay(final TraceReader reader, final Listener listener) throws IOException, InterruptedException {
+		int count = 0;
+		long firstRecordTime = 0;
+		long start = 0;
+		while (reader.moveToNext()) {
+			if (mSpeed > 0) {
+				if (count == 0) {
+					firstRecordTime = reader.getTime();
+					start = System.nanoTime();
+				}
+				final long due = start + (long) ((reader.getTime() - firstRecordTime) * 1000000 / mSpeed);
+				final long wait = due - System.nanoTime();
+				if (wait > 0)
+					Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+			}
+
+			switch (reader.getType()) {
+			case TraceWriter.RECORD_BEACONS:
+				listener.onBeaconsInRegion(reader);
+				break;
+			case TraceWriter.RECORD_ENTER:
+				listener.onEnterRegion(reader);
+				break;
+			case TraceWriter.RECORD_EXIT:
+				listener.onExitRegion(reader);
+				break;
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Replays all records from the reader through the pipeline. Enter and exit records of regions with wildcards are skipped, as they can't be matched against rules.
+	 * 
+	 * @return the number of records replayed
+	 */
+	public int replay(final TraceReader reader, final RangingPipeline pipeline) throws IOException, InterruptedException {
+		return replay(reader, new Listener() {
+			@Override
+			public void onBeaconsInRegion(final TraceReader record) {
+				pipeline.begin(record.getTime());
+				for (int i = 0; i < record.getBeaconCount(); ++i)
+					pipeline.add(record.getMostSignificantBits(i), record.getLeastSignificantBits(i), record.getMajor(i), record.getMinor(i), record.getRssi(i), record.getAccuracy(i));
+				pipeline.end();
+			}
+
+			@Override
+			public void onEnterRegion(final TraceReader record) {
+				if (record.hasRegionUuid())
+					pipeline.onEnterRegion(record.getRegionMostSignificantBits(), record.getRegionLeastSignificantBits(), record.getRegionMajor(), record.getRegionMinor());
+			}
+
+			@Override
+			public void onExitRegion(final TraceReader record) {
+				if (record.hasRegionUuid())
+					pipeline.onExitRegion(record.getRegionMostSignificantBits(), record.getRegionLeastSignificantBits(), record.getRegionMajor(), record.getRegionMinor());
+			}
+		});
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.ranging;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * Appends ranging and monitoring callbacks to a binary trace file, to be read by the {@link TraceReader}.
+ * <p>
+ * The file starts with the {@link #MAGIC} number and the {@link #VERSION}, followed by records. Every record has the type byte, the time in milliseconds (long) and the region: a
+ * byte telling whether the UUID follows, the UUID as two longs and the major and minor numbers as ints, -1 meaning any. A {@link #RECORD_BEACONS} record continues with the number of
+ * beacons (unsigned short) and 26 bytes per beacon: the UUID as two longs, the major and minor numbers as unsigned shorts, the RSSI as a byte, the accuracy as a float and the
+ * proximity as a byte. All numbers are big endian. A record cut off at the end of the file, f.e. when the process was killed, is ignored by the reader.
+ * </p>
+ */
+public class TraceWriter implements Closeable {
+	public final static int MAGIC = 0x4E524654; // "NRFT"
+	public final static int VERSION = 1;
+
+	public final static int RECORD_BEACONS = 1;
+	public final static int RECORD_ENTER = 2;
+	public final static int RECORD_EXIT = 3;
+
+	private final DataOutputStream mOutput;
+	/** The number of beacons still to be written in the current {@link #RECORD_BEACONS} record. */
+	private int mRemaining;
+
+	/**
+	 * Opens the trace file for appending. The header is written if the file is empty.
+	 */
+	public TraceWriter(final File file) throws IOException {
+		this(new FileOutputStream(file, true), file.length() == 0);
+	}
+
+	/**
+	 * Creates a writer for a new trace written to the stream.
+	 */
+	public TraceWriter(final OutputStream output) throws IOException {
+		this(output, true);
+	}
+
+	private TraceWriter(final OutputStream output, final boolean writeHeader) throws IOException {
+		mOutput = new DataOutputStream(new BufferedOutputStream(output));
+		if (writeHeader) {
+			mOutput.writeInt(MAGIC);
+			mOutput.writeShort(VERSION);
+		}
+	}
+
+	/**
+	 * Starts a ranging record. Exactly <code>count</code> calls of {@link #writeBeacon(UUID, int, int, int, float, int)} must follow.
+	 * 
+	 * @param time
+	 *            the time of the callback in milliseconds
+	 * @param regionUuid
+	 *            the region UUID, <code>null</code> for any UUID
+	 * @param regionMajor
+	 *            the region major number, -1 for any
+	 * @param regionMinor
+	 *            the region minor number, -1 for any
+	 * @param count
+	 *            the number of beacons
+	 */
+	public void writeBeacons(final long time, final UUID regionUuid, final int regionMajor, final int regionMinor, final int count) throws IOException {
+		if (mRemaining > 0)
+			throw new IllegalStateException(mRemaining + " beacons missing in the previous record");
+		if ((count & ~0xFFFF) != 0)
+			throw new IllegalArgumentException("Too many beacons: " + count);
+		writeHeader(RECORD_BEACONS, time, regionUuid, regionMajor, regionMinor);
+		mOutput.writeShort(count);
+		mRemaining = count;
+	}
+
+	/**
+	 * Writes a beacon of the current ranging record.
+	 * 
+	 * @param proximity
+	 *            the proximity, one of the RuleTable.PROXIMITY_* constants
+	 */
+	public void writeBeacon(final UUID uuid, final int major, final int minor, final int rssi, final float accuracy, final int proximity) throws IOException {
+		if (mRemaining == 0)
+			throw new IllegalStateException("No beacons expected");
+		mRemaining--;
+		mOutput.writeLong(uuid.getMostSignificantBits());
+		mOutput.writeLong(uuid.getLeastSignificantBits());
+		mOutput.writeShort(major);
+		mOutput.writeShort(minor);
+		mOutput.writeByte(rssi);
+		mOutput.writeFloat(accuracy);
+		mOutput.writeByte(proximity);
+	}
+
+	/**
+	 * Writes a record of entering the region.
+	 */
+	public void writeEnter(final long time, final UUID regionUuid, final int regionMajor, final int regionMinor) throws IOException {
+		writeRegionEvent(RECORD_ENTER, time, regionUuid, regionMajor, regionMinor);
+	}
+
+	/**
+	 * Writes a record of leaving the region.
+	 */
+	public void writeExit(final long time, final UUID regionUuid, final int regionMajor, final int regionMinor) throws IOException {
+		writeRegionEvent(RECORD_EXIT, time, regionUuid, regionMajor, regionMinor);
+	}
+
+	public void flush() throws IOException {
+		mOutput.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		mOutput.close();
+	}
+
+	private void writeRegionEvent(final int type, final long time, final UUID regionUuid, final int regionMajor, final int regionMinor) throws IOException {
+		if (mRemaining > 0)
+			throw new IllegalStateException(mRemaining + " beacons missing in the previous record");
+		writeHeader(type, time, regionUuid, regionMajor, regionMinor);
+	}
+
+	private void writeHeader(final int type, final long time, final UUID regionUuid, final int regionMajor, final int regionMinor) throws IOException {
+		final DataOutputStream output = mOutput;
+		output.writeByte(type);
+		output.writeLong(time);
+		output.writeBoolean(regionUuid != null);
+		if (regionUuid != null) {
+			output.writeLong(regionUuid.getMostSignificantBits());
+			output.writeLong(regionUuid.getLeastSignificantBits());
+		}
+		output.writeInt(regionMajor);
+		output.writeInt(regionMinor);
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.rules;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A reusable batch of beacon observations from one ranging callback, stored in primitive arrays. The arrays grow when needed and are never shrunk, so filling a batch does not allocate
+ * once it has reached the size of the largest callback.
+ */
+public final class BeaconBatch {
+	private long[] mMsb;
+	private long[] mLsb;
+	private int[] mMajor;
+	private int[] mMinor;
+	private int[] mProximity;
+	private int[] mPreviousProximity;
+	private int mSize;
+
+	public BeaconBatch() {
+		this(16);
+	}
+
+	public BeaconBatch(final int capacity) {
+		mMsb = new long[capacity];
+		mLsb = new long[capacity];
+		mMajor = new int[capacity];
+		mMinor = new int[capacity];
+		mProximity = new int[capacity];
+		mPreviousProximity = new int[capacity];
+	}
+
+	public void clear() {
+		mSize = 0;
+	}
+
+	/**
+	 * Adds an observation.
+	 * 
+	 * @param uuid
+	 *            the beacon UUID
+	 * @param major
+	 *            the major number
+	 * @param minor
+	 *            the minor number
+	 * @param proximity
+	 *            the current proximity, one of the RuleTable.PROXIMITY_* constants
+	 * @param previousProximity
+	 *            the previous proximity
+	 */
+	public void add(final UUID uuid, final int major, final int minor, final int proximity, final int previousProximity) {
+		add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), major, minor, proximity, previousProximity);
+	}
+
+	public void add(final long msb, final long lsb, final int major, final int minor, final int proximity, final int previousProximity) {
+		if (mSize == mMsb.length)
+			grow();
+		final int i = mSize++;
+		mMsb[i] = msb;
+		mLsb[i] = lsb;
+		mMajor[i] = major;
+		mMinor[i] = minor;
+		mProximity[i] = proximity;
+		mPreviousProximity[i] = previousProximity;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public long getMostSignificantBits(final int index) {
+		return mMsb[index];
+	}
+
+	public long getLeastSignificantBits(final int index) {
+		return mLsb[index];
+	}
+
+	public int getMajor(final int index) {
+		return mMajor[index];
+	}
+
+	public int getMinor(final int index) {
+		return mMinor[index];
+	}
+
+	public int getProximity(final int index) {
+		return mProximity[index];
+	}
+
+	public int getPreviousProximity(final int index) {
+		return mPreviousProximity[index];
+	}
+
+	private void grow() {
+		final int capacity = Math.max(16, mMsb.length * 2);
+		mMsb = Arrays.copyOf(mMsb, capacity);
+		mLsb = Arrays.copyOf(mLsb, capacity);
+		mMajor = Arrays.copyOf(mMajor, capacity);
+		mMinor = Arrays.copyOf(mMinor, capacity);
+		mProximity = Arrays.copyOf(mProximity, capacity);
+		mPreviousProximity = Arrays.copyOf(mPreviousProximity, capacity);
+	}
+}
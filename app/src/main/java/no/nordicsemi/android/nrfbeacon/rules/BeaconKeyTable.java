@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.rules;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash table that gives each beacon key a small index. The key is the UUID, stored as its two 64-bit halves, and the major and minor numbers packed into an int,
+ * see {@link #pack(int, int)}. A lookup does not allocate.
+ * <p>
+ * The index of a key does not change while the key is in the table, so the owner keeps the values in its own arrays indexed by it. Indexes of removed keys are given to keys added
+ * later. The value arrays must be at least {@link #getIndexCapacity()} long, which only grows in {@link #add(long, long, int)}. The table is not thread safe.
+ * </p>
+ */
+public final class BeaconKeyTable {
+	/** Returned by {@link #find(long, long, int)} and {@link #remove(long, long, int)} if the key is not in the table. */
+	public final static int NONE = -1;
+
+	private final static int MIN_CAPACITY = 16;
+
+	/** The key indexes, or NONE if the slot is empty. The length is a power of two. */
+	private int[] mSlots;
+	// Keys, by index
+	private long[] mMsb;
+	private long[] mLsb;
+	private int[] mMajorMinor;
+	/** Indexes of removed keys, used as a stack. */
+	private int[] mFreeIndexes;
+	private int mFreeCount;
+	/** The number of indexes ever given out. */
+	private int mIndexCount;
+	private int mSize;
+
+	public BeaconKeyTable() {
+		this(0);
+	}
+
+	/**
+	 * Creates a table that holds the given number of keys without growing.
+	 */
+	public BeaconKeyTable(final int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	/**
+	 * Packs the major and minor numbers into the int used in the key.
+	 */
+	public static int pack(final int major, final int minor) {
+		return major << 16 | (minor & 0xFFFF);
+	}
+
+	/**
+	 * Returns the number of keys.
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * Returns the length the value arrays of the owner must have. All indexes are smaller.
+	 */
+	public int getIndexCapacity() {
+		return mMsb.length;
+	}
+
+	/**
+	 * Returns the index of the key.
+	 * 
+	 * @return the index or {@link #NONE}
+	 */
+	public int find(final long msb, final long lsb, final int majorMinor) {
+		return mSlots[findSlot(msb, lsb, majorMinor)];
+	}
+
+	/**
+	 * Returns the index of the key, adding the key if it is not in the table. Check {@link #getIndexCapacity()} afterwards, as the table may have grown.
+	 * 
+	 * @return the index of the new or existing key
+	 */
+	public int add(final long msb, final long lsb, final int majorMinor) {
+		int slot = findSlot(msb, lsb, majorMinor);
+		if (mSlots[slot] != NONE)
+			return mSlots[slot];
+
+		if ((mSize + 1) * 2 > mSlots.length) {
+			resize(mSlots.length * 2);
+			slot = findSlot(msb, lsb, majorMinor);
+		}
+		final int index = mFreeCount > 0 ? mFreeIndexes[--mFreeCount] : mIndexCount++;
+		mMsb[index] = msb;
+		mLsb[index] = lsb;
+		mMajorMinor[index] = majorMinor;
+		mSlots[slot] = index;
+		mSize++;
+		return index;
+	}
+
+	/**
+	 * Removes the key. Its index is given to a key added later, so the owner should clear its values.
+	 * 
+	 * @return the index the key had, or {@link #NONE} if it was not in the table
+	 */
+	public int remove(final long msb, final long lsb, final int majorMinor) {
+		int slot = findSlot(msb, lsb, majorMinor);
+		final int index = mSlots[slot];
+		if (index == NONE)
+			return NONE;
+
+		// Backward shift deletion keeps the probe sequences of the remaining keys intact
+		final int mask = mSlots.length - 1;
+		mSlots[slot] = NONE;
+		int next = (slot + 1) & mask;
+		while (mSlots[next] != NONE) {
+			final int other = mSlots[next];
+			final int home = hash(mMsb[other], mLsb[other], mMajorMinor[other]) & mask;
+			// Move the entry back if the free slot lies between its home slot and its current slot
+			if (((next - home) & mask) >= ((next - slot) & mask)) {
+				mSlots[slot] = other;
+				mSlots[next] = NONE;
+				slot = next;
+			}
+			next = (next + 1) & mask;
+		}
+		mFreeIndexes[mFreeCount++] = index;
+		mSize--;
+		return index;
+	}
+
+	/**
+	 * Removes all keys. The index capacity is kept.
+	 */
+	public void clear() {
+		Arrays.fill(mSlots, NONE);
+		mFreeCount = 0;
+		mIndexCount = 0;
+		mSize = 0;
+	}
+
+	public long getMostSignificantBits(final int index) {
+		return mMsb[index];
+	}
+
+	public long getLeastSignificantBits(final int index) {
+		return mLsb[index];
+	}
+
+	public int getMajor(final int index) {
+		return mMajorMinor[index] >>> 16;
+	}
+
+	public int getMinor(final int index) {
+		return mMajorMinor[index] & 0xFFFF;
+	}
+
+	/**
+	 * Returns the slot holding the given key, or the empty slot where it should be inserted.
+	 */
+	private int findSlot(final long msb, final long lsb, final int majorMinor) {
+		final int[] slots = mSlots;
+		final int mask = slots.length - 1;
+		int slot = hash(msb, lsb, majorMinor) & mask;
+		int index;
+		while ((index = slots[slot]) != NONE && (mMajorMinor[index] != majorMinor || mMsb[index] != msb || mLsb[index] != lsb))
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private void allocate(final int capacity) {
+		mSlots = new int[capacity];
+		Arrays.fill(mSlots, NONE);
+		// At most half of the slots are used
+		mMsb = new long[capacity / 2];
+		mLsb = new long[capacity / 2];
+		mMajorMinor = new int[capacity / 2];
+		mFreeIndexes = new int[capacity / 2];
+	}
+
+	private void resize(final int capacity) {
+		final int[] slots = mSlots;
+		mSlots = new int[capacity];
+		Arrays.fill(mSlots, NONE);
+		mMsb = Arrays.copyOf(mMsb, capacity / 2);
+		mLsb = Arrays.copyOf(mLsb, capacity / 2);
+		mMajorMinor = Arrays.copyOf(mMajorMinor, capacity / 2);
+		mFreeIndexes = Arrays.copyOf(mFreeIndexes, capacity / 2);
+		for (final int index : slots)
+			if (index != NONE)
+				mSlots[findSlot(mMsb[index], mLsb[index], mMajorMinor[index])] = index;
+	}
+
+	private static int hash(final long msb, final long lsb, final int majorMinor) {
+		long h = msb * 0x9E3779B97F4A7C15L ^ lsb * 0xC2B2AE3D27D4EB4FL ^ majorMinor;
+		h ^= h >>> 32;
+		h *= 0x9E3779B97F4A7C15L;
+		return (int) (h ^ h >>> 29);
+	}
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.rules;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Turns the accuracy reported for beacons into proximity transitions that are stable enough to trigger actions. A single reading crossing a zone border is not a transition: the
+ * borders have hysteresis, a new zone must be kept for the {@link #setMinDwellTime(long) minimum dwell time}, and a transition into a zone is reported again only after the
+ * {@link #setCooldown(long) cooldown}. Transitions move one zone at a time, so approaching a beacon quickly from far away still causes the near and the immediate transitions.
+ * <p>
+ * The state of each beacon is kept in primitive arrays indexed by a {@link BeaconKeyTable}, so thousands of beacons may be tracked. Time is passed in by the caller, which makes the
+ * filter easy to drive from recorded traces. The filter is not thread safe.
+ * </p>
+ */
+public class ProximityFilter {
+	/** The default distance in meters below which a beacon becomes immediate. The same as the border used by the beacon library. */
+	public final static float DEFAULT_IMMEDIATE_ENTER = 0.26f;
+	/** The default distance in meters above which an immediate beacon becomes near. */
+	public final static float DEFAULT_IMMEDIATE_EXIT = 0.4f;
+	/** The default distance in meters below which a far beacon becomes near. The same as the border used by the beacon library. */
+	public final static float DEFAULT_NEAR_ENTER = 2.0f;
+	/** The default distance in meters above which a near beacon becomes far. */
+	public final static float DEFAULT_NEAR_EXIT = 2.6f;
+	/** The default time in milliseconds a beacon must stay in a new zone before the transition is made. Ranging results come every second. */
+	public final static long DEFAULT_MIN_DWELL_TIME = 1000;
+	/** The default time in milliseconds before a transition into the same zone of the same beacon is reported again. */
+	public final static long DEFAULT_COOLDOWN = 30000;
+
+	private final static int ZONES = 4;
+	private final static long NEVER = Long.MIN_VALUE;
+
+	private float mImmediateEnter = DEFAULT_IMMEDIATE_ENTER;
+	private float mImmediateExit = DEFAULT_IMMEDIATE_EXIT;
+	private float mNearEnter = DEFAULT_NEAR_ENTER;
+	private float mNearExit = DEFAULT_NEAR_EXIT;
+	private long mMinDwellTime = DEFAULT_MIN_DWELL_TIME;
+	private long mCooldown = DEFAULT_COOLDOWN;
+
+	private final BeaconKeyTable mBeacons = new BeaconKeyTable();
+	// The state of the beacons, by the index in mBeacons
+	/** The proximity last reported for the beacon. */
+	private int[] mStable;
+	/** The zone the beacon is seen in, if different from the stable one. */
+	private int[] mCandidate;
+	/** The time the beacon has been first seen in the candidate zone. */
+	private long[] mCandidateSince;
+	/** The time of the last reported transition into each zone, at index * ZONES + zone. */
+	private long[] mLastTransition;
+
+	public ProximityFilter() {
+		allocate(mBeacons.getIndexCapacity());
+	}
+
+	/**
+	 * Sets the distances in meters at which a beacon becomes immediate and stops being immediate. The exit distance must not be smaller than the enter distance.
+	 */
+	public void setImmediateThresholds(final float enter, final float exit) {
+		if (exit < enter)
+			throw new IllegalArgumentException("Exit threshold smaller than the enter threshold");
+		mImmediateEnter = enter;
+		mImmediateExit = exit;
+	}
+
+	/**
+	 * Sets the distances in meters at which a far beacon becomes near and a near beacon becomes far. The exit distance must not be smaller than the enter distance.
+	 */
+	public void setNearThresholds(final float enter, final float exit) {
+		if (exit < enter)
+			throw new IllegalArgumentException("Exit threshold smaller than the enter threshold");
+		mNearEnter = enter;
+		mNearExit = exit;
+	}
+
+	/**
+	 * Sets the time in milliseconds a beacon must be seen in a new zone before the transition is made. 0 makes every reading count.
+	 */
+	public void setMinDwellTime(final long time) {
+		mMinDwellTime = time;
+	}
+
+	/**
+	 * Sets the time in milliseconds before a transition of a beacon into the same zone is reported again. The beacon still changes its zone during the cooldown, but the transition is
+	 * not reported.
+	 */
+	public void setCooldown(final long cooldown) {
+		mCooldown = cooldown;
+	}
+
+	/**
+	 * Returns the number of tracked beacons.
+	 */
+	public int size() {
+		return mBeacons.size();
+	}
+
+	/**
+	 * Forgets all beacons.
+	 */
+	public void clear() {
+		mBeacons.clear();
+	}
+
+	/**
+	 * Updates the state of the beacon with a new reading and adds the result to the batch. If a transition is reported the observation has the previous and the new proximity,
+	 * otherwise both are the current proximity.
+	 * 
+	 * @param batch
+	 *            the batch to add the observation to
+	 * @param uuid
+	 *            the beacon UUID
+	 * @param major
+	 *            the major number
+	 * @param minor
+	 *            the minor number
+	 * @param accuracy
+	 *            the distance to the beacon in meters, or a negative value if unknown
+	 * @param now
+	 *            the time of the reading in milliseconds
+	 */
+	public void add(final BeaconBatch batch, final UUID uuid, final int major, final int minor, final float accuracy, final long now) {
+		add(batch, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), major, minor, accuracy, now);
+	}
+
+	/**
+	 * Updates the state of the beacon with the UUID given as its two 64-bit halves.
+	 * 
+	 * @see #add(BeaconBatch, UUID, int, int, float, long)
+	 */
+	public void add(final BeaconBatch batch, final long msb, final long lsb, final int major, final int minor, final float accuracy, final long now) {
+		final int index = track(msb, lsb, BeaconKeyTable.pack(major, minor));
+		final int previous = update(index, accuracy, now);
+		batch.add(msb, lsb, major, minor, mStable[index], previous);
+	}
+
+	/**
+	 * Returns the proximity last reported for the beacon, one of the RuleTable.PROXIMITY_* constants.
+	 */
+	public int getProximity(final UUID uuid, final int major, final int minor) {
+		final int index = mBeacons.find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), BeaconKeyTable.pack(major, minor));
+		return index == BeaconKeyTable.NONE ? RuleTable.PROXIMITY_UNKNOWN : mStable[index];
+	}
+
+	/**
+	 * Returns the index of the beacon. A new beacon is added in the unknown zone.
+	 */
+	private int track(final long msb, final long lsb, final int majorMinor) {
+		final int size = mBeacons.size();
+		final int index = mBeacons.add(msb, lsb, majorMinor);
+		if (mBeacons.size() != size) {
+			if (mBeacons.getIndexCapacity() > mStable.length)
+				grow(mBeacons.getIndexCapacity());
+			mStable[index] = RuleTable.PROXIMITY_UNKNOWN;
+			mCandidate[index] = RuleTable.PROXIMITY_UNKNOWN;
+			Arrays.fill(mLastTransition, index * ZONES, index * ZONES + ZONES, NEVER);
+		}
+		return index;
+	}
+
+	/**
+	 * Updates the state of the beacon with the given index.
+	 * 
+	 * @return the previous proximity to be reported, equal to the current one if there was no transition
+	 */
+	private int update(final int index, final float accuracy, final long now) {
+		final int stable = mStable[index];
+
+		// An unknown distance neither confirms nor denies the candidate zone
+		if (accuracy < 0)
+			return stable;
+
+		final int zone = getZone(accuracy, stable);
+		if (stable == RuleTable.PROXIMITY_UNKNOWN) {
+			// The first reading sets the zone without a transition
+			mStable[index] = zone;
+			mCandidate[index] = RuleTable.PROXIMITY_UNKNOWN;
+			return zone;
+		}
+		if (zone == stable) {
+			mCandidate[index] = RuleTable.PROXIMITY_UNKNOWN;
+			return stable;
+		}
+		if (zone != mCandidate[index]) {
+			mCandidate[index] = zone;
+			mCandidateSince[index] = now;
+		}
+		if (now - mCandidateSince[index] < mMinDwellTime)
+			return stable;
+
+		// Move one zone towards the candidate. If the candidate is further away, it must be kept for another dwell time.
+		final int next = zone > stable ? stable + 1 : stable - 1;
+		mStable[index] = next;
+		if (next == zone)
+			mCandidate[index] = RuleTable.PROXIMITY_UNKNOWN;
+		else
+			mCandidateSince[index] = now;
+
+		final int transition = index * ZONES + next;
+		if (mLastTransition[transition] != NEVER && now - mLastTransition[transition] < mCooldown) {
+			// In cooldown, the zone changes without a transition
+			return next;
+		}
+		mLastTransition[transition] = now;
+		return stable;
+	}
+
+	/**
+	 * Returns the zone for the given distance. The borders of the current zone are moved outwards by the hysteresis.
+	 */
+	private int getZone(final float accuracy, final int stable) {
+		if (accuracy <= (stable == RuleTable.PROXIMITY_IMMEDIATE ? mImmediateExit : mImmediateEnter))
+			return RuleTable.PROXIMITY_IMMEDIATE;
+		if (accuracy <= (stable == RuleTable.PROXIMITY_IMMEDIATE || stable == RuleTable.PROXIMITY_NEAR ? mNearExit : mNearEnter))
+			return RuleTable.PROXIMITY_NEAR;
+		return RuleTable.PROXIMITY_FAR;
+	}
+
+	private void allocate(final int capacity) {
+		mStable = new int[capacity];
+		mCandidate = new int[capacity];
+		mCandidateSince = new long[capacity];
+		mLastTransition = new long[capacity * ZONES];
+	}
+
+	private void grow(final int capacity) {
+		mStable = Arrays.copyOf(mStable, capacity);
+		mCandidate = Arrays.copyOf(mCandidate, capacity);
+		mCandidateSince = Arrays.copyOf(mCandidateSince, capacity);
+		mLastTransition = Arrays.copyOf(mLastTransition, capacity * ZONES);
+	}
+}
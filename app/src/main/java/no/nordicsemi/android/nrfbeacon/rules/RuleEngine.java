@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.rules;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Matches beacon observations against a {@link RuleTable} and dispatches the actions of the rules that fire to the {@link ActionHandler}s registered for them. Matching does not
+ * allocate.
+ * <p>
+ * A rule fires at most once per batch, even if several observations in the batch match it. The engine is not thread safe, it should be used on the thread receiving the ranging
+ * callbacks. The rule table may be replaced at any time with {@link #setRuleTable(RuleTable)}.
+ * </p>
+ */
+public class RuleEngine {
+	public interface ActionHandler {
+		/**
+		 * Called when a rule fires.
+		 * 
+		 * @param table
+		 *            the rule table
+		 * @param rule
+		 *            the index of the rule in the table, use it to obtain the region ID, name and the action parameter
+		 */
+		public void onRuleFired(final RuleTable table, final int rule);
+	}
+
+	private final static RuleTable EMPTY = new RuleTable.Builder().build();
+
+	private RuleTable mTable = EMPTY;
+	private ActionHandler[] mHandlers = new ActionHandler[8];
+	private ActionHandler mDefaultHandler;
+	/** The batch number in which each rule fired last. */
+	private int[] mFired = new int[0];
+	private int mBatch;
+
+	/**
+	 * Sets the rules to be matched.
+	 */
+	public void setRuleTable(final RuleTable table) {
+		mTable = table != null ? table : EMPTY;
+		mFired = new int[mTable.size()];
+	}
+
+	public RuleTable getRuleTable() {
+		return mTable;
+	}
+
+	/**
+	 * Registers the handler for the given action. It replaces the previous handler of the action.
+	 * 
+	 * @param action
+	 *            the action, a non-negative number
+	 * @param handler
+	 *            the handler, or <code>null</code> to remove it
+	 */
+	public void setActionHandler(final int action, final ActionHandler handler) {
+		if (action < 0)
+			throw new IllegalArgumentException("Action must not be negative");
+		if (action >= mHandlers.length)
+			mHandlers = Arrays.copyOf(mHandlers, Math.max(action + 1, mHandlers.length * 2));
+		mHandlers[action] = handler;
+	}
+
+	/**
+	 * Sets the handler for actions without their own handler.
+	 */
+	public void setDefaultActionHandler(final ActionHandler handler) {
+		mDefaultHandler = handler;
+	}
+
+	/**
+	 * Matches the proximity changes in the batch against the rules and fires the matching ones.
+	 * 
+	 * @return the number of rules fired
+	 */
+	public int process(final BeaconBatch batch) {
+		final RuleTable table = mTable;
+		final int[] fired = mFired;
+		final int stamp = nextBatch();
+		int count = 0;
+		for (int i = 0; i < batch.size(); ++i) {
+			final int first = table.find(batch.getMostSignificantBits(i), batch.getLeastSignificantBits(i), batch.getMajor(i), batch.getMinor(i));
+			if (first == RuleTable.NONE)
+				continue;
+
+			final int proximity = batch.getProximity(i);
+			final int previousProximity = batch.getPreviousProximity(i);
+			final int end = table.getGroupEnd(first);
+			for (int rule = first; rule < end; ++rule) {
+				if (fired[rule] != stamp && table.matchesTransition(rule, previousProximity, proximity)) {
+					fired[rule] = stamp;
+					dispatch(table, rule);
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Fires the {@link RuleTable#EVENT_IN_RANGE} rules of the beacon.
+	 * 
+	 * @return the number of rules fired
+	 */
+	public int onEnter(final UUID uuid, final int major, final int minor) {
+		return onEnter(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), major, minor);
+	}
+
+	public int onEnter(final long msb, final long lsb, final int major, final int minor) {
+		return fireRangeEvent(msb, lsb, major, minor, RuleTable.EVENT_IN_RANGE);
+	}
+
+	/**
+	 * Fires the {@link RuleTable#EVENT_OUT_OF_RANGE} rules of the beacon.
+	 * 
+	 * @return the number of rules fired
+	 */
+	public int onExit(final UUID uuid, final int major, final int minor) {
+		return onExit(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), major, minor);
+	}
+
+	public int onExit(final long msb, final long lsb, final int major, final int minor) {
+		return fireRangeEvent(msb, lsb, major, minor, RuleTable.EVENT_OUT_OF_RANGE);
+	}
+
+	private int fireRangeEvent(final long msb, final long lsb, final int major, final int minor, final int event) {
+		final RuleTable table = mTable;
+		final int first = table.find(msb, lsb, major, minor);
+		if (first == RuleTable.NONE)
+			return 0;
+
+		int count = 0;
+		final int end = table.getGroupEnd(first);
+		for (int rule = first; rule < end; ++rule) {
+			if (table.getEvent(rule) == event) {
+				dispatch(table, rule);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private void dispatch(final RuleTable table, final int rule) {
+		final int action = table.getAction(rule);
+		ActionHandler handler = action >= 0 && action < mHandlers.length ? mHandlers[action] : null;
+		if (handler == null)
+			handler = mDefaultHandler;
+		if (handler != null)
+			handler.onRuleFired(table, rule);
+	}
+
+	private int nextBatch() {
+		if (++mBatch == 0) {
+			// The counter has wrapped, forget the old batch numbers
+			Arrays.fill(mFired, 0);
+			mBatch = 1;
+		}
+		return mBatch;
+	}
+}
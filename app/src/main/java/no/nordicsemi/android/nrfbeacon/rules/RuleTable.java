@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.rules;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * An immutable table of rules compiled from the saved regions. A rule fires an action when a beacon with the given UUID, major and minor numbers causes the rule's event. A region
+ * may have any number of rules.
+ * <p>
+ * The rules are stored in parallel arrays, grouped by the beacon, and the beacons in a {@link BeaconKeyTable}. Transition events are compiled to the pair of
+ * proximity values that trigger them, so matching a beacon is an array lookup and two int comparisons per rule. Nothing here depends on Android.
+ * </p>
+ * Build a new table with {@link Builder} whenever the regions change.
+ */
+public final class RuleTable {
+	/** The beacon has been lost. The value is the same as BeaconContract.EVENT_OUT_OF_RANGE. */
+	public final static int EVENT_OUT_OF_RANGE = 0;
+	/** The beacon has been found. The value is the same as BeaconContract.EVENT_IN_RANGE. */
+	public final static int EVENT_IN_RANGE = 1;
+	/** The beacon has changed its proximity from far to near. The value is the same as BeaconContract.EVENT_GET_NEAR. */
+	public final static int EVENT_GET_NEAR = 2;
+	/** The beacon has changed its proximity from near to immediate. The value is the same as BeaconContract.EVENT_ON_TOUCH. */
+	public final static int EVENT_ON_TOUCH = 3;
+
+	/** The proximity values are the ordinals of the Proximity enum from the beacon library. */
+	public final static int PROXIMITY_UNKNOWN = 0;
+	public final static int PROXIMITY_IMMEDIATE = 1;
+	public final static int PROXIMITY_NEAR = 2;
+	public final static int PROXIMITY_FAR = 3;
+
+	/** Returned by {@link #find(long, long, int, int)} if there are no rules for the beacon. */
+	public final static int NONE = -1;
+
+	/** A proximity that never matches, used for the rules of range events. */
+	private final static int NO_PROXIMITY = -1;
+
+	private final BeaconKeyTable mBeacons;
+	/** The first rule of each beacon, by the index in {@link #mBeacons}. */
+	private final int[] mFirstRule;
+
+	// Rules, grouped by beacon
+	private final long[] mRegionId;
+	private final String[] mName;
+	private final int[] mEvent;
+	private final int[] mFromProximity;
+	private final int[] mToProximity;
+	private final int[] mAction;
+	private final String[] mActionParam;
+	/** The index after the last rule of the same beacon. */
+	private final int[] mGroupEnd;
+
+	private RuleTable(final List<Builder.Rule> rules) {
+		final int count = rules.size();
+		mRegionId = new long[count];
+		mName = new String[count];
+		mEvent = new int[count];
+		mFromProximity = new int[count];
+		mToProximity = new int[count];
+		mAction = new int[count];
+		mActionParam = new String[count];
+		mGroupEnd = new int[count];
+
+		mBeacons = new BeaconKeyTable(count);
+		mFirstRule = new int[mBeacons.getIndexCapacity()];
+
+		// The builder has sorted the rules by beacon, so rules of a beacon are adjacent
+		int groupStart = 0;
+		for (int i = 0; i < count; ++i) {
+			final Builder.Rule rule = rules.get(i);
+			mRegionId[i] = rule.mRegionId;
+			mName[i] = rule.mName;
+			mEvent[i] = rule.mEvent;
+			mAction[i] = rule.mAction;
+			mActionParam[i] = rule.mActionParam;
+			switch (rule.mEvent) {
+			case EVENT_GET_NEAR:
+				mFromProximity[i] = PROXIMITY_FAR;
+				mToProximity[i] = PROXIMITY_NEAR;
+				break;
+			case EVENT_ON_TOUCH:
+				mFromProximity[i] = PROXIMITY_NEAR;
+				mToProximity[i] = PROXIMITY_IMMEDIATE;
+				break;
+			default:
+				mFromProximity[i] = mToProximity[i] = NO_PROXIMITY;
+				break;
+			}
+
+			if (i > 0 && !rule.sameBeacon(rules.get(i - 1))) {
+				endGroup(groupStart, i);
+				groupStart = i;
+			}
+			if (i == groupStart)
+				mFirstRule[mBeacons.add(rule.mMsb, rule.mLsb, rule.mMajorMinor)] = i;
+		}
+		endGroup(groupStart, count);
+	}
+
+	private void endGroup(final int start, final int end) {
+		for (int i = start; i < end; ++i)
+			mGroupEnd[i] = end;
+	}
+
+	/**
+	 * Returns the number of rules.
+	 */
+	public int size() {
+		return mRegionId.length;
+	}
+
+	/**
+	 * Returns the index of the first rule of the given beacon. The rules of the beacon are those from this index to {@link #getGroupEnd(int)}.
+	 * 
+	 * @return the rule index or {@link #NONE}
+	 */
+	public int find(final long msb, final long lsb, final int major, final int minor) {
+		// Wildcards (BeaconRegion.ANY) never match a rule
+		if (mRegionId.length == 0 || ((major | minor) & ~0xFFFF) != 0)
+			return NONE;
+		final int index = mBeacons.find(msb, lsb, BeaconKeyTable.pack(major, minor));
+		return index != BeaconKeyTable.NONE ? mFirstRule[index] : NONE;
+	}
+
+	/**
+	 * Returns the index of the first rule of the given beacon, or {@link #NONE}.
+	 */
+	public int find(final UUID uuid, final int major, final int minor) {
+		return find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), major, minor);
+	}
+
+	/**
+	 * Returns the index after the last rule with the same beacon as the given rule.
+	 */
+	public int getGroupEnd(final int rule) {
+		return mGroupEnd[rule];
+	}
+
+	/**
+	 * Returns whether the rule fires when a beacon changes its proximity from <code>previousProximity</code> to <code>proximity</code>.
+	 */
+	public boolean matchesTransition(final int rule, final int previousProximity, final int proximity) {
+		return mToProximity[rule] == proximity && mFromProximity[rule] == previousProximity;
+	}
+
+	public long getRegionId(final int rule) {
+		return mRegionId[rule];
+	}
+
+	public String getName(final int rule) {
+		return mName[rule];
+	}
+
+	/**
+	 * Returns one of the EVENT_* constants.
+	 */
+	public int getEvent(final int rule) {
+		return mEvent[rule];
+	}
+
+	/**
+	 * Returns the action, f.e. one of the BeaconContract.ACTION_* constants. The table does not interpret the value.
+	 */
+	public int getAction(final int rule) {
+		return mAction[rule];
+	}
+
+	public String getActionParam(final int rule) {
+		return mActionParam[rule];
+	}
+
+	/**
+	 * Collects rules and compiles them into a {@link RuleTable}. A builder may be used once.
+	 */
+	public static class Builder {
+		private final List<Rule> mRules = new ArrayList<>();
+
+		/**
+		 * Adds a rule.
+		 * 
+		 * @param regionId
+		 *            the ID of the region the rule belongs to
+		 * @param name
+		 *            the region name
+		 * @param uuid
+		 *            the beacon UUID
+		 * @param major
+		 *            the beacon major number, 0-65535
+		 * @param minor
+		 *            the beacon minor number, 0-65535
+		 * @param event
+		 *            one of the EVENT_* constants
+		 * @param action
+		 *            the action to be executed
+		 * @param actionParam
+		 *            the action parameter, may be <code>null</code>
+		 * @return the builder
+		 */
+		public Builder addRule(final long regionId, final String name, final UUID uuid, final int major, final int minor, final int event, final int action, final String actionParam) {
+			if (uuid == null || (major & ~0xFFFF) != 0 || (minor & ~0xFFFF) != 0)
+				throw new IllegalArgumentException("The UUID, major and minor numbers must be specified");
+			if (event < EVENT_OUT_OF_RANGE || event > EVENT_ON_TOUCH)
+				throw new IllegalArgumentException("Unknown event: " + event);
+			mRules.add(new Rule(regionId, name, uuid, major, minor, event, action, actionParam, mRules.size()));
+			return this;
+		}
+
+		public RuleTable build() {
+			// Group the rules by beacon, keeping the order in which they were added within a group
+			final List<Rule> rules = new ArrayList<>(mRules);
+			Collections.sort(rules);
+			return new RuleTable(rules);
+		}
+
+		private static class Rule implements Comparable<Rule> {
+			private final long mRegionId;
+			private final String mName;
+			private final long mMsb;
+			private final long mLsb;
+			private final int mMajorMinor;
+			private final int mEvent;
+			private final int mAction;
+			private final String mActionParam;
+			private final int mOrder;
+
+			private Rule(final long regionId, final String name, final UUID uuid, final int major, final int minor, final int event, final int action, final String actionParam,
+					final int order) {
+				mRegionId = regionId;
+				mName = name;
+				mMsb = uuid.getMostSignificantBits();
+				mLsb = uuid.getLeastSignificantBits();
+				mMajorMinor = BeaconKeyTable.pack(major, minor);
+				mEvent = event;
+				mAction = action;
+				mActionParam = actionParam;
+				mOrder = order;
+			}
+
+			private boolean sameBeacon(final Rule other) {
+				return mMsb == other.mMsb && mLsb == other.mLsb && mMajorMinor == other.mMajorMinor;
+			}
+
+			@Override
+			public int compareTo(final Rule other) {
+				if (mMsb != other.mMsb)
+					return mMsb < other.mMsb ? -1 : 1;
+				if (mLsb != other.mLsb)
+					return mLsb < other.mLsb ? -1 : 1;
+				if (mMajorMinor != other.mMajorMinor)
+					return mMajorMinor < other.mMajorMinor ? -1 : 1;
+				return mOrder < other.mOrder ? -1 : (mOrder == other.mOrder ? 0 : 1);
+			}
+		}
+	}
+}
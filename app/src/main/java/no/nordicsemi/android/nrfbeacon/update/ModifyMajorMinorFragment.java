@@ -59,7 +59,7 @@ public class ModifyMajorMinorFragment extends DialogFragment implements OnEditor
 	@Override
 	public Dialog onCreateDialog(final Bundle savedInstanceState) {
 		final AlertDialog.Builder builder = new AlertDialog.Builder(getActivity()).setTitle(R.string.update_dialog_major_minor_title).setNegativeButton(R.string.cancel, null)
-				.setPositiveButton(R.string.ok, null);
+				.setPositiveButton(R.string.ok, null).setNeutralButton(R.string.update_dialog_major_minor_assign, null);
 
 		final View view = LayoutInflater.from(getActivity()).inflate(R.layout.fragment_dialog_major_minor, null);
 		mMajorView = (EditText) view.findViewById(R.id.major);
@@ -81,6 +81,13 @@ public class ModifyMajorMinorFragment extends DialogFragment implements OnEditor
 			public void onShow(final DialogInterface d) {
 				final Button ok = dialog.getButton(DialogInterface.BUTTON_POSITIVE);
 				ok.setOnClickListener(ModifyMajorMinorFragment.this);
+				final Button assign = dialog.getButton(DialogInterface.BUTTON_NEUTRAL);
+				assign.setOnClickListener(new View.OnClickListener() {
+					@Override
+					public void onClick(final View v) {
+						onAssignClicked();
+					}
+				});
 			}
 		});
 		return dialog;
@@ -144,6 +151,36 @@ public class ModifyMajorMinorFragment extends DialogFragment implements OnEditor
 		}
 	}
 
+	/**
+	 * Called when Assign button has been pressed. Only the major number is used, the minor number is allocated.
+	 */
+	private void onAssignClicked() {
+		final int major = parseValue(mMajorView);
+		if (major < 0) {
+			mMajorView.setError(getText(R.string.update_dialog_major_minor_error));
+			mMajorView.requestFocus();
+		} else {
+			final UpdateFragment parentFragment = (UpdateFragment) getParentFragment();
+			parentFragment.assignNewMajorMinor(major);
+			dismiss();
+		}
+	}
+
+	/**
+	 * Returns the value entered in the given field, or -1 if it's not a valid major or minor number.
+	 */
+	private static int parseValue(final EditText view) {
+		final String value = view.getText().toString();
+		if (TextUtils.isEmpty(value))
+			return -1;
+		try {
+			final int number = Integer.parseInt(value);
+			return number >= 0 && number <= 0xFFFF ? number : -1;
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+	}
+
 	@Override
 	public boolean onEditorAction(final TextView v, final int actionId, final KeyEvent event) {
 		if (EditorInfo.IME_ACTION_DONE == actionId) {
@@ -21,26 +21,29 @@
  */
 package no.nordicsemi.android.nrfbeacon.update;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.UUID;
 
+import no.nordicsemi.android.nrfbeacon.BuildConfig;
 import no.nordicsemi.android.nrfbeacon.R;
 import no.nordicsemi.android.nrfbeacon.UpdateService;
 import no.nordicsemi.android.nrfbeacon.common.BoardHelpFragment;
+import no.nordicsemi.android.nrfbeacon.config.ApplyProfileResult;
+import no.nordicsemi.android.nrfbeacon.config.BeaconConfig;
 import no.nordicsemi.android.nrfbeacon.scanner.ScannerFragment;
 import no.nordicsemi.android.nrfbeacon.scanner.ScannerFragmentListener;
+import no.nordicsemi.android.nrfbeacon.util.DebugLogger;
 import android.app.Activity;
 import android.bluetooth.BluetoothDevice;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.IBinder;
-import android.os.ParcelUuid;
 import android.support.v4.app.Fragment;
-import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.widget.SwitchCompat;
 import android.util.Pair;
 import android.view.LayoutInflater;
@@ -55,8 +58,8 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 public class UpdateFragment extends Fragment implements ScannerFragmentListener {
-	/** The UUID of a service in the beacon advertising packet when in Config mode. This may be <code>null</code> if no filter required. */
-	private static final UUID BEACON_CONFIG_ADV_UUID = UUID.fromString("955A1523-0FE2-F5AA-0A094-84B8D4F3E8AD");
+	private static final String TAG = "UpdateFragment";
+	private static final String METRICS_DIRECTORY = "metrics";
 
 	private View mUuidContainer;
 	private View mUuidTitleView;
@@ -90,6 +93,9 @@ public class UpdateFragment extends Fragment implements ScannerFragmentListener
 		@Override
 		public void onServiceConnected(final ComponentName name, final IBinder service) {
 			final UpdateService.ServiceBinder binder = mBinder = (UpdateService.ServiceBinder) service;
+			// All events are delivered to the listener on the main thread, broadcasts are not needed
+			binder.setBroadcastsEnabled(false);
+			binder.registerListener(mConfigListener, null);
 			final int state = binder.getState();
 			switch (state) {
 			case UpdateService.STATE_DISCONNECTED:
@@ -144,92 +150,115 @@ public class UpdateFragment extends Fragment implements ScannerFragmentListener
 		}
 	};
 
-	private BroadcastReceiver mServiceBroadcastReceiver = new BroadcastReceiver() {
+	private UpdateService.ConfigListener mConfigListener = new UpdateService.ConfigListener() {
 		@Override
-		public void onReceive(final Context context, final Intent intent) {
+		public void onStateChanged(final int state) {
 			final Activity activity = getActivity();
 			if (activity == null || !isResumed())
 				return;
 
-			final String action = intent.getAction();
-
-			if (UpdateService.ACTION_STATE_CHANGED.equals(action)) {
-				final int state = intent.getIntExtra(UpdateService.EXTRA_DATA, UpdateService.STATE_DISCONNECTED);
-
-				switch (state) {
-				case UpdateService.STATE_DISCONNECTED:
-					mConnectButton.setText(R.string.action_connect);
-					mConnectButton.setEnabled(true);
-					setUuidControlsEnabled(false);
-					setMajorMinorControlsEnabled(false);
-					setRssiControlsEnabled(false);
-					setManufacturerIdControlsEnabled(false);
-					setAdvIntervalControlsEnabled(false);
-					setLedControlsEnabled(false);
-					mAdvancedTitleView.setEnabled(true);
-
-					final Intent service = new Intent(activity, UpdateService.class);
-					activity.unbindService(mServiceConnection);
-					activity.stopService(service);
-					mBinder = null;
-					mBinded = false;
-					break;
-				case UpdateService.STATE_CONNECTED:
-					mConnectButton.setText(R.string.action_disconnect);
-					mConnectButton.setEnabled(true);
-					break;
-				case UpdateService.STATE_DISCONNECTING:
-				case UpdateService.STATE_CONNECTING:
-					mConnectButton.setEnabled(false);
-					break;
-				}
-			} else if (UpdateService.ACTION_UUID_READY.equals(action)) {
-				final UUID uuid = ((ParcelUuid) intent.getParcelableExtra(UpdateService.EXTRA_DATA)).getUuid();
-				mUuidView.setText(uuid.toString());
+			switch (state) {
+			case UpdateService.STATE_DISCONNECTED:
+				mConnectButton.setText(R.string.action_connect);
+				mConnectButton.setEnabled(true);
+				setUuidControlsEnabled(false);
+				setMajorMinorControlsEnabled(false);
+				setRssiControlsEnabled(false);
+				setManufacturerIdControlsEnabled(false);
+				setAdvIntervalControlsEnabled(false);
+				setLedControlsEnabled(false);
+				mAdvancedTitleView.setEnabled(true);
+
+				final Intent service = new Intent(activity, UpdateService.class);
+				if (mBinder != null)
+					mBinder.unregisterListener(this);
+				activity.unbindService(mServiceConnection);
+				activity.stopService(service);
+				mBinder = null;
+				mBinded = false;
+				break;
+			case UpdateService.STATE_CONNECTED:
+				mConnectButton.setText(R.string.action_disconnect);
+				mConnectButton.setEnabled(true);
+				break;
+			case UpdateService.STATE_DISCONNECTING:
+			case UpdateService.STATE_CONNECTING:
+				mConnectButton.setEnabled(false);
+				break;
+			}
+		}
+
+		@Override
+		public void onConnected(final boolean advancedSupported) {
+			if (getActivity() == null || !isResumed() || mBinder == null)
+				return;
+
+			mAdvancedTitleView.setEnabled(advancedSupported);
+			mBinder.read();
+		}
+
+		@Override
+		public void onConfigChanged(final BeaconConfig config) {
+			if (getActivity() == null || !isResumed())
+				return;
+
+			if (config.getUuid() != null) {
+				mUuidView.setText(config.getUuid().toString());
 				setUuidControlsEnabled(true);
-			} else if (UpdateService.ACTION_MAJOR_MINOR_READY.equals(action)) {
-				final int major = intent.getIntExtra(UpdateService.EXTRA_MAJOR, 0);
-				final int minor = intent.getIntExtra(UpdateService.EXTRA_MINOR, 0);
-				mMajorView.setText(String.valueOf(major));
-				mMinorView.setText(String.valueOf(minor));
+			}
+			if (config.getMajor() != null && config.getMinor() != null) {
+				mMajorView.setText(String.valueOf(config.getMajor()));
+				mMinorView.setText(String.valueOf(config.getMinor()));
 				setMajorMinorControlsEnabled(true);
-			} else if (UpdateService.ACTION_RSSI_READY.equals(action)) {
-				final int rssi = intent.getIntExtra(UpdateService.EXTRA_DATA, 0);
+			}
+			if (config.getCalibratedRssi() != null) {
+				final int rssi = config.getCalibratedRssi();
 				mCalibratedRssiView.setTag(rssi);
 				mCalibratedRssiView.setText(String.valueOf(rssi));
 				setRssiControlsEnabled(true);
-			} else if (UpdateService.ACTION_MANUFACTURER_ID_READY.equals(action)) {
-				final int manufacturerId = intent.getIntExtra(UpdateService.EXTRA_DATA, 0);
-				mManufacturerIdView.setText(String.valueOf(manufacturerId));
+			}
+			if (config.getManufacturerId() != null) {
+				mManufacturerIdView.setText(String.valueOf(config.getManufacturerId()));
 				setManufacturerIdControlsEnabled(true);
-			} else if (UpdateService.ACTION_ADV_INTERVAL_READY.equals(action)) {
-				final int interval = intent.getIntExtra(UpdateService.EXTRA_DATA, 0);
-				mAdvIntervalView.setText(String.valueOf(interval));
+			}
+			if (config.getAdvInterval() != null) {
+				mAdvIntervalView.setText(String.valueOf(config.getAdvInterval()));
 				setAdvIntervalControlsEnabled(true);
-			} else if (UpdateService.ACTION_LED_STATUS_READY.equals(action)) {
-				final boolean on = intent.getBooleanExtra(UpdateService.EXTRA_DATA, false);
+			}
+			if (config.getLedStatus() != null) {
 				mLedSwitchActionDisabled = true;
-				mLedsSwitch.setChecked(on);
+				mLedsSwitch.setChecked(config.getLedStatus());
 				mLedSwitchActionDisabled = false;
 				setLedControlsEnabled(true);
-			} else if (UpdateService.ACTION_DONE.equals(action)) {
-				final boolean advanced = intent.getBooleanExtra(UpdateService.EXTRA_DATA, false);
-				mAdvancedTitleView.setEnabled(advanced);
-				mBinder.read();
-			} else if (UpdateService.ACTION_GATT_ERROR.equals(action)) {
-				final int error = intent.getIntExtra(UpdateService.EXTRA_DATA, 0);
-
-				switch (error) {
-				case UpdateService.ERROR_UNSUPPORTED_DEVICE:
-					Toast.makeText(activity, R.string.update_error_device_not_supported, Toast.LENGTH_SHORT).show();
-					break;
-				default:
-					Toast.makeText(activity, getString(R.string.update_error_other, error), Toast.LENGTH_SHORT).show();
-					break;
-				}
-				mBinder.disconnectAndClose();
 			}
 		}
+
+		@Override
+		public void onProfileApplied(final ApplyProfileResult result) {
+			// Profiles are not applied from this screen
+		}
+
+		@Override
+		public void onError(final int error) {
+			final Activity activity = getActivity();
+			if (activity == null || !isResumed())
+				return;
+
+			switch (error) {
+			case UpdateService.ERROR_MAJOR_MINOR_EXHAUSTED:
+				setMajorMinorControlsEnabled(true);
+				Toast.makeText(activity, R.string.update_error_major_minor_not_assigned, Toast.LENGTH_SHORT).show();
+				return;
+			case UpdateService.ERROR_UNSUPPORTED_DEVICE:
+				Toast.makeText(activity, R.string.update_error_device_not_supported, Toast.LENGTH_SHORT).show();
+				break;
+			default:
+				Toast.makeText(activity, getString(R.string.update_error_other, error), Toast.LENGTH_SHORT).show();
+				break;
+			}
+			if (mBinder != null)
+				mBinder.disconnectAndClose();
+		}
 	};
 
 	@Override
@@ -246,6 +275,8 @@ public class UpdateFragment extends Fragment implements ScannerFragmentListener
 	public void onStop() {
 		super.onStop();
 
+		if (mBinder != null)
+			mBinder.unregisterListener(mConfigListener);
 		if (mBinded)
 			getActivity().unbindService(mServiceConnection);
 	}
@@ -354,7 +385,7 @@ public class UpdateFragment extends Fragment implements ScannerFragmentListener
 			@Override
 			public void onClick(final View v) {
 				if (mBinder == null) {
-					final ScannerFragment scannerFragment = ScannerFragment.getInstance(BEACON_CONFIG_ADV_UUID);
+					final ScannerFragment scannerFragment = ScannerFragment.getInstance(UpdateService.BEACON_CONFIG_ADV_UUID);
 					scannerFragment.show(getChildFragmentManager(), null);
 				} else
 					mBinder.disconnectAndClose();
@@ -369,24 +400,6 @@ public class UpdateFragment extends Fragment implements ScannerFragmentListener
 		super.onViewCreated(view, savedInstanceState);
 
 		setHasOptionsMenu(true);
-
-		final IntentFilter filter = new IntentFilter();
-		filter.addAction(UpdateService.ACTION_STATE_CHANGED);
-		filter.addAction(UpdateService.ACTION_DONE);
-		filter.addAction(UpdateService.ACTION_UUID_READY);
-		filter.addAction(UpdateService.ACTION_MAJOR_MINOR_READY);
-		filter.addAction(UpdateService.ACTION_RSSI_READY);
-		filter.addAction(UpdateService.ACTION_MANUFACTURER_ID_READY);
-		filter.addAction(UpdateService.ACTION_ADV_INTERVAL_READY);
-		filter.addAction(UpdateService.ACTION_LED_STATUS_READY);
-		filter.addAction(UpdateService.ACTION_GATT_ERROR);
-		LocalBroadcastManager.getInstance(getActivity()).registerReceiver(mServiceBroadcastReceiver, filter);
-	}
-
-	@Override
-	public void onDestroyView() {
-		super.onDestroyView();
-		LocalBroadcastManager.getInstance(getActivity()).unregisterReceiver(mServiceBroadcastReceiver);
 	}
 
 	@Override
@@ -402,6 +415,8 @@ public class UpdateFragment extends Fragment implements ScannerFragmentListener
 	@Override
 	public void onCreateOptionsMenu(final Menu menu, final MenuInflater inflater) {
 		inflater.inflate(R.menu.about, menu);
+		if (BuildConfig.DEBUG)
+			inflater.inflate(R.menu.update_debug, menu);
 	}
 
 	@Override
@@ -412,10 +427,38 @@ public class UpdateFragment extends Fragment implements ScannerFragmentListener
 			final BoardHelpFragment helpFragment = BoardHelpFragment.getInstance(BoardHelpFragment.MODE_UPDATE);
 			helpFragment.show(getChildFragmentManager(), null);
 			return true;
+		case R.id.action_export_metrics:
+			exportConnectionMetrics();
+			return true;
 		}
 		return false;
 	}
 
+	/**
+	 * Saves the summary of the connection metrics as CSV in the <code>metrics</code> directory of the application files. Available in debug builds only.
+	 * 
+	 * @see UpdateService#getConnectionMetrics()
+	 */
+	private void exportConnectionMetrics() {
+		final Activity activity = getActivity();
+		final File directory = new File(activity.getFilesDir(), METRICS_DIRECTORY);
+		final File file = new File(directory, "connection-" + System.currentTimeMillis() + ".csv");
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs())
+				throw new IOException("Creating " + directory + " failed");
+			final Writer writer = new FileWriter(file);
+			try {
+				UpdateService.getConnectionMetrics().writeCsv(writer);
+			} finally {
+				writer.close();
+			}
+			Toast.makeText(activity, getString(R.string.update_metrics_exported, file.getAbsolutePath()), Toast.LENGTH_LONG).show();
+		} catch (final IOException e) {
+			DebugLogger.e(TAG, "Exporting connection metrics failed: " + e.getMessage());
+			Toast.makeText(activity, R.string.update_metrics_export_failed, Toast.LENGTH_SHORT).show();
+		}
+	}
+
 	public void writeNewUuid(final UUID uuid) {
 		setUuidControlsEnabled(false);
 		mBinder.setBeaconUuid(uuid);
@@ -426,6 +469,14 @@ public class UpdateFragment extends Fragment implements ScannerFragmentListener
 		mBinder.setMajorAndMinor(major, minor);
 	}
 
+	public void assignNewMajorMinor(final int major) {
+		setMajorMinorControlsEnabled(false);
+		if (!mBinder.assignMajorAndMinor(major)) {
+			setMajorMinorControlsEnabled(true);
+			Toast.makeText(getActivity(), R.string.update_error_major_minor_not_assigned, Toast.LENGTH_SHORT).show();
+		}
+	}
+
 	public void writeNewRssi(final int rssi) {
 		setRssiControlsEnabled(false);
 		mBinder.setCalibratedRssi(rssi);
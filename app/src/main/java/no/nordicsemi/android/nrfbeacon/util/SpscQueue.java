@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.util;
+
+/**
+ * An unbounded, lock-free queue for exactly one producer thread and one consumer thread. The producer publishes an element by a single volatile write of the link to it, so neither side ever
+ * waits for the other. Using it from more than one producer or consumer thread is not safe.
+ * 
+ * @param <E>
+ *            the type of the elements
+ */
+public class SpscQueue<E> {
+	private static final class Node<E> {
+		private E mValue;
+		private volatile Node<E> mNext;
+
+		private Node(final E value) {
+			mValue = value;
+		}
+	}
+
+	/** The last consumed node. Accessed only by the consumer. */
+	private Node<E> mHead;
+	/** The last produced node. Accessed only by the producer. */
+	private Node<E> mTail;
+
+	public SpscQueue() {
+		mHead = mTail = new Node<>(null);
+	}
+
+	/**
+	 * Adds the element at the end of the queue. May only be called from the producer thread.
+	 * 
+	 * @param value
+	 *            the element, not <code>null</code>
+	 */
+	public void offer(final E value) {
+		final Node<E> node = new Node<>(value);
+		// The volatile write publishes the value to the consumer
+		mTail.mNext = node;
+		mTail = node;
+	}
+
+	/**
+	 * Removes and returns the first element. May only be called from the consumer thread.
+	 * 
+	 * @return the element or <code>null</code> if the queue is empty
+	 */
+	public E poll() {
+		final Node<E> next = mHead.mNext;
+		if (next == null)
+			return null;
+		final E value = next.mValue;
+		next.mValue = null;
+		mHead = next;
+		return value;
+	}
+
+	/**
+	 * Returns <code>true</code> if there is nothing to consume. May only be called from the consumer thread.
+	 */
+	public boolean isEmpty() {
+		return mHead.mNext == null;
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import no.nordicsemi.android.nrfbeacon.config.BeaconConfig;
+import no.nordicsemi.android.nrfbeacon.config.BeaconConfigCodec;
+import no.nordicsemi.android.nrfbeacon.config.ConfigProtocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures encoding and decoding of all config fields. The *Allocating benchmarks use {@link ConfigProtocol}, which returns a new array for every value, the others use
+ * {@link BeaconConfigCodec} with reused buffers. Run with <code>-prof gc</code> to see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeaconConfigCodecBenchmark {
+	private BeaconConfig mConfig;
+	private byte[][] mEncoded;
+	private final byte[] mBuffer = new byte[BeaconConfigCodec.MAX_LENGTH];
+	private final ByteBuffer mHeapBuffer = ByteBuffer.allocate(BeaconConfigCodec.MAX_LENGTH);
+	private final ByteBuffer mDirectBuffer = ByteBuffer.allocateDirect(BeaconConfigCodec.MAX_LENGTH);
+
+	@Setup
+	public void setup() {
+		mConfig = new BeaconConfig().setUuid(UUID.fromString("01122334-4556-6778-899A-ABBCCDDEEFF0")).setMajorAndMinor(0x1234, 0xABCD).setCalibratedRssi(-59)
+				.setManufacturerId(0x0059).setAdvInterval(760).setLedStatus(true);
+		mEncoded = new byte[BeaconConfig.FIELD_COUNT][];
+		for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field)
+			mEncoded[field] = ConfigProtocol.encodeField(mConfig, field);
+	}
+
+	@Benchmark
+	public void encodeAllocating(final Blackhole blackhole) {
+		for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field)
+			blackhole.consume(ConfigProtocol.encodeField(mConfig, field));
+	}
+
+	@Benchmark
+	public int encodeIntoArray() {
+		int sum = 0;
+		for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field)
+			sum += BeaconConfigCodec.encodeField(mConfig, field, mBuffer, 0) + mBuffer[0];
+		return sum;
+	}
+
+	@Benchmark
+	public int encodeIntoDirectBuffer() {
+		int sum = 0;
+		for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field) {
+			mDirectBuffer.clear();
+			sum += BeaconConfigCodec.encodeField(mConfig, field, mDirectBuffer);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public BeaconConfig decodeAllocating() {
+		final BeaconConfig config = new BeaconConfig();
+		for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field)
+			ConfigProtocol.decodeField(config, field, mEncoded[field]);
+		return config;
+	}
+
+	@Benchmark
+	public BeaconConfig decodeFromHeapBuffer() {
+		final BeaconConfig config = new BeaconConfig();
+		for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field) {
+			final byte[] value = mEncoded[field];
+			mHeapBuffer.clear();
+			mHeapBuffer.put(value).flip();
+			BeaconConfigCodec.decodeField(config, field, mHeapBuffer);
+		}
+		return config;
+	}
+
+	/**
+	 * Decodes only the primitive values, without a {@link BeaconConfig}. This path does not allocate at all.
+	 */
+	@Benchmark
+	public long decodePrimitives() {
+		final byte[] uuid = mEncoded[BeaconConfig.FIELD_UUID];
+		final byte[] majorMinor = mEncoded[BeaconConfig.FIELD_MAJOR_MINOR];
+		return BeaconConfigCodec.decodeUInt64(uuid, 0) + BeaconConfigCodec.decodeUInt64(uuid, 8) + BeaconConfigCodec.decodeUInt16BigEndian(majorMinor, 0)
+				+ BeaconConfigCodec.decodeUInt16BigEndian(majorMinor, 2) + BeaconConfigCodec.decodeUInt16(mEncoded[BeaconConfig.FIELD_MANUFACTURER_ID], 0)
+				+ BeaconConfigCodec.decodeUInt16(mEncoded[BeaconConfig.FIELD_ADV_INTERVAL], 0) + mEncoded[BeaconConfig.FIELD_RSSI][0];
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.benchmarks;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import no.nordicsemi.android.nrfbeacon.rules.BeaconBatch;
+import no.nordicsemi.android.nrfbeacon.rules.RuleEngine;
+import no.nordicsemi.android.nrfbeacon.rules.RuleTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how many beacon observations per second the {@link RuleEngine} matches against rule tables of different sizes. Each invocation processes a batch of
+ * {@link #BATCH_SIZE} observations of random saved beacons with random proximity changes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleEngineBenchmark {
+	private final static int BATCH_SIZE = 64;
+
+	@Param({ "10", "1000", "100000" })
+	public int mRules;
+
+	private final RuleEngine mEngine = new RuleEngine();
+	private final BeaconBatch mBatch = new BeaconBatch(BATCH_SIZE);
+	private int mFired;
+
+	@Setup
+	public void setup() {
+		final Random random = new Random(1);
+		final UUID[] uuids = new UUID[4];
+		for (int i = 0; i < uuids.length; ++i)
+			uuids[i] = new UUID(random.nextLong(), random.nextLong());
+
+		final RuleTable.Builder builder = new RuleTable.Builder();
+		for (int i = 0; i < mRules; ++i)
+			builder.addRule(i, "Region " + i, uuids[i % uuids.length], i >> 16, i & 0xFFFF, i % 4, i % 6, null);
+		mEngine.setRuleTable(builder.build());
+		mEngine.setDefaultActionHandler(new RuleEngine.ActionHandler() {
+			@Override
+			public void onRuleFired(final RuleTable table, final int rule) {
+				mFired++;
+			}
+		});
+
+		for (int j = 0; j < BATCH_SIZE; ++j) {
+			final int i = random.nextInt(mRules);
+			mBatch.add(uuids[i % uuids.length], i >> 16, i & 0xFFFF, random.nextInt(4), random.nextInt(4));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public int process() {
+		return mEngine.process(mBatch) + mFired;
+	}
+}
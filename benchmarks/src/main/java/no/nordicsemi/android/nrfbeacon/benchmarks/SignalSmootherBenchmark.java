@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.benchmarks;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import no.nordicsemi.android.nrfbeacon.ranging.EwmaFilter;
+import no.nordicsemi.android.nrfbeacon.ranging.KalmanFilter;
+import no.nordicsemi.android.nrfbeacon.ranging.MedianFilter;
+import no.nordicsemi.android.nrfbeacon.ranging.SignalSmoother;
+import no.nordicsemi.android.nrfbeacon.ranging.SmoothingFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of one sample in the {@link SignalSmoother}. An invocation smooths one second of samples at 10 000 samples per second, spread over 1000 beacons, so the score is
+ * the time per sample in nanoseconds; multiplied by 10 000 it gives the time spent per second. Run with <code>-prof gc</code> to check that no memory is allocated.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignalSmootherBenchmark {
+	private final static int SAMPLES = 10000;
+	private final static int BEACONS = 1000;
+
+	@Param({ "median", "ewma", "kalman" })
+	public String mFilter;
+
+	private SignalSmoother mSmoother;
+	private final UUID[] mUuids = new UUID[BEACONS];
+	private final int[] mRssi = new int[SAMPLES];
+	private final float[] mAccuracy = new float[SAMPLES];
+
+	@Setup
+	public void setup() {
+		final SmoothingFilter filter;
+		switch (mFilter) {
+		case "ewma":
+			filter = new EwmaFilter();
+			break;
+		case "kalman":
+			filter = new KalmanFilter();
+			break;
+		default:
+			filter = new MedianFilter();
+			break;
+		}
+		mSmoother = new SignalSmoother(filter);
+
+		final Random random = new Random(1);
+		for (int i = 0; i < BEACONS; ++i)
+			mUuids[i] = new UUID(random.nextLong(), random.nextLong());
+		for (int i = 0; i < SAMPLES; ++i) {
+			// The distances as the library calculates them for a beacon calibrated to -59 dBm at 1 meter
+			mRssi[i] = -50 - random.nextInt(40);
+			mAccuracy[i] = (float) Math.pow(mRssi[i] / -59.0, 5.5);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public float smooth() {
+		float sum = 0;
+		for (int i = 0; i < SAMPLES; ++i)
+			sum += mSmoother.update(mUuids[i % BEACONS], 0, i % BEACONS, mRssi[i], mAccuracy[i], 0);
+		return sum;
+	}
+}
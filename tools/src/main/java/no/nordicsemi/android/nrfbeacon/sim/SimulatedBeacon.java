@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.sim;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import no.nordicsemi.android.nrfbeacon.config.BeaconConfig;
+import no.nordicsemi.android.nrfbeacon.config.ConfigProtocol;
+import no.nordicsemi.android.nrfbeacon.config.ConfigTransport;
+import no.nordicsemi.android.nrfbeacon.config.OperationQueue;
+
+/**
+ * A beacon in Config Mode simulated on the JVM. Characteristic values are kept in memory and every request is answered on the executor thread after the time it would take over the air.
+ * <p>
+ * The timing model: a request waits for the next connection event and each ATT request/response round trip takes one connection interval. Values that do not fit into a single ATT packet need
+ * more round trips (Read Blob requests, or Prepare Write requests followed by Execute Write). With the default MTU of 23 all config characteristics fit into a single packet.
+ * </p>
+ */
+public class SimulatedBeacon implements ConfigTransport {
+	/** The GATT_INTERNAL_ERROR (129) reported by Android. */
+	public final static int GATT_INTERNAL_ERROR = 0x81;
+	/** The GATT_ERROR (133) reported by Android, most often when the connection could not be established. */
+	public final static int GATT_ERROR = 0x85;
+	/** The status reported when the link has been lost (connection supervision timeout). */
+	public final static int GATT_CONN_TIMEOUT = 0x08;
+
+	/** The firmware identifier reported by simulated beacons. */
+	public final static String FIRMWARE_ID = "simulated-1";
+	/** The UUID simulated beacons advertise by default. */
+	public final static UUID DEFAULT_UUID = UUID.fromString("01122334-4556-6778-899A-ABBCCDDEEFF0");
+
+	public final static int DEFAULT_MTU = 23;
+	public final static int MAX_MTU = 517;
+
+	/**
+	 * Describes the behavior of simulated beacons.
+	 */
+	public static class Settings {
+		private long mConnectDelay = 300;
+		private double mConnectionInterval = 30;
+		private int mMtu = DEFAULT_MTU;
+		private double mConnectFailureRate;
+		private double mErrorRate;
+		private double mDisconnectRate;
+		private long mSeed = 1;
+
+		/**
+		 * Sets the time it takes to establish the connection and discover services, in milliseconds.
+		 */
+		public Settings setConnectDelay(final long delay) {
+			mConnectDelay = delay;
+			return this;
+		}
+
+		public long getConnectDelay() {
+			return mConnectDelay;
+		}
+
+		/**
+		 * Sets the connection interval in milliseconds. Android uses 7.5-50 ms depending on the phone and the connection priority.
+		 */
+		public Settings setConnectionInterval(final double interval) {
+			mConnectionInterval = interval;
+			return this;
+		}
+
+		public double getConnectionInterval() {
+			return mConnectionInterval;
+		}
+
+		/**
+		 * Sets the ATT MTU, 23-517 bytes.
+		 */
+		public Settings setMtu(final int mtu) {
+			if (mtu < DEFAULT_MTU || mtu > MAX_MTU)
+				throw new IllegalArgumentException("MTU must be in range 23-517");
+			mMtu = mtu;
+			return this;
+		}
+
+		public int getMtu() {
+			return mMtu;
+		}
+
+		/**
+		 * Sets the probability (0.0-1.0) that the connection attempt ends with {@link SimulatedBeacon#GATT_ERROR}.
+		 */
+		public Settings setConnectFailureRate(final double rate) {
+			mConnectFailureRate = rate;
+			return this;
+		}
+
+		public double getConnectFailureRate() {
+			return mConnectFailureRate;
+		}
+
+		/**
+		 * Sets the probability (0.0-1.0) that a read or write request fails with {@link SimulatedBeacon#GATT_INTERNAL_ERROR} or {@link SimulatedBeacon#GATT_ERROR}.
+		 */
+		public Settings setErrorRate(final double rate) {
+			mErrorRate = rate;
+			return this;
+		}
+
+		public double getErrorRate() {
+			return mErrorRate;
+		}
+
+		/**
+		 * Sets the probability (0.0-1.0) that the link is lost while a request is pending. The request is not answered and the disconnection is reported with
+		 * {@link SimulatedBeacon#GATT_CONN_TIMEOUT}.
+		 */
+		public Settings setDisconnectRate(final double rate) {
+			mDisconnectRate = rate;
+			return this;
+		}
+
+		public double getDisconnectRate() {
+			return mDisconnectRate;
+		}
+
+		/**
+		 * Sets the seed of the random number generators, so the simulation may be repeated.
+		 */
+		public Settings setSeed(final long seed) {
+			mSeed = seed;
+			return this;
+		}
+
+		public long getSeed() {
+			return mSeed;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "connectDelay=%dms interval=%.1fms mtu=%d connectFailures=%.3f errors=%.3f disconnects=%.3f", mConnectDelay, mConnectionInterval, mMtu,
+					mConnectFailureRate, mErrorRate, mDisconnectRate);
+		}
+	}
+
+	/**
+	 * Creates simulated beacons that share the executor and the settings. Every beacon gets its own seed, so a retried connection to the same address does not repeat the previous attempt.
+	 */
+	public static class Factory implements ConfigTransport.Factory {
+		private final ScheduledExecutorService mExecutor;
+		private final Settings mSettings;
+		private final Random mSeeds;
+
+		public Factory(final ScheduledExecutorService executor, final Settings settings) {
+			mExecutor = executor;
+			mSettings = settings;
+			mSeeds = new Random(settings.getSeed());
+		}
+
+		@Override
+		public ConfigTransport create(final String address) {
+			final long seed;
+			synchronized (mSeeds) {
+				seed = mSeeds.nextLong();
+			}
+			return new SimulatedBeacon(address, mExecutor, mSettings, seed);
+		}
+	}
+
+	private final String mAddress;
+	private final ScheduledExecutorService mExecutor;
+	private final Settings mSettings;
+	private final Map<UUID, byte[]> mValues = new HashMap<>();
+	private final Random mRandom;
+	private Callback mCallback;
+	private boolean mConnecting;
+	private boolean mConnected;
+	/** Incremented on every connection, so the responses scheduled before the link was lost are dropped. */
+	private int mConnectionId;
+
+	public SimulatedBeacon(final String address, final ScheduledExecutorService executor, final Settings settings) {
+		this(address, executor, settings, settings.getSeed() * 31 + address.hashCode());
+	}
+
+	public SimulatedBeacon(final String address, final ScheduledExecutorService executor, final Settings settings, final long seed) {
+		mAddress = address;
+		mExecutor = executor;
+		mSettings = settings;
+		mRandom = new Random(seed);
+
+		final BeaconConfig defaults = new BeaconConfig().setUuid(DEFAULT_UUID).setMajorAndMinor(1, 1).setCalibratedRssi(-59)
+				.setManufacturerId(0x0059).setAdvInterval(760).setLedStatus(true);
+		for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field)
+			mValues.put(ConfigProtocol.getCharacteristicUuid(field), ConfigProtocol.encodeField(defaults, field));
+	}
+
+	/**
+	 * Returns the current value of the characteristic, as stored on the simulated device.
+	 */
+	public synchronized byte[] getValue(final UUID characteristicUuid) {
+		return mValues.get(characteristicUuid);
+	}
+
+	@Override
+	public String getAddress() {
+		return mAddress;
+	}
+
+	@Override
+	public synchronized String getFirmwareId() {
+		return mConnected ? FIRMWARE_ID : null;
+	}
+
+	@Override
+	public boolean connect(final Callback callback) {
+		final boolean fail;
+		final int connectionId;
+		synchronized (this) {
+			mCallback = callback;
+			fail = mRandom.nextDouble() < mSettings.getConnectFailureRate();
+			connectionId = ++mConnectionId;
+			mConnecting = true;
+		}
+		mExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (SimulatedBeacon.this) {
+					if (connectionId != mConnectionId)
+						return;
+					mConnecting = false;
+					mConnected = !fail;
+				}
+				if (fail)
+					callback.onDisconnected(GATT_ERROR);
+				else
+					callback.onConnected();
+			}
+		}, mSettings.getConnectDelay(), TimeUnit.MILLISECONDS);
+		return true;
+	}
+
+	@Override
+	public void disconnect() {
+		final long delay;
+		synchronized (this) {
+			if (!mConnected && !mConnecting)
+				return;
+			// Cancelling a pending connection is reported immediately
+			delay = mConnected ? nextEventDelay(1) : 0;
+			mConnecting = mConnected = false;
+			++mConnectionId;
+		}
+		final Callback callback = mCallback;
+		mExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				callback.onDisconnected(OperationQueue.GATT_SUCCESS);
+			}
+		}, delay, TimeUnit.MICROSECONDS);
+	}
+
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (!mConnected && !mConnecting)
+				return;
+			mConnecting = mConnected = false;
+			++mConnectionId;
+		}
+		mCallback.onDisconnected(OperationQueue.GATT_SUCCESS);
+	}
+
+	@Override
+	public synchronized boolean hasCharacteristic(final UUID characteristicUuid) {
+		return mValues.containsKey(characteristicUuid);
+	}
+
+	@Override
+	public boolean read(final UUID characteristicUuid) {
+		final long delay;
+		final int status;
+		final int connectionId;
+		synchronized (this) {
+			if (!mConnected || !mValues.containsKey(characteristicUuid))
+				return false;
+			// Values longer than MTU - 1 are read with Read Blob requests
+			final int length = mValues.get(characteristicUuid).length;
+			delay = nextEventDelay(Math.max(1, (length + mSettings.getMtu() - 2) / (mSettings.getMtu() - 1)));
+			if (dropLink(delay))
+				return true;
+			status = nextStatus();
+			connectionId = mConnectionId;
+		}
+		final Callback callback = mCallback;
+		mExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				final byte[] value;
+				synchronized (SimulatedBeacon.this) {
+					if (connectionId != mConnectionId)
+						return;
+					value = status == OperationQueue.GATT_SUCCESS ? mValues.get(characteristicUuid).clone() : null;
+				}
+				callback.onCharacteristicRead(characteristicUuid, status, value);
+			}
+		}, delay, TimeUnit.MICROSECONDS);
+		return true;
+	}
+
+	@Override
+	public boolean write(final UUID characteristicUuid, final byte[] value) {
+		final long delay;
+		final int status;
+		final int connectionId;
+		synchronized (this) {
+			if (!mConnected || !mValues.containsKey(characteristicUuid))
+				return false;
+			// Values longer than MTU - 3 are sent with Prepare Write requests, MTU - 5 bytes each, and Execute Write
+			final int mtu = mSettings.getMtu();
+			delay = nextEventDelay(value.length <= mtu - 3 ? 1 : (value.length + mtu - 6) / (mtu - 5) + 1);
+			if (dropLink(delay))
+				return true;
+			status = nextStatus();
+			connectionId = mConnectionId;
+		}
+		final byte[] copy = value.clone();
+		final Callback callback = mCallback;
+		mExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (SimulatedBeacon.this) {
+					if (connectionId != mConnectionId)
+						return;
+					if (status == OperationQueue.GATT_SUCCESS)
+						mValues.put(characteristicUuid, copy);
+				}
+				callback.onCharacteristicWrite(characteristicUuid, status, status == OperationQueue.GATT_SUCCESS ? copy : null);
+			}
+		}, delay, TimeUnit.MICROSECONDS);
+		return true;
+	}
+
+	/**
+	 * Returns the time after which the response to a request needing given number of round trips is received, in microseconds. The request waits for the next connection event first.
+	 */
+	private long nextEventDelay(final int roundTrips) {
+		final double interval = mSettings.getConnectionInterval() * 1000;
+		return (long) (mRandom.nextDouble() * interval + roundTrips * interval);
+	}
+
+	/**
+	 * Returns the status of the next request according to the error rate.
+	 */
+	private int nextStatus() {
+		if (mRandom.nextDouble() >= mSettings.getErrorRate())
+			return OperationQueue.GATT_SUCCESS;
+		return mRandom.nextBoolean() ? GATT_INTERNAL_ERROR : GATT_ERROR;
+	}
+
+	/**
+	 * Decides whether the link is lost while the request is pending. If so, the disconnection is reported after the given delay.
+	 * 
+	 * @return <code>true</code> if the link will be lost
+	 */
+	private boolean dropLink(final long delay) {
+		if (mRandom.nextDouble() >= mSettings.getDisconnectRate())
+			return false;
+
+		mConnected = false;
+		final int connectionId = ++mConnectionId;
+		final Callback callback = mCallback;
+		mExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (SimulatedBeacon.this) {
+					if (connectionId != mConnectionId)
+						return;
+				}
+				callback.onDisconnected(GATT_CONN_TIMEOUT);
+			}
+		}, delay, TimeUnit.MICROSECONDS);
+		return true;
+	}
+}
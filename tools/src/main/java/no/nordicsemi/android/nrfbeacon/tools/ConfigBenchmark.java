@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.tools;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import no.nordicsemi.android.nrfbeacon.config.BeaconConfig;
+import no.nordicsemi.android.nrfbeacon.config.ConfigClient;
+import no.nordicsemi.android.nrfbeacon.config.ConfigProtocol;
+import no.nordicsemi.android.nrfbeacon.config.ConfigTransport;
+import no.nordicsemi.android.nrfbeacon.config.ExecutorScheduler;
+import no.nordicsemi.android.nrfbeacon.config.OperationFuture;
+import no.nordicsemi.android.nrfbeacon.config.OperationQueue;
+import no.nordicsemi.android.nrfbeacon.sim.SimulatedBeacon;
+
+/**
+ * Measures the throughput and tail latency of config read/write sequences against {@link SimulatedBeacon}s. Every device repeats the sequence the app does when the user changes a value: read all
+ * six characteristics, write major and minor and read them back. Lost connections are re-established.
+ * <p>
+ * Usage:
+ * <code>ConfigBenchmark [devices] [seconds] [connection interval ms] [mtu] [error rate] [disconnect rate]</code>
+ * </p>
+ */
+public class ConfigBenchmark {
+	private final ScheduledExecutorService mExecutor;
+	private final OperationQueue.Scheduler mScheduler;
+	private final SimulatedBeacon.Settings mSettings;
+	private final LatencyRecorder mReads = new LatencyRecorder();
+	private final LatencyRecorder mWrites = new LatencyRecorder();
+	private final LatencyRecorder mSequences = new LatencyRecorder();
+	private final Map<Integer, Integer> mErrors = new TreeMap<>();
+	private volatile boolean mRunning = true;
+	private int mConnections;
+
+	public static void main(final String[] args) throws InterruptedException {
+		final int devices = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+		final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		final SimulatedBeacon.Settings settings = new SimulatedBeacon.Settings();
+		if (args.length > 2)
+			settings.setConnectionInterval(Double.parseDouble(args[2]));
+		if (args.length > 3)
+			settings.setMtu(Integer.parseInt(args[3]));
+		if (args.length > 4)
+			settings.setErrorRate(Double.parseDouble(args[4]));
+		if (args.length > 5)
+			settings.setDisconnectRate(Double.parseDouble(args[5]));
+
+		final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		final ConfigBenchmark benchmark = new ConfigBenchmark(executor, settings);
+		benchmark.run(devices, seconds);
+		executor.shutdownNow();
+
+		System.out.println(String.format(Locale.US, "devices=%d duration=%ds %s", devices, seconds, settings));
+		benchmark.printResults(seconds);
+	}
+
+	public ConfigBenchmark(final ScheduledExecutorService executor, final SimulatedBeacon.Settings settings) {
+		mExecutor = executor;
+		mScheduler = new ExecutorScheduler(executor);
+		mSettings = settings;
+	}
+
+	/**
+	 * Connects to given number of simulated devices and runs the sequences for the given time.
+	 */
+	public void run(final int devices, final int seconds) throws InterruptedException {
+		final SimulatedBeacon.Factory factory = new SimulatedBeacon.Factory(mExecutor, mSettings);
+		for (int i = 0; i < devices; ++i) {
+			final String address = String.format(Locale.US, "00:00:00:00:%02X:%02X", (i >> 8) & 0xFF, i & 0xFF);
+			final Session session = new Session(factory.create(address));
+			mExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					session.connect();
+				}
+			});
+		}
+		Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+		mRunning = false;
+	}
+
+	public synchronized void printResults(final int seconds) {
+		System.out.println(mReads.format("read", seconds));
+		System.out.println(mWrites.format("write", seconds));
+		System.out.println(mSequences.format("sequence", seconds));
+		System.out.println("connections: " + mConnections + ", errors: " + mErrors);
+	}
+
+	private synchronized void onError(final int status) {
+		final Integer count = mErrors.get(status);
+		mErrors.put(status, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Repeats the sequence on a single device.
+	 */
+	private class Session implements ConfigClient.ConnectionListener, OperationFuture.Listener {
+		private final ConfigClient mClient;
+		private int mMinor;
+		private long mSequenceStart;
+
+		private Session(final ConfigTransport transport) {
+			mClient = new ConfigClient(new TimingTransport(transport), mScheduler);
+		}
+
+		private void connect() {
+			if (!mRunning)
+				return;
+			synchronized (ConfigBenchmark.this) {
+				mConnections++;
+			}
+			mClient.connect(this);
+		}
+
+		@Override
+		public void onConnected(final ConfigClient client) {
+			startSequence();
+		}
+
+		@Override
+		public void onDisconnected(final ConfigClient client, final int status) {
+			if (status != OperationQueue.GATT_SUCCESS)
+				onError(status);
+			connect();
+		}
+
+		private void startSequence() {
+			if (!mRunning) {
+				mClient.disconnect();
+				return;
+			}
+
+			mSequenceStart = System.nanoTime();
+			for (int field = 0; field < BeaconConfig.FIELD_COUNT; ++field)
+				mClient.enqueueRead(ConfigProtocol.getCharacteristicUuid(field));
+
+			final BeaconConfig config = new BeaconConfig().setMajorAndMinor(1, mMinor++ & 0xFFFF);
+			final UUID uuid = ConfigProtocol.getCharacteristicUuid(BeaconConfig.FIELD_MAJOR_MINOR);
+			mClient.write(uuid, ConfigProtocol.encodeField(config, BeaconConfig.FIELD_MAJOR_MINOR));
+			mClient.enqueueRead(uuid).addListener(this);
+			mClient.getOperationQueue().flush();
+		}
+
+		@Override
+		public void onCompleted(final OperationFuture future) {
+			if (future.getStatus() == OperationQueue.ERROR_CANCELLED)
+				return;
+			if (future.isSuccessful())
+				mSequences.record(System.nanoTime() - mSequenceStart);
+			startSequence();
+		}
+	}
+
+	/**
+	 * Measures the time between sending a request and receiving the response.
+	 */
+	private class TimingTransport implements ConfigTransport {
+		private final ConfigTransport mTransport;
+		private long mRequestTime;
+
+		private TimingTransport(final ConfigTransport transport) {
+			mTransport = transport;
+		}
+
+		@Override
+		public String getAddress() {
+			return mTransport.getAddress();
+		}
+
+		@Override
+		public String getFirmwareId() {
+			return mTransport.getFirmwareId();
+		}
+
+		@Override
+		public boolean connect(final Callback callback) {
+			return mTransport.connect(new Callback() {
+				@Override
+				public void onConnected() {
+					callback.onConnected();
+				}
+
+				@Override
+				public void onDisconnected(final int status) {
+					callback.onDisconnected(status);
+				}
+
+				@Override
+				public void onCharacteristicRead(final UUID characteristicUuid, final int status, final byte[] value) {
+					record(mReads, status);
+					callback.onCharacteristicRead(characteristicUuid, status, value);
+				}
+
+				@Override
+				public void onCharacteristicWrite(final UUID characteristicUuid, final int status, final byte[] value) {
+					record(mWrites, status);
+					callback.onCharacteristicWrite(characteristicUuid, status, value);
+				}
+			});
+		}
+
+		@Override
+		public void disconnect() {
+			mTransport.disconnect();
+		}
+
+		@Override
+		public void close() {
+			mTransport.close();
+		}
+
+		@Override
+		public boolean hasCharacteristic(final UUID characteristicUuid) {
+			return mTransport.hasCharacteristic(characteristicUuid);
+		}
+
+		@Override
+		public boolean read(final UUID characteristicUuid) {
+			mRequestTime = System.nanoTime();
+			return mTransport.read(characteristicUuid);
+		}
+
+		@Override
+		public boolean write(final UUID characteristicUuid, final byte[] value) {
+			mRequestTime = System.nanoTime();
+			return mTransport.write(characteristicUuid, value);
+		}
+
+		private void record(final LatencyRecorder recorder, final int status) {
+			if (status == OperationQueue.GATT_SUCCESS)
+				recorder.record(System.nanoTime() - mRequestTime);
+			else
+				onError(status);
+		}
+	}
+
+	/**
+	 * Collects latency samples, in nanoseconds.
+	 */
+	private static class LatencyRecorder {
+		private long[] mSamples = new long[1024];
+		private int mCount;
+
+		public synchronized void record(final long nanos) {
+			if (mCount == mSamples.length)
+				mSamples = Arrays.copyOf(mSamples, mCount * 2);
+			mSamples[mCount++] = nanos;
+		}
+
+		public synchronized String format(final String name, final int seconds) {
+			if (mCount == 0)
+				return name + ": no samples";
+			final long[] sorted = Arrays.copyOf(mSamples, mCount);
+			Arrays.sort(sorted);
+			return String.format(Locale.US, "%s: count: %d, %.1f ops/s, latency p50: %.2f ms, p90: %.2f ms, p99: %.2f ms, p99.9: %.2f ms, max: %.2f ms", name, mCount,
+					mCount / (double) seconds, percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 99.9), sorted[mCount - 1] / 1e6);
+		}
+
+		private static double percentile(final long[] sorted, final double percentile) {
+			final int index = Math.min(sorted.length - 1, Math.max(0, (int) Math.ceil(percentile / 100.0 * sorted.length) - 1));
+			return sorted[index] / 1e6;
+		}
+	}
+}
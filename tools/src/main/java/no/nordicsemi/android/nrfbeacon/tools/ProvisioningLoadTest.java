@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import no.nordicsemi.android.nrfbeacon.config.BeaconConfig;
+import no.nordicsemi.android.nrfbeacon.config.ExecutorScheduler;
+import no.nordicsemi.android.nrfbeacon.provisioning.ProvisioningEngine;
+import no.nordicsemi.android.nrfbeacon.provisioning.ProvisioningJob;
+import no.nordicsemi.android.nrfbeacon.provisioning.ProvisioningStats;
+import no.nordicsemi.android.nrfbeacon.sim.SimulatedBeacon;
+
+/**
+ * Provisions a number of simulated beacons with the {@link ProvisioningEngine} and prints the throughput and latency.
+ * <p>
+ * Usage: <code>ProvisioningLoadTest [jobs] [connections] [connect delay ms] [connection interval ms] [connect failure rate] [read before write] [request error rate] [disconnect rate]</code>
+ * </p>
+ * <p>
+ * The profile sets the UUID and the manufacturer ID to the values the simulated beacons already have, and a new major and minor. With read before write enabled only major and minor are written.
+ * </p>
+ */
+public class ProvisioningLoadTest {
+
+	public static void main(final String[] args) throws InterruptedException {
+		final int jobs = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		final int connections = args.length > 1 ? Integer.parseInt(args[1]) : ProvisioningEngine.DEFAULT_MAX_CONNECTIONS;
+		final long connectDelay = args.length > 2 ? Long.parseLong(args[2]) : 300;
+		final double interval = args.length > 3 ? Double.parseDouble(args[3]) : 30;
+		final double failureRate = args.length > 4 ? Double.parseDouble(args[4]) : 0.05;
+		final boolean readBeforeWrite = args.length > 5 && Boolean.parseBoolean(args[5]);
+		final double errorRate = args.length > 6 ? Double.parseDouble(args[6]) : 0;
+		final double disconnectRate = args.length > 7 ? Double.parseDouble(args[7]) : 0;
+		final SimulatedBeacon.Settings settings = new SimulatedBeacon.Settings().setConnectDelay(connectDelay).setConnectionInterval(interval).setConnectFailureRate(failureRate)
+				.setErrorRate(errorRate).setDisconnectRate(disconnectRate);
+
+		final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		final ProvisioningEngine engine = new ProvisioningEngine(new SimulatedBeacon.Factory(executor, settings), new ExecutorScheduler(executor),
+				connections);
+		engine.setReadBeforeWrite(readBeforeWrite);
+		final CountDownLatch latch = new CountDownLatch(1);
+		engine.setListener(new ProvisioningEngine.Listener() {
+			@Override
+			public void onJobFinished(final ProvisioningJob job) {
+				// do nothing
+			}
+
+			@Override
+			public void onIdle() {
+				latch.countDown();
+			}
+		});
+
+		final List<ProvisioningJob> list = new ArrayList<>(jobs);
+		for (int i = 0; i < jobs; ++i) {
+			final String address = String.format(Locale.US, "00:00:00:00:%02X:%02X", (i >> 8) & 0xFF, i & 0xFF);
+			list.add(new ProvisioningJob(address, new BeaconConfig().setUuid(SimulatedBeacon.DEFAULT_UUID).setManufacturerId(0x0059).setMajorAndMinor(1000, i & 0xFFFF)));
+		}
+		engine.submitAll(list);
+
+		if (!latch.await(10, TimeUnit.MINUTES))
+			System.out.println("Timeout");
+		executor.shutdownNow();
+
+		final ProvisioningStats stats = engine.getStats();
+		System.out.println(String.format(Locale.US, "jobs=%d connections=%d readBeforeWrite=%b %s", jobs, connections, readBeforeWrite, settings));
+		System.out.println(stats);
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import no.nordicsemi.android.nrfbeacon.ranging.MedianFilter;
+import no.nordicsemi.android.nrfbeacon.ranging.RangingPipeline;
+import no.nordicsemi.android.nrfbeacon.ranging.SignalSmoother;
+import no.nordicsemi.android.nrfbeacon.ranging.TraceReader;
+import no.nordicsemi.android.nrfbeacon.ranging.TraceReplayer;
+import no.nordicsemi.android.nrfbeacon.ranging.TraceWriter;
+import no.nordicsemi.android.nrfbeacon.rules.ProximityFilter;
+import no.nordicsemi.android.nrfbeacon.rules.RuleEngine;
+import no.nordicsemi.android.nrfbeacon.rules.RuleTable;
+
+/**
+ * Replays a ranging trace recorded by the application through the {@link RangingPipeline} and prints the throughput and the number of rules fired. Every beacon in the trace gets a
+ * rule for each event, so all transitions are counted.
+ * <p>
+ * Usage: <code>TraceReplay [trace file] [speed] [repeat]</code>, where speed 1 is real time and 0, the default, as fast as possible. The pipeline is created again for each repetition.
+ * </p>
+ * <p>
+ * <code>TraceReplay generate [trace file] [beacons] [seconds]</code> writes a synthetic trace with the beacons moving randomly, one ranging callback per second, to benchmark
+ * without a recording.
+ * </p>
+ */
+public class TraceReplay {
+
+	public static void main(final String[] args) throws IOException, InterruptedException {
+		if (args.length > 0 && "generate".equals(args[0])) {
+			final File file = new File(args.length > 1 ? args[1] : "ranging.trace");
+			final int beacons = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+			final int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 3600;
+			generate(file, beacons, seconds);
+			System.out.println(String.format(Locale.US, "Written %d callbacks with %d beacons to %s (%d bytes)", seconds, beacons, file, file.length()));
+			return;
+		}
+
+		final File file = new File(args.length > 0 ? args[0] : "ranging.trace");
+		final double speed = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+		final int repeat = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		final RuleTable table = createRules(file);
+
+		for (int i = 0; i < repeat; ++i) {
+			final int[] fired = new int[1];
+			final RuleEngine engine = new RuleEngine();
+			engine.setRuleTable(table);
+			engine.setDefaultActionHandler(new RuleEngine.ActionHandler() {
+				@Override
+				public void onRuleFired(final RuleTable table, final int rule) {
+					fired[0]++;
+				}
+			});
+			final RangingPipeline pipeline = new RangingPipeline(new SignalSmoother(new MedianFilter()), new ProximityFilter(), engine);
+			final CountingReader reader = new CountingReader(file);
+			try {
+				final long start = System.nanoTime();
+				final int records = new TraceReplayer(speed).replay(reader, pipeline);
+				final double elapsed = (System.nanoTime() - start) / 1e9;
+				System.out.println(String.format(Locale.US, "records=%d observations=%d rules=%d fired=%d time=%.3f s throughput=%.0f observations/s", records,
+						reader.mObservations, table.size(), fired[0], elapsed, reader.mObservations / elapsed));
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Creates a rule for each event of each beacon found in the trace.
+	 */
+	private static RuleTable createRules(final File file) throws IOException {
+		final Set<String> beacons = new HashSet<>();
+		final RuleTable.Builder builder = new RuleTable.Builder();
+		final TraceReader reader = new TraceReader(file);
+		try {
+			while (reader.moveToNext()) {
+				for (int i = 0; i < reader.getBeaconCount(); ++i) {
+					final UUID uuid = new UUID(reader.getMostSignificantBits(i), reader.getLeastSignificantBits(i));
+					final String key = uuid + ":" + reader.getMajor(i) + ":" + reader.getMinor(i);
+					if (beacons.add(key))
+						for (int event = RuleTable.EVENT_OUT_OF_RANGE; event <= RuleTable.EVENT_ON_TOUCH; ++event)
+							builder.addRule(beacons.size(), key, uuid, reader.getMajor(i), reader.getMinor(i), event, event, null);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return builder.build();
+	}
+
+	private static void generate(final File file, final int beacons, final int seconds) throws IOException {
+		final Random random = new Random(1);
+		final UUID uuid = UUID.fromString("01122334-4556-6778-899A-ABBCCDDEEFF0");
+		final float[] distance = new float[beacons];
+		for (int i = 0; i < beacons; ++i)
+			distance[i] = random.nextFloat() * 5;
+
+		if (file.exists() && !file.delete())
+			throw new IOException("Cannot overwrite " + file);
+		final TraceWriter writer = new TraceWriter(file);
+		try {
+			for (int second = 0; second < seconds; ++second) {
+				writer.writeBeacons(second * 1000L, uuid, -1, -1, beacons);
+				for (int i = 0; i < beacons; ++i) {
+					// A slow random walk, seen through the RSSI noise. The distance is calculated from the RSSI like in the library, for a beacon calibrated to -59 dBm at 1 meter.
+					distance[i] = Math.min(10, Math.max(0.05f, distance[i] + (random.nextFloat() - 0.5f) * 0.2f));
+					final int rssi = (int) Math.round(-59 * Math.pow(distance[i], 1 / 5.5) + random.nextGaussian() * 3);
+					final float accuracy = Math.max((float) Math.pow(rssi / -59.0, 5.5) - 0.0005f, 0.0f);
+					final int proximity = accuracy <= 0.26f ? RuleTable.PROXIMITY_IMMEDIATE : accuracy <= 2.0f ? RuleTable.PROXIMITY_NEAR : RuleTable.PROXIMITY_FAR;
+					writer.writeBeacon(uuid, i >> 16, i & 0xFFFF, rssi, accuracy, proximity);
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Counts the beacon observations read.
+	 */
+	private static class CountingReader extends TraceReader {
+		private long mObservations;
+
+		private CountingReader(final File file) throws IOException {
+			super(file);
+		}
+
+		@Override
+		public boolean moveToNext() throws IOException {
+			if (!super.moveToNext())
+				return false;
+			mObservations += getBeaconCount();
+			return true;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2015, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.nrfbeacon.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import no.nordicsemi.android.nrfbeacon.ranging.TraceReader;
+import no.nordicsemi.android.nrfbeacon.ranging.TraceWriter;
+import no.nordicsemi.android.nrfbeacon.rules.BeaconBatch;
+import no.nordicsemi.android.nrfbeacon.rules.ProximityFilter;
+import no.nordicsemi.android.nrfbeacon.rules.RuleTable;
+
+/**
+ * Replays short traces of a single beacon through the {@link ProximityFilter} and checks the reported transitions. Each transition is written as
+ * <code>time:previous-&gt;proximity</code>, with the RuleTable.PROXIMITY_* values: 1 immediate, 2 near, 3 far.
+ */
+public class ProximityFilterTest {
+	private final static UUID BEACON_UUID = UUID.fromString("01122334-4556-6778-899A-ABBCCDDEEFF0");
+
+	private ProximityFilter mFilter;
+
+	@Before
+	public void setUp() {
+		mFilter = new ProximityFilter();
+	}
+
+	@Test
+	public void hysteresisIgnoresReadingsBetweenEnterAndExitThresholds() throws IOException {
+		mFilter.setMinDwellTime(0);
+		mFilter.setCooldown(0);
+		// Near is entered below 2.0 m and left above 2.6 m
+		final List<String> transitions = replay(0, 1000, 3.0f, 1.9f, 2.3f, 2.5f, 2.1f, 2.7f, 2.3f, 2.1f);
+		assertEquals(Arrays.asList("1000:3->2", "5000:2->3"), transitions);
+		assertEquals(RuleTable.PROXIMITY_FAR, mFilter.getProximity(BEACON_UUID, 1, 2));
+	}
+
+	@Test
+	public void newZoneMustBeKeptForMinDwellTime() throws IOException {
+		mFilter.setMinDwellTime(2000);
+		mFilter.setCooldown(0);
+		// The first visit to near lasts 1 s only, the second one 2 s
+		final List<String> transitions = replay(0, 1000, 3.0f, 1.5f, 3.0f, 1.5f, 1.5f, 1.5f);
+		assertEquals(Arrays.asList("5000:3->2"), transitions);
+	}
+
+	@Test
+	public void transitionIntoSameZoneIsNotReportedDuringCooldown() throws IOException {
+		mFilter.setMinDwellTime(0);
+		mFilter.setCooldown(10000);
+		final List<String> transitions = replay(0, 1000, 3.0f, 1.5f, 3.0f, 1.5f, 3.0f);
+		assertEquals(Arrays.asList("1000:3->2", "2000:2->3"), transitions);
+		// The zone still changes during the cooldown
+		assertEquals(RuleTable.PROXIMITY_FAR, mFilter.getProximity(BEACON_UUID, 1, 2));
+
+		// The last reported transition into near was at 1000 ms
+		assertEquals(Arrays.asList("11000:3->2"), replay(11000, 1000, 1.5f));
+	}
+
+	@Test
+	public void approachingQuicklyMovesOneZoneAtATime() throws IOException {
+		mFilter.setMinDwellTime(1000);
+		final List<String> transitions = replay(0, 1000, 5.0f, 0.1f, 0.1f, 0.1f);
+		assertEquals(Arrays.asList("2000:3->2", "3000:2->1"), transitions);
+	}
+
+	@Test
+	public void unknownDistanceKeepsZone() throws IOException {
+		mFilter.setMinDwellTime(2000);
+		final List<String> transitions = replay(0, 1000, 3.0f, 1.5f, -1.0f, 1.5f, -1.0f);
+		assertEquals(Arrays.asList("3000:3->2"), transitions);
+	}
+
+	/**
+	 * Writes a trace with one ranging record of the beacon per reading, replays it through the filter and returns the reported transitions.
+	 * 
+	 * @param start
+	 *            the time of the first reading in milliseconds
+	 * @param interval
+	 *            the time between readings in milliseconds
+	 * @param accuracies
+	 *            the distances in meters
+	 */
+	private List<String> replay(final long start, final long interval, final float... accuracies) throws IOException {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final TraceWriter writer = new TraceWriter(output);
+		try {
+			for (int i = 0; i < accuracies.length; ++i) {
+				writer.writeBeacons(start + i * interval, BEACON_UUID, -1, -1, 1);
+				writer.writeBeacon(BEACON_UUID, 1, 2, -59, accuracies[i], RuleTable.PROXIMITY_UNKNOWN);
+			}
+		} finally {
+			writer.close();
+		}
+
+		final List<String> transitions = new ArrayList<>();
+		final BeaconBatch batch = new BeaconBatch();
+		final TraceReader reader = new TraceReader(new ByteArrayInputStream(output.toByteArray()));
+		try {
+			while (reader.moveToNext()) {
+				batch.clear();
+				for (int i = 0; i < reader.getBeaconCount(); ++i)
+					mFilter.add(batch, reader.getMostSignificantBits(i), reader.getLeastSignificantBits(i), reader.getMajor(i), reader.getMinor(i), reader.getAccuracy(i),
+							reader.getTime());
+				for (int i = 0; i < batch.size(); ++i)
+					if (batch.getPreviousProximity(i) != batch.getProximity(i))
+						transitions.add(reader.getTime() + ":" + batch.getPreviousProximity(i) + "->" + batch.getProximity(i));
+			}
+		} finally {
+			reader.close();
+		}
+		return transitions;
+	}
+}